@@ -1,7 +1,9 @@
 package com.hfims.xcan.gateway.tcp.demo.config;
 
+import com.hfims.xcan.gateway.tcp.demo.service.DeviceQueueFullException;
 import com.hfims.xcan.gateway.tcp.demo.support.BaseResult;
 import com.hfims.xcan.gateway.tcp.demo.support.ResultWrapper;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -10,6 +12,9 @@ import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @RestControllerAdvice
 public class GlobalExceptionHandler {
 
@@ -47,6 +52,19 @@ public class GlobalExceptionHandler {
                 .body(ResultWrapper.wrapFailure("400", "Invalid argument: " + ex.getMessage()));
     }
 
+    @ExceptionHandler(DeviceQueueFullException.class)
+    public ResponseEntity<BaseResult> handleDeviceQueueFull(DeviceQueueFullException ex) {
+        System.err.println("⛔ Device queue full: " + ex.getMessage());
+        Map<String, Object> data = new HashMap<>();
+        data.put("deviceKey", ex.getDeviceKey());
+        data.put("queueDepth", ex.getQueueDepth());
+        data.put("retryAfterSeconds", ex.getRetryAfterSeconds());
+        return ResponseEntity
+                .status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(ResultWrapper.wrapFailure("429", ex.getMessage(), data));
+    }
+
     @ExceptionHandler(Exception.class)
     public ResponseEntity<BaseResult> handleGenericException(Exception ex) {
         System.err.println("❌ Unexpected Error: " + ex.getClass().getName() + " - " + ex.getMessage());
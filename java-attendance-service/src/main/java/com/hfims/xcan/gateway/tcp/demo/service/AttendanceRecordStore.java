@@ -0,0 +1,302 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local copy of each device's attendance record log, filled incrementally by
+ * {@link AttendanceSyncService} so record queries never re-read the whole log from the device.
+ * Alongside the records it keeps the device's sync cursor: the createTime and ID of the newest
+ * record pulled, from which the next pull starts. Records already held are recognised by ID and
+ * skipped. Records and cursor are written together to one file per device under device.state-dir,
+ * so after a restart pulling resumes where it stopped. For devices that ignore startTime the
+ * cursor is instead a read offset: how far into the device's log pulling has got. Records older than
+ * device.attendance-sync.retention-days are dropped; the cursor never moves back.
+ */
+@Service
+public class AttendanceRecordStore {
+
+    private static final Logger log = LoggerFactory.getLogger(AttendanceRecordStore.class);
+
+    static final String FILE_PREFIX = "attendance-";
+
+    // Keys a record may keep its ID and its time under
+    private static final String[] ID_KEYS = {"id", "recordId", "Id"};
+    private static final String[] TIME_KEYS = {"createTime", "time", "recordTime", "Time", "RecordTime"};
+    private static final String[] EMPLOYEE_KEYS = {"sn", "personSn", "employeeId", "Sn", "PersonSn"};
+
+    @Value("${device.state-dir:./device-state}")
+    private String stateDir;
+
+    @Value("${device.attendance-sync.flush-delay-ms:5000}")
+    private long flushDelayMs;
+
+    @Value("${device.attendance-sync.retention-days:35}")
+    private int retentionDays;
+
+    private final Map<String, DeviceLog> logs = new ConcurrentHashMap<>();
+
+    /**
+     * What is written to a device's file
+     */
+    public static class StoredLog {
+        private Long cursorTime;
+        private String cursorRecordId;
+        private Integer readOffset;
+        private List<Map<String, Object>> records = new ArrayList<>();
+
+        public Long getCursorTime() { return cursorTime; }
+        public void setCursorTime(Long cursorTime) { this.cursorTime = cursorTime; }
+
+        public String getCursorRecordId() { return cursorRecordId; }
+        public void setCursorRecordId(String cursorRecordId) { this.cursorRecordId = cursorRecordId; }
+
+        public Integer getReadOffset() { return readOffset; }
+        public void setReadOffset(Integer readOffset) { this.readOffset = readOffset; }
+
+        public List<Map<String, Object>> getRecords() { return records; }
+        public void setRecords(List<Map<String, Object>> records) { this.records = records; }
+    }
+
+    private static class DeviceLog {
+        // Raw device records ordered by time; guarded by the log's monitor
+        final List<Map<String, Object>> records = new ArrayList<>();
+        final Set<String> keys = new HashSet<>();
+        StateFile<StoredLog> stateFile;
+        // createTime as the device reports it, passed back as recordFindList's startTime
+        Long cursorTime;
+        String cursorRecordId;
+        // Position in the device's log reached so far; only set for devices that ignore startTime
+        Integer readOffset;
+    }
+
+    /**
+     * createTime of the newest record pulled from the device, or null before the first pull
+     */
+    public Long getCursorTime(String deviceKey) {
+        DeviceLog deviceLog = log(deviceKey);
+        synchronized (deviceLog) {
+            return deviceLog.cursorTime;
+        }
+    }
+
+    /**
+     * How many records into the device's log pulling has got, or null when the device honours
+     * startTime (and pulls start from the cursor time instead)
+     */
+    public Integer getReadOffset(String deviceKey) {
+        DeviceLog deviceLog = log(deviceKey);
+        synchronized (deviceLog) {
+            return deviceLog.readOffset;
+        }
+    }
+
+    public void setReadOffset(String deviceKey, int readOffset) {
+        DeviceLog deviceLog = log(deviceKey);
+        synchronized (deviceLog) {
+            if (deviceLog.readOffset == null || deviceLog.readOffset != readOffset) {
+                deviceLog.readOffset = readOffset;
+                deviceLog.stateFile.changed();
+            }
+        }
+    }
+
+    /**
+     * Add records pulled from the device, skipping those already held, and advance the cursor.
+     *
+     * @return how many records were new
+     */
+    public int add(String deviceKey, List<Map<String, Object>> pulled) {
+        DeviceLog deviceLog = log(deviceKey);
+        int added = 0;
+        synchronized (deviceLog) {
+            boolean outOfOrder = false;
+            for (Map<String, Object> record : pulled) {
+                if (!deviceLog.keys.add(recordKey(record))) {
+                    continue;
+                }
+                Long time = recordTime(record);
+                if (!deviceLog.records.isEmpty() && sortTime(time) < sortTime(recordTime(deviceLog.records.get(deviceLog.records.size() - 1)))) {
+                    outOfOrder = true;
+                }
+                deviceLog.records.add(record);
+                if (time != null && (deviceLog.cursorTime == null || time >= deviceLog.cursorTime)) {
+                    deviceLog.cursorTime = time;
+                    deviceLog.cursorRecordId = recordKey(record);
+                }
+                added++;
+            }
+            if (outOfOrder) {
+                deviceLog.records.sort(Comparator.comparingLong(r -> sortTime(recordTime(r))));
+            }
+            if (added > 0) {
+                prune(deviceLog);
+                deviceLog.stateFile.changed();
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Records of one device, optionally for one employee and within [fromMillis, toMillis]
+     */
+    public List<Map<String, Object>> query(String deviceKey, String employeeId, Long fromMillis, Long toMillis) {
+        DeviceLog deviceLog = log(deviceKey);
+        List<Map<String, Object>> result = new ArrayList<>();
+        synchronized (deviceLog) {
+            for (Map<String, Object> record : deviceLog.records) {
+                if (employeeId != null && !employeeId.equals(recordEmployee(record))) {
+                    continue;
+                }
+                if (fromMillis != null || toMillis != null) {
+                    Long time = recordTime(record);
+                    if (time == null) {
+                        continue;
+                    }
+                    long millis = toMillis(time);
+                    if ((fromMillis != null && millis < fromMillis) || (toMillis != null && millis > toMillis)) {
+                        continue;
+                    }
+                }
+                result.add(record);
+            }
+        }
+        return result;
+    }
+
+    public Map<String, Object> getStatus(String deviceKey) {
+        DeviceLog deviceLog = log(deviceKey);
+        Map<String, Object> status = new HashMap<>();
+        synchronized (deviceLog) {
+            status.put("storedRecords", deviceLog.records.size());
+            status.put("cursorTime", deviceLog.cursorTime);
+            status.put("cursorRecordId", deviceLog.cursorRecordId);
+            status.put("readOffset", deviceLog.readOffset);
+        }
+        return status;
+    }
+
+    /**
+     * Record ID, or employee and time for records without one
+     */
+    static String recordKey(Map<String, Object> record) {
+        for (String key : ID_KEYS) {
+            if (record.get(key) != null) {
+                return String.valueOf(record.get(key));
+            }
+        }
+        return record.get("sn") + "@" + recordTime(record);
+    }
+
+    private static String recordEmployee(Map<String, Object> record) {
+        for (String key : EMPLOYEE_KEYS) {
+            if (record.get(key) != null) {
+                return String.valueOf(record.get(key));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The record's createTime as the device sent it, or null when it has none
+     */
+    static Long recordTime(Map<String, Object> record) {
+        for (String key : TIME_KEYS) {
+            Object value = record.get(key);
+            if (value instanceof Number) {
+                return ((Number) value).longValue();
+            }
+            if (value != null) {
+                try {
+                    return Long.parseLong(String.valueOf(value).trim());
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Device timestamps are epoch milliseconds, or seconds on some firmware
+     */
+    static long toMillis(long time) {
+        return time > 1000000000000L ? time : time * 1000;
+    }
+
+    private static long sortTime(Long time) {
+        return time != null ? toMillis(time) : Long.MIN_VALUE;
+    }
+
+    private void prune(DeviceLog deviceLog) {
+        if (retentionDays <= 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays);
+        for (Iterator<Map<String, Object>> it = deviceLog.records.iterator(); it.hasNext(); ) {
+            Map<String, Object> record = it.next();
+            Long time = recordTime(record);
+            if (time == null || toMillis(time) >= cutoff) {
+                break; // ordered by time
+            }
+            it.remove();
+            deviceLog.keys.remove(recordKey(record));
+        }
+    }
+
+    /**
+     * The device's log, read from its file on first use
+     */
+    private DeviceLog log(String deviceKey) {
+        return logs.computeIfAbsent(deviceKey, k -> {
+            DeviceLog deviceLog = new DeviceLog();
+            deviceLog.stateFile = new StateFile<>(stateDir, FILE_PREFIX + k.replaceAll("[^A-Za-z0-9._-]", "_") + ".json",
+                    new TypeReference<StoredLog>() { }, flushDelayMs, "XO5-Attendance-Store", () -> snapshot(deviceLog));
+            // A missing or damaged file only means the device's log is pulled again
+            StoredLog stored = deviceLog.stateFile.read();
+            if (stored != null && stored.getRecords() != null) {
+                for (Map<String, Object> record : stored.getRecords()) {
+                    if (deviceLog.keys.add(recordKey(record))) {
+                        deviceLog.records.add(record);
+                    }
+                }
+                deviceLog.cursorTime = stored.getCursorTime();
+                deviceLog.cursorRecordId = stored.getCursorRecordId();
+                deviceLog.readOffset = stored.getReadOffset();
+                log.info("Loaded attendance log of {}: {} record(s), cursor at {}", k, deviceLog.records.size(), deviceLog.cursorTime);
+            }
+            return deviceLog;
+        });
+    }
+
+    private StoredLog snapshot(DeviceLog deviceLog) {
+        StoredLog stored = new StoredLog();
+        synchronized (deviceLog) {
+            stored.setCursorTime(deviceLog.cursorTime);
+            stored.setCursorRecordId(deviceLog.cursorRecordId);
+            stored.setReadOffset(deviceLog.readOffset);
+            stored.setRecords(new ArrayList<>(deviceLog.records));
+        }
+        return stored;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        logs.values().forEach(deviceLog -> deviceLog.stateFile.close());
+    }
+}
@@ -0,0 +1,384 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import com.hfims.xcan.gateway.netty.client.dto.HostInfoDto;
+import com.hfims.xcan.gateway.netty.client.resp.HfDeviceResp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link AttendanceRecordStore} up to date with each device's record log.
+ * A pull asks recordFindList only for records from the device's cursor on (startTime, ascending
+ * order) and pages through them until a short page, so its cost follows the number of new
+ * records rather than the age of the log. Devices are pulled on demand when their records are
+ * queried and the last pull is older than device.attendance-sync.max-staleness-ms, and in the
+ * background every device.attendance-sync.interval-ms until they go unqueried for
+ * device.attendance-sync.idle-evict-ms. A device that ignores startTime is read from the offset
+ * its previous pulls reached instead, still at most max-pages-per-pull pages per pull. After a
+ * failed pull the device is not tried again, by queries or the background, until a backoff
+ * (doubling from max-staleness-ms up to device.attendance-sync.error-backoff-max-ms) has passed.
+ * A device's first pull starts retention-days back rather than at the oldest record, and until
+ * a pull ends on a short page the device is reported as catching up.
+ */
+@Service
+public class AttendanceSyncService {
+
+    private static final Logger log = LoggerFactory.getLogger(AttendanceSyncService.class);
+
+    // Keys a recordFindList response may keep its record list under
+    private static final String[] LIST_KEYS = {"data", "list", "records", "recordList"};
+
+    @Value("${device.attendance-sync.enabled:true}")
+    private boolean enabled;
+
+    @Value("${device.attendance-sync.interval-ms:60000}")
+    private long intervalMs;
+
+    // A query pulls first when the last pull is older than this
+    @Value("${device.attendance-sync.max-staleness-ms:15000}")
+    private long maxStalenessMs;
+
+    @Value("${device.attendance-sync.page-size:100}")
+    private int pageSize;
+
+    // Bounds one pull; a longer backlog is caught up over the following rounds
+    @Value("${device.attendance-sync.max-pages-per-pull:50}")
+    private int maxPagesPerPull;
+
+    // page: index is the page number (from 1); offset: index is the position of the first record
+    @Value("${device.attendance-sync.index-mode:page}")
+    private String indexMode;
+
+    @Value("${device.attendance-sync.idle-evict-ms:3600000}")
+    private long idleEvictMs;
+
+    @Value("${device.attendance-sync.error-backoff-max-ms:300000}")
+    private long errorBackoffMaxMs;
+
+    // Older records would be pruned by the store straight away, so the first pull starts here
+    @Value("${device.attendance-sync.retention-days:35}")
+    private int retentionDays;
+
+    // Unit of the device's createTime (millis or seconds), for the first pull's startTime
+    @Value("${device.attendance-sync.time-unit:millis}")
+    private String timeUnit;
+
+    @Autowired
+    private DeviceGateway deviceGateway;
+
+    @Autowired
+    private RequestBuilderService requestBuilderService;
+
+    @Autowired
+    private AttendanceRecordStore attendanceRecordStore;
+
+    private final Map<String, Device> devices = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService puller = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "XO5-Attendance-Sync");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static class Device {
+        final Object pullLock = new Object();
+        volatile HostInfoDto hostInfo;
+        volatile String secret;
+        volatile long lastUsedAt;
+        volatile long lastPullAt;
+        volatile long lastAttemptAt;
+        volatile int consecutiveFailures;
+        // No pull before this time after a failure
+        volatile long retryAt;
+        volatile int lastPulled;
+        volatile int lastAdded;
+        volatile int lastPages;
+        volatile String lastError;
+        // Set once the device is seen returning records older than the requested startTime;
+        // remembered across restarts by the store keeping a read offset for the device
+        volatile boolean ignoresStartTime;
+        // Set once a pull reaches the end of the device's log; until then the store is partial
+        volatile boolean caughtUp;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            log.info("Attendance sync disabled, record queries read the device's whole log");
+            return;
+        }
+        long interval = Math.max(1000, intervalMs);
+        puller.scheduleWithFixedDelay(this::pullAll, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("Attendance sync started (pull every {}ms, {} records per page)", interval, getPageSize());
+    }
+
+    /**
+     * Whether record queries can be served from the store: enabled and the SDK has recordFindList
+     */
+    public boolean isAvailable() {
+        return enabled && deviceGateway.isAvailable(DeviceGateway.Operation.RECORD_FIND_LIST);
+    }
+
+    /**
+     * The device's records from the store, optionally for one employee and within
+     * [fromMillis, toMillis]. Pulls new records first when the store is stale and the device is
+     * not backing off after a failure; if that pull fails, or is backed off, what the store
+     * already holds is returned, unless the device was never pulled.
+     */
+    public List<Map<String, Object>> records(HostInfoDto hostInfo, String deviceKey, String secret,
+                                             String employeeId, Long fromMillis, Long toMillis) throws Exception {
+        Device device = device(hostInfo, deviceKey, secret);
+        long now = System.currentTimeMillis();
+        if (now - device.lastPullAt > maxStalenessMs) {
+            boolean neverPulled = device.lastPullAt == 0 && attendanceRecordStore.getCursorTime(deviceKey) == null;
+            if (now < device.retryAt) {
+                if (neverPulled) {
+                    throw new IllegalStateException("Attendance pull failed (" + device.lastError + "), retrying in "
+                            + (device.retryAt - now) / 1000 + "s");
+                }
+            } else {
+                try {
+                    pull(deviceKey, device);
+                } catch (Exception e) {
+                    if (neverPulled) {
+                        throw e;
+                    }
+                    log.warn("Attendance pull for {} failed, serving stored records: {}", deviceKey, e.getMessage());
+                }
+            }
+        }
+        return attendanceRecordStore.query(deviceKey, employeeId, fromMillis, toMillis);
+    }
+
+    /**
+     * Sync state of one device: cursor, stored records and the last pull
+     */
+    public Map<String, Object> getStatus(String deviceKey) {
+        Map<String, Object> status = attendanceRecordStore.getStatus(deviceKey);
+        Device device = devices.get(deviceKey);
+        if (device != null) {
+            status.put("lastPullAt", device.lastPullAt > 0 ? device.lastPullAt : null);
+            status.put("lastAttemptAt", device.lastAttemptAt > 0 ? device.lastAttemptAt : null);
+            status.put("consecutiveFailures", device.consecutiveFailures);
+            status.put("retryAt", device.retryAt > 0 ? device.retryAt : null);
+            status.put("lastPulled", device.lastPulled);
+            status.put("lastAdded", device.lastAdded);
+            status.put("lastPages", device.lastPages);
+            status.put("lastError", device.lastError);
+            status.put("ignoresStartTime", device.ignoresStartTime);
+            status.put("catchingUp", !device.caughtUp);
+        }
+        return status;
+    }
+
+    /**
+     * Whether the store still lacks part of the device's log: no pull has reached its end yet
+     */
+    public boolean isCatchingUp(String deviceKey) {
+        Device device = devices.get(deviceKey);
+        return device == null || !device.caughtUp;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        Map<String, Object> perDevice = new HashMap<>();
+        devices.keySet().forEach(deviceKey -> perDevice.put(deviceKey, getStatus(deviceKey)));
+        stats.put("enabled", enabled);
+        stats.put("intervalMs", intervalMs);
+        stats.put("pageSize", getPageSize());
+        stats.put("devices", perDevice);
+        return stats;
+    }
+
+    private int getPageSize() {
+        return Math.max(1, pageSize);
+    }
+
+    private Device device(HostInfoDto hostInfo, String deviceKey, String secret) {
+        Device device = devices.computeIfAbsent(deviceKey, k -> {
+            Device created = new Device();
+            created.ignoresStartTime = attendanceRecordStore.getReadOffset(k) != null;
+            return created;
+        });
+        device.hostInfo = hostInfo;
+        device.secret = secret;
+        device.lastUsedAt = System.currentTimeMillis();
+        return device;
+    }
+
+    /**
+     * Read the records after the device's cursor (or, for a device that ignores startTime,
+     * after its read offset) into the store
+     *
+     * @return how many records were new
+     */
+    private int pull(String deviceKey, Device device) throws Exception {
+        synchronized (device.pullLock) {
+            if (System.currentTimeMillis() - device.lastPullAt <= Math.min(maxStalenessMs, intervalMs) / 2) {
+                return 0; // another caller just pulled
+            }
+            long startTime = System.currentTimeMillis();
+            device.lastAttemptAt = startTime;
+            int size = getPageSize();
+            boolean pageNumbers = !"offset".equalsIgnoreCase(indexMode);
+            Long since = attendanceRecordStore.getCursorTime(deviceKey);
+            if (since == null && retentionDays > 0) {
+                since = firstPullStartTime();
+            }
+            // Without a working startTime, resume from where the previous pulls got to in the log;
+            // in page mode that is the page holding the offset, whose records already held are skipped
+            Integer readOffset = device.ignoresStartTime ? attendanceRecordStore.getReadOffset(deviceKey) : null;
+            int offset = readOffset != null ? readOffset : 0;
+            int index = pageNumbers ? offset / size + 1 : offset;
+            // Position in the device's log of the current page's first record
+            int position = pageNumbers ? (index - 1) * size : offset;
+            int pulled = 0;
+            int added = 0;
+            int pages = 0;
+            String previousFirstKey = null;
+            boolean reachedEnd = false;
+            try {
+                while (pages < Math.max(1, maxPagesPerPull)) {
+                    Object request = requestBuilderService.buildRecordFindListReq(since, index, size);
+                    HfDeviceResp response = deviceGateway.recordFindList(device.hostInfo, deviceKey, device.secret, request);
+                    if (response == null) {
+                        throw new IllegalStateException("No response from device");
+                    }
+                    if (!"000".equals(response.getCode())) {
+                        throw new IllegalStateException("recordFindList failed: " + response.getCode() + " - " + response.getMsg());
+                    }
+                    pages++;
+                    List<Map<String, Object>> records = parseRecords(response.getData());
+                    if (records.isEmpty()) {
+                        if (device.ignoresStartTime && position > 0 && pages == 1) {
+                            // Nothing at the offset: the device's log was cleared, read it from the start next time
+                            log.warn("Device {} has no records at offset {}, its log was cleared; restarting from the beginning", deviceKey, position);
+                            attendanceRecordStore.setReadOffset(deviceKey, 0);
+                        }
+                        reachedEnd = true;
+                        break;
+                    }
+                    String firstKey = AttendanceRecordStore.recordKey(records.get(0));
+                    if (firstKey.equals(previousFirstKey)) {
+                        // The device ignored the index and sent the same page again
+                        log.warn("Device {} returned the same record page for index {}, stopping", deviceKey, index);
+                        reachedEnd = true;
+                        break;
+                    }
+                    previousFirstKey = firstKey;
+                    if (since != null && !device.ignoresStartTime) {
+                        Long firstTime = AttendanceRecordStore.recordTime(records.get(0));
+                        if (firstTime != null && firstTime < since) {
+                            device.ignoresStartTime = true;
+                            log.warn("Device {} ignores recordFindList startTime; pulls will follow a read offset instead", deviceKey);
+                        }
+                    }
+                    pulled += records.size();
+                    int pageAdded = attendanceRecordStore.add(deviceKey, records);
+                    added += pageAdded;
+                    position += records.size();
+                    if (device.ignoresStartTime) {
+                        attendanceRecordStore.setReadOffset(deviceKey, position);
+                    }
+                    if (records.size() < size || (pageAdded == 0 && since != null && !device.ignoresStartTime)) {
+                        reachedEnd = true;
+                        break; // a full page of records already held only repeats the cursor's own time
+                    }
+                    index += pageNumbers ? 1 : records.size();
+                }
+                device.caughtUp = reachedEnd;
+                device.lastError = null;
+                device.consecutiveFailures = 0;
+                device.retryAt = 0;
+            } catch (Exception e) {
+                device.lastError = e.getMessage();
+                int failures = ++device.consecutiveFailures;
+                long backoff = Math.min(Math.max(1000, errorBackoffMaxMs),
+                        Math.max(1000, maxStalenessMs) << Math.min(failures - 1, 16));
+                device.retryAt = System.currentTimeMillis() + backoff;
+                throw e;
+            } finally {
+                device.lastPulled = pulled;
+                device.lastAdded = added;
+                device.lastPages = pages;
+            }
+            device.lastPullAt = System.currentTimeMillis();
+            log.debug("Attendance pull for {}: {} record(s) in {} page(s), {} new, {}ms",
+                    deviceKey, pulled, pages, added, device.lastPullAt - startTime);
+            if (added > 0) {
+                log.info("Pulled {} new attendance record(s) from {}", added, deviceKey);
+            }
+            return added;
+        }
+    }
+
+    /**
+     * retention-days before now, in the device's time unit
+     */
+    private long firstPullStartTime() {
+        long millis = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays);
+        return "seconds".equalsIgnoreCase(timeUnit) ? millis / 1000 : millis;
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Map<String, Object>> parseRecords(Object data) {
+        List<Map<String, Object>> records = new ArrayList<>();
+        Object list = data;
+        if (data instanceof Map) {
+            Map<String, Object> map = (Map<String, Object>) data;
+            list = null;
+            for (String key : LIST_KEYS) {
+                if (map.get(key) instanceof List) {
+                    list = map.get(key);
+                    break;
+                }
+            }
+        }
+        if (list instanceof List) {
+            for (Object item : (List<Object>) list) {
+                if (item instanceof Map) {
+                    records.add((Map<String, Object>) item);
+                }
+            }
+        }
+        return records;
+    }
+
+    void pullAll() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Device> e : devices.entrySet()) {
+            Device device = e.getValue();
+            if (now - device.lastUsedAt > idleEvictMs) {
+                devices.remove(e.getKey(), device);
+                continue;
+            }
+            if (now < device.retryAt) {
+                continue; // backing off after a failed pull
+            }
+            try {
+                pull(e.getKey(), device);
+            } catch (Exception ex) {
+                // Queries keep getting the stored records; the next round tries again
+                log.warn("Background attendance pull failed for {}: {}", e.getKey(), ex.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        puller.shutdownNow();
+    }
+}
@@ -0,0 +1,198 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import com.hfims.xcan.gateway.netty.client.HfDeviceClient;
+import com.hfims.xcan.gateway.netty.client.dto.HostInfoDto;
+import com.hfims.xcan.gateway.netty.client.resp.HfDeviceResp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Typed entry point for XO5 SDK operations.
+ * The request classes and HfDeviceClient methods differ between SDK builds, so every
+ * operation is resolved once at startup into a cached MethodHandle instead of
+ * Class.forName/getMethod on each request. Operations missing from the SDK on the
+ * classpath are reported as unavailable, and fallback chains (e.g. person listing)
+ * are decided here once.
+ */
+@Component
+public class DeviceGateway {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceGateway.class);
+
+    private static final String REQ_PACKAGE = "com.hfims.xcan.gateway.netty.client.req.";
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(
+            HfDeviceResp.class, HostInfoDto.class, String.class, String.class, Object.class);
+
+    /**
+     * SDK operations taking (HostInfoDto, deviceKey, secret, request)
+     */
+    public enum Operation {
+        PERSON_CREATE("personCreate", "PersonCreateReq"),
+        PERSON_MERGE("personMerge", "PersonCreateReq"),
+        PERSON_DELETE("personDelete", "PersonDeleteReq"),
+        PERSON_FIND("personFind", "PersonFindReq"),
+        PERSON_FIND_LIST("personFindList", "PersonFindListReq"),
+        PERSON_QUERY("personQuery", "PersonQueryReq"),
+        FACE_MERGE("faceMerge", "FaceMergeReq"),
+        FACE_DELETE("faceDelete", "FaceDeleteReq"),
+        FACE_FIND("faceFind", "FaceFindReq"),
+        RECORD_FIND_LIST("recordFindList", "RecordFindListReq"),
+        RECORD_FIND("recordFind", "RecordFindReq");
+
+        private final String methodName;
+        private final String requestClassName;
+
+        Operation(String methodName, String requestClassName) {
+            this.methodName = methodName;
+            this.requestClassName = requestClassName;
+        }
+
+        public String getMethodName() { return methodName; }
+    }
+
+    private final Map<Operation, MethodHandle> handles = new EnumMap<>(Operation.class);
+    private final Map<Operation, Class<?>> requestClasses = new EnumMap<>(Operation.class);
+
+    // Operation used to read the person roster, or null when the SDK has neither list nor find
+    private Operation personListOperation;
+
+    @PostConstruct
+    public void resolveOperations() {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        for (Operation operation : Operation.values()) {
+            try {
+                Class<?> requestClass = Class.forName(REQ_PACKAGE + operation.requestClassName);
+                Method method = HfDeviceClient.class.getMethod(operation.methodName,
+                        HostInfoDto.class, String.class, String.class, requestClass);
+                handles.put(operation, lookup.unreflect(method).asType(INVOKER_TYPE));
+                requestClasses.put(operation, requestClass);
+            } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+                log.info("SDK operation {} not available: {}", operation.methodName, e.toString());
+            }
+        }
+
+        if (isAvailable(Operation.PERSON_FIND_LIST)) {
+            personListOperation = Operation.PERSON_FIND_LIST;
+        } else if (isAvailable(Operation.PERSON_FIND)) {
+            personListOperation = Operation.PERSON_FIND;
+        }
+        log.info("Device gateway resolved {}/{} SDK operations (person listing via {})",
+                handles.size(), Operation.values().length,
+                personListOperation != null ? personListOperation.methodName : "none");
+    }
+
+    public boolean isAvailable(Operation operation) {
+        return handles.containsKey(operation);
+    }
+
+    /**
+     * Request class for an operation, or null when the operation is not available
+     */
+    public Class<?> getRequestClass(Operation operation) {
+        return requestClasses.get(operation);
+    }
+
+    /**
+     * New empty request object for an operation
+     */
+    public Object newRequest(Operation operation) throws Exception {
+        Class<?> requestClass = requestClasses.get(operation);
+        if (requestClass == null) {
+            throw unavailable(operation);
+        }
+        return requestClass.getDeclaredConstructor().newInstance();
+    }
+
+    /**
+     * Operation used to read the person roster: personFindList, else personFind, else null
+     */
+    public Operation getPersonListOperation() {
+        return personListOperation;
+    }
+
+    public Map<String, Boolean> getAvailability() {
+        Map<String, Boolean> availability = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            availability.put(operation.methodName, isAvailable(operation));
+        }
+        return availability;
+    }
+
+    public HfDeviceResp invoke(Operation operation, HostInfoDto hostInfo, String deviceKey, String secret,
+                               Object request) throws Exception {
+        MethodHandle handle = handles.get(operation);
+        if (handle == null) {
+            throw unavailable(operation);
+        }
+        try {
+            return (HfDeviceResp) handle.invokeExact(hostInfo, deviceKey, secret, request);
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new Exception(operation.methodName + " failed: " + t.getMessage(), t);
+        }
+    }
+
+    public HfDeviceResp test(HostInfoDto hostInfo, String deviceKey, String secret) {
+        return HfDeviceClient.test(hostInfo, deviceKey, secret);
+    }
+
+    public HfDeviceResp personCreate(HostInfoDto hostInfo, String deviceKey, String secret, Object request) throws Exception {
+        return invoke(Operation.PERSON_CREATE, hostInfo, deviceKey, secret, request);
+    }
+
+    public HfDeviceResp personMerge(HostInfoDto hostInfo, String deviceKey, String secret, Object request) throws Exception {
+        return invoke(Operation.PERSON_MERGE, hostInfo, deviceKey, secret, request);
+    }
+
+    public HfDeviceResp personDelete(HostInfoDto hostInfo, String deviceKey, String secret, Object request) throws Exception {
+        return invoke(Operation.PERSON_DELETE, hostInfo, deviceKey, secret, request);
+    }
+
+    public HfDeviceResp personFind(HostInfoDto hostInfo, String deviceKey, String secret, Object request) throws Exception {
+        return invoke(Operation.PERSON_FIND, hostInfo, deviceKey, secret, request);
+    }
+
+    public HfDeviceResp personFindList(HostInfoDto hostInfo, String deviceKey, String secret, Object request) throws Exception {
+        return invoke(Operation.PERSON_FIND_LIST, hostInfo, deviceKey, secret, request);
+    }
+
+    public HfDeviceResp personQuery(HostInfoDto hostInfo, String deviceKey, String secret, Object request) throws Exception {
+        return invoke(Operation.PERSON_QUERY, hostInfo, deviceKey, secret, request);
+    }
+
+    public HfDeviceResp faceMerge(HostInfoDto hostInfo, String deviceKey, String secret, Object request) throws Exception {
+        return invoke(Operation.FACE_MERGE, hostInfo, deviceKey, secret, request);
+    }
+
+    public HfDeviceResp faceDelete(HostInfoDto hostInfo, String deviceKey, String secret, Object request) throws Exception {
+        return invoke(Operation.FACE_DELETE, hostInfo, deviceKey, secret, request);
+    }
+
+    public HfDeviceResp faceFind(HostInfoDto hostInfo, String deviceKey, String secret, Object request) throws Exception {
+        return invoke(Operation.FACE_FIND, hostInfo, deviceKey, secret, request);
+    }
+
+    public HfDeviceResp recordFindList(HostInfoDto hostInfo, String deviceKey, String secret, Object request) throws Exception {
+        return invoke(Operation.RECORD_FIND_LIST, hostInfo, deviceKey, secret, request);
+    }
+
+    public HfDeviceResp recordFind(HostInfoDto hostInfo, String deviceKey, String secret, Object request) throws Exception {
+        return invoke(Operation.RECORD_FIND, hostInfo, deviceKey, secret, request);
+    }
+
+    private static UnsupportedOperationException unavailable(Operation operation) {
+        return new UnsupportedOperationException(operation.methodName + " is not available in this SDK version");
+    }
+}
@@ -0,0 +1,200 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serial command lane for a single XO5 device.
+ * Every task submitted to a lane runs on one dedicated thread, so the device
+ * always sees strictly sequential commands while other devices proceed in parallel.
+ * Admission is bounded by enrollments rather than tasks: a submission is rejected, with a
+ * retry hint derived from the measured per-enrollment service time, when it would take the
+ * lane past maxQueueDepth enrollments. A single task larger than the bound (a big batch) is
+ * still admitted when nothing else is pending, so it is never refused outright.
+ */
+public class DeviceLane {
+
+    // Weight of the newest sample in the service time moving average
+    private static final double SERVICE_TIME_ALPHA = 0.2;
+
+    private final String deviceKey;
+    private final int maxQueueDepth;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicInteger queuedRequests = new AtomicInteger(0);
+    private final AtomicInteger processedRequests = new AtomicInteger(0);
+    private final AtomicInteger failedRequests = new AtomicInteger(0);
+
+    private final AtomicInteger rejectedRequests = new AtomicInteger(0);
+    // Enrollments waiting or running; a batch task counts once per employee
+    private final AtomicInteger pendingUnits = new AtomicInteger(0);
+
+    private final long createdAt = System.currentTimeMillis();
+    private volatile long lastActivityAt = System.currentTimeMillis();
+    private volatile double avgServiceTimeMs;
+
+    DeviceLane(String deviceKey, int maxQueueDepth, long initialServiceTimeMs) {
+        this.deviceKey = deviceKey;
+        this.maxQueueDepth = maxQueueDepth;
+        this.avgServiceTimeMs = initialServiceTimeMs;
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(maxQueueDepth),
+                r -> {
+                    Thread t = new Thread(r, "XO5-Device-Queue-" + shortKey(deviceKey));
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * Queue a task on this device's lane.
+     *
+     * @param units number of enrollments the task performs, used for service time and retry estimates
+     * @throws DeviceQueueFullException when the task's enrollments do not fit within maxQueueDepth
+     */
+    <T> CompletableFuture<T> submit(Callable<T> task, int units) {
+        int weight = Math.max(1, units);
+        if (!reserve(weight)) {
+            rejectedRequests.incrementAndGet();
+            throw new DeviceQueueFullException(deviceKey, pendingUnits.get(), estimateRetryAfterSeconds());
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                long start = System.currentTimeMillis();
+                try {
+                    T result = task.call();
+                    processedRequests.incrementAndGet();
+                    future.complete(result);
+                } catch (Throwable e) {
+                    failedRequests.incrementAndGet();
+                    future.completeExceptionally(e);
+                } finally {
+                    long end = System.currentTimeMillis();
+                    recordServiceTime((end - start) / (double) weight);
+                    pendingUnits.addAndGet(-weight);
+                    lastActivityAt = end;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingUnits.addAndGet(-weight);
+            if (executor.isShutdown()) {
+                throw e;
+            }
+            rejectedRequests.incrementAndGet();
+            throw new DeviceQueueFullException(deviceKey, pendingUnits.get(), estimateRetryAfterSeconds());
+        }
+        lastActivityAt = System.currentTimeMillis();
+        queuedRequests.incrementAndGet();
+        return future;
+    }
+
+    /**
+     * Fail fast, without queuing anything, when {@code units} more enrollments would not be admitted
+     *
+     * @throws DeviceQueueFullException when the lane has no room for them
+     */
+    void checkCapacity(int units) {
+        if (!hasRoom(pendingUnits.get(), Math.max(1, units))) {
+            rejectedRequests.incrementAndGet();
+            throw new DeviceQueueFullException(deviceKey, pendingUnits.get(), estimateRetryAfterSeconds());
+        }
+    }
+
+    private boolean hasRoom(int pending, int weight) {
+        return pending == 0 || pending + weight <= maxQueueDepth;
+    }
+
+    /**
+     * Claim room for {@code weight} enrollments, or false when they would exceed maxQueueDepth
+     */
+    private boolean reserve(int weight) {
+        while (true) {
+            int pending = pendingUnits.get();
+            if (!hasRoom(pending, weight)) {
+                return false;
+            }
+            if (pendingUnits.compareAndSet(pending, pending + weight)) {
+                return true;
+            }
+        }
+    }
+
+    private void recordServiceTime(double sampleMs) {
+        avgServiceTimeMs = SERVICE_TIME_ALPHA * sampleMs + (1 - SERVICE_TIME_ALPHA) * avgServiceTimeMs;
+    }
+
+    /**
+     * Seconds until the work already pending on this lane should have drained
+     */
+    public long estimateRetryAfterSeconds() {
+        double drainMs = Math.max(1, pendingUnits.get()) * avgServiceTimeMs;
+        return Math.max(1L, (long) Math.ceil(drainMs / 1000.0));
+    }
+
+    /**
+     * A lane is idle when nothing is running or waiting and it has not been used recently
+     */
+    boolean isIdle(long now, long idleTimeoutMs) {
+        return executor.getActiveCount() == 0
+                && executor.getQueue().isEmpty()
+                && now - lastActivityAt >= idleTimeoutMs;
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    void shutdownNow() {
+        executor.shutdownNow();
+    }
+
+    boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    public String getDeviceKey() { return deviceKey; }
+    public int getQueueDepth() { return executor.getQueue().size(); }
+    public int getActiveCount() { return executor.getActiveCount(); }
+    public int getQueuedRequests() { return queuedRequests.get(); }
+    public int getProcessedRequests() { return processedRequests.get(); }
+    public int getFailedRequests() { return failedRequests.get(); }
+    public int getRejectedRequests() { return rejectedRequests.get(); }
+    public int getPendingUnits() { return pendingUnits.get(); }
+    public int getMaxQueueDepth() { return maxQueueDepth; }
+    public long getAvgServiceTimeMs() { return Math.round(avgServiceTimeMs); }
+    public long getLastActivityAt() { return lastActivityAt; }
+
+    public Map<String, Object> toStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("deviceKey", deviceKey);
+        stats.put("queueDepth", getQueueDepth());
+        stats.put("maxQueueDepth", maxQueueDepth);
+        stats.put("pendingEnrollments", pendingUnits.get());
+        stats.put("avgServiceTimeMs", getAvgServiceTimeMs());
+        stats.put("estimatedDrainSeconds", estimateRetryAfterSeconds());
+        stats.put("active", getActiveCount());
+        stats.put("queued", queuedRequests.get());
+        stats.put("processed", processedRequests.get());
+        stats.put("failed", failedRequests.get());
+        stats.put("rejected", rejectedRequests.get());
+        stats.put("createdAt", createdAt);
+        stats.put("lastActivityAt", lastActivityAt);
+        return stats;
+    }
+
+    private static String shortKey(String deviceKey) {
+        return deviceKey.length() > 8 ? deviceKey.substring(deviceKey.length() - 8) : deviceKey;
+    }
+}
@@ -0,0 +1,164 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of per-device serial lanes.
+ * Lanes are created on first use for a deviceKey and reaped once they have been idle
+ * for the configured timeout, so each XO5 terminal gets its own sequential queue
+ * instead of sharing one global queue with every other facility.
+ */
+@Service
+public class DeviceLaneRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceLaneRegistry.class);
+
+    private static final String DEFAULT_LANE = "default";
+
+    @Value("${device.lane.idle-timeout-ms:300000}")
+    private long idleTimeoutMs;
+
+    @Value("${device.lane.reap-interval-ms:60000}")
+    private long reapIntervalMs;
+
+    @Value("${device.lane.max-queue-depth:50}")
+    private int maxQueueDepth;
+
+    // Service time assumed for Retry-After until a lane has measured real enrollments
+    @Value("${device.lane.initial-service-time-ms:10000}")
+    private long initialServiceTimeMs;
+
+    private final ConcurrentHashMap<String, DeviceLane> lanes = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "XO5-Lane-Reaper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    public void start() {
+        reaper.scheduleWithFixedDelay(this::reapIdleLanes, reapIntervalMs, reapIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("Device lane registry started (idle timeout: {}ms)", idleTimeoutMs);
+    }
+
+    /**
+     * Submit a single enrollment to the serial lane of the given device.
+     *
+     * @throws DeviceQueueFullException when the device's queue is at its configured bound
+     */
+    public <T> CompletableFuture<T> submit(String deviceKey, Callable<T> task) {
+        return submit(deviceKey, task, 1);
+    }
+
+    /**
+     * Submit a task performing {@code units} enrollments (e.g. a batch) to the device's lane.
+     * Submission happens inside the map's compute so a lane can never be reaped
+     * between lookup and enqueue.
+     */
+    public <T> CompletableFuture<T> submit(String deviceKey, Callable<T> task, int units) {
+        String key = laneKey(deviceKey);
+        List<CompletableFuture<T>> holder = new ArrayList<>(1);
+        lanes.compute(key, (k, lane) -> {
+            if (lane == null || lane.isShutdown()) {
+                lane = new DeviceLane(k, maxQueueDepth, initialServiceTimeMs);
+                log.info("Created device lane for {} (max queue depth: {})", k, maxQueueDepth);
+            }
+            holder.add(lane.submit(task, units));
+            return lane;
+        });
+        return holder.get(0);
+    }
+
+    /**
+     * Reject up front, before any image work is spent on the request, when the device's lane
+     * could not admit {@code units} more enrollments. A device without a lane always has room.
+     *
+     * @throws DeviceQueueFullException when the device's queue is at its configured bound
+     */
+    public void checkCapacity(String deviceKey, int units) {
+        DeviceLane lane = lanes.get(laneKey(deviceKey));
+        if (lane != null && !lane.isShutdown()) {
+            lane.checkCapacity(units);
+        }
+    }
+
+    /**
+     * Current lane for a device, or null if none is active
+     */
+    public DeviceLane getLane(String deviceKey) {
+        return lanes.get(laneKey(deviceKey));
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<>();
+        List<Map<String, Object>> laneStats = new ArrayList<>();
+        int totalQueueDepth = 0;
+        for (DeviceLane lane : lanes.values()) {
+            laneStats.add(lane.toStatistics());
+            totalQueueDepth += lane.getQueueDepth();
+        }
+        stats.put("activeLanes", laneStats.size());
+        stats.put("maxQueueDepth", maxQueueDepth);
+        stats.put("totalQueueDepth", totalQueueDepth);
+        stats.put("lanes", laneStats);
+        return stats;
+    }
+
+    void reapIdleLanes() {
+        long now = System.currentTimeMillis();
+        for (String key : lanes.keySet()) {
+            lanes.computeIfPresent(key, (k, lane) -> {
+                if (lane.isIdle(now, idleTimeoutMs)) {
+                    lane.shutdown();
+                    log.info("Reaped idle device lane for {} (processed: {}, failed: {})",
+                            k, lane.getProcessedRequests(), lane.getFailedRequests());
+                    return null;
+                }
+                return lane;
+            });
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        log.info("Shutting down {} device lane(s)...", lanes.size());
+        reaper.shutdownNow();
+        for (DeviceLane lane : lanes.values()) {
+            lane.shutdown();
+        }
+        for (DeviceLane lane : lanes.values()) {
+            try {
+                if (!lane.awaitTermination(30, TimeUnit.SECONDS)) {
+                    lane.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                lane.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            log.info("Lane {} - queued: {}, processed: {}, failed: {}", lane.getDeviceKey(),
+                    lane.getQueuedRequests(), lane.getProcessedRequests(), lane.getFailedRequests());
+        }
+        lanes.clear();
+    }
+
+    private static String laneKey(String deviceKey) {
+        return deviceKey == null || deviceKey.trim().isEmpty() ? DEFAULT_LANE : deviceKey.trim();
+    }
+}
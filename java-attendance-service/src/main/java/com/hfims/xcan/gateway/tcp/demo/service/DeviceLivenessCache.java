@@ -0,0 +1,214 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import com.hfims.xcan.gateway.netty.client.HfDeviceClient;
+import com.hfims.xcan.gateway.netty.client.dto.HostInfoDto;
+import com.hfims.xcan.gateway.netty.client.resp.HfDeviceResp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Per-device liveness cache.
+ * A device confirmed healthy within the TTL is not probed again with HfDeviceClient.test,
+ * saving a full device round trip on every hot path. Devices that are in use are
+ * re-probed in the background before their entry expires, each probe on a small shared pool
+ * so one offline terminal cannot hold up the others; a probe running past its timeout drops
+ * the device's entry. Entries are also dropped when a command to the device fails so the
+ * next request probes it again.
+ */
+@Service
+public class DeviceLivenessCache {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceLivenessCache.class);
+
+    @Value("${device.liveness.ttl-ms:30000}")
+    private long ttlMs;
+
+    @Value("${device.liveness.refresh-interval-ms:10000}")
+    private long refreshIntervalMs;
+
+    // Devices not asked about for this long are no longer refreshed in the background
+    @Value("${device.liveness.idle-evict-ms:600000}")
+    private long idleEvictMs;
+
+    @Value("${device.liveness.probe-threads:4}")
+    private int probeThreads;
+
+    @Value("${device.liveness.probe-timeout-ms:5000}")
+    private long probeTimeoutMs;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "XO5-Liveness-Refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private ExecutorService prober;
+
+    private static class Entry {
+        final HostInfoDto hostInfo;
+        final String secret;
+        volatile long confirmedAt;
+        volatile long lastUsedAt;
+        // At most one background probe per device at a time
+        final AtomicBoolean probing = new AtomicBoolean();
+        volatile long probeStartedAt;
+        volatile Future<?> probe;
+
+        Entry(HostInfoDto hostInfo, String secret, long now) {
+            this.hostInfo = hostInfo;
+            this.secret = secret;
+            this.confirmedAt = now;
+            this.lastUsedAt = now;
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        prober = Executors.newFixedThreadPool(Math.max(1, probeThreads), r -> {
+            Thread t = new Thread(r, "XO5-Liveness-Probe");
+            t.setDaemon(true);
+            return t;
+        });
+        refresher.scheduleWithFixedDelay(this::refreshEntries, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("Device liveness cache started (ttl: {}ms, refresh: {}ms)", ttlMs, refreshIntervalMs);
+    }
+
+    /**
+     * Liveness check that only goes to the device when it has not been confirmed healthy
+     * within the TTL (or the secret differs from the one that was confirmed).
+     * Returns the cached "000" response on a hit, otherwise the real test response.
+     */
+    public HfDeviceResp check(HostInfoDto hostInfo, String deviceKey, String secret) {
+        long now = System.currentTimeMillis();
+        Entry entry = deviceKey == null ? null : entries.get(deviceKey);
+        if (entry != null && Objects.equals(entry.secret, secret) && now - entry.confirmedAt < ttlMs) {
+            entry.lastUsedAt = now;
+            return cachedSuccess(now - entry.confirmedAt);
+        }
+        return probe(hostInfo, deviceKey, secret);
+    }
+
+    /**
+     * Record that a real command just succeeded, which is as good as a probe
+     */
+    public void markHealthy(HostInfoDto hostInfo, String deviceKey, String secret) {
+        if (deviceKey == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        entries.put(deviceKey, new Entry(hostInfo, secret, now));
+    }
+
+    /**
+     * Forget a device after a failed command so the next request probes it again
+     */
+    public void invalidate(String deviceKey) {
+        if (deviceKey != null && entries.remove(deviceKey) != null) {
+            log.info("Liveness cache invalidated for {}", deviceKey);
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> stats = new HashMap<>();
+        Map<String, Object> devices = new HashMap<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            devices.put(e.getKey(), now - e.getValue().confirmedAt);
+        }
+        stats.put("ttlMs", ttlMs);
+        stats.put("confirmedAgeMs", devices);
+        return stats;
+    }
+
+    private HfDeviceResp probe(HostInfoDto hostInfo, String deviceKey, String secret) {
+        HfDeviceResp response;
+        try {
+            response = HfDeviceClient.test(hostInfo, deviceKey, secret);
+        } catch (RuntimeException e) {
+            invalidate(deviceKey);
+            throw e;
+        }
+        if (response != null && "000".equals(response.getCode())) {
+            markHealthy(hostInfo, deviceKey, secret);
+        } else {
+            invalidate(deviceKey);
+        }
+        return response;
+    }
+
+    void refreshEntries() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            if (now - entry.lastUsedAt > idleEvictMs) {
+                entries.remove(e.getKey(), entry);
+                continue;
+            }
+            if (entry.probing.get()) {
+                if (now - entry.probeStartedAt > probeTimeoutMs) {
+                    // No answer in time: forget the device so requests probe it themselves
+                    log.warn("Background liveness probe for {} timed out after {}ms", e.getKey(), now - entry.probeStartedAt);
+                    entries.remove(e.getKey(), entry);
+                    Future<?> probe = entry.probe;
+                    if (probe != null) {
+                        probe.cancel(true);
+                    }
+                }
+                continue;
+            }
+            // Re-probe before the entry expires so active devices never hit a cold cache
+            if (now - entry.confirmedAt >= ttlMs - refreshIntervalMs && entry.probing.compareAndSet(false, true)) {
+                entry.probeStartedAt = now;
+                entry.probe = prober.submit(() -> refresh(e.getKey(), entry));
+            }
+        }
+    }
+
+    private void refresh(String deviceKey, Entry entry) {
+        try {
+            HfDeviceResp response = HfDeviceClient.test(entry.hostInfo, deviceKey, entry.secret);
+            if (response != null && "000".equals(response.getCode())) {
+                entry.confirmedAt = System.currentTimeMillis();
+            } else {
+                entries.remove(deviceKey, entry);
+            }
+        } catch (Exception ex) {
+            log.warn("Background liveness probe failed for {}: {}", deviceKey, ex.getMessage());
+            entries.remove(deviceKey, entry);
+        } finally {
+            entry.probing.set(false);
+        }
+    }
+
+    private static HfDeviceResp cachedSuccess(long ageMs) {
+        HfDeviceResp response = new HfDeviceResp();
+        response.setCode("000");
+        response.setMsg("Device confirmed healthy " + ageMs + "ms ago");
+        return response;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+        if (prober != null) {
+            prober.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import com.hfims.xcan.gateway.netty.client.dto.HostInfoDto;
+import com.hfims.xcan.gateway.netty.client.resp.HfDeviceResp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Looks up the stored face photo (faceFind) of many persons on one device with a bounded
+ * number of calls in flight, instead of one person after another. Results come back in the
+ * order the persons went in. Each device has device.photo-fetch.max-in-flight permits shared
+ * by every run against it, and a call holds its permit until the SDK returns, even after its
+ * result has been given up as timed out, so a slow terminal never sees more than that many
+ * concurrent lookups. Progress of the latest run per device is kept for the progress endpoint.
+ */
+@Service
+public class DevicePhotoFetcher {
+
+    private static final Logger log = LoggerFactory.getLogger(DevicePhotoFetcher.class);
+
+    // Fields a faceFind response may keep the base64 photo under
+    private static final String[] PHOTO_FIELDS = {"imgBase64", "image", "img", "base64", "photo", "faceImg"};
+
+    public enum Outcome { FOUND, NONE, TIMEOUT, FAILED }
+
+    // faceFind calls in flight per device, across all concurrent runs
+    @Value("${device.photo-fetch.max-in-flight:4}")
+    private int maxInFlight;
+
+    // A lookup that has not answered by then is reported as timed out
+    @Value("${device.photo-fetch.timeout-ms:10000}")
+    private long timeoutMs;
+
+    @Autowired
+    private DeviceGateway deviceGateway;
+
+    @Autowired
+    private RequestBuilderService requestBuilderService;
+
+    @Autowired
+    private FacePresenceIndex facePresenceIndex;
+
+    private final ConcurrentHashMap<String, Semaphore> permits = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, PhotoFetchProgress> latestRuns = new ConcurrentHashMap<>();
+
+    private final AtomicInteger workerCount = new AtomicInteger(0);
+    private final ExecutorService workers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "XO5-Photo-Fetch-" + workerCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "XO5-Photo-Fetch-Timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * The photo lookup of one item
+     */
+    public static class Result<T> {
+        private final T item;
+        private final String photo;
+        private final Outcome outcome;
+
+        Result(T item, String photo, Outcome outcome) {
+            this.item = item;
+            this.photo = photo;
+            this.outcome = outcome;
+        }
+
+        public T getItem() { return item; }
+        public String getPhoto() { return photo; }
+        public Outcome getOutcome() { return outcome; }
+        public boolean hasPhoto() { return outcome == Outcome.FOUND; }
+    }
+
+    /**
+     * Look up the photo of every item, keeping up to max-in-flight lookups running ahead of
+     * the consumer. Items are pulled from the source only as the window frees up, so a lazy
+     * roster stream is never read far ahead. Items without a sn are passed through without a
+     * call. Close the stream when stopping early; lookups not yet started are then dropped.
+     */
+    public <T> Stream<Result<T>> fetch(HostInfoDto hostInfo, String deviceKey, String secret,
+                                       Iterator<T> items, Function<T, String> snOf) {
+        PhotoFetchProgress progress = new PhotoFetchProgress(deviceKey, getMaxInFlight());
+        latestRuns.put(deviceKey, progress);
+        OrderedFetch<T> fetch = new OrderedFetch<>(hostInfo, deviceKey, secret, items, snOf, progress);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(fetch, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(fetch::close);
+    }
+
+    /**
+     * The base64 photo stored for a person (faceFind), or null when the device has none.
+     * A definite answer is recorded in the face presence index.
+     *
+     * @throws Exception when the call itself fails
+     */
+    public String findFacePhoto(HostInfoDto hostInfo, String deviceKey, String secret, String employeeSn) throws Exception {
+        Object faceFindReq = requestBuilderService.buildFaceFindReq(employeeSn);
+        HfDeviceResp faceResponse = deviceGateway.faceFind(hostInfo, deviceKey, secret, faceFindReq);
+        if (faceResponse == null || !"000".equals(faceResponse.getCode())) {
+            return null;
+        }
+        String photo = extractPhoto(faceResponse.getData());
+        facePresenceIndex.record(deviceKey, employeeSn, photo != null);
+        return photo;
+    }
+
+    private static String extractPhoto(Object faceData) {
+        if (faceData instanceof List) {
+            List<?> faceList = (List<?>) faceData;
+            faceData = faceList.isEmpty() ? null : faceList.get(0);
+        }
+        if (!(faceData instanceof Map)) {
+            return null;
+        }
+        Map<?, ?> faceMap = (Map<?, ?>) faceData;
+        for (String field : PHOTO_FIELDS) {
+            Object photoData = faceMap.get(field);
+            if (photoData != null && String.valueOf(photoData).length() > 100) {
+                return String.valueOf(photoData);
+            }
+        }
+        return null;
+    }
+
+    public PhotoFetchProgress getProgress(String deviceKey) {
+        return latestRuns.get(deviceKey);
+    }
+
+    public List<PhotoFetchProgress> getAllProgress() {
+        return new ArrayList<>(latestRuns.values());
+    }
+
+    public int getMaxInFlight() {
+        return Math.max(1, maxInFlight);
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * Sliding window of lookups, handed out strictly in submission order
+     */
+    private class OrderedFetch<T> implements Iterator<Result<T>> {
+        private final HostInfoDto hostInfo;
+        private final String deviceKey;
+        private final String secret;
+        private final Iterator<T> items;
+        private final Function<T, String> snOf;
+        private final PhotoFetchProgress progress;
+        private final Semaphore devicePermits;
+        private final Deque<CompletableFuture<Result<T>>> window = new ArrayDeque<>();
+        private final int windowSize = getMaxInFlight();
+
+        OrderedFetch(HostInfoDto hostInfo, String deviceKey, String secret, Iterator<T> items,
+                     Function<T, String> snOf, PhotoFetchProgress progress) {
+            this.hostInfo = hostInfo;
+            this.deviceKey = deviceKey;
+            this.secret = secret;
+            this.items = items;
+            this.snOf = snOf;
+            this.progress = progress;
+            this.devicePermits = permits.computeIfAbsent(deviceKey, k -> new Semaphore(getMaxInFlight()));
+        }
+
+        private void fill() {
+            while (window.size() < windowSize && items.hasNext()) {
+                T item = items.next();
+                progress.requested();
+                String sn = snOf.apply(item);
+                window.add(sn == null ? CompletableFuture.completedFuture(new Result<>(item, null, Outcome.NONE)) : start(item, sn));
+            }
+        }
+
+        private CompletableFuture<Result<T>> start(T item, String sn) {
+            CompletableFuture<Result<T>> future = new CompletableFuture<>();
+            workers.execute(() -> {
+                try {
+                    devicePermits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    future.complete(new Result<>(item, null, Outcome.FAILED));
+                    return;
+                }
+                try {
+                    if (future.isDone()) {
+                        return; // run closed while waiting for a permit
+                    }
+                    progress.callStarted();
+                    ScheduledFuture<?> deadline = timer.schedule(() -> {
+                        if (future.complete(new Result<>(item, null, Outcome.TIMEOUT))) {
+                            log.warn("faceFind for {} on device {} timed out after {}ms", sn, deviceKey, timeoutMs);
+                        }
+                    }, timeoutMs, TimeUnit.MILLISECONDS);
+                    Result<T> result;
+                    try {
+                        String photo = findFacePhoto(hostInfo, deviceKey, secret, sn);
+                        result = new Result<>(item, photo, photo != null ? Outcome.FOUND : Outcome.NONE);
+                    } catch (Exception e) {
+                        log.debug("faceFind for {} on device {} failed: {}", sn, deviceKey, e.getMessage());
+                        result = new Result<>(item, null, Outcome.FAILED);
+                    } finally {
+                        deadline.cancel(false);
+                        progress.callFinished();
+                    }
+                    future.complete(result);
+                } finally {
+                    devicePermits.release();
+                }
+            });
+            return future;
+        }
+
+        @Override
+        public boolean hasNext() {
+            fill();
+            if (window.isEmpty()) {
+                progress.finish("completed");
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public Result<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Result<T> result = window.poll().join();
+            progress.completed(result.getOutcome());
+            return result;
+        }
+
+        void close() {
+            for (CompletableFuture<Result<T>> pending : window) {
+                pending.cancel(false);
+            }
+            window.clear();
+            progress.finish("stopped");
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        workers.shutdownNow();
+    }
+}
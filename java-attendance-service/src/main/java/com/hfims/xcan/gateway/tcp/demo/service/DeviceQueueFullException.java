@@ -0,0 +1,23 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+/**
+ * Thrown when a device lane's queue is at its configured bound.
+ * Mapped to HTTP 429 with a Retry-After header by GlobalExceptionHandler.
+ */
+public class DeviceQueueFullException extends RuntimeException {
+
+    private final String deviceKey;
+    private final int queueDepth;
+    private final long retryAfterSeconds;
+
+    public DeviceQueueFullException(String deviceKey, int queueDepth, long retryAfterSeconds) {
+        super("Device " + deviceKey + " has " + queueDepth + " enrollment(s) queued. Retry after " + retryAfterSeconds + "s");
+        this.deviceKey = deviceKey;
+        this.queueDepth = queueDepth;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public String getDeviceKey() { return deviceKey; }
+    public int getQueueDepth() { return queueDepth; }
+    public long getRetryAfterSeconds() { return retryAfterSeconds; }
+}
@@ -0,0 +1,373 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import com.hfims.xcan.gateway.netty.client.dto.HostInfoDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * In-memory copy of each device's person roster (sn, name, verifyStyle, updateTime), so
+ * list/get/exists lookups are answered without a device round trip. A device's roster is
+ * read with a paginated personFindList scan on first use, kept current write-through by the
+ * person create/merge/delete paths, and rescanned in the background every
+ * device.roster-mirror.reconcile-interval-ms to pick up changes made outside this service.
+ * Whether a person has a face comes from the {@link FacePresenceIndex}.
+ */
+@Service
+public class DeviceRosterMirror {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceRosterMirror.class);
+
+    @Value("${device.roster-mirror.enabled:true}")
+    private boolean enabled;
+
+    @Value("${device.roster-mirror.reconcile-interval-ms:600000}")
+    private long reconcileIntervalMs;
+
+    // Devices not asked about for this long are dropped instead of rescanned
+    @Value("${device.roster-mirror.idle-evict-ms:3600000}")
+    private long idleEvictMs;
+
+    @Autowired
+    private DeviceRosterScanner deviceRosterScanner;
+
+    @Autowired
+    private FacePresenceIndex facePresenceIndex;
+
+    private final Map<String, Roster> rosters = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "XO5-Roster-Mirror");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * One person as kept in the mirror
+     */
+    public static class Person {
+        private final String sn;
+        private final String name;
+        private final Integer verifyStyle;
+        private final Object updateTime;
+        private final String department;
+        private final String personId;
+        private final String status;
+
+        Person(String sn, String name, Integer verifyStyle, Object updateTime, String department, String personId, String status) {
+            this.sn = sn;
+            this.name = name;
+            this.verifyStyle = verifyStyle;
+            this.updateTime = updateTime;
+            this.department = department;
+            this.personId = personId;
+            this.status = status;
+        }
+
+        /**
+         * The person from a personFindList entry, or null when it has no sn
+         */
+        static Person from(Map<String, Object> raw) {
+            Object sn = raw.get("sn");
+            if (sn == null) {
+                return null;
+            }
+            return new Person(String.valueOf(sn), stringOrNull(raw.get("name")), parseStyle(raw.get("verifyStyle")),
+                    raw.get("updateTime"), stringOrNull(raw.get("dept")), stringOrNull(raw.get("personId")),
+                    stringOrNull(raw.get("status")));
+        }
+
+        public String getSn() { return sn; }
+        public String getName() { return name; }
+        public Integer getVerifyStyle() { return verifyStyle; }
+        public Object getUpdateTime() { return updateTime; }
+
+        /**
+         * The person in the shape personFindList returns it
+         */
+        public Map<String, Object> toDeviceMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("sn", sn);
+            map.put("name", name);
+            map.put("verifyStyle", verifyStyle);
+            map.put("updateTime", updateTime);
+            if (department != null) {
+                map.put("dept", department);
+            }
+            if (personId != null) {
+                map.put("personId", personId);
+            }
+            if (status != null) {
+                map.put("status", status);
+            }
+            return map;
+        }
+
+        private static String stringOrNull(Object value) {
+            return value != null ? String.valueOf(value) : null;
+        }
+
+        private static Integer parseStyle(Object value) {
+            if (value instanceof Number) {
+                return ((Number) value).intValue();
+            }
+            if (value == null) {
+                return null;
+            }
+            try {
+                return Integer.parseInt(String.valueOf(value).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private static class Roster {
+        // sn -> person, in device order; guarded by the roster's monitor
+        final Map<String, Person> persons = new LinkedHashMap<>();
+        // sn -> System.nanoTime() of the last write-through, so a scan that started earlier does not undo it
+        final Map<String, Long> writes = new HashMap<>();
+        final Object scanLock = new Object();
+        volatile HostInfoDto hostInfo;
+        volatile String secret;
+        volatile boolean loaded;
+        volatile long loadedAt;
+        volatile long lastUsedAt;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            log.info("Device roster mirror disabled");
+            return;
+        }
+        long interval = Math.max(1000, reconcileIntervalMs);
+        reconciler.scheduleWithFixedDelay(this::reconcile, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("Device roster mirror started (reconcile every {}ms)", interval);
+    }
+
+    /**
+     * Whether the mirror can serve this device: enabled and the SDK can scan a roster
+     */
+    public boolean isAvailable() {
+        return enabled && deviceRosterScanner.isAvailable();
+    }
+
+    /**
+     * Every person on the device, scanning it first if it has not been read yet
+     *
+     * @throws RosterScanException when the first scan fails
+     */
+    public List<Person> list(HostInfoDto hostInfo, String deviceKey, String secret) throws Exception {
+        Roster roster = loaded(hostInfo, deviceKey, secret);
+        synchronized (roster) {
+            return new ArrayList<>(roster.persons.values());
+        }
+    }
+
+    /**
+     * The person with this sn, or null when the device does not have it; scans the device
+     * first if it has not been read yet
+     *
+     * @throws RosterScanException when the first scan fails
+     */
+    public Person find(HostInfoDto hostInfo, String deviceKey, String secret, String sn) throws Exception {
+        Roster roster = loaded(hostInfo, deviceKey, secret);
+        synchronized (roster) {
+            return roster.persons.get(sn);
+        }
+    }
+
+    /**
+     * Whether the device has this person, or null when its roster has not been read (this
+     * never goes to the device)
+     */
+    public Boolean contains(String deviceKey, String sn) {
+        Roster roster = deviceKey != null ? rosters.get(deviceKey) : null;
+        if (!enabled || roster == null || !roster.loaded || sn == null) {
+            return null;
+        }
+        roster.lastUsedAt = System.currentTimeMillis();
+        synchronized (roster) {
+            return roster.persons.containsKey(sn);
+        }
+    }
+
+    public boolean hasFace(String deviceKey, Person person) {
+        return facePresenceIndex.hasFace(deviceKey, person.getSn(), person.getVerifyStyle());
+    }
+
+    /**
+     * Record a successful personCreate/personMerge
+     */
+    public void personSaved(String deviceKey, String sn, String name, Integer verifyStyle) {
+        Roster roster = deviceKey != null ? rosters.get(deviceKey) : null;
+        if (roster == null || sn == null) {
+            return;
+        }
+        synchronized (roster) {
+            Person previous = roster.persons.get(sn);
+            roster.persons.put(sn, previous == null
+                    ? new Person(sn, name, verifyStyle, System.currentTimeMillis(), null, null, null)
+                    : new Person(sn, name, verifyStyle != null ? verifyStyle : previous.verifyStyle, System.currentTimeMillis(),
+                            previous.department, previous.personId, previous.status));
+            roster.writes.put(sn, System.nanoTime());
+        }
+    }
+
+    /**
+     * Record a successful personDelete
+     */
+    public void personDeleted(String deviceKey, String sn) {
+        Roster roster = deviceKey != null ? rosters.get(deviceKey) : null;
+        if (roster == null || sn == null) {
+            return;
+        }
+        synchronized (roster) {
+            roster.persons.remove(sn);
+            roster.writes.put(sn, System.nanoTime());
+        }
+    }
+
+    /**
+     * Rescan the device now, replacing what the mirror holds for it
+     *
+     * @throws RosterScanException when the scan fails (the old copy is kept)
+     */
+    public int refresh(HostInfoDto hostInfo, String deviceKey, String secret) throws Exception {
+        Roster roster = roster(hostInfo, deviceKey, secret);
+        synchronized (roster.scanLock) {
+            return scan(deviceKey, roster);
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> stats = new HashMap<>();
+        Map<String, Object> devices = new HashMap<>();
+        rosters.forEach((deviceKey, roster) -> {
+            if (roster.loaded) {
+                Map<String, Object> device = new HashMap<>();
+                synchronized (roster) {
+                    device.put("persons", roster.persons.size());
+                }
+                device.put("ageMs", now - roster.loadedAt);
+                devices.put(deviceKey, device);
+            }
+        });
+        stats.put("enabled", enabled);
+        stats.put("reconcileIntervalMs", reconcileIntervalMs);
+        stats.put("devices", devices);
+        return stats;
+    }
+
+    private Roster roster(HostInfoDto hostInfo, String deviceKey, String secret) {
+        Roster roster = rosters.computeIfAbsent(deviceKey, k -> new Roster());
+        roster.hostInfo = hostInfo;
+        roster.secret = secret;
+        roster.lastUsedAt = System.currentTimeMillis();
+        return roster;
+    }
+
+    private Roster loaded(HostInfoDto hostInfo, String deviceKey, String secret) throws Exception {
+        if (!isAvailable()) {
+            throw new UnsupportedOperationException("Device roster mirror not available");
+        }
+        Roster roster = roster(hostInfo, deviceKey, secret);
+        if (!roster.loaded) {
+            synchronized (roster.scanLock) {
+                if (!roster.loaded) {
+                    scan(deviceKey, roster);
+                }
+            }
+        }
+        return roster;
+    }
+
+    /**
+     * Read the whole roster and swap it in, keeping any write-through made while the scan ran.
+     * Callers hold the roster's scanLock.
+     */
+    private int scan(String deviceKey, Roster roster) throws Exception {
+        long startTime = System.currentTimeMillis();
+        long scanStart = System.nanoTime();
+        Map<String, Person> scanned = new LinkedHashMap<>();
+        try (Stream<Map<String, Object>> persons = deviceRosterScanner.stream(roster.hostInfo, deviceKey, roster.secret)) {
+            persons.map(Person::from).filter(p -> p != null).forEach(p -> scanned.put(p.getSn(), p));
+        }
+        int added;
+        int removed;
+        synchronized (roster) {
+            for (Iterator<Map.Entry<String, Long>> it = roster.writes.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, Long> write = it.next();
+                if (write.getValue() - scanStart < 0) {
+                    it.remove(); // the scan already reflects it
+                    continue;
+                }
+                Person local = roster.persons.get(write.getKey());
+                if (local != null) {
+                    scanned.put(write.getKey(), local);
+                } else {
+                    scanned.remove(write.getKey());
+                }
+            }
+            added = (int) scanned.keySet().stream().filter(sn -> !roster.persons.containsKey(sn)).count();
+            removed = (int) roster.persons.keySet().stream().filter(sn -> !scanned.containsKey(sn)).count();
+            roster.persons.clear();
+            roster.persons.putAll(scanned);
+        }
+        boolean first = !roster.loaded;
+        roster.loadedAt = System.currentTimeMillis();
+        roster.loaded = true;
+        if (first) {
+            log.info("Roster mirror of {} loaded: {} person(s) in {}ms", deviceKey, scanned.size(), roster.loadedAt - startTime);
+        } else {
+            log.info("Roster mirror of {} reconciled: {} person(s), {} added, {} removed in {}ms",
+                    deviceKey, scanned.size(), added, removed, roster.loadedAt - startTime);
+        }
+        return scanned.size();
+    }
+
+    void reconcile() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Roster> e : rosters.entrySet()) {
+            Roster roster = e.getValue();
+            if (now - roster.lastUsedAt > idleEvictMs) {
+                rosters.remove(e.getKey(), roster);
+                continue;
+            }
+            if (!roster.loaded || now - roster.loadedAt < reconcileIntervalMs) {
+                continue;
+            }
+            synchronized (roster.scanLock) {
+                try {
+                    scan(e.getKey(), roster);
+                } catch (Exception ex) {
+                    // Keep serving the last copy; the next round tries again
+                    log.warn("Background roster reconcile failed for {}: {}", e.getKey(), ex.getMessage());
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reconciler.shutdownNow();
+    }
+}
@@ -0,0 +1,279 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import com.hfims.xcan.gateway.netty.client.dto.HostInfoDto;
+import com.hfims.xcan.gateway.netty.client.resp.HfDeviceResp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads a device's full person roster with personFindList, one page at a time.
+ * A single personFindList call returns at most 1000 persons, so the scan walks the request
+ * index forward until the device's reported total is reached, or, when it reports none, until a
+ * short or empty page. Persons are handed out as a lazy, ordered stream; with prefetch on, the
+ * next page is already being fetched while the caller maps the current one. Close the stream
+ * (try-with-resources) when stopping early.
+ */
+@Service
+public class DeviceRosterScanner {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceRosterScanner.class);
+
+    // Keys a personFindList response may keep its person list under
+    private static final String[] LIST_KEYS = {"personList", "list", "data", "persons", "records"};
+    private static final String[] TOTAL_KEYS = {"total", "totalCount", "count"};
+
+    // Persons per personFindList call (the device caps this at 1000)
+    @Value("${device.roster.page-size:1000}")
+    private int pageSize;
+
+    // Fetch the next page while the current one is being consumed
+    @Value("${device.roster.prefetch:true}")
+    private boolean prefetch;
+
+    // offset: index is the position of the first person; page: index is the page number
+    @Value("${device.roster.index-mode:offset}")
+    private String indexMode;
+
+    @Autowired
+    private DeviceGateway deviceGateway;
+
+    @Autowired
+    private RequestBuilderService requestBuilderService;
+
+    private final AtomicInteger prefetchThreadCount = new AtomicInteger(0);
+    private final ExecutorService prefetchExecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "XO5-Roster-Prefetch-" + prefetchThreadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * One personFindList response
+     */
+    static class RosterPage {
+        final int index;
+        final List<Map<String, Object>> persons;
+        final Integer total;
+
+        RosterPage(int index, List<Map<String, Object>> persons, Integer total) {
+            this.index = index;
+            this.persons = persons;
+            this.total = total;
+        }
+    }
+
+    public boolean isAvailable() {
+        return deviceGateway.isAvailable(DeviceGateway.Operation.PERSON_FIND_LIST);
+    }
+
+    public int getPageSize() {
+        return Math.max(1, Math.min(pageSize, RequestBuilderService.MAX_PERSON_PAGE_SIZE));
+    }
+
+    /**
+     * Stream every person on the device as the raw map the SDK returned. The first page is
+     * read before this returns, so an unsupported SDK or an unreachable device fails here
+     * rather than on first use of the stream; later pages that fail end the stream with a
+     * {@link RosterScanException}.
+     *
+     * @throws RosterScanException when the device rejects the first page
+     */
+    public Stream<Map<String, Object>> stream(HostInfoDto hostInfo, String deviceKey, String secret) throws Exception {
+        RosterPage first = fetchPage(hostInfo, deviceKey, secret, 0);
+        PersonIterator iterator = new PersonIterator(hostInfo, deviceKey, secret, first);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+    /**
+     * Read one page. Index is a person offset or a page number depending on device.roster.index-mode.
+     */
+    RosterPage fetchPage(HostInfoDto hostInfo, String deviceKey, String secret, int index) throws Exception {
+        long startTime = System.currentTimeMillis();
+        Object request = requestBuilderService.buildPersonFindListReq(index, getPageSize());
+        HfDeviceResp response = deviceGateway.personFindList(hostInfo, deviceKey, secret, request);
+        if (response == null) {
+            throw new RosterScanException("3504", "No response from device", index);
+        }
+        if (!"000".equals(response.getCode())) {
+            throw new RosterScanException(response.getCode(), response.getMsg(), index);
+        }
+        RosterPage page = parse(index, response.getData());
+        log.debug("Roster page {} of device {}: {} person(s) in {}ms", index, deviceKey, page.persons.size(),
+                System.currentTimeMillis() - startTime);
+        return page;
+    }
+
+    /**
+     * Persons in a person list or person find response (a list, a map holding the list, or one person)
+     */
+    public static List<Map<String, Object>> parsePersons(Object data) {
+        return parse(0, data).persons;
+    }
+
+    @SuppressWarnings("unchecked")
+    static RosterPage parse(int index, Object data) {
+        List<Map<String, Object>> persons = new ArrayList<>();
+        Integer total = null;
+        Object list = data;
+        if (data instanceof Map) {
+            Map<String, Object> map = (Map<String, Object>) data;
+            list = null;
+            for (String key : LIST_KEYS) {
+                if (map.get(key) instanceof List) {
+                    list = map.get(key);
+                    break;
+                }
+            }
+            for (String key : TOTAL_KEYS) {
+                if (map.get(key) instanceof Number) {
+                    total = ((Number) map.get(key)).intValue();
+                    break;
+                }
+            }
+            if (list == null && map.containsKey("sn")) {
+                list = Collections.singletonList(map); // a single person rather than a page
+            }
+        }
+        if (list instanceof List) {
+            for (Object item : (List<Object>) list) {
+                if (item instanceof Map) {
+                    persons.add((Map<String, Object>) item);
+                }
+            }
+        }
+        return new RosterPage(index, persons, total);
+    }
+
+    /**
+     * Walks the pages, keeping at most one page ahead of the consumer
+     */
+    private class PersonIterator implements Iterator<Map<String, Object>> {
+        private final HostInfoDto hostInfo;
+        private final String deviceKey;
+        private final String secret;
+        private final int size = getPageSize();
+        private final boolean pageNumbers = "page".equalsIgnoreCase(indexMode);
+
+        private RosterPage current;
+        private int position;
+        private int delivered;
+        private Object previousFirstSn;
+        private CompletableFuture<RosterPage> next;
+        private Integer nextIndex;
+
+        PersonIterator(HostInfoDto hostInfo, String deviceKey, String secret, RosterPage first) {
+            this.hostInfo = hostInfo;
+            this.deviceKey = deviceKey;
+            this.secret = secret;
+            accept(first);
+        }
+
+        /**
+         * Make a fetched page current and work out whether another one follows
+         */
+        private void accept(RosterPage page) {
+            Object firstSn = page.persons.isEmpty() ? null : page.persons.get(0).get("sn");
+            if (previousFirstSn != null && Objects.equals(firstSn, previousFirstSn)) {
+                // The device ignored the index and sent the same page again
+                log.warn("Device {} returned the same roster page for index {}, stopping after {} person(s)",
+                        deviceKey, page.index, delivered);
+                current = null;
+                nextIndex = null;
+                return;
+            }
+            previousFirstSn = firstSn;
+            current = page;
+            position = 0;
+            int seen = delivered + page.persons.size();
+            // A device that reports its total may still cap pages below the requested size, so a short
+            // page only ends the scan when there is no total; a repeated page is caught above
+            boolean more = page.total != null
+                    ? !page.persons.isEmpty() && seen < page.total
+                    : page.persons.size() >= size;
+            nextIndex = more ? (pageNumbers ? page.index + 1 : page.index + page.persons.size()) : null;
+            if (nextIndex != null && prefetch) {
+                int index = nextIndex;
+                next = CompletableFuture.supplyAsync(() -> fetch(index), prefetchExecutor);
+            }
+        }
+
+        private RosterPage fetch(int index) {
+            try {
+                return fetchPage(hostInfo, deviceKey, secret, index);
+            } catch (RosterScanException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RosterScanException("Failed to read roster page " + index + ": " + e.getMessage(), index, e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (current != null && position >= current.persons.size()) {
+                if (nextIndex == null) {
+                    current = null;
+                    break;
+                }
+                RosterPage page;
+                if (next != null) {
+                    try {
+                        page = next.join();
+                    } catch (CompletionException e) {
+                        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                    } finally {
+                        next = null;
+                    }
+                } else {
+                    page = fetch(nextIndex);
+                }
+                accept(page);
+            }
+            return current != null;
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            delivered++;
+            return current.persons.get(position++);
+        }
+
+        void close() {
+            if (next != null) {
+                next.cancel(false);
+                next = null;
+            }
+            current = null;
+            nextIndex = null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,177 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Net;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * OpenCV DNN face detection with the res10 300x300 SSD Caffe model, which copes better than
+ * Haar with angled and dim faces. The model files are not shipped with the service: they are
+ * read from face.detection.dnn.model-dir when set, otherwise from models/ on the classpath if a
+ * deployment packages them there; without them the engine reports itself unavailable and the
+ * pipeline falls back to Haar.
+ */
+@Component
+public class DnnFaceDetector implements FaceDetector {
+
+    private static final Logger log = LoggerFactory.getLogger(DnnFaceDetector.class);
+
+    public static final String NAME = "dnn";
+
+    static final String PROTOTXT = "deploy.prototxt";
+    static final String CAFFEMODEL = "res10_300x300_ssd_iter_140000.caffemodel";
+
+    private static final Size INPUT_SIZE = new Size(300, 300);
+    // Per-channel means the res10 model was trained with (BGR)
+    private static final Scalar MEAN = new Scalar(104.0, 177.0, 123.0);
+
+    @Value("${face.detection.dnn.model-dir:}")
+    private String modelDir;
+
+    @Value("${face.detection.dnn.confidence:0.5}")
+    private double minConfidence;
+
+    @Value("${face.detection.pool-size:0}")
+    private int poolSize;
+
+    // Net.forward keeps per-network state, so each detection uses its own pooled network
+    private BlockingQueue<Net> pool;
+
+    @PostConstruct
+    public void initialize() {
+        if (!OpenCvLoader.load()) {
+            return;
+        }
+        try {
+            File prototxt = locate(PROTOTXT);
+            File caffemodel = locate(CAFFEMODEL);
+            if (prototxt == null || caffemodel == null) {
+                log.info("DNN face model not found ({} / {}), DNN engine unavailable", PROTOTXT, CAFFEMODEL);
+                return;
+            }
+            int size = poolSize > 0 ? poolSize : Math.max(2, Runtime.getRuntime().availableProcessors());
+            BlockingQueue<Net> nets = new ArrayBlockingQueue<>(size);
+            for (int i = 0; i < size; i++) {
+                Net net = Dnn.readNetFromCaffe(prototxt.getAbsolutePath(), caffemodel.getAbsolutePath());
+                if (net.empty()) {
+                    log.warn("DNN face model could not be loaded, DNN engine unavailable");
+                    return;
+                }
+                nets.add(net);
+            }
+            pool = nets;
+            log.info("DNN face detection model loaded (pool size {}, min confidence {})", size, minConfidence);
+        } catch (Throwable e) {
+            log.warn("DNN face detection initialization failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Model file from the configured directory, or copied out of the classpath (readNetFromCaffe needs paths)
+     */
+    private File locate(String name) throws Exception {
+        if (modelDir != null && !modelDir.isEmpty()) {
+            File file = new File(modelDir, name);
+            return file.isFile() ? file : null;
+        }
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("models/" + name)) {
+            if (in == null) {
+                return null;
+            }
+            File file = File.createTempFile("face-dnn-", "-" + name);
+            file.deleteOnExit();
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return file;
+        }
+    }
+
+    @Override
+    public String getName() { return NAME; }
+
+    @Override
+    public boolean isAvailable() { return pool != null; }
+
+    @Override
+    public FaceDetectionResult detect(Mat image) {
+        if (pool == null) {
+            return FaceDetectionResult.skipped("DNN face detector not initialized");
+        }
+
+        long startTime = System.nanoTime();
+        Mat blob = null;
+        Mat output = null;
+        Net net = null;
+        try {
+            // The network always sees a 300x300 view of the image, so no separate downscale is needed
+            blob = Dnn.blobFromImage(image, 1.0, INPUT_SIZE, MEAN, false, false);
+            net = pool.take();
+            net.setInput(blob);
+            output = net.forward();
+            pool.offer(net);
+            net = null;
+
+            // Output is 1x1xNx7: [image, class, confidence, left, top, right, bottom] (relative coordinates)
+            Mat detections = output.reshape(1, (int) (output.total() / 7));
+            int faceCount = 0;
+            Rect largestFace = null;
+            float[] row = new float[7];
+            for (int i = 0; i < detections.rows(); i++) {
+                detections.get(i, 0, row);
+                if (row[2] < minConfidence) {
+                    continue;
+                }
+                int left = clamp(Math.round(row[3] * image.width()), image.width());
+                int top = clamp(Math.round(row[4] * image.height()), image.height());
+                int right = clamp(Math.round(row[5] * image.width()), image.width());
+                int bottom = clamp(Math.round(row[6] * image.height()), image.height());
+                if (right <= left || bottom <= top) {
+                    continue;
+                }
+                faceCount++;
+                Rect face = new Rect(left, top, right - left, bottom - top);
+                if (largestFace == null || face.area() > largestFace.area()) {
+                    largestFace = face;
+                }
+            }
+            detections.release();
+            return FaceDetectionResult.of(NAME, faceCount, largestFace, image.width(), image.height(),
+                    (System.nanoTime() - startTime) / 1_000_000);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return FaceDetectionResult.skipped("Face detection interrupted");
+        } catch (Throwable e) {
+            log.warn("DNN face detection failed: {}", e.getMessage());
+            return FaceDetectionResult.failed("Face detection error: " + e.getMessage());
+        } finally {
+            if (net != null) {
+                pool.offer(net);
+            }
+            if (blob != null) {
+                blob.release();
+            }
+            if (output != null) {
+                output.release();
+            }
+        }
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+}
@@ -0,0 +1,125 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What was last enrolled successfully on each device, per employee: the SHA-256 of the
+ * normalised face image together with the name and verify style sent with it. An enrollment
+ * whose content hash matches, for a person that still exists on the device, is already in
+ * sync and needs no create/merge or faceMerge. Entries are dropped when the person or face
+ * is deleted or updated. The index is written to device.state-dir shortly after each change
+ * and on shutdown, and read back at startup.
+ */
+@Service
+public class EnrollmentHashIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(EnrollmentHashIndex.class);
+
+    static final String FILE_NAME = "enrollment-hashes.json";
+
+    @Value("${device.state-dir:./device-state}")
+    private String stateDir;
+
+    // Changes are batched into one write per delay
+    @Value("${device.enrollment-hash.flush-delay-ms:1000}")
+    private long flushDelayMs;
+
+    // deviceKey -> employeeId -> content hash
+    private final Map<String, Map<String, String>> hashes = new ConcurrentHashMap<>();
+
+    private StateFile<Map<String, Map<String, String>>> stateFile;
+
+    @PostConstruct
+    public void load() {
+        stateFile = new StateFile<>(stateDir, FILE_NAME, new TypeReference<Map<String, Map<String, String>>>() { },
+                flushDelayMs, "XO5-Enrollment-Index", this::snapshot);
+        // A missing or damaged index only costs redundant device writes, so start empty
+        Map<String, Map<String, String>> stored = stateFile.read();
+        if (stored == null) {
+            log.info("No readable enrollment hash index at {}, starting empty", stateFile.getFile().getAbsolutePath());
+            return;
+        }
+        stored.forEach((deviceKey, employees) -> hashes.put(deviceKey, new ConcurrentHashMap<>(employees)));
+        log.info("Loaded enrollment hash index: {} device(s), {} employee(s)", hashes.size(), size());
+    }
+
+    /**
+     * SHA-256 over everything the enrollment writes to the device: name, verify style and the
+     * normalised image bytes
+     */
+    public String contentHash(String fullName, Integer verificationStyle, byte[] imageBytes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        digest.update(String.valueOf(fullName).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(String.valueOf(verificationStyle).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        byte[] hash = digest.digest(imageBytes);
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    public boolean matches(String deviceKey, String employeeId, String contentHash) {
+        Map<String, String> employees = hashes.get(deviceKey);
+        return employees != null && contentHash.equals(employees.get(employeeId));
+    }
+
+    /**
+     * Record a successful enrollment
+     */
+    public void put(String deviceKey, String employeeId, String contentHash) {
+        String previous = hashes.computeIfAbsent(deviceKey, k -> new ConcurrentHashMap<>()).put(employeeId, contentHash);
+        if (!contentHash.equals(previous)) {
+            stateFile.changed();
+        }
+    }
+
+    /**
+     * Forget an employee after its person, face or details changed on the device
+     */
+    public void remove(String deviceKey, String employeeId) {
+        Map<String, String> employees = hashes.get(deviceKey);
+        if (employees != null && employees.remove(employeeId) != null) {
+            stateFile.changed();
+        }
+    }
+
+    public int size() {
+        return hashes.values().stream().mapToInt(Map::size).sum();
+    }
+
+    private Map<String, Map<String, String>> snapshot() {
+        Map<String, Map<String, String>> snapshot = new HashMap<>();
+        hashes.forEach((deviceKey, employees) -> {
+            if (!employees.isEmpty()) {
+                snapshot.put(deviceKey, new HashMap<>(employees));
+            }
+        });
+        return snapshot;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stateFile.close();
+    }
+}
@@ -0,0 +1,78 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import com.hfims.xcan.gateway.tcp.demo.support.BaseResult;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A device enrollment submitted to a device lane.
+ * The job's future always completes normally with the final BaseResult
+ * (failures are already mapped to a failure result), so callers can poll
+ * the status or attach callbacks without handling exceptions.
+ */
+public class EnrollmentJob {
+
+    public enum Status { QUEUED, RUNNING, SUCCEEDED, FAILED }
+
+    private final String jobId;
+    private final String type;
+    private final String employeeId;
+    private final String deviceKey;
+    private final long createdAt = System.currentTimeMillis();
+    private final CompletableFuture<BaseResult> future = new CompletableFuture<>();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile Long startedAt;
+    private volatile Long completedAt;
+    private volatile BaseResult result;
+
+    EnrollmentJob(String jobId, String type, String employeeId, String deviceKey) {
+        this.jobId = jobId;
+        this.type = type;
+        this.employeeId = employeeId;
+        this.deviceKey = deviceKey;
+    }
+
+    void markRunning() {
+        startedAt = System.currentTimeMillis();
+        status = Status.RUNNING;
+    }
+
+    void complete(BaseResult result) {
+        this.result = result;
+        this.completedAt = System.currentTimeMillis();
+        this.status = result != null && Boolean.TRUE.equals(result.getSuccess()) ? Status.SUCCEEDED : Status.FAILED;
+        future.complete(result);
+    }
+
+    public boolean isDone() {
+        return status == Status.SUCCEEDED || status == Status.FAILED;
+    }
+
+    public String getJobId() { return jobId; }
+    public String getType() { return type; }
+    public String getEmployeeId() { return employeeId; }
+    public String getDeviceKey() { return deviceKey; }
+    public Status getStatus() { return status; }
+    public long getCreatedAt() { return createdAt; }
+    public Long getStartedAt() { return startedAt; }
+    public Long getCompletedAt() { return completedAt; }
+    public BaseResult getResult() { return result; }
+    public CompletableFuture<BaseResult> getFuture() { return future; }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("jobId", jobId);
+        map.put("type", type);
+        map.put("employeeId", employeeId);
+        map.put("deviceKey", deviceKey);
+        map.put("status", status.name());
+        map.put("createdAt", createdAt);
+        map.put("startedAt", startedAt);
+        map.put("completedAt", completedAt);
+        map.put("result", result);
+        return map;
+    }
+}
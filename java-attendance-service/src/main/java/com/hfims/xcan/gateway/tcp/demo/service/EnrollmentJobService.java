@@ -0,0 +1,97 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import com.hfims.xcan.gateway.tcp.demo.support.BaseResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Tracks enrollment jobs running on device lanes so HTTP callers can get a job ID
+ * immediately and poll GET /api/jobs/{id} instead of holding a request thread open.
+ * Finished jobs are kept for the configured retention period and then evicted.
+ */
+@Service
+public class EnrollmentJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(EnrollmentJobService.class);
+
+    @Autowired
+    private DeviceLaneRegistry deviceLaneRegistry;
+
+    @Value("${device.jobs.retention-ms:3600000}")
+    private long retentionMs;
+
+    private final Map<String, EnrollmentJob> jobs = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "XO5-Job-Cleaner");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    public void start() {
+        long interval = Math.max(60000L, retentionMs / 4);
+        cleaner.scheduleWithFixedDelay(this::evictExpiredJobs, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue a task on the device's lane and track it as a job.
+     *
+     * @param failureMapper turns an exception thrown by the task into the failure result stored on the job
+     * @throws DeviceQueueFullException when the device's queue is full; no job is recorded
+     */
+    public EnrollmentJob submit(String type, String employeeId, String deviceKey,
+                                Callable<BaseResult> task, Function<Throwable, BaseResult> failureMapper) {
+        EnrollmentJob job = new EnrollmentJob(UUID.randomUUID().toString(), type, employeeId, deviceKey);
+        jobs.put(job.getJobId(), job);
+
+        CompletableFuture<BaseResult> future;
+        try {
+            future = deviceLaneRegistry.submit(deviceKey, () -> {
+                job.markRunning();
+                return task.call();
+            });
+        } catch (RuntimeException e) {
+            jobs.remove(job.getJobId());
+            throw e;
+        }
+        future.whenComplete((result, error) -> {
+            if (error != null) {
+                job.complete(failureMapper.apply(error));
+            } else {
+                job.complete(result);
+            }
+            log.info("Job {} ({} for {}) finished with status {}", job.getJobId(), type, employeeId, job.getStatus());
+        });
+        return job;
+    }
+
+    public EnrollmentJob getJob(String jobId) {
+        return jobId == null ? null : jobs.get(jobId);
+    }
+
+    void evictExpiredJobs() {
+        long cutoff = System.currentTimeMillis() - retentionMs;
+        jobs.values().removeIf(job -> job.isDone() && job.getCompletedAt() != null && job.getCompletedAt() < cutoff);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cleaner.shutdownNow();
+    }
+}
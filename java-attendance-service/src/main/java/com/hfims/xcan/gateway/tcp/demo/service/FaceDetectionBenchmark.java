@@ -0,0 +1,163 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import com.hfims.xcan.gateway.tcp.demo.service.HaarFaceDetector.DetectionProfile;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Compares the Haar detection profiles and the other available engines on a set of sample
+ * images: time per detection and how often each one agrees with full-resolution Haar
+ * (haar:ACCURATE), both on the number of faces and on the largest face (intersection over
+ * union of at least 0.5). Runs outside the engines' live statistics.
+ */
+@Service
+public class FaceDetectionBenchmark {
+
+    private static final double MIN_IOU = 0.5;
+    private static final String REFERENCE = HaarFaceDetector.NAME + ":" + DetectionProfile.ACCURATE.name();
+
+    @Autowired
+    private FaceImagePipeline faceImagePipeline;
+
+    @Autowired
+    private HaarFaceDetector haarFaceDetector;
+
+    /**
+     * One way of detecting faces and its running totals
+     */
+    private static class Variant {
+        final String name;
+        final Function<Mat, FaceDetectionResult> detect;
+        long totalNanos;
+        long maxNanos;
+        int imagesWithFace;
+        int countAgreement;
+        int faceAgreement;
+
+        Variant(String name, Function<Mat, FaceDetectionResult> detect) {
+            this.name = name;
+            this.detect = detect;
+        }
+    }
+
+    public Map<String, Object> run(List<String> base64Images, int iterations) {
+        int runs = Math.max(1, iterations);
+        List<Variant> variants = new ArrayList<>();
+        for (DetectionProfile profile : DetectionProfile.values()) {
+            variants.add(new Variant(HaarFaceDetector.NAME + ":" + profile.name(), mat -> haarFaceDetector.detect(mat, profile, 0)));
+        }
+        for (FaceDetector detector : faceImagePipeline.getDetectors()) {
+            if (detector != haarFaceDetector && detector.isAvailable()) {
+                variants.add(new Variant(detector.getName(), detector::detect));
+            }
+        }
+
+        List<Map<String, Object>> perImage = new ArrayList<>();
+        int measured = 0;
+        for (int i = 0; i < base64Images.size(); i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("index", i);
+            FaceImage image;
+            try {
+                image = faceImagePipeline.decode(base64Images.get(i));
+            } catch (IllegalArgumentException e) {
+                row.put("error", e.getMessage());
+                perImage.add(row);
+                continue;
+            }
+            try {
+                Mat pixels = image.mat();
+                if (pixels.empty()) {
+                    row.put("error", "Unable to decode image");
+                    perImage.add(row);
+                    continue;
+                }
+                row.put("width", pixels.width());
+                row.put("height", pixels.height());
+                measured++;
+
+                Map<String, FaceDetectionResult> results = new LinkedHashMap<>();
+                for (Variant variant : variants) {
+                    FaceDetectionResult result = null;
+                    for (int run = 0; run < runs; run++) {
+                        long start = System.nanoTime();
+                        result = variant.detect.apply(pixels);
+                        long nanos = System.nanoTime() - start;
+                        variant.totalNanos += nanos;
+                        variant.maxNanos = Math.max(variant.maxNanos, nanos);
+                    }
+                    results.put(variant.name, result);
+                }
+
+                FaceDetectionResult reference = results.get(REFERENCE);
+                for (Variant variant : variants) {
+                    FaceDetectionResult result = results.get(variant.name);
+                    if (result.getFaceCount() > 0) {
+                        variant.imagesWithFace++;
+                    }
+                    if (result.getFaceCount() == reference.getFaceCount()) {
+                        variant.countAgreement++;
+                    }
+                    boolean sameFace = reference.getLargestFace() == null
+                            ? result.getLargestFace() == null
+                            : result.getLargestFace() != null && iou(reference.getLargestFace(), result.getLargestFace()) >= MIN_IOU;
+                    if (sameFace) {
+                        variant.faceAgreement++;
+                    }
+                    Map<String, Object> cell = new LinkedHashMap<>();
+                    cell.put("faces", result.getFaceCount());
+                    cell.put("largestFace", result.getLargestFace() != null ? result.getLargestFace().toString() : null);
+                    cell.put("elapsedMs", result.getElapsedMs());
+                    row.put(variant.name, cell);
+                }
+            } finally {
+                image.releaseMat();
+            }
+            perImage.add(row);
+        }
+
+        Map<String, Object> summaries = new LinkedHashMap<>();
+        for (Variant variant : variants) {
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("meanMs", measured == 0 ? 0 : variant.totalNanos / 1_000_000.0 / (measured * runs));
+            summary.put("maxMs", variant.maxNanos / 1_000_000.0);
+            summary.put("imagesWithFace", variant.imagesWithFace);
+            summary.put("faceCountAgreement", ratio(variant.countAgreement, measured));
+            summary.put("largestFaceAgreement", ratio(variant.faceAgreement, measured));
+            summaries.put(variant.name, summary);
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("images", base64Images.size());
+        report.put("measured", measured);
+        report.put("iterations", runs);
+        report.put("reference", REFERENCE);
+        report.put("activeEngine", faceImagePipeline.getActiveDetector().getName());
+        report.put("configuredProfile", haarFaceDetector.getProfile().name());
+        report.put("variants", summaries);
+        report.put("perImage", perImage);
+        return report;
+    }
+
+    private static double ratio(int count, int total) {
+        return total == 0 ? 0 : (double) count / total;
+    }
+
+    private static double iou(Rect a, Rect b) {
+        int x1 = Math.max(a.x, b.x);
+        int y1 = Math.max(a.y, b.y);
+        int x2 = Math.min(a.x + a.width, b.x + b.width);
+        int y2 = Math.min(a.y + a.height, b.y + b.height);
+        double intersection = Math.max(0, x2 - x1) * (double) Math.max(0, y2 - y1);
+        double union = a.area() + b.area() - intersection;
+        return union <= 0 ? 0 : intersection / union;
+    }
+}
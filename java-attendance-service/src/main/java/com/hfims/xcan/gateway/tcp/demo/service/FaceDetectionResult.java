@@ -0,0 +1,77 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import org.opencv.core.Rect;
+
+/**
+ * Result class for face detection operations
+ */
+public class FaceDetectionResult {
+    private final boolean success;
+    private final boolean skipped;
+    private final int faceCount;
+    private final String message;
+    // Largest face in the coordinates of the detected image, and its share of the image area
+    private final Rect largestFace;
+    private final double faceRatio;
+    private long elapsedMs;
+    private String engine;
+
+    private FaceDetectionResult(boolean success, boolean skipped, int faceCount, String message,
+                                Rect largestFace, double faceRatio) {
+        this.success = success;
+        this.skipped = skipped;
+        this.faceCount = faceCount;
+        this.message = message;
+        this.largestFace = largestFace;
+        this.faceRatio = faceRatio;
+    }
+
+    public static FaceDetectionResult success(int faceCount, String message) {
+        return new FaceDetectionResult(true, false, faceCount, message, null, 0);
+    }
+
+    public static FaceDetectionResult success(int faceCount, String message, Rect largestFace, double faceRatio) {
+        return new FaceDetectionResult(true, false, faceCount, message, largestFace, faceRatio);
+    }
+
+    public static FaceDetectionResult failed(String message) {
+        return new FaceDetectionResult(false, false, 0, message, null, 0);
+    }
+
+    public static FaceDetectionResult skipped(String message) {
+        return new FaceDetectionResult(true, true, 0, message, null, 0);
+    }
+
+    /**
+     * Result of a detection that ran: success with the largest face, or the "no face" failure
+     */
+    static FaceDetectionResult of(String engine, int faceCount, Rect largestFace, int imageWidth, int imageHeight,
+                                  long elapsedMs) {
+        FaceDetectionResult result;
+        if (faceCount == 0 || largestFace == null) {
+            result = failed("No face detected in the image. Please ensure:\n" +
+                "  - Face is clearly visible and centered\n" +
+                "  - Good lighting without shadows\n" +
+                "  - Front-facing (not at an angle)\n" +
+                "  - No glasses, hats, or face coverings\n" +
+                "  - Face occupies at least 30% of the image");
+        } else {
+            double faceRatio = largestFace.area() / ((double) imageWidth * imageHeight);
+            // Less than 5% of the image may affect recognition quality
+            String message = faceRatio < 0.05 ? "Face detected but small" : "Face detected successfully";
+            result = success(faceCount, message, largestFace, faceRatio);
+        }
+        result.engine = engine;
+        result.elapsedMs = elapsedMs;
+        return result;
+    }
+
+    public boolean isSuccess() { return success; }
+    public boolean isSkipped() { return skipped; }
+    public int getFaceCount() { return faceCount; }
+    public String getMessage() { return message; }
+    public Rect getLargestFace() { return largestFace; }
+    public double getFaceRatio() { return faceRatio; }
+    public long getElapsedMs() { return elapsedMs; }
+    public String getEngine() { return engine; }
+}
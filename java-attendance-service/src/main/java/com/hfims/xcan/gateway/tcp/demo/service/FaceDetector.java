@@ -0,0 +1,25 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import org.opencv.core.Mat;
+
+/**
+ * A face detection engine. Implementations must be safe to call from several image prep
+ * threads at once and return rectangles in the coordinates of the image passed in.
+ */
+public interface FaceDetector {
+
+    /**
+     * Engine name used for face.detection.engine and in statistics
+     */
+    String getName();
+
+    /**
+     * False when the engine's model could not be loaded
+     */
+    boolean isAvailable();
+
+    /**
+     * Detect faces in BGR pixels
+     */
+    FaceDetectionResult detect(Mat image);
+}
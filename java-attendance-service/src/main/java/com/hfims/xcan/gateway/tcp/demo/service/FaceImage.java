@@ -0,0 +1,205 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * One enrollment image as it moves through the pipeline.
+ * The upload is base64-decoded once; the raw bytes, the sniffed format and the decoded
+ * Mat are kept here so validation, face detection and re-encoding all work on the same
+ * state. The base64 form the SDK needs is produced lazily, once, by {@link #toBase64()}.
+ * Not thread-safe: an image belongs to one enrollment at a time.
+ */
+public final class FaceImage {
+
+    private byte[] bytes;
+    private String format;
+    private Mat mat;
+    private String base64;
+    private final int originalSize;
+    private FaceDetectionResult detection;
+    private FaceQualityReport quality;
+    private boolean deviceOutcomeRecorded;
+
+    private FaceImage(byte[] bytes, String base64) {
+        this(bytes, base64, bytes.length);
+    }
+
+    private FaceImage(byte[] bytes, String base64, int originalSize) {
+        this.bytes = bytes;
+        this.base64 = base64;
+        this.format = sniffFormat(bytes);
+        this.originalSize = originalSize;
+    }
+
+    /**
+     * Decode an uploaded image: optional data URL prefix, embedded whitespace and missing
+     * padding are handled in a single pass without intermediate string copies.
+     *
+     * @throws IllegalArgumentException when the input is empty or not valid base64
+     */
+    public static FaceImage fromBase64(String input) {
+        if (input == null) {
+            throw new IllegalArgumentException("Face image is required");
+        }
+        int start = input.indexOf(',') + 1; // strip "data:image/jpeg;base64," if present
+        byte[] ascii = new byte[input.length() - start];
+        int length = 0;
+        for (int i = start; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                ascii[length++] = (byte) c;
+            }
+        }
+        if (length == 0) {
+            throw new IllegalArgumentException("Face image is required");
+        }
+        byte[] decoded;
+        try {
+            // The basic decoder rejects illegal characters but does not require padding
+            decoded = Base64.getDecoder().decode(length == ascii.length ? ascii : Arrays.copyOf(ascii, length));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid Base64 image data: " + e.getMessage());
+        }
+        if (decoded.length == 0) {
+            throw new IllegalArgumentException("Face image is required");
+        }
+        // Already canonical when nothing was stripped and the input was padded
+        String canonical = start == 0 && length == input.length() && length % 4 == 0 ? input : null;
+        return new FaceImage(decoded, canonical);
+    }
+
+    public static FaceImage fromBytes(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            throw new IllegalArgumentException("Face image is required");
+        }
+        return new FaceImage(bytes, null);
+    }
+
+    /**
+     * An independent image for another enrollment of the same prepared upload (e.g. the same
+     * employee on several devices). The bytes and cached base64 are shared - neither is ever
+     * modified in place - while pixels are decoded again only if a retry needs them.
+     */
+    public FaceImage copy() {
+        FaceImage copy = new FaceImage(bytes, base64, originalSize);
+        copy.detection = detection;
+        copy.quality = quality;
+        return copy;
+    }
+
+    public byte[] getBytes() { return bytes; }
+
+    public int size() { return bytes.length; }
+
+    public int getOriginalSize() { return originalSize; }
+
+    /**
+     * "JPEG", "PNG", "GIF", "BMP" or "Unknown", from the byte header
+     */
+    public String getFormat() { return format; }
+
+    public boolean isJpeg() { return "JPEG".equals(format); }
+
+    /**
+     * Decoded BGR pixels, decoded on first use. Empty when OpenCV cannot decode the bytes.
+     */
+    public Mat mat() {
+        if (mat == null) {
+            mat = Imgcodecs.imdecode(new MatOfByte(bytes), Imgcodecs.IMREAD_COLOR);
+        }
+        return mat;
+    }
+
+    public boolean isDecoded() { return mat != null; }
+
+    /**
+     * Replace the image with a re-encoded JPEG. The pixels it was encoded from become the
+     * decoded state so later stages do not decode the new bytes again.
+     */
+    public void replace(byte[] jpegBytes, Mat pixels) {
+        if (mat != null && mat != pixels) {
+            mat.release();
+        }
+        this.bytes = jpegBytes;
+        this.format = "JPEG";
+        this.mat = pixels;
+        this.base64 = null;
+    }
+
+    /**
+     * Base64 for FaceMergeReq.setImgBase64, encoded once and cached
+     */
+    public String toBase64() {
+        if (base64 == null) {
+            base64 = new String(Base64.getEncoder().encode(bytes), StandardCharsets.ISO_8859_1);
+        }
+        return base64;
+    }
+
+    /**
+     * Face detection result from the pipeline, or null when detection has not run
+     */
+    public FaceDetectionResult getDetection() { return detection; }
+
+    public void setDetection(FaceDetectionResult detection) { this.detection = detection; }
+
+    /**
+     * Quality pre-screen result, or null when the pre-screen has not run
+     */
+    public FaceQualityReport getQuality() { return quality; }
+
+    public void setQuality(FaceQualityReport quality) { this.quality = quality; }
+
+    /**
+     * True the first time only, so the device's first verdict on this image is counted once
+     */
+    boolean markDeviceOutcomeRecorded() {
+        if (deviceOutcomeRecorded) {
+            return false;
+        }
+        deviceOutcomeRecorded = true;
+        return true;
+    }
+
+    /**
+     * Drop the decoded pixels; the bytes stay usable for the device upload
+     */
+    public void releaseMat() {
+        if (mat != null) {
+            mat.release();
+            mat = null;
+        }
+    }
+
+    /**
+     * Detects image format from byte header
+     */
+    public static String sniffFormat(byte[] imageBytes) {
+        if (imageBytes.length < 10) {
+            return "Unknown";
+        }
+        // JPEG: FF D8 FF
+        if (imageBytes[0] == (byte) 0xFF && imageBytes[1] == (byte) 0xD8 && imageBytes[2] == (byte) 0xFF) {
+            return "JPEG";
+        }
+        // PNG: 89 50 4E 47
+        if (imageBytes[0] == (byte) 0x89 && imageBytes[1] == 0x50 && imageBytes[2] == 0x4E && imageBytes[3] == 0x47) {
+            return "PNG";
+        }
+        // GIF: 47 49 46 38
+        if (imageBytes[0] == 0x47 && imageBytes[1] == 0x49 && imageBytes[2] == 0x46 && imageBytes[3] == 0x38) {
+            return "GIF";
+        }
+        // BMP: 42 4D
+        if (imageBytes[0] == 0x42 && imageBytes[1] == 0x4D) {
+            return "BMP";
+        }
+        return "Unknown";
+    }
+}
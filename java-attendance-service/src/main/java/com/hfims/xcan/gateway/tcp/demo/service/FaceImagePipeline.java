@@ -0,0 +1,418 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Image stages of an enrollment, run on a {@link FaceImage} so the upload is decoded once:
+ * base64 decoding, normalisation for the XO5 (resize to the preferred bounds and JPEG
+ * re-encode within a byte budget), face detection with the engine selected by
+ * face.detection.engine, a quality pre-screen and an optional crop to the detected face.
+ * Detection latency, hit rate and the device's first-attempt acceptance are counted per
+ * engine so engines can be compared on real traffic.
+ */
+@Service
+public class FaceImagePipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(FaceImagePipeline.class);
+
+    // Byte budget and bounds used when re-encoding uploads before faceMerge
+    @Value("${xo5.image.max-bytes:180000}")
+    private int maxBytes;
+
+    @Value("${xo5.image.max-long-side:640}")
+    private int maxLongSide;
+
+    @Value("${xo5.image.max-short-side:480}")
+    private int maxShortSide;
+
+    @Value("${xo5.image.jpeg-min-quality:40}")
+    private int minQuality;
+
+    @Value("${xo5.image.jpeg-max-quality:90}")
+    private int maxQuality;
+
+    // Crop to the largest detected face (plus margin) at the device's recognition resolution
+    @Value("${xo5.image.face-crop.enabled:false}")
+    private boolean faceCropEnabled;
+
+    // Added on every side, as a fraction of the face's width/height
+    @Value("${xo5.image.face-crop.margin:0.5}")
+    private double faceCropMargin;
+
+    @Value("${xo5.image.face-crop.width:360}")
+    private int faceCropWidth;
+
+    @Value("${xo5.image.face-crop.height:480}")
+    private int faceCropHeight;
+
+    @Value("${face.quality.enabled:true}")
+    private boolean qualityCheckEnabled;
+
+    // haar or dnn; dnn falls back to haar when its model is not installed
+    @Value("${face.detection.engine:haar}")
+    private String engineName;
+
+    @Autowired
+    private List<FaceDetector> detectors;
+
+    @Autowired
+    private HaarFaceDetector haarFaceDetector;
+
+    @Autowired
+    private FaceQualityScorer faceQualityScorer;
+
+    private volatile boolean openCvLoaded;
+    private FaceDetector activeDetector;
+    private final Map<String, EngineCounters> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Running totals for one detection engine
+     */
+    private static class EngineCounters {
+        final LongAdder detections = new LongAdder();
+        final LongAdder facesFound = new LongAdder();
+        final LongAdder noFace = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder totalMs = new LongAdder();
+        final LongAccumulator maxMs = new LongAccumulator(Math::max, 0);
+        final LongAdder deviceFirstAttemptAccepted = new LongAdder();
+        final LongAdder deviceFirstAttemptRejected = new LongAdder();
+    }
+
+    @PostConstruct
+    public void initialize() {
+        openCvLoaded = OpenCvLoader.load();
+        for (FaceDetector detector : detectors) {
+            if (detector.getName().equalsIgnoreCase(engineName.trim())) {
+                activeDetector = detector;
+            }
+        }
+        if (activeDetector == null || !activeDetector.isAvailable()) {
+            log.warn("Face detection engine '{}' is not available, using {}", engineName, HaarFaceDetector.NAME);
+            activeDetector = haarFaceDetector;
+        }
+        log.info("Face detection engine: {} (available: {})", activeDetector.getName(), activeDetector.isAvailable());
+    }
+
+    public boolean isOpenCvLoaded() { return openCvLoaded; }
+
+    public int getMaxBytes() { return maxBytes; }
+
+    /**
+     * Decode an uploaded base64 image (data URL prefix and whitespace allowed)
+     */
+    public FaceImage decode(String base64Image) {
+        return FaceImage.fromBase64(base64Image);
+    }
+
+    /**
+     * Resize the image to the device's preferred bounds and re-encode it as JPEG, binary-searching
+     * the quality so the result fits maxBytes. The image's bytes and decoded pixels are replaced.
+     *
+     * @return false when the image could not be decoded or made to fit; it is left unchanged then
+     */
+    public boolean normalize(FaceImage image, int maxBytes) {
+        if (!openCvLoaded) {
+            log.warn("OpenCV not available, image cannot be re-encoded");
+            return false;
+        }
+        try {
+            long startTime = System.currentTimeMillis();
+            Mat source = image.mat();
+            if (source.empty()) {
+                log.warn("Unable to decode {} image ({} bytes) for compression", image.getFormat(), image.size());
+                return false;
+            }
+            int originalBytes = image.size();
+
+            // Fit the longer side to max-long-side and the shorter side to max-short-side (640x480 or 480x640)
+            int longSide = Math.max(source.width(), source.height());
+            int shortSide = Math.min(source.width(), source.height());
+            double scale = Math.min(1.0, Math.min((double) maxLongSide / longSide, (double) maxShortSide / shortSide));
+
+            // A few shrink rounds in case even the lowest quality does not fit at the current size
+            for (int round = 0; round < 4; round++) {
+                Mat scaled = source;
+                if (scale < 1.0) {
+                    scaled = new Mat();
+                    Imgproc.resize(source, scaled, new Size(Math.round(source.width() * scale), Math.round(source.height() * scale)),
+                            0, 0, Imgproc.INTER_AREA);
+                }
+                byte[] encoded = encodeJpegWithinBudget(scaled, maxBytes);
+                if (encoded != null) {
+                    image.replace(encoded, scaled);
+                    log.info("Image re-encoded: {} -> {} bytes at {}x{} in {}ms", originalBytes, encoded.length,
+                            scaled.width(), scaled.height(), System.currentTimeMillis() - startTime);
+                    return true;
+                }
+                if (scaled != source) {
+                    scaled.release();
+                }
+                scale *= 0.75;
+            }
+            log.warn("Could not fit image into {} bytes", maxBytes);
+            return false;
+
+        } catch (Throwable e) {
+            // UnsatisfiedLinkError included: the caller keeps the original image
+            log.warn("Image compression failed: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Crop the image to the largest face found by {@link #detectFace(FaceImage)}, widened by the
+     * configured margin and to the aspect ratio of the recognition resolution, then scale it down
+     * to that resolution and re-encode it within maxBytes and the current size. The detection
+     * result keeps describing the image as uploaded.
+     *
+     * @return false when cropping is disabled, no face was detected or the crop would not make
+     *         the image smaller; it is left unchanged then
+     */
+    public boolean cropToFace(FaceImage image, int maxBytes) {
+        FaceDetectionResult detection = image.getDetection();
+        if (!faceCropEnabled || !openCvLoaded || detection == null || !detection.isSuccess()
+                || detection.getLargestFace() == null) {
+            return false;
+        }
+        try {
+            long startTime = System.currentTimeMillis();
+            Mat source = image.mat();
+            if (source.empty()) {
+                return false;
+            }
+            Rect box = faceCropBox(detection.getLargestFace(), source.width(), source.height());
+            double scale = Math.min(1.0, Math.min((double) faceCropWidth / box.width, (double) faceCropHeight / box.height));
+            if (scale == 1.0 && box.area() >= 0.9 * source.width() * source.height()) {
+                return false; // the face already fills the frame
+            }
+
+            Mat region = source.submat(box);
+            Mat cropped = new Mat();
+            if (scale < 1.0) {
+                Imgproc.resize(region, cropped, new Size(Math.round(box.width * scale), Math.round(box.height * scale)),
+                        0, 0, Imgproc.INTER_AREA);
+            } else {
+                region.copyTo(cropped);
+            }
+            region.release();
+
+            // Never larger than what would be sent without the crop
+            int budget = Math.min(maxBytes, image.size());
+            byte[] encoded = encodeJpegWithinBudget(cropped, budget);
+            if (encoded == null) {
+                cropped.release();
+                log.debug("Face crop does not fit into {} bytes, keeping the full image", budget);
+                return false;
+            }
+            int previousBytes = image.size();
+            image.replace(encoded, cropped);
+            log.info("Cropped to face: {} -> {} bytes at {}x{} in {}ms", previousBytes, encoded.length,
+                    cropped.width(), cropped.height(), System.currentTimeMillis() - startTime);
+            return true;
+
+        } catch (Throwable e) {
+            log.warn("Face crop failed: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Face rectangle grown by the margin and to the target aspect ratio, kept inside the image
+     */
+    private Rect faceCropBox(Rect face, int imageWidth, int imageHeight) {
+        double width = face.width * (1 + 2 * faceCropMargin);
+        double height = face.height * (1 + 2 * faceCropMargin);
+        double aspect = (double) faceCropWidth / faceCropHeight;
+        if (width / height < aspect) {
+            width = height * aspect;
+        } else {
+            height = width / aspect;
+        }
+        double fit = Math.min(1.0, Math.min(imageWidth / width, imageHeight / height));
+        int w = Math.max(1, (int) Math.round(width * fit));
+        int h = Math.max(1, (int) Math.round(height * fit));
+        int x = (int) Math.round(face.x + face.width / 2.0 - w / 2.0);
+        int y = (int) Math.round(face.y + face.height / 2.0 - h / 2.0);
+        x = Math.max(0, Math.min(x, imageWidth - w));
+        y = Math.max(0, Math.min(y, imageHeight - h));
+        return new Rect(x, y, w, h);
+    }
+
+    /**
+     * Highest JPEG quality between min-quality and max-quality whose encoding fits maxBytes,
+     * found by binary search (at most ~6 encodes); null when even min-quality is too large
+     */
+    private byte[] encodeJpegWithinBudget(Mat image, int maxBytes) {
+        byte[] best = encodeJpeg(image, maxQuality);
+        if (best.length <= maxBytes) {
+            return best;
+        }
+        best = null;
+        int low = minQuality;
+        int high = maxQuality - 1;
+        while (low <= high) {
+            int quality = (low + high) >>> 1;
+            byte[] candidate = encodeJpeg(image, quality);
+            if (candidate.length <= maxBytes) {
+                best = candidate;
+                low = quality + 1;
+            } else {
+                high = quality - 1;
+            }
+        }
+        return best;
+    }
+
+    private static byte[] encodeJpeg(Mat image, int quality) {
+        MatOfByte buffer = new MatOfByte();
+        try {
+            Imgcodecs.imencode(".jpg", image, buffer, new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, quality));
+            return buffer.toArray();
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Validates that the image contains at least one face with the configured engine,
+     * using the already decoded pixels. The result is kept on the image for later stages.
+     */
+    public FaceDetectionResult detectFace(FaceImage image) {
+        FaceDetectionResult result = detectFace(image, activeDetector);
+        image.setDetection(result);
+        return result;
+    }
+
+    /**
+     * Detection with a specific engine, counted in that engine's statistics
+     */
+    public FaceDetectionResult detectFace(FaceImage image, FaceDetector detector) {
+        if (!detector.isAvailable()) {
+            return FaceDetectionResult.skipped("Face detector not initialized");
+        }
+        Mat source = image.mat();
+        if (source.empty()) {
+            return FaceDetectionResult.failed("Unable to decode image");
+        }
+        FaceDetectionResult result = detector.detect(source);
+        record(detector.getName(), result);
+        if (result.getLargestFace() != null) {
+            log.debug("{}: {} face(s) in {}x{}, largest {} ({}% of image) in {}ms", detector.getName(),
+                    result.getFaceCount(), source.width(), source.height(), result.getLargestFace(),
+                    String.format("%.1f", result.getFaceRatio() * 100), result.getElapsedMs());
+        }
+        return result;
+    }
+
+    /**
+     * Score blur, exposure and face size on the decoded pixels, using the face found by
+     * {@link #detectFace(FaceImage)} when there is one. Run before cropping so the face ratio
+     * describes the photo as taken. The report is kept on the image.
+     *
+     * @return null when the pre-screen is disabled or the image cannot be decoded
+     */
+    public FaceQualityReport assessQuality(FaceImage image) {
+        if (!qualityCheckEnabled || !openCvLoaded) {
+            return null;
+        }
+        Mat source = image.mat();
+        if (source.empty()) {
+            return null;
+        }
+        FaceQualityReport report = faceQualityScorer.score(source, image.getDetection());
+        image.setQuality(report);
+        log.debug("Image quality score {} (sharpness {}, brightness {}, face ratio {}){}", report.getScore(),
+                String.format("%.1f", report.getSharpness()), String.format("%.1f", report.getBrightness()),
+                String.format("%.3f", report.getFaceRatio()), report.isPassed() ? "" : ": " + report.getReasons());
+        return report;
+    }
+
+    /**
+     * Record whether the device accepted the face on the first faceMerge attempt,
+     * credited to the engine that screened the image
+     */
+    public void recordDeviceOutcome(FaceImage image, boolean acceptedOnFirstAttempt) {
+        FaceDetectionResult detection = image.getDetection();
+        if (detection == null || detection.getEngine() == null || !image.markDeviceOutcomeRecorded()) {
+            return;
+        }
+        EngineCounters engine = counters.computeIfAbsent(detection.getEngine(), k -> new EngineCounters());
+        (acceptedOnFirstAttempt ? engine.deviceFirstAttemptAccepted : engine.deviceFirstAttemptRejected).increment();
+    }
+
+    /**
+     * Mark the image's first faceMerge attempt as accounted for without counting it, for a call
+     * that failed before the device gave a verdict
+     */
+    public void skipDeviceOutcome(FaceImage image) {
+        image.markDeviceOutcomeRecorded();
+    }
+
+    private void record(String engineName, FaceDetectionResult result) {
+        if (result.isSkipped()) {
+            return;
+        }
+        EngineCounters engine = counters.computeIfAbsent(engineName, k -> new EngineCounters());
+        engine.detections.increment();
+        if (result.getEngine() == null) {
+            engine.errors.increment();
+            return;
+        }
+        (result.isSuccess() ? engine.facesFound : engine.noFace).increment();
+        engine.totalMs.add(result.getElapsedMs());
+        engine.maxMs.accumulate(result.getElapsedMs());
+    }
+
+    public List<FaceDetector> getDetectors() { return detectors; }
+
+    public FaceDetector getActiveDetector() { return activeDetector; }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> engines = new LinkedHashMap<>();
+        for (FaceDetector detector : detectors) {
+            EngineCounters engine = counters.computeIfAbsent(detector.getName(), k -> new EngineCounters());
+            long detections = engine.detections.sum();
+            long measured = engine.facesFound.sum() + engine.noFace.sum();
+            long accepted = engine.deviceFirstAttemptAccepted.sum();
+            long rejected = engine.deviceFirstAttemptRejected.sum();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("available", detector.isAvailable());
+            stats.put("detections", detections);
+            stats.put("facesFound", engine.facesFound.sum());
+            stats.put("noFace", engine.noFace.sum());
+            stats.put("errors", engine.errors.sum());
+            stats.put("faceFoundRate", measured == 0 ? 0 : (double) engine.facesFound.sum() / measured);
+            stats.put("meanMs", measured == 0 ? 0 : (double) engine.totalMs.sum() / measured);
+            stats.put("maxMs", engine.maxMs.get());
+            stats.put("deviceFirstAttemptAccepted", accepted);
+            stats.put("deviceFirstAttemptRejected", rejected);
+            stats.put("deviceFirstAttemptSuccessRate", accepted + rejected == 0 ? 0 : (double) accepted / (accepted + rejected));
+            engines.put(detector.getName(), stats);
+        }
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("activeEngine", activeDetector.getName());
+        statistics.put("configuredEngine", engineName);
+        statistics.put("engines", engines);
+        return statistics;
+    }
+}
@@ -0,0 +1,133 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Which persons have a face enrolled on each device, as last observed by this service: set
+ * by a successful faceMerge, cleared by faceDelete, dropped with the person, and learnt from
+ * every faceFind that comes back. Lets a roster listing report hasPhoto without a faceFind per
+ * person, which downloads the whole photo. Persons never observed fall back to the verifyStyle
+ * of their person record. Written to device.state-dir like the enrollment hash index.
+ */
+@Service
+public class FacePresenceIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(FacePresenceIndex.class);
+
+    static final String FILE_NAME = "face-presence.json";
+
+    public enum Source { RECORDED, VERIFY_STYLE }
+
+    @Value("${device.state-dir:./device-state}")
+    private String stateDir;
+
+    @Value("${device.face-presence.flush-delay-ms:1000}")
+    private long flushDelayMs;
+
+    // deviceKey -> person sn -> has a face
+    private final Map<String, Map<String, Boolean>> presence = new ConcurrentHashMap<>();
+
+    private StateFile<Map<String, Map<String, Boolean>>> stateFile;
+
+    @PostConstruct
+    public void load() {
+        stateFile = new StateFile<>(stateDir, FILE_NAME, new TypeReference<Map<String, Map<String, Boolean>>>() { },
+                flushDelayMs, "XO5-Face-Presence", this::snapshot);
+        Map<String, Map<String, Boolean>> stored = stateFile.read();
+        if (stored == null) {
+            log.info("No readable face presence index at {}, starting empty", stateFile.getFile().getAbsolutePath());
+            return;
+        }
+        stored.forEach((deviceKey, persons) -> presence.put(deviceKey, new ConcurrentHashMap<>(persons)));
+        log.info("Loaded face presence index: {} device(s), {} person(s)", presence.size(), size());
+    }
+
+    /**
+     * Record that the person now has (or no longer has) a face on the device
+     */
+    public void record(String deviceKey, String sn, boolean hasFace) {
+        if (deviceKey == null || sn == null) {
+            return;
+        }
+        Boolean previous = presence.computeIfAbsent(deviceKey, k -> new ConcurrentHashMap<>()).put(sn, hasFace);
+        if (previous == null || previous != hasFace) {
+            stateFile.changed();
+        }
+    }
+
+    /**
+     * Forget a person deleted from the device
+     */
+    public void forget(String deviceKey, String sn) {
+        Map<String, Boolean> persons = deviceKey != null ? presence.get(deviceKey) : null;
+        if (persons != null && sn != null && persons.remove(sn) != null) {
+            stateFile.changed();
+        }
+    }
+
+    /**
+     * The recorded presence, or null when this service has not seen the person's face state
+     */
+    public Boolean get(String deviceKey, String sn) {
+        Map<String, Boolean> persons = presence.get(deviceKey);
+        return persons != null && sn != null ? persons.get(sn) : null;
+    }
+
+    public Source sourceOf(String deviceKey, String sn) {
+        return get(deviceKey, sn) != null ? Source.RECORDED : Source.VERIFY_STYLE;
+    }
+
+    /**
+     * Whether the person has a face: the recorded state when known, else the verifyStyle heuristic
+     */
+    public boolean hasFace(String deviceKey, String sn, Object verifyStyle) {
+        Boolean recorded = get(deviceKey, sn);
+        return recorded != null ? recorded : impliedByVerifyStyle(verifyStyle);
+    }
+
+    /**
+     * verifyStyle values: 1=face, 2=finger, 3=face+finger, 5 and above combine face with other methods
+     */
+    public static boolean impliedByVerifyStyle(Object verifyStyle) {
+        Integer style = null;
+        if (verifyStyle instanceof Number) {
+            style = ((Number) verifyStyle).intValue();
+        } else if (verifyStyle != null) {
+            try {
+                style = Integer.parseInt(String.valueOf(verifyStyle).trim());
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return style != null && (style == 1 || style == 3 || style >= 5);
+    }
+
+    public int size() {
+        return presence.values().stream().mapToInt(Map::size).sum();
+    }
+
+    private Map<String, Map<String, Boolean>> snapshot() {
+        Map<String, Map<String, Boolean>> snapshot = new HashMap<>();
+        presence.forEach((deviceKey, persons) -> {
+            if (!persons.isEmpty()) {
+                snapshot.put(deviceKey, new HashMap<>(persons));
+            }
+        });
+        return snapshot;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stateFile.close();
+    }
+}
@@ -0,0 +1,64 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Quality measurements of an enrollment photo and the reasons it falls short, if any.
+ * The score (0-100) is for display; acceptance is decided by the individual thresholds.
+ */
+public class FaceQualityReport {
+
+    private final int score;
+    private final double sharpness;
+    private final double brightness;
+    private final double darkFraction;
+    private final double brightFraction;
+    private final double faceRatio;
+    private final boolean faceRegion;
+    private final List<String> reasons;
+
+    FaceQualityReport(int score, double sharpness, double brightness, double darkFraction, double brightFraction,
+                      double faceRatio, boolean faceRegion, List<String> reasons) {
+        this.score = score;
+        this.sharpness = sharpness;
+        this.brightness = brightness;
+        this.darkFraction = darkFraction;
+        this.brightFraction = brightFraction;
+        this.faceRatio = faceRatio;
+        this.faceRegion = faceRegion;
+        this.reasons = Collections.unmodifiableList(reasons);
+    }
+
+    public boolean isPassed() { return reasons.isEmpty(); }
+    public int getScore() { return score; }
+    public double getSharpness() { return sharpness; }
+    public double getBrightness() { return brightness; }
+    public double getDarkFraction() { return darkFraction; }
+    public double getBrightFraction() { return brightFraction; }
+    public double getFaceRatio() { return faceRatio; }
+    public List<String> getReasons() { return reasons; }
+
+    /**
+     * Response form, returned with both accepted and rejected enrollments
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("passed", isPassed());
+        map.put("score", score);
+        map.put("sharpness", round(sharpness));
+        map.put("brightness", round(brightness));
+        map.put("darkFraction", round(darkFraction));
+        map.put("brightFraction", round(brightFraction));
+        map.put("faceRatio", round(faceRatio));
+        map.put("measuredOn", faceRegion ? "face" : "image");
+        map.put("reasons", reasons);
+        return map;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+}
@@ -0,0 +1,165 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Scores an enrollment photo the way the device is likely to judge it: sharpness as the
+ * variance of the Laplacian, exposure from the grey-level histogram and the size of the face
+ * relative to the image. Sharpness and exposure are measured on the detected face when there
+ * is one (a backlit face next to a bright window is still too dark), otherwise on the whole
+ * image. The face is resampled to a fixed width first so sharpness does not depend on resolution.
+ */
+@Component
+public class FaceQualityScorer {
+
+    private static final int SHARPNESS_WIDTH = 160;
+    private static final int DARK_LEVEL = 16;
+    private static final int BRIGHT_LEVEL = 240;
+
+    @Value("${face.quality.min-sharpness:40}")
+    private double minSharpness;
+
+    @Value("${face.quality.min-brightness:50}")
+    private double minBrightness;
+
+    @Value("${face.quality.max-brightness:210}")
+    private double maxBrightness;
+
+    // Share of near-black or near-white pixels above which the face counts as under/overexposed
+    @Value("${face.quality.max-clipped-fraction:0.35}")
+    private double maxClippedFraction;
+
+    @Value("${face.quality.min-face-ratio:0.04}")
+    private double minFaceRatio;
+
+    public FaceQualityReport score(Mat bgr, FaceDetectionResult detection) {
+        Rect face = detection != null && detection.isSuccess() ? detection.getLargestFace() : null;
+        Mat gray = new Mat();
+        Mat region = null;
+        Mat sample = new Mat();
+        try {
+            Imgproc.cvtColor(bgr, gray, Imgproc.COLOR_BGR2GRAY);
+            // Never trust the detector's rectangle; one outside the image falls back to the whole image
+            face = face != null ? inside(face, gray.cols(), gray.rows()) : null;
+            region = face != null ? gray.submat(face) : gray;
+
+            double scale = (double) SHARPNESS_WIDTH / region.width();
+            Imgproc.resize(region, sample, new Size(SHARPNESS_WIDTH, Math.max(1, Math.round(region.height() * scale))),
+                    0, 0, scale < 1.0 ? Imgproc.INTER_AREA : Imgproc.INTER_LINEAR);
+            double sharpness = laplacianVariance(sample);
+
+            float[] histogram = histogram(region);
+            double pixels = region.total();
+            double sum = 0;
+            double dark = 0;
+            double bright = 0;
+            for (int level = 0; level < 256; level++) {
+                sum += level * histogram[level];
+                if (level <= DARK_LEVEL) {
+                    dark += histogram[level];
+                } else if (level >= BRIGHT_LEVEL) {
+                    bright += histogram[level];
+                }
+            }
+            double brightness = sum / pixels;
+            double darkFraction = dark / pixels;
+            double brightFraction = bright / pixels;
+            double faceRatio = face != null ? detection.getFaceRatio() : 0;
+
+            List<String> reasons = new ArrayList<>();
+            boolean tooDark = brightness < minBrightness || darkFraction > maxClippedFraction;
+            if (tooDark) {
+                reasons.add("Face is too dark - add light in front of the person or move away from a bright background");
+            } else if (brightness > maxBrightness || brightFraction > maxClippedFraction) {
+                reasons.add("Face is overexposed - reduce direct light or flash on the face");
+            }
+            // A dark face has little contrast, so it always measures as blurry; lighting is the fix then
+            if (!tooDark && sharpness < minSharpness) {
+                reasons.add(0, "Image is blurry - hold the camera steady and make sure the face is in focus");
+            }
+            if (face != null && faceRatio < minFaceRatio) {
+                reasons.add("Face is too small in the frame - move closer so the face fills more of the picture");
+            }
+
+            return new FaceQualityReport(score(sharpness, brightness, darkFraction, brightFraction, face != null ? faceRatio : -1),
+                    sharpness, brightness, darkFraction, brightFraction, faceRatio, face != null,
+                    reasons.isEmpty() ? Collections.<String>emptyList() : reasons);
+        } finally {
+            sample.release();
+            if (region != null && region != gray) {
+                region.release();
+            }
+            gray.release();
+        }
+    }
+
+    /**
+     * 0-100; each measure contributes equally and is saturated at twice its threshold
+     * (or at the middle of the brightness range), so a passing photo scores about 50 or more
+     */
+    private int score(double sharpness, double brightness, double darkFraction, double brightFraction, double faceRatio) {
+        double sharp = Math.min(1.0, sharpness / (2 * minSharpness));
+        double middle = (minBrightness + maxBrightness) / 2;
+        double exposure = Math.max(0, 1.0 - Math.abs(brightness - middle) / (middle - minBrightness) / 2)
+                * Math.max(0, 1.0 - Math.max(darkFraction, brightFraction) / (2 * maxClippedFraction));
+        if (faceRatio < 0) {
+            return (int) Math.round(100 * (sharp + exposure) / 2);
+        }
+        double size = Math.min(1.0, faceRatio / (2 * minFaceRatio));
+        return (int) Math.round(100 * (sharp + exposure + size) / 3);
+    }
+
+    /**
+     * The part of the face inside a width x height image, or null when none of it is
+     */
+    static Rect inside(Rect face, int width, int height) {
+        int left = Math.max(face.x, 0);
+        int top = Math.max(face.y, 0);
+        int right = Math.min(face.x + face.width, width);
+        int bottom = Math.min(face.y + face.height, height);
+        return right > left && bottom > top ? new Rect(left, top, right - left, bottom - top) : null;
+    }
+
+    private static double laplacianVariance(Mat gray) {
+        Mat laplacian = new Mat();
+        MatOfDouble mean = new MatOfDouble();
+        MatOfDouble stddev = new MatOfDouble();
+        try {
+            Imgproc.Laplacian(gray, laplacian, CvType.CV_64F);
+            Core.meanStdDev(laplacian, mean, stddev);
+            double deviation = stddev.toArray()[0];
+            return deviation * deviation;
+        } finally {
+            laplacian.release();
+            mean.release();
+            stddev.release();
+        }
+    }
+
+    private static float[] histogram(Mat gray) {
+        Mat hist = new Mat();
+        try {
+            Imgproc.calcHist(Collections.singletonList(gray), new MatOfInt(0), new Mat(), hist,
+                    new MatOfInt(256), new MatOfFloat(0, 256));
+            float[] counts = new float[256];
+            hist.get(0, 0, counts);
+            return counts;
+        } finally {
+            hist.release();
+        }
+    }
+}
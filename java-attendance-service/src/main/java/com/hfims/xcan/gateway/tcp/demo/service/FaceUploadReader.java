@@ -0,0 +1,76 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads binary face image uploads straight into a {@link FaceImage}, without the base64
+ * string a JSON upload needs. Multipart parts larger than
+ * spring.servlet.multipart.file-size-threshold are spooled to a temporary file by the
+ * container, so only the final image bytes are held in memory, in one buffer of the exact
+ * size, and never more than xo5.image.max-upload-bytes.
+ */
+@Component
+public class FaceUploadReader {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    @Value("${xo5.image.max-upload-bytes:10485760}")
+    private int maxUploadBytes;
+
+    /**
+     * @throws IllegalArgumentException when the part is missing, empty or over the limit
+     */
+    public FaceImage read(MultipartFile file) throws IOException {
+        if (file == null || file.isEmpty()) {
+            throw new IllegalArgumentException("Face image is required");
+        }
+        try (InputStream in = file.getInputStream()) {
+            return FaceImage.fromBytes(read(in, file.getSize()));
+        }
+    }
+
+    /**
+     * Read the stream into a buffer of the declared length, or grow one in chunks when the
+     * length is unknown (declaredLength < 0), refusing anything over the limit
+     */
+    byte[] read(InputStream in, long declaredLength) throws IOException {
+        if (declaredLength > maxUploadBytes) {
+            throw new IllegalArgumentException(tooLarge(declaredLength));
+        }
+        byte[] buffer = new byte[declaredLength >= 0 ? (int) declaredLength : CHUNK_SIZE];
+        int length = 0;
+        while (true) {
+            if (length == buffer.length) {
+                int next = in.read();
+                if (next < 0) {
+                    return buffer;
+                }
+                if (declaredLength >= 0) {
+                    throw new IllegalArgumentException("Face image is longer than its declared size of " + declaredLength + " bytes");
+                }
+                if (buffer.length >= maxUploadBytes) {
+                    throw new IllegalArgumentException(tooLarge(buffer.length + 1L));
+                }
+                buffer = Arrays.copyOf(buffer, (int) Math.min(maxUploadBytes, buffer.length * 2L));
+                buffer[length++] = (byte) next;
+            }
+            int read = in.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+            }
+            length += read;
+        }
+    }
+
+    private String tooLarge(long size) {
+        return "Face image is too large: " + size + " bytes. Maximum: " + maxUploadBytes + " bytes";
+    }
+
+    public int getMaxUploadBytes() { return maxUploadBytes; }
+}
@@ -0,0 +1,221 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+import org.opencv.objdetect.Objdetect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Haar-cascade face detection (haarcascade_frontalface_default.xml).
+ * CascadeClassifier is not thread-safe, so detection borrows an instance from a pool loaded
+ * once at startup, and runs on a downscaled copy as set by the detection profile.
+ */
+@Component
+public class HaarFaceDetector implements FaceDetector {
+
+    private static final Logger log = LoggerFactory.getLogger(HaarFaceDetector.class);
+
+    public static final String NAME = "haar";
+
+    private static final String HAAR_CASCADE_FRONTALFACE = "haarcascade_frontalface_default.xml";
+
+    // Smallest face searched for at full resolution, and the cascade's native window size
+    private static final int MIN_FACE_SIZE = 30;
+    private static final int MIN_DETECTION_WINDOW = 24;
+
+    /**
+     * Speed/accuracy trade-off for Haar detection: longest side of the copy detection runs on
+     * (0 = full resolution), pyramid scale step and neighbours required per detection
+     */
+    public enum DetectionProfile {
+        FAST(320, 1.2, 3),
+        BALANCED(480, 1.1, 3),
+        ACCURATE(0, 1.1, 3);
+
+        private final int maxSide;
+        private final double scaleFactor;
+        private final int minNeighbors;
+
+        DetectionProfile(int maxSide, double scaleFactor, int minNeighbors) {
+            this.maxSide = maxSide;
+            this.scaleFactor = scaleFactor;
+            this.minNeighbors = minNeighbors;
+        }
+
+        public int getMaxSide() { return maxSide; }
+    }
+
+    // Classifiers loaded at startup; defaults to one per CPU like the image prep pool
+    @Value("${face.detection.pool-size:0}")
+    private int poolSize;
+
+    @Value("${face.detection.profile:BALANCED}")
+    private DetectionProfile profile;
+
+    // Overrides the profile's downscale target when > 0
+    @Value("${face.detection.max-side:0}")
+    private int maxSide;
+
+    private BlockingQueue<CascadeClassifier> pool;
+
+    @PostConstruct
+    public void initialize() {
+        if (!OpenCvLoader.load()) {
+            return;
+        }
+        try {
+            InputStream cascadeStream = getClass().getClassLoader().getResourceAsStream("haarcascades/" + HAAR_CASCADE_FRONTALFACE);
+            if (cascadeStream == null) {
+                cascadeStream = getClass().getClassLoader().getResourceAsStream(HAAR_CASCADE_FRONTALFACE);
+            }
+            if (cascadeStream == null) {
+                log.warn("Haar cascade file not found, face validation will rely on device-side detection only");
+                return;
+            }
+
+            // CascadeClassifier loads from a file path, so copy the resource out of the jar
+            File cascadeFile = File.createTempFile("haarcascade", ".xml");
+            cascadeFile.deleteOnExit();
+            try (InputStream in = cascadeStream) {
+                Files.copy(in, cascadeFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            int size = poolSize > 0 ? poolSize : Math.max(2, Runtime.getRuntime().availableProcessors());
+            BlockingQueue<CascadeClassifier> classifiers = new ArrayBlockingQueue<>(size);
+            for (int i = 0; i < size; i++) {
+                CascadeClassifier classifier = new CascadeClassifier(cascadeFile.getAbsolutePath());
+                if (classifier.empty()) {
+                    log.warn("Face detector is empty, face detection will be skipped");
+                    return;
+                }
+                classifiers.add(classifier);
+            }
+            pool = classifiers;
+            log.info("Haar face detection classifiers loaded (pool size {}, profile {})", size, profile);
+        } catch (Throwable e) {
+            log.warn("Haar face detection initialization failed: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public String getName() { return NAME; }
+
+    @Override
+    public boolean isAvailable() { return pool != null; }
+
+    public DetectionProfile getProfile() { return profile; }
+
+    @Override
+    public FaceDetectionResult detect(Mat image) {
+        return detect(image, profile, maxSide);
+    }
+
+    /**
+     * Detection with an explicit profile. Runs on a copy whose longest side is at most
+     * maxSide (0 = the profile's default); rectangles are mapped back to the image.
+     */
+    public FaceDetectionResult detect(Mat source, DetectionProfile profile, int maxSide) {
+        if (pool == null) {
+            return FaceDetectionResult.skipped("Face detector not initialized");
+        }
+
+        long startTime = System.nanoTime();
+        Mat small = null;
+        Mat grayImage = new Mat();
+        MatOfRect faceDetections = new MatOfRect();
+        CascadeClassifier classifier = null;
+        try {
+            // Detect on a downscaled copy; Haar features are scale-invariant enough for enrollment photos
+            int limit = maxSide > 0 ? maxSide : profile.maxSide;
+            int longSide = Math.max(source.width(), source.height());
+            double scale = limit > 0 && longSide > limit ? (double) limit / longSide : 1.0;
+            Mat detectOn = source;
+            if (scale < 1.0) {
+                small = new Mat();
+                Imgproc.resize(source, small, new Size(Math.round(source.width() * scale), Math.round(source.height() * scale)),
+                        0, 0, Imgproc.INTER_AREA);
+                detectOn = small;
+            }
+
+            // Grayscale + equalised histogram for better detection
+            Imgproc.cvtColor(detectOn, grayImage, Imgproc.COLOR_BGR2GRAY);
+            Imgproc.equalizeHist(grayImage, grayImage);
+
+            // 30px at full resolution, scaled with the image but never below the cascade's 24px window
+            int minFace = (int) Math.max(MIN_DETECTION_WINDOW, Math.round(MIN_FACE_SIZE * scale));
+
+            // Exclusive use of one pooled classifier for this detection
+            classifier = pool.take();
+            classifier.detectMultiScale(
+                grayImage,
+                faceDetections,
+                profile.scaleFactor,
+                profile.minNeighbors,
+                Objdetect.CASCADE_SCALE_IMAGE,
+                new Size(minFace, minFace),
+                new Size()         // maximum face size (no limit)
+            );
+            pool.offer(classifier);
+            classifier = null;
+
+            Rect[] faces = faceDetections.toArray();
+            Rect largestFace = null;
+            for (Rect face : faces) {
+                if (largestFace == null || face.area() > largestFace.area()) {
+                    largestFace = face;
+                }
+            }
+            if (largestFace != null && scale < 1.0) {
+                largestFace = toSource(largestFace, scale, source.width(), source.height());
+            }
+            return FaceDetectionResult.of(NAME, faces.length, largestFace, source.width(), source.height(),
+                    (System.nanoTime() - startTime) / 1_000_000);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return FaceDetectionResult.skipped("Face detection interrupted");
+        } catch (Throwable e) {
+            log.warn("Haar face detection failed: {}", e.getMessage());
+            return FaceDetectionResult.failed("Face detection error: " + e.getMessage());
+        } finally {
+            if (classifier != null) {
+                pool.offer(classifier);
+            }
+            if (small != null) {
+                small.release();
+            }
+            grayImage.release();
+            faceDetections.release();
+        }
+    }
+
+    /**
+     * Maps a rectangle found on the downscaled copy back to the source image. The copy's size is
+     * rounded, so a face touching the right or bottom edge can map past it; the result is clamped.
+     */
+    static Rect toSource(Rect face, double scale, int width, int height) {
+        int left = clamp((int) Math.round(face.x / scale), width);
+        int top = clamp((int) Math.round(face.y / scale), height);
+        int right = clamp((int) Math.round((face.x + face.width) / scale), width);
+        int bottom = clamp((int) Math.round((face.y + face.height) / scale), height);
+        return new Rect(left, top, right - left, bottom - top);
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+}
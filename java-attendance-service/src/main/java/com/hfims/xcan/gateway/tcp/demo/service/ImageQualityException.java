@@ -0,0 +1,17 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+/**
+ * Thrown when an enrollment photo fails the quality pre-screen, so it is rejected
+ * before it takes a device slot. Carries the report for the response.
+ */
+public class ImageQualityException extends RuntimeException {
+
+    private final FaceQualityReport report;
+
+    public ImageQualityException(FaceQualityReport report) {
+        super("Face image quality too low (score " + report.getScore() + "): " + String.join("; ", report.getReasons()));
+        this.report = report;
+    }
+
+    public FaceQualityReport getReport() { return report; }
+}
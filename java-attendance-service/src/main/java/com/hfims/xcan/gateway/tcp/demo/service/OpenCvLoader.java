@@ -0,0 +1,34 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the bundled OpenCV native library once for all image components
+ */
+public final class OpenCvLoader {
+
+    private static final Logger log = LoggerFactory.getLogger(OpenCvLoader.class);
+
+    private static Boolean loaded;
+
+    private OpenCvLoader() {
+    }
+
+    /**
+     * @return whether the native library is available; the first failure is remembered
+     */
+    public static synchronized boolean load() {
+        if (loaded == null) {
+            try {
+                nu.pattern.OpenCV.loadLocally();
+                loaded = true;
+                log.info("OpenCV library loaded");
+            } catch (Throwable e) {
+                loaded = false;
+                log.warn("OpenCV library could not be loaded: {}", e.getMessage());
+            }
+        }
+        return loaded;
+    }
+}
@@ -0,0 +1,84 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counters of one photo fetch run (a get-all-persons call) against one device, readable
+ * while the run is still going
+ */
+public class PhotoFetchProgress {
+
+    private final String deviceKey;
+    private final int maxInFlight;
+    private final long startedAt = System.currentTimeMillis();
+    private volatile long finishedAt;
+    private volatile String status = "running";
+
+    private final AtomicInteger requested = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger withPhoto = new AtomicInteger();
+    private final AtomicInteger withoutPhoto = new AtomicInteger();
+    private final AtomicInteger timedOut = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    PhotoFetchProgress(String deviceKey, int maxInFlight) {
+        this.deviceKey = deviceKey;
+        this.maxInFlight = maxInFlight;
+    }
+
+    void requested() { requested.incrementAndGet(); }
+    void callStarted() { inFlight.incrementAndGet(); }
+    void callFinished() { inFlight.decrementAndGet(); }
+
+    void completed(DevicePhotoFetcher.Outcome outcome) {
+        completed.incrementAndGet();
+        switch (outcome) {
+            case FOUND: withPhoto.incrementAndGet(); break;
+            case NONE: withoutPhoto.incrementAndGet(); break;
+            case TIMEOUT: timedOut.incrementAndGet(); break;
+            default: failed.incrementAndGet(); break;
+        }
+    }
+
+    void finish(String status) {
+        if (finishedAt == 0) {
+            this.finishedAt = System.currentTimeMillis();
+            this.status = status;
+        }
+    }
+
+    public String getDeviceKey() { return deviceKey; }
+    public String getStatus() { return status; }
+    public int getCompleted() { return completed.get(); }
+    public int getWithPhoto() { return withPhoto.get(); }
+    public int getTimedOut() { return timedOut.get(); }
+    public int getFailed() { return failed.get(); }
+
+    public long getElapsedMs() {
+        return (finishedAt != 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+    }
+
+    public Map<String, Object> toMap() {
+        long elapsedMs = getElapsedMs();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("deviceKey", deviceKey);
+        map.put("status", status);
+        map.put("maxInFlight", maxInFlight);
+        map.put("requested", requested.get());
+        map.put("inFlight", inFlight.get());
+        map.put("completed", completed.get());
+        map.put("withPhoto", withPhoto.get());
+        map.put("withoutPhoto", withoutPhoto.get());
+        map.put("timedOut", timedOut.get());
+        map.put("failed", failed.get());
+        map.put("startedAt", new Date(startedAt));
+        map.put("finishedAt", finishedAt != 0 ? new Date(finishedAt) : null);
+        map.put("elapsedMs", elapsedMs);
+        map.put("personsPerSecond", elapsedMs > 0 ? Math.round(completed.get() * 10000.0 / elapsedMs) / 10.0 : 0);
+        return map;
+    }
+}
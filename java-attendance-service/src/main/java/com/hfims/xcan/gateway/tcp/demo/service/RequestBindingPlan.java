@@ -0,0 +1,184 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Pre-computed way to build one SDK request class.
+ * Setters (or, when a class has no setter for a property, its fields) are looked up,
+ * made accessible and turned into MethodHandles with a matching value converter once;
+ * building a request afterwards is a constructor call plus direct handle invocations.
+ * Properties are keyed by their lower-cased name without the "set" prefix.
+ */
+public final class RequestBindingPlan {
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final Class<?> requestClass;
+    private final Constructor<?> constructor;
+    private final Map<String, Binder> binders;
+
+    /**
+     * One resolved property: setter handle plus conversion to its parameter type
+     */
+    public static final class Binder {
+        private final String name;
+        private final Class<?> type;
+        private final MethodHandle setter;
+        private final Function<Object, Object> converter;
+
+        private Binder(String name, Class<?> type, MethodHandle setter) {
+            this.name = name;
+            this.type = type;
+            this.setter = setter;
+            this.converter = converterFor(type);
+        }
+
+        public void set(Object target, Object value) {
+            try {
+                setter.invokeExact(target, converter.apply(value));
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException("Failed to set " + name + ": " + t.getMessage(), t);
+            }
+        }
+
+        public String getName() { return name; }
+        public Class<?> getType() { return type; }
+    }
+
+    private RequestBindingPlan(Class<?> requestClass, Constructor<?> constructor, Map<String, Binder> binders) {
+        this.requestClass = requestClass;
+        this.constructor = constructor;
+        this.binders = binders;
+    }
+
+    public static RequestBindingPlan build(Class<?> requestClass) throws ReflectiveOperationException {
+        Constructor<?> constructor = requestClass.getDeclaredConstructor();
+        constructor.setAccessible(true);
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        Map<String, Binder> binders = new HashMap<>();
+        for (Method method : requestClass.getMethods()) {
+            if (method.getName().startsWith("set") && method.getName().length() > 3
+                    && method.getParameterCount() == 1 && !Modifier.isStatic(method.getModifiers())) {
+                String key = method.getName().substring(3).toLowerCase(Locale.ROOT);
+                method.setAccessible(true);
+                MethodHandle handle = lookup.unreflect(method).asType(SETTER_TYPE);
+                binders.putIfAbsent(key, new Binder(method.getName(), method.getParameterTypes()[0], handle));
+            }
+        }
+        // Fields without a public setter (e.g. PersonFindListReq.index/length, FaceFindReq.personSn)
+        for (Class<?> c = requestClass; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                String key = field.getName().toLowerCase(Locale.ROOT);
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers()) || binders.containsKey(key)) {
+                    continue;
+                }
+                field.setAccessible(true);
+                MethodHandle handle = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+                binders.put(key, new Binder(field.getName(), field.getType(), handle));
+            }
+        }
+        return new RequestBindingPlan(requestClass, constructor, Collections.unmodifiableMap(binders));
+    }
+
+    public Object newInstance() {
+        try {
+            return constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot instantiate " + requestClass.getSimpleName(), e);
+        }
+    }
+
+    /**
+     * First binder matching one of the (lower-case) property names, or null
+     */
+    public Binder binder(String... properties) {
+        for (String property : properties) {
+            Binder binder = binders.get(property);
+            if (binder != null) {
+                return binder;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Set the first matching property; returns false when the class has none of them
+     */
+    public boolean set(Object target, Object value, String... properties) {
+        Binder binder = binder(properties);
+        if (binder == null) {
+            return false;
+        }
+        binder.set(target, value);
+        return true;
+    }
+
+    public Class<?> getRequestClass() { return requestClass; }
+
+    public Collection<Binder> getBinders() { return binders.values(); }
+
+    private static Function<Object, Object> converterFor(Class<?> type) {
+        Class<?> boxed = box(type);
+        Function<Object, Object> parse = parserFor(boxed);
+        return value -> {
+            if (value == null || boxed.isInstance(value)) {
+                return value;
+            }
+            return parse.apply(value);
+        };
+    }
+
+    private static Function<Object, Object> parserFor(Class<?> boxed) {
+        if (boxed == Integer.class) {
+            return v -> v instanceof Number ? ((Number) v).intValue() : Integer.parseInt(v.toString().trim());
+        } else if (boxed == Long.class) {
+            return v -> v instanceof Number ? ((Number) v).longValue() : Long.parseLong(v.toString().trim());
+        } else if (boxed == Double.class) {
+            return v -> v instanceof Number ? ((Number) v).doubleValue() : Double.parseDouble(v.toString().trim());
+        } else if (boxed == Float.class) {
+            return v -> v instanceof Number ? ((Number) v).floatValue() : Float.parseFloat(v.toString().trim());
+        } else if (boxed == Short.class) {
+            return v -> v instanceof Number ? ((Number) v).shortValue() : Short.parseShort(v.toString().trim());
+        } else if (boxed == Byte.class) {
+            return v -> v instanceof Number ? ((Number) v).byteValue() : Byte.parseByte(v.toString().trim());
+        } else if (boxed == Boolean.class) {
+            return v -> Boolean.parseBoolean(v.toString());
+        } else if (boxed == Character.class) {
+            return v -> v.toString().isEmpty() ? '\0' : v.toString().charAt(0);
+        } else if (boxed == String.class) {
+            return Object::toString;
+        } else if (List.class.isAssignableFrom(boxed) || boxed == Collection.class) {
+            // e.g. PersonDeleteReq.sn is List<String>; wrap a single value
+            return v -> Collections.singletonList(v);
+        }
+        return v -> v;
+    }
+
+    private static Class<?> box(Class<?> type) {
+        if (!type.isPrimitive()) return type;
+        if (type == int.class) return Integer.class;
+        if (type == long.class) return Long.class;
+        if (type == double.class) return Double.class;
+        if (type == float.class) return Float.class;
+        if (type == boolean.class) return Boolean.class;
+        if (type == short.class) return Short.class;
+        if (type == byte.class) return Byte.class;
+        return Character.class;
+    }
+}
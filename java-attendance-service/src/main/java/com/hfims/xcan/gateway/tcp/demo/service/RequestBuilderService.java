@@ -1,17 +1,36 @@
 package com.hfims.xcan.gateway.tcp.demo.service;
 
 import org.springframework.stereotype.Service;
-import java.lang.reflect.Method;
-import java.util.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Service for building XO5 device request objects using reflection
+ * Service for building XO5 device request objects.
+ * The SDK request classes are bound reflectively, but each class is inspected only once:
+ * its RequestBindingPlan (constructor, setters and value conversion) is cached and reused.
  */
 @Service
 public class RequestBuilderService {
 
     private static final String PERSON_CREATE_REQ_CLASS = "com.hfims.xcan.gateway.netty.client.req.PersonCreateReq";
     private static final String PERSON_DELETE_REQ_CLASS = "com.hfims.xcan.gateway.netty.client.req.PersonDeleteReq";
+    private static final String PERSON_FIND_REQ_CLASS = "com.hfims.xcan.gateway.netty.client.req.PersonFindReq";
+    private static final String PERSON_QUERY_REQ_CLASS = "com.hfims.xcan.gateway.netty.client.req.PersonQueryReq";
+    private static final String PERSON_FIND_LIST_REQ_CLASS = "com.hfims.xcan.gateway.netty.client.req.PersonFindListReq";
+    private static final String FACE_FIND_REQ_CLASS = "com.hfims.xcan.gateway.netty.client.req.FaceFindReq";
+    private static final String FACE_MERGE_REQ_CLASS = "com.hfims.xcan.gateway.netty.client.req.FaceMergeReq";
+    private static final String FACE_DELETE_REQ_CLASS = "com.hfims.xcan.gateway.netty.client.req.FaceDeleteReq";
+    private static final String RECORD_FIND_LIST_REQ_CLASS = "com.hfims.xcan.gateway.netty.client.req.RecordFindListReq";
+    private static final String RECORD_FIND_REQ_CLASS = "com.hfims.xcan.gateway.netty.client.req.RecordFindReq";
+
+    // Maximum page size accepted by personFindList
+    public static final int MAX_PERSON_PAGE_SIZE = 1000;
+
+    private final Map<String, RequestBindingPlan> plans = new ConcurrentHashMap<>();
 
     /**
      * Build PersonCreateReq object for employee sync
@@ -20,164 +39,130 @@ public class RequestBuilderService {
         return buildPersonCreateReq(employeeId, fullName, faceImage, null);
     }
 
+    /**
+     * The verifyStyle a PersonCreateReq is sent with: the provided value, or a default based on
+     * whether a face image comes with it (1 = face only, 3 = face)
+     */
+    public static int effectiveVerifyStyle(Integer verificationStyle, String faceImage) {
+        return verificationStyle != null ? verificationStyle
+                : (faceImage != null && !faceImage.isEmpty()) ? 3 : 1;
+    }
+
     /**
      * Build PersonCreateReq object for employee sync with verification style
      */
     public Object buildPersonCreateReq(String employeeId, String fullName, String faceImage, Integer verificationStyle) {
         try {
-            System.out.println("=== BUILDING PERSON CREATE REQUEST ===");
-            System.out.println("Employee ID: " + employeeId);
-            System.out.println("Full Name: " + fullName);
-            System.out.println("Has Face Image: " + (faceImage != null && !faceImage.isEmpty()));
-            System.out.println("Verification Style: " + verificationStyle);
-            
-            // Load the PersonCreateReq class
-            Class<?> personCreateReqClass = Class.forName(PERSON_CREATE_REQ_CLASS);
-            Object personCreateReq = personCreateReqClass.getDeclaredConstructor().newInstance();
-            
-            // Get all methods for inspection
-            Method[] methods = personCreateReqClass.getDeclaredMethods();
-            Map<String, Method> methodMap = new HashMap<>();
-            
-            for (Method method : methods) {
-                methodMap.put(method.getName().toLowerCase(), method);
-            }
-            
-            // Set employee ID (sn field)
-            setMethodValue(personCreateReq, methodMap, "setsn", employeeId, "setSn");
+            RequestBindingPlan plan = plan(PERSON_CREATE_REQ_CLASS);
+            Object personCreateReq = plan.newInstance();
             
-            // Set employee name
-            setMethodValue(personCreateReq, methodMap, "setname", fullName, "setName");
+            plan.set(personCreateReq, employeeId, "sn");
+            plan.set(personCreateReq, fullName, "name");
+            // Type 1 = normal employee
+            plan.set(personCreateReq, 1, "type");
             
-            // Set type (1 = normal employee)
-            setMethodValue(personCreateReq, methodMap, "settype", 1, "setType");
+            int verifyStyle = effectiveVerifyStyle(verificationStyle, faceImage);
+            plan.set(personCreateReq, verifyStyle, "verifystyle");
             
-            // Set verify style - use provided value or default based on face image
-            int verifyStyle;
-            if (verificationStyle != null) {
-                verifyStyle = verificationStyle;
-                System.out.println("Using provided verification style: " + verifyStyle);
-            } else {
-                // Default behavior: 8 = face + password, 1 = face only, 3 = face
-                verifyStyle = (faceImage != null && !faceImage.isEmpty()) ? 3 : 1;
-                System.out.println("Using default verification style: " + verifyStyle);
+            if (faceImage != null && !faceImage.isEmpty()
+                    && !plan.set(personCreateReq, faceImage, "faceimage", "face", "personface")) {
+                // Expected with the XO5 SDK - the face is uploaded separately with faceMerge
+                System.out.println("PersonCreateReq has no face image setter; face will be sent via faceMerge");
             }
-            setMethodValue(personCreateReq, methodMap, "setverifystyle", verifyStyle, "setVerifyStyle");
             
-            // Try to set face image if provided
-            if (faceImage != null && !faceImage.isEmpty()) {
-                boolean faceSet = setMethodValue(personCreateReq, methodMap, "setfaceimage", faceImage, "setFaceImage") ||
-                                 setMethodValue(personCreateReq, methodMap, "setface", faceImage, "setFace") ||
-                                 setMethodValue(personCreateReq, methodMap, "setpersonface", faceImage, "setPersonFace");
-                                 
-                if (!faceSet) {
-                    System.out.println("WARNING: Could not set face image using any of the method names: setFaceImage, setFace, setPersonFace");
-                }
-            }
-            
-            System.out.println("=== PERSON CREATE REQUEST BUILT SUCCESSFULLY ===");
+            System.out.println("PersonCreateReq built for " + employeeId + " (verifyStyle: " + verifyStyle + ")");
             return personCreateReq;
             
         } catch (Exception e) {
             System.err.println("ERROR: Failed to build PersonCreateReq: " + e.getMessage());
-            e.printStackTrace();
             throw new RuntimeException("Failed to build person create request: " + e.getMessage(), e);
         }
     }
 
     /**
-     * Build PersonDeleteReq object for employee removal
+     * Build PersonDeleteReq object for employee removal.
+     * The SDK's sn field is a List&lt;String&gt;; a single ID is wrapped by the binding plan.
      */
     public Object buildPersonDeleteReq(String employeeId) {
         try {
-            System.out.println("=== BUILDING PERSON DELETE REQUEST ===");
-            System.out.println("Employee ID: " + employeeId);
-            
-            // Load the PersonDeleteReq class
-            Class<?> personDeleteReqClass = Class.forName(PERSON_DELETE_REQ_CLASS);
-            Object personDeleteReq = personDeleteReqClass.getDeclaredConstructor().newInstance();
+            RequestBindingPlan plan = plan(PERSON_DELETE_REQ_CLASS);
+            Object personDeleteReq = plan.newInstance();
             
-            // Get all methods for inspection
-            Method[] methods = personDeleteReqClass.getDeclaredMethods();
-            Map<String, Method> methodMap = new HashMap<>();
-            
-            System.out.println("DEBUG - Available PersonDeleteReq methods:");
-            for (Method method : methods) {
-                methodMap.put(method.getName().toLowerCase(), method);
-                if (method.getName().startsWith("set")) {
-                    System.out.println("  " + method.getName() + " -> " + method.getParameterTypes()[0].getSimpleName());
-                }
+            if (!plan.set(personDeleteReq, employeeId, "sn", "id", "employeeid", "personid")) {
+                System.err.println("WARNING: PersonDeleteReq has no setter for the employee ID");
             }
-            
-            // Set employee ID (sn field) - try multiple variations
-            // First try passing the ID as a List since setSn expects List<String>
-            List<String> employeeIdList = Arrays.asList(employeeId);
-            boolean snSet = setMethodValue(personDeleteReq, methodMap, "setsn", employeeIdList, "setSn") ||
-                           setMethodValue(personDeleteReq, methodMap, "setid", employeeIdList, "setId") ||
-                           setMethodValue(personDeleteReq, methodMap, "setemployeeid", employeeIdList, "setEmployeeId") ||
-                           setMethodValue(personDeleteReq, methodMap, "setpersonid", employeeIdList, "setPersonId") ||
-                           // Also try with single string value  
-                           setMethodValue(personDeleteReq, methodMap, "setsn", employeeId, "setSn (String)") ||
-                           setMethodValue(personDeleteReq, methodMap, "setid", employeeId, "setId (String)") ||
-                           setMethodValue(personDeleteReq, methodMap, "setemployeeid", employeeId, "setEmployeeId (String)") ||
-                           setMethodValue(personDeleteReq, methodMap, "setpersonid", employeeId, "setPersonId (String)");
-            
-            if (!snSet) {
-                System.err.println("WARNING: Could not set employee ID using any method!");
-                // List all available setter methods
-                for (Method method : methods) {
-                    if (method.getName().toLowerCase().contains("set") && method.getParameterTypes().length == 1) {
-                        System.out.println("Available setter: " + method.getName());
-                    }
-                }
-            }
-            
-            System.out.println("=== PERSON DELETE REQUEST BUILT SUCCESSFULLY ===");
             return personDeleteReq;
             
         } catch (Exception e) {
             System.err.println("ERROR: Failed to build PersonDeleteReq: " + e.getMessage());
-            e.printStackTrace();
             throw new RuntimeException("Failed to build person delete request: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Whether PersonDeleteReq takes a list of employee IDs, so several persons can go in one call
+     */
+    public boolean supportsBulkPersonDelete() {
+        try {
+            RequestBindingPlan.Binder binder = plan(PERSON_DELETE_REQ_CLASS).binder("sn", "id", "employeeid", "personid");
+            return binder != null && Collection.class.isAssignableFrom(binder.getType());
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Build one PersonDeleteReq for several employee IDs (see supportsBulkPersonDelete)
+     */
+    public Object buildPersonDeleteReq(List<String> employeeIds) {
+        if (!supportsBulkPersonDelete()) {
+            throw new UnsupportedOperationException("PersonDeleteReq does not take a list of employee IDs");
+        }
+        try {
+            RequestBindingPlan plan = plan(PERSON_DELETE_REQ_CLASS);
+            Object personDeleteReq = plan.newInstance();
+            plan.set(personDeleteReq, new ArrayList<>(employeeIds), "sn", "id", "employeeid", "personid");
+            return personDeleteReq;
+        } catch (Exception e) {
+            System.err.println("ERROR: Failed to build PersonDeleteReq: " + e.getMessage());
+            throw new RuntimeException("Failed to build person delete request: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Build PersonQueryReq for one employee ID, or null when the class has no sn property
+     */
+    public Object buildPersonQueryReq(String employeeId) throws Exception {
+        RequestBindingPlan plan = plan(PERSON_QUERY_REQ_CLASS);
+        Object personQueryReq = plan.newInstance();
+        return plan.set(personQueryReq, employeeId, "sn") ? personQueryReq : null;
+    }
+
+    /**
+     * Build PersonFindReq for one employee ID, or null when the class has no property for it
+     */
+    public Object buildPersonFindReq(String employeeId) throws Exception {
+        RequestBindingPlan plan = plan(PERSON_FIND_REQ_CLASS);
+        Object personFindReq = plan.newInstance();
+        return plan.set(personFindReq, employeeId, "sn", "personsn", "id", "employeeid") ? personFindReq : null;
+    }
+
     /**
      * Build PersonFindListReq object for getting list of persons
      */
     public Object buildPersonFindListReq() throws Exception {
-        return buildPersonFindListReq(0, 1000); // Default: start at 0, max length
+        return buildPersonFindListReq(0, MAX_PERSON_PAGE_SIZE); // Default: start at 0, max length
     }
 
     /**
      * Build PersonFindListReq object with specific index and length
      */
     public Object buildPersonFindListReq(int index, int length) throws Exception {
-        Class<?> personFindListReqClass = Class.forName("com.hfims.xcan.gateway.netty.client.req.PersonFindListReq");
-        Object personFindListReq = personFindListReqClass.getDeclaredConstructor().newInstance();
-        
-        System.out.println("DEBUG - Created PersonFindListReq with index=" + index + ", length=" + length);
-        
-        // Set index (starting position)
-        try {
-            java.lang.reflect.Field indexField = personFindListReqClass.getDeclaredField("index");
-            indexField.setAccessible(true);
-            indexField.set(personFindListReq, index);
-            System.out.println("✅ Set index to " + index);
-        } catch (NoSuchFieldException e) {
-            System.out.println("⚠️ No index field found");
-        }
-        
-        // Set length (page size) - max is 1000
-        try {
-            java.lang.reflect.Field lengthField = personFindListReqClass.getDeclaredField("length");
-            lengthField.setAccessible(true);
-            lengthField.set(personFindListReq, Math.min(length, 1000)); // Enforce max of 1000
-            System.out.println("✅ Set length to " + Math.min(length, 1000));
-        } catch (NoSuchFieldException e) {
-            System.out.println("⚠️ No length field found");
-        }
-        
+        RequestBindingPlan plan = plan(PERSON_FIND_LIST_REQ_CLASS);
+        Object personFindListReq = plan.newInstance();
+        plan.set(personFindListReq, index, "index");
+        // Page size - max is 1000
+        plan.set(personFindListReq, Math.min(length, MAX_PERSON_PAGE_SIZE), "length");
         return personFindListReq;
     }
 
@@ -185,90 +170,128 @@ public class RequestBuilderService {
      * Build FaceFindReq object for getting face data of a person
      */
     public Object buildFaceFindReq(String employeeSn) throws Exception {
-        Class<?> faceFindReqClass = Class.forName("com.hfims.xcan.gateway.netty.client.req.FaceFindReq");
-        Object faceFindReq = faceFindReqClass.getDeclaredConstructor().newInstance();
-        
-        System.out.println("DEBUG - Created FaceFindReq for employee: " + employeeSn);
-        
-        // Set personSn field
-        try {
-            java.lang.reflect.Field personSnField = faceFindReqClass.getDeclaredField("personSn");
-            personSnField.setAccessible(true);
-            personSnField.set(faceFindReq, employeeSn);
-            System.out.println("DEBUG - Set personSn to: " + employeeSn);
-        } catch (NoSuchFieldException e) {
-            // Try alternative field name
-            try {
-                Method setPersonSnMethod = faceFindReqClass.getMethod("setPersonSn", String.class);
-                setPersonSnMethod.invoke(faceFindReq, employeeSn);
-                System.out.println("DEBUG - Set personSn via setter to: " + employeeSn);
-            } catch (Exception ex) {
-                System.out.println("DEBUG - Could not set personSn field");
-            }
+        RequestBindingPlan plan = plan(FACE_FIND_REQ_CLASS);
+        Object faceFindReq = plan.newInstance();
+        if (!plan.set(faceFindReq, employeeSn, "personsn")) {
+            System.out.println("DEBUG - Could not set personSn field");
         }
-        
         return faceFindReq;
     }
 
     /**
-     * Helper method to set values using reflection with type conversion
+     * Build FaceMergeReq for uploading a face image.
+     *
+     * @param easy photo quality detection (0 = strict, 1 = loose), null to keep the SDK default
      */
-    private boolean setMethodValue(Object target, Map<String, Method> methodMap, 
-                                  String methodName, Object value, String displayName) {
-        Method method = null;
+    public Object buildFaceMergeReq(String personSn, String imgBase64, Integer easy) throws Exception {
+        RequestBindingPlan plan = plan(FACE_MERGE_REQ_CLASS);
+        Object faceMergeReq = plan.newInstance();
+        boolean personSnSet = plan.set(faceMergeReq, personSn, "personsn", "sn", "id");
+        boolean faceImageSet = plan.set(faceMergeReq, imgBase64, "imgbase64", "faceimage", "image");
+        if (!personSnSet || !faceImageSet) {
+            throw new RuntimeException("Failed to configure FaceMergeReq - PersonSn: " + personSnSet + ", FaceImage: " + faceImageSet);
+        }
+        if (easy != null && !plan.set(faceMergeReq, easy, "easy")) {
+            System.out.println("⚠️ Could not set 'easy' parameter - using default strict detection");
+        }
+        return faceMergeReq;
+    }
+
+    /**
+     * Replace the image on an existing FaceMergeReq (used when retrying with an optimised image)
+     */
+    public void setFaceMergeImage(Object faceMergeReq, String imgBase64) throws Exception {
+        plan(FACE_MERGE_REQ_CLASS).set(faceMergeReq, imgBase64, "imgbase64", "faceimage", "image");
+    }
+
+    /**
+     * Build FaceDeleteReq for one employee's face, or null when the class has no property for the ID
+     */
+    public Object buildFaceDeleteReq(String employeeId) throws Exception {
+        RequestBindingPlan plan = plan(FACE_DELETE_REQ_CLASS);
+        Object faceDeleteReq = plan.newInstance();
+        return plan.set(faceDeleteReq, employeeId, "personsn", "id") ? faceDeleteReq : null;
+    }
+
+    /**
+     * Whether FaceDeleteReq takes a list of employee IDs, so several faces can go in one call
+     */
+    public boolean supportsBulkFaceDelete() {
         try {
-            method = methodMap.get(methodName);
-            if (method != null) {
-                method.setAccessible(true);
-                
-                // Handle type conversion
-                Class<?>[] paramTypes = method.getParameterTypes();
-                if (paramTypes.length == 1) {
-                    Object convertedValue = convertValue(value, paramTypes[0]);
-                    method.invoke(target, convertedValue);
-                    System.out.println("Successfully set " + displayName + " = " + convertedValue + 
-                                     " (type: " + paramTypes[0].getSimpleName() + ")");
-                    return true;
-                }
-            }
+            RequestBindingPlan.Binder binder = plan(FACE_DELETE_REQ_CLASS).binder("personsn", "id");
+            return binder != null && Collection.class.isAssignableFrom(binder.getType());
         } catch (Exception e) {
-            System.err.println("Failed to set " + displayName + ": " + e.getMessage());
-            if (method != null && method.getParameterTypes().length > 0) {
-                System.err.println("Expected type: " + method.getParameterTypes()[0].getSimpleName());
-            }
+            return false;
         }
-        return false;
     }
-    
+
+    /**
+     * Build one FaceDeleteReq for several employee IDs (see supportsBulkFaceDelete)
+     */
+    public Object buildFaceDeleteReq(List<String> employeeIds) throws Exception {
+        if (!supportsBulkFaceDelete()) {
+            throw new UnsupportedOperationException("FaceDeleteReq does not take a list of employee IDs");
+        }
+        RequestBindingPlan plan = plan(FACE_DELETE_REQ_CLASS);
+        Object faceDeleteReq = plan.newInstance();
+        plan.set(faceDeleteReq, new ArrayList<>(employeeIds), "personsn", "id");
+        return faceDeleteReq;
+    }
+
+    /**
+     * Build RecordFindListReq for one page of records in ascending time order
+     *
+     * @param startTime earliest createTime to return, in the device's own units; null for the whole log
+     */
+    public Object buildRecordFindListReq(Long startTime, int index, int length) throws Exception {
+        RequestBindingPlan plan = plan(RECORD_FIND_LIST_REQ_CLASS);
+        Object recordFindListReq = plan.newInstance();
+        if (startTime != null && !plan.set(recordFindListReq, startTime, "starttime")) {
+            System.out.println("⚠️ Could not set 'startTime' on RecordFindListReq - the whole log will be paged");
+        }
+        plan.set(recordFindListReq, index, "index");
+        plan.set(recordFindListReq, length, "length");
+        plan.set(recordFindListReq, 1, "order"); // 1 = ascending
+        return recordFindListReq;
+    }
+
     /**
-     * Convert value to the expected parameter type
+     * Build RecordFindListReq for the device's whole log, filtered to one employee when the class
+     * has an sn property (employeeSn may be null)
      */
-    private Object convertValue(Object value, Class<?> targetType) {
-        if (value == null) return null;
-        if (targetType.isAssignableFrom(value.getClass())) return value;
-        
-        String stringValue = value.toString();
-        
-        // Handle common type conversions
-        if (targetType == int.class || targetType == Integer.class) {
-            return Integer.parseInt(stringValue);
-        } else if (targetType == long.class || targetType == Long.class) {
-            return Long.parseLong(stringValue);
-        } else if (targetType == double.class || targetType == Double.class) {
-            return Double.parseDouble(stringValue);
-        } else if (targetType == float.class || targetType == Float.class) {
-            return Float.parseFloat(stringValue);
-        } else if (targetType == boolean.class || targetType == Boolean.class) {
-            return Boolean.parseBoolean(stringValue);
-        } else if (targetType == byte.class || targetType == Byte.class) {
-            return Byte.parseByte(stringValue);
-        } else if (targetType == short.class || targetType == Short.class) {
-            return Short.parseShort(stringValue);
-        } else if (targetType == char.class || targetType == Character.class) {
-            return stringValue.length() > 0 ? stringValue.charAt(0) : '\0';
+    public Object buildRecordFindListReq(String employeeSn) throws Exception {
+        RequestBindingPlan plan = plan(RECORD_FIND_LIST_REQ_CLASS);
+        Object recordFindListReq = plan.newInstance();
+        if (employeeSn != null && !plan.set(recordFindListReq, employeeSn, "sn")) {
+            System.out.println("Employee filter not supported by RecordFindListReq");
         }
-        
-        return stringValue; // Default to string
+        return recordFindListReq;
+    }
+
+    /**
+     * Build RecordFindReq for one record ID, or null when the class has no property for it
+     */
+    public Object buildRecordFindReq(String recordId) throws Exception {
+        RequestBindingPlan plan = plan(RECORD_FIND_REQ_CLASS);
+        Object recordFindReq = plan.newInstance();
+        return plan.set(recordFindReq, recordId, "id", "recordid", "sn", "index") ? recordFindReq : null;
+    }
+
+    /**
+     * Cached binding plan for a request class, built on first use
+     */
+    private RequestBindingPlan plan(String className) throws Exception {
+        RequestBindingPlan plan = plans.get(className);
+        if (plan == null) {
+            plan = RequestBindingPlan.build(Class.forName(className));
+            RequestBindingPlan existing = plans.putIfAbsent(className, plan);
+            if (existing != null) {
+                return existing;
+            }
+            System.out.println("Binding plan ready for " + plan.getRequestClass().getSimpleName()
+                    + " (" + plan.getBinders().size() + " properties)");
+        }
+        return plan;
     }
 
     /**
@@ -276,15 +299,9 @@ public class RequestBuilderService {
      */
     public void inspectPersonCreateReqMethods() {
         try {
-            Class<?> clazz = Class.forName(PERSON_CREATE_REQ_CLASS);
-            Method[] methods = clazz.getDeclaredMethods();
-            
-            System.out.println("=== PersonCreateReq Available Methods ===");
-            for (Method method : methods) {
-                if (method.getName().startsWith("set")) {
-                    System.out.println("Method: " + method.getName() + 
-                                     " | Parameter: " + method.getParameterTypes()[0].getSimpleName());
-                }
+            System.out.println("=== PersonCreateReq Bound Properties ===");
+            for (RequestBindingPlan.Binder binder : plan(PERSON_CREATE_REQ_CLASS).getBinders()) {
+                System.out.println("Property: " + binder.getName() + " | Type: " + binder.getType().getSimpleName());
             }
         } catch (Exception e) {
             System.err.println("Failed to inspect methods: " + e.getMessage());
@@ -0,0 +1,354 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hfims.xcan.gateway.netty.client.dto.HostInfoDto;
+import com.hfims.xcan.gateway.netty.client.resp.HfDeviceResp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Brings a device's person roster in line with the authoritative employee list for it (as
+ * posted, or fetched from the MERN backend). Both sides are reduced to a map of sn to a
+ * fingerprint of name and verifyStyle, so the diff is one pass over each map: persons only in
+ * the list are added, persons whose fingerprint differs are merged, and persons only on the
+ * device are removed. The device side comes from one full paginated scan, which also refreshes
+ * the roster mirror. Faces are not part of the person record: persons the list expects to have
+ * a face but the device has none for are reported for enrollment through /register-batch.
+ */
+@Service
+public class RosterReconciler {
+
+    private static final Logger log = LoggerFactory.getLogger(RosterReconciler.class);
+
+    // Keys a MERN response may keep its employee list under
+    private static final String[] LIST_KEYS = {"employees", "data", "items", "records"};
+
+    public enum Action { ADD, UPDATE, REMOVE }
+
+    // MERN path listing the employees that belong on a device; {deviceKey} is substituted
+    @Value("${mern.reconcile.employees-path:/api/integration/devices/{deviceKey}/employees}")
+    private String employeesPath;
+
+    @Autowired
+    private DeviceRosterMirror deviceRosterMirror;
+
+    @Autowired
+    private DeviceRosterScanner deviceRosterScanner;
+
+    @Autowired
+    private DeviceGateway deviceGateway;
+
+    @Autowired
+    private RequestBuilderService requestBuilderService;
+
+    @Autowired
+    private FacePresenceIndex facePresenceIndex;
+
+    @Autowired
+    private EnrollmentHashIndex enrollmentHashIndex;
+
+    @Autowired
+    private MernBackendService mernBackendService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * One employee as the authoritative list has it
+     */
+    public static class Employee {
+        private final String sn;
+        private final String name;
+        private final Integer verifyStyle;
+        private final Boolean hasFace;
+
+        Employee(String sn, String name, Integer verifyStyle, Boolean hasFace) {
+            this.sn = sn;
+            this.name = name;
+            this.verifyStyle = verifyStyle;
+            this.hasFace = hasFace;
+        }
+
+        /**
+         * The employee from a posted or MERN entry (employeeId/staffId/sn, fullName/name or
+         * firstName + lastName, verificationStyle/verifyStyle, hasFace/faceImageUploaded), or
+         * null when it has no ID
+         */
+        public static Employee from(Map<String, Object> entry) {
+            String sn = firstText(entry, "employeeId", "staffId", "sn");
+            if (sn == null) {
+                return null;
+            }
+            String name = firstText(entry, "fullName", "name");
+            if (name == null) {
+                String first = firstText(entry, "firstName");
+                String last = firstText(entry, "lastName");
+                name = first == null ? last : last == null ? first : first + " " + last;
+            }
+            Object style = entry.containsKey("verificationStyle") ? entry.get("verificationStyle") : entry.get("verifyStyle");
+            Object face = entry.containsKey("hasFace") ? entry.get("hasFace") : entry.get("faceImageUploaded");
+            return new Employee(sn, name, style instanceof Number ? ((Number) style).intValue() : null,
+                    face instanceof Boolean ? (Boolean) face : null);
+        }
+
+        public String getSn() { return sn; }
+        public String getName() { return name; }
+        public Integer getVerifyStyle() { return verifyStyle; }
+
+        private static String firstText(Map<String, Object> entry, String... keys) {
+            for (String key : keys) {
+                Object value = entry.get(key);
+                if (value != null && !String.valueOf(value).trim().isEmpty()) {
+                    return String.valueOf(value).trim();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * One change the reconciliation makes to the device
+     */
+    public static class Change {
+        private final Action action;
+        private final String sn;
+        private final String name;
+        private final Integer verifyStyle;
+
+        Change(Action action, String sn, String name, Integer verifyStyle) {
+            this.action = action;
+            this.sn = sn;
+            this.name = name;
+            this.verifyStyle = verifyStyle;
+        }
+
+        public Action getAction() { return action; }
+        public String getSn() { return sn; }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("action", action.name());
+            map.put("employeeId", sn);
+            map.put("name", name);
+            map.put("verifyStyle", verifyStyle);
+            return map;
+        }
+    }
+
+    /**
+     * The diff between the list and the device: removals first, then updates, then adds
+     */
+    public static class Plan {
+        private final List<Change> changes = new ArrayList<>();
+        private final List<String> needsFace = new ArrayList<>();
+        private int listed;
+        private int onDevice;
+        private int unchanged;
+        private long scanMs;
+
+        public List<Change> getChanges() { return changes; }
+
+        public int count(Action action) {
+            return (int) changes.stream().filter(c -> c.action == action).count();
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("listed", listed);
+            map.put("onDevice", onDevice);
+            map.put("unchanged", unchanged);
+            map.put("adds", count(Action.ADD));
+            map.put("updates", count(Action.UPDATE));
+            map.put("removals", count(Action.REMOVE));
+            map.put("scanMs", scanMs);
+            List<Map<String, Object>> list = new ArrayList<>(changes.size());
+            changes.forEach(change -> list.add(change.toMap()));
+            map.put("changes", list);
+            map.put("needsFace", needsFace);
+            return map;
+        }
+    }
+
+    /**
+     * The employees that belong on the device according to the MERN backend
+     */
+    public List<Employee> fetchFromMern(String deviceKey) throws Exception {
+        String path = employeesPath.replace("{deviceKey}", deviceKey);
+        String body = mernBackendService.sendGetRequest(path).block();
+        // No body is an outage, not an empty roster: treating it as [] would plan removing everyone
+        if (body == null || body.trim().isEmpty()) {
+            throw new IllegalStateException("MERN returned no body for " + path);
+        }
+        JsonNode root = objectMapper.readTree(body);
+        JsonNode list = root;
+        for (int i = 0; i < LIST_KEYS.length && !list.isArray(); i++) {
+            if (root.has(LIST_KEYS[i]) && root.get(LIST_KEYS[i]).isArray()) {
+                list = root.get(LIST_KEYS[i]);
+            }
+        }
+        if (!list.isArray()) {
+            throw new IllegalStateException("MERN response from " + path + " has no employee list");
+        }
+        List<Map<String, Object>> entries = new ArrayList<>();
+        for (JsonNode node : list) {
+            entries.add(objectMapper.convertValue(node, Map.class));
+        }
+        log.info("Fetched {} employee(s) for {} from MERN {}", entries.size(), deviceKey, path);
+        return parse(entries);
+    }
+
+    public static List<Employee> parse(List<Map<String, Object>> entries) {
+        List<Employee> employees = new ArrayList<>(entries.size());
+        for (Map<String, Object> entry : entries) {
+            Employee employee = entry != null ? Employee.from(entry) : null;
+            if (employee != null) {
+                employees.add(employee);
+            }
+        }
+        return employees;
+    }
+
+    /**
+     * Scan the device once and work out the changes that make it match the list
+     *
+     * @param removeMissing whether persons on the device but not in the list are removed
+     * @throws IllegalArgumentException when removals are asked for with an empty list
+     * @throws RosterScanException when the device roster cannot be read
+     */
+    public Plan plan(HostInfoDto hostInfo, String deviceKey, String secret, List<Employee> employees,
+                     boolean removeMissing) throws Exception {
+        if (removeMissing && employees.isEmpty()) {
+            throw new IllegalArgumentException("Refusing to remove persons: the employee list is empty");
+        }
+        long startTime = System.currentTimeMillis();
+        List<DeviceRosterMirror.Person> persons = scan(hostInfo, deviceKey, secret);
+
+        Plan plan = new Plan();
+        plan.scanMs = System.currentTimeMillis() - startTime;
+        plan.listed = employees.size();
+        plan.onDevice = persons.size();
+
+        Map<String, DeviceRosterMirror.Person> device = new HashMap<>(persons.size() * 2);
+        for (DeviceRosterMirror.Person person : persons) {
+            device.put(person.getSn(), person);
+        }
+        Map<String, Employee> wanted = new LinkedHashMap<>(employees.size() * 2);
+        for (Employee employee : employees) {
+            wanted.put(employee.sn, employee); // a later duplicate wins
+        }
+
+        if (removeMissing) {
+            for (DeviceRosterMirror.Person person : persons) {
+                if (!wanted.containsKey(person.getSn())) {
+                    plan.changes.add(new Change(Action.REMOVE, person.getSn(), person.getName(), person.getVerifyStyle()));
+                }
+            }
+        }
+        List<Change> adds = new ArrayList<>();
+        for (Employee employee : wanted.values()) {
+            DeviceRosterMirror.Person current = device.get(employee.sn);
+            if (current == null) {
+                adds.add(new Change(Action.ADD, employee.sn, employee.name, employee.verifyStyle));
+            } else {
+                // A field the list leaves out keeps the device's value rather than blanking it
+                String name = employee.name != null ? employee.name : current.getName();
+                Integer verifyStyle = employee.verifyStyle != null ? employee.verifyStyle : current.getVerifyStyle();
+                if (!fingerprint(name, verifyStyle).equals(fingerprint(current.getName(), current.getVerifyStyle()))) {
+                    plan.changes.add(new Change(Action.UPDATE, employee.sn, name, verifyStyle));
+                } else {
+                    plan.unchanged++;
+                }
+            }
+            if (Boolean.TRUE.equals(employee.hasFace)
+                    && (current == null || !facePresenceIndex.hasFace(deviceKey, employee.sn, current.getVerifyStyle()))) {
+                plan.needsFace.add(employee.sn);
+            }
+        }
+        plan.changes.addAll(adds);
+        log.info("Reconcile plan for {}: {} listed, {} on device, {} add(s), {} update(s), {} removal(s), {} unchanged",
+                deviceKey, plan.listed, plan.onDevice, plan.count(Action.ADD), plan.count(Action.UPDATE),
+                plan.count(Action.REMOVE), plan.unchanged);
+        return plan;
+    }
+
+    /**
+     * Make the planned changes, one device call each. Runs on the device's lane; a failed
+     * change is reported and the rest still run.
+     */
+    public List<Map<String, Object>> apply(HostInfoDto hostInfo, String deviceKey, String secret, Plan plan) {
+        List<Map<String, Object>> results = new ArrayList<>(plan.changes.size());
+        for (Change change : plan.changes) {
+            HfDeviceResp response = null;
+            String error = null;
+            try {
+                response = applyChange(hostInfo, deviceKey, secret, change);
+            } catch (Exception e) {
+                error = e.getMessage();
+            }
+            boolean success = response != null && "000".equals(response.getCode());
+            Map<String, Object> result = change.toMap();
+            result.put("success", success);
+            result.put("code", response != null ? response.getCode() : null);
+            result.put("message", error != null ? error : response != null ? response.getMsg() : "No response from device");
+            results.add(result);
+        }
+        return results;
+    }
+
+    private HfDeviceResp applyChange(HostInfoDto hostInfo, String deviceKey, String secret, Change change) throws Exception {
+        if (change.action == Action.REMOVE) {
+            enrollmentHashIndex.remove(deviceKey, change.sn);
+            HfDeviceResp response = deviceGateway.personDelete(hostInfo, deviceKey, secret,
+                    requestBuilderService.buildPersonDeleteReq(change.sn));
+            if (response != null && "000".equals(response.getCode())) {
+                facePresenceIndex.forget(deviceKey, change.sn);
+                deviceRosterMirror.personDeleted(deviceKey, change.sn);
+            }
+            return response;
+        }
+        Object personReq = requestBuilderService.buildPersonCreateReq(change.sn, change.name, null, change.verifyStyle);
+        HfDeviceResp response;
+        if (change.action == Action.ADD) {
+            response = deviceGateway.personCreate(hostInfo, deviceKey, secret, personReq);
+        } else {
+            // The stored content hash covers the name, so it no longer describes the device record
+            enrollmentHashIndex.remove(deviceKey, change.sn);
+            response = deviceGateway.personMerge(hostInfo, deviceKey, secret, personReq);
+        }
+        if (response != null && "000".equals(response.getCode())) {
+            deviceRosterMirror.personSaved(deviceKey, change.sn, change.name,
+                    RequestBuilderService.effectiveVerifyStyle(change.verifyStyle, null));
+        }
+        return response;
+    }
+
+    /**
+     * The whole device roster, read once (through the mirror when it is enabled, so it is refreshed too)
+     */
+    private List<DeviceRosterMirror.Person> scan(HostInfoDto hostInfo, String deviceKey, String secret) throws Exception {
+        if (deviceRosterMirror.isAvailable()) {
+            deviceRosterMirror.refresh(hostInfo, deviceKey, secret);
+            return deviceRosterMirror.list(hostInfo, deviceKey, secret);
+        }
+        List<DeviceRosterMirror.Person> persons = new ArrayList<>();
+        try (Stream<Map<String, Object>> roster = deviceRosterScanner.stream(hostInfo, deviceKey, secret)) {
+            roster.map(DeviceRosterMirror.Person::from).filter(p -> p != null).forEach(persons::add);
+        }
+        return persons;
+    }
+
+    private static String fingerprint(String name, Integer verifyStyle) {
+        return (name != null ? name.trim() : "") + '\u0000' + (verifyStyle != null ? verifyStyle : "");
+    }
+}
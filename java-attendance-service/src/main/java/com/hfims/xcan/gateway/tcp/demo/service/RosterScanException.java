@@ -0,0 +1,26 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+/**
+ * A roster page could not be read from the device. Carries the device's response code
+ * ("3504" when there was no response at all) and the index of the page that failed.
+ */
+public class RosterScanException extends RuntimeException {
+
+    private final String code;
+    private final int index;
+
+    public RosterScanException(String code, String message, int index) {
+        super(message);
+        this.code = code;
+        this.index = index;
+    }
+
+    public RosterScanException(String message, int index, Throwable cause) {
+        super(message, cause);
+        this.code = "1000";
+        this.index = index;
+    }
+
+    public String getCode() { return code; }
+    public int getIndex() { return index; }
+}
@@ -0,0 +1,100 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * A JSON file under device.state-dir holding one service's state. Changes are batched into
+ * one write per flush delay; each write goes to a temporary file that is then moved over the
+ * old one, so a crash mid-write never leaves a truncated file.
+ */
+class StateFile<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(StateFile.class);
+
+    private final File file;
+    private final TypeReference<T> type;
+    private final long flushDelayMs;
+    private final Supplier<T> snapshot;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService writer;
+
+    /**
+     * @param snapshot called on the writer thread to get the state to write
+     */
+    StateFile(String stateDir, String fileName, TypeReference<T> type, long flushDelayMs, String threadName, Supplier<T> snapshot) {
+        this.file = new File(stateDir, fileName);
+        this.type = type;
+        this.flushDelayMs = flushDelayMs;
+        this.snapshot = snapshot;
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, threadName);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * The stored state, or null when there is no file yet or it cannot be read
+     */
+    T read() {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(file, type);
+        } catch (Exception e) {
+            // Callers treat lost state as a cache miss, so start over rather than fail
+            log.warn("Could not read {}: {}", file.getAbsolutePath(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Schedule a write unless one is already pending
+     */
+    void changed() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            writer.schedule(this::flush, flushDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized void flush() {
+        flushScheduled.set(false);
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+            Files.createDirectories(dir.toPath());
+            File temp = new File(dir, file.getName() + ".tmp");
+            objectMapper.writeValue(temp, snapshot.get());
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            log.warn("Could not write {}: {}", file.getAbsolutePath(), e.getMessage());
+        }
+    }
+
+    /**
+     * Stop the writer, writing any pending change first
+     */
+    void close() {
+        writer.shutdownNow();
+        if (flushScheduled.get()) {
+            flush();
+        }
+    }
+}
@@ -2,13 +2,17 @@ package com.hfims.xcan.gateway.tcp.demo.web;
 
 import com.hfims.xcan.gateway.netty.client.HfDeviceClient;
 import com.hfims.xcan.gateway.netty.client.resp.HfDeviceResp;
+import com.hfims.xcan.gateway.tcp.demo.service.AttendanceSyncService;
+import com.hfims.xcan.gateway.tcp.demo.service.RequestBuilderService;
 import com.hfims.xcan.gateway.tcp.demo.support.BaseResult;
 import com.hfims.xcan.gateway.tcp.demo.support.ResultWrapper;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
-import java.lang.reflect.Method;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 
@@ -17,6 +21,12 @@ import java.util.*;
 @CrossOrigin(origins = "*")
 public class AttendanceController extends BaseController {
 
+    @Autowired
+    private AttendanceSyncService attendanceSyncService;
+
+    @Autowired
+    private RequestBuilderService requestBuilderService;
+
     /**
      * Get attendance records from device
      */
@@ -30,38 +40,23 @@ public class AttendanceController extends BaseController {
 
         try {
             // Test device connectivity
-            HfDeviceResp testResponse = HfDeviceClient.test(hostInfo, request.getDeviceKey(), request.getSecret());
+            HfDeviceResp testResponse = checkDeviceLiveness(request.getDeviceKey(), request.getSecret());
             if (!"000".equals(testResponse.getCode())) {
                 return ResultWrapper.wrapFailure("1002", "Device connectivity failed: " + testResponse.getMsg());
             }
 
-            // Get attendance records from device
-            HfDeviceResp recordsResponse = getRecordsFromDevice(request);
-            
+            // Get attendance records (local store, or the device's whole log)
             Map<String, Object> responseData = new HashMap<>();
             responseData.put("deviceConnected", true);
+            List<Map<String, Object>> attendanceRecords = loadAttendanceRecords(request, responseData);
             
-            if ("000".equals(recordsResponse.getCode()) && recordsResponse.getData() != null) {
+            if (attendanceRecords != null) {
                 System.out.println("✅ Successfully retrieved attendance records");
                 
-                // Parse attendance records from device response
-                List<Map<String, Object>> attendanceRecords = parseAttendanceRecords(recordsResponse.getData());
-                
-                // Filter records if specific employee requested
-                if (request.getEmployeeId() != null && !request.getEmployeeId().isEmpty()) {
-                    attendanceRecords = filterRecordsByEmployee(attendanceRecords, request.getEmployeeId());
-                }
-                
-                // Filter records by date range if specified
-                if (request.getStartDate() != null || request.getEndDate() != null) {
-                    attendanceRecords = filterRecordsByDateRange(attendanceRecords, request.getStartDate(), request.getEndDate());
-                }
-                
                 responseData.put("success", true);
                 responseData.put("message", "Attendance records retrieved successfully");
                 responseData.put("totalRecords", attendanceRecords.size());
                 responseData.put("attendanceRecords", attendanceRecords);
-                responseData.put("deviceResponse", recordsResponse.getMsg());
                 
                 // Add summary statistics
                 Map<String, Object> statistics = generateAttendanceStatistics(attendanceRecords);
@@ -75,13 +70,13 @@ public class AttendanceController extends BaseController {
                 responseData.put("message", "No attendance records found");
                 responseData.put("totalRecords", 0);
                 responseData.put("attendanceRecords", new ArrayList<>());
-                responseData.put("deviceResponse", recordsResponse.getMsg());
                 
                 return ResultWrapper.wrapSuccess(responseData);
             }
 
         } catch (Exception e) {
             e.printStackTrace();
+            deviceLivenessCache.invalidate(request.getDeviceKey());
             return ResultWrapper.wrapFailure("1000", "Failed to retrieve attendance records: " + e.getMessage());
         }
     }
@@ -97,7 +92,7 @@ public class AttendanceController extends BaseController {
 
         try {
             // Test device connectivity
-            HfDeviceResp testResponse = HfDeviceClient.test(hostInfo, request.getDeviceKey(), request.getSecret());
+            HfDeviceResp testResponse = checkDeviceLiveness(request.getDeviceKey(), request.getSecret());
             if (!"000".equals(testResponse.getCode())) {
                 return ResultWrapper.wrapFailure("1002", "Device connectivity failed: " + testResponse.getMsg());
             }
@@ -133,6 +128,7 @@ public class AttendanceController extends BaseController {
 
         } catch (Exception e) {
             e.printStackTrace();
+            deviceLivenessCache.invalidate(request.getDeviceKey());
             return ResultWrapper.wrapFailure("1000", "Failed to retrieve attendance record: " + e.getMessage());
         }
     }
@@ -147,7 +143,7 @@ public class AttendanceController extends BaseController {
 
         try {
             // Test device connectivity
-            HfDeviceResp testResponse = HfDeviceClient.test(hostInfo, request.getDeviceKey(), request.getSecret());
+            HfDeviceResp testResponse = checkDeviceLiveness(request.getDeviceKey(), request.getSecret());
             if (!"000".equals(testResponse.getCode())) {
                 return ResultWrapper.wrapFailure("1002", "Device connectivity failed: " + testResponse.getMsg());
             }
@@ -173,9 +169,13 @@ public class AttendanceController extends BaseController {
                 recentRecords.setStartDate(LocalDate.now().minusDays(1).toString());
                 
                 try {
-                    HfDeviceResp recentResponse = getRecordsFromDevice(recentRecords);
-                    if ("000".equals(recentResponse.getCode()) && recentResponse.getData() != null) {
-                        List<Map<String, Object>> recentEvents = parseAttendanceRecords(recentResponse.getData());
+                    Map<String, Object> recentData = new HashMap<>();
+                    List<Map<String, Object>> recentEvents = loadAttendanceRecords(recentRecords, recentData);
+                    if (recentData.containsKey("catchingUp")) {
+                        responseData.put("catchingUp", true);
+                        responseData.put("syncNote", recentData.get("syncNote"));
+                    }
+                    if (recentEvents != null) {
                         responseData.put("recentEvents", recentEvents);
                         responseData.put("recentEventCount", recentEvents.size());
                     } else {
@@ -201,6 +201,7 @@ public class AttendanceController extends BaseController {
 
         } catch (Exception e) {
             e.printStackTrace();
+            deviceLivenessCache.invalidate(request.getDeviceKey());
             return ResultWrapper.wrapFailure("1000", "Failed to monitor attendance: " + e.getMessage());
         }
     }
@@ -218,7 +219,7 @@ public class AttendanceController extends BaseController {
 
         try {
             // Test device connectivity
-            HfDeviceResp testResponse = HfDeviceClient.test(hostInfo, request.getDeviceKey(), request.getSecret());
+            HfDeviceResp testResponse = checkDeviceLiveness(request.getDeviceKey(), request.getSecret());
             if (!"000".equals(testResponse.getCode())) {
                 return ResultWrapper.wrapFailure("1002", "Device connectivity failed: " + testResponse.getMsg());
             }
@@ -231,26 +232,13 @@ public class AttendanceController extends BaseController {
             recordsRequest.setStartDate(request.getStartDate());
             recordsRequest.setEndDate(request.getEndDate());
             
-            HfDeviceResp recordsResponse = getRecordsFromDevice(recordsRequest);
-            
             Map<String, Object> responseData = new HashMap<>();
             responseData.put("deviceConnected", true);
+            List<Map<String, Object>> attendanceRecords = loadAttendanceRecords(recordsRequest, responseData);
             
-            if ("000".equals(recordsResponse.getCode()) && recordsResponse.getData() != null) {
+            if (attendanceRecords != null) {
                 System.out.println("✅ Successfully retrieved records for statistics");
                 
-                List<Map<String, Object>> attendanceRecords = parseAttendanceRecords(recordsResponse.getData());
-                
-                // Filter records if specific employee requested
-                if (request.getEmployeeId() != null && !request.getEmployeeId().isEmpty()) {
-                    attendanceRecords = filterRecordsByEmployee(attendanceRecords, request.getEmployeeId());
-                }
-                
-                // Filter records by date range
-                if (request.getStartDate() != null || request.getEndDate() != null) {
-                    attendanceRecords = filterRecordsByDateRange(attendanceRecords, request.getStartDate(), request.getEndDate());
-                }
-                
                 // Generate comprehensive statistics
                 Map<String, Object> statistics = generateDetailedStatistics(attendanceRecords, request);
                 
@@ -274,12 +262,79 @@ public class AttendanceController extends BaseController {
 
         } catch (Exception e) {
             e.printStackTrace();
+            deviceLivenessCache.invalidate(request.getDeviceKey());
             return ResultWrapper.wrapFailure("1000", "Failed to generate attendance statistics: " + e.getMessage());
         }
     }
 
+    /**
+     * Attendance sync state: per device cursor, stored records and last pull
+     */
+    @GetMapping("/sync-status")
+    public BaseResult getSyncStatus() {
+        return ResultWrapper.wrapSuccess(attendanceSyncService.getStatistics());
+    }
+
     // ==================== HELPER METHODS ====================
 
+    /**
+     * Parsed attendance records for the request's device, employee and date range, or null when
+     * the device returned none. Served from the incrementally synced local store when available
+     * (see AttendanceSyncService); otherwise the device's whole log is read as before. Adds the
+     * sync state or the device's response message to responseData.
+     */
+    private List<Map<String, Object>> loadAttendanceRecords(AttendanceRecordsRequest request, Map<String, Object> responseData) throws Exception {
+        String employeeId = request.getEmployeeId() != null && !request.getEmployeeId().isEmpty() ? request.getEmployeeId() : null;
+        if (attendanceSyncService.isAvailable()) {
+            List<Map<String, Object>> stored = attendanceSyncService.records(getHostInfo(), request.getDeviceKey(), request.getSecret(),
+                    employeeId, toEpochMillis(request.getStartDate(), false), toEpochMillis(request.getEndDate(), true));
+            List<Map<String, Object>> attendanceRecords = new ArrayList<>(stored.size());
+            for (Map<String, Object> record : stored) {
+                attendanceRecords.add(parseAttendanceRecord(record));
+            }
+            responseData.put("source", "local-store");
+            responseData.put("sync", attendanceSyncService.getStatus(request.getDeviceKey()));
+            if (attendanceSyncService.isCatchingUp(request.getDeviceKey())) {
+                // The device's log is still being pulled; what the store holds so far is partial
+                responseData.put("catchingUp", true);
+                responseData.put("syncNote", "Attendance log is still being synced from the device; records may be incomplete");
+            }
+            return attendanceRecords;
+        }
+        
+        HfDeviceResp recordsResponse = getRecordsFromDevice(request);
+        responseData.put("deviceResponse", recordsResponse.getMsg());
+        if (!"000".equals(recordsResponse.getCode()) || recordsResponse.getData() == null) {
+            return null;
+        }
+        
+        // Parse attendance records from device response
+        List<Map<String, Object>> attendanceRecords = parseAttendanceRecords(recordsResponse.getData());
+        
+        // Filter records if specific employee requested
+        if (employeeId != null) {
+            attendanceRecords = filterRecordsByEmployee(attendanceRecords, employeeId);
+        }
+        
+        // Filter records by date range if specified
+        if (request.getStartDate() != null || request.getEndDate() != null) {
+            attendanceRecords = filterRecordsByDateRange(attendanceRecords, request.getStartDate(), request.getEndDate());
+        }
+        return attendanceRecords;
+    }
+
+    /**
+     * Start (or end) of a YYYY-MM-DD day in epoch milliseconds, null when no date is given
+     */
+    private Long toEpochMillis(String date, boolean endOfDay) {
+        if (date == null || date.trim().isEmpty()) {
+            return null;
+        }
+        LocalDate day = LocalDate.parse(date.trim());
+        LocalDateTime time = endOfDay ? day.atTime(LocalTime.MAX) : day.atStartOfDay();
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
     /**
      * Get attendance records from device using recordFindList
      */
@@ -287,34 +342,12 @@ public class AttendanceController extends BaseController {
         try {
             System.out.println("=== ATTEMPTING RECORDS RETRIEVAL ===");
             
-            // Build RecordFindListReq using reflection
-            Class<?> recordFindListReqClass = Class.forName("com.hfims.xcan.gateway.netty.client.req.RecordFindListReq");
-            Object recordFindListReq = recordFindListReqClass.getDeclaredConstructor().newInstance();
-            
-            System.out.println("✅ RecordFindListReq object created successfully");
-            
-            // Set optional filters if provided
-            // Note: The exact field names may vary - we'll try common ones
-            if (request.getEmployeeId() != null && !request.getEmployeeId().isEmpty()) {
-                try {
-                    Method setSnMethod = recordFindListReqClass.getMethod("setSn", String.class);
-                    setSnMethod.invoke(recordFindListReq, request.getEmployeeId());
-                    System.out.println("Set employee filter: " + request.getEmployeeId());
-                } catch (NoSuchMethodException e) {
-                    System.out.println("Employee filter not supported by RecordFindListReq");
-                }
-            }
-            
-            // Get the method signature for recordFindList
-            Class<?> hostInfoClass = Class.forName("com.hfims.xcan.gateway.netty.client.dto.HostInfoDto");
-            
-            Method recordFindListMethod = HfDeviceClient.class.getMethod("recordFindList",
-                hostInfoClass, String.class, String.class, recordFindListReqClass);
-            
-            System.out.println("✅ Found recordFindList method in HfDeviceClient");
+            // Build RecordFindListReq with the optional employee filter (cached binding plan)
+            String employeeId = request.getEmployeeId() != null && !request.getEmployeeId().isEmpty() ? request.getEmployeeId() : null;
+            Object recordFindListReq = requestBuilderService.buildRecordFindListReq(employeeId);
             
             // Call the recordFindList method
-            HfDeviceResp response = (HfDeviceResp) recordFindListMethod.invoke(null, hostInfo, request.getDeviceKey(), request.getSecret(), recordFindListReq);
+            HfDeviceResp response = deviceGateway.recordFindList(hostInfo, request.getDeviceKey(), request.getSecret(), recordFindListReq);
             
             System.out.println("RecordFindList response - Code: " + response.getCode() + ", Message: " + response.getMsg());
             return response;
@@ -333,43 +366,15 @@ public class AttendanceController extends BaseController {
         try {
             System.out.println("=== ATTEMPTING SPECIFIC RECORD FIND ===");
             
-            // Build RecordFindReq using reflection
-            Class<?> recordFindReqClass = Class.forName("com.hfims.xcan.gateway.netty.client.req.RecordFindReq");
-            Object recordFindReq = recordFindReqClass.getDeclaredConstructor().newInstance();
-            
-            System.out.println("✅ RecordFindReq object created successfully");
-            
-            // Try to set the record ID
-            boolean fieldSet = false;
-            String[] fieldNames = {"id", "recordId", "sn", "index"};
+            // Record ID bound through the cached plan (id, recordId, sn or index)
+            Object recordFindReq = requestBuilderService.buildRecordFindReq(request.getRecordId());
             
-            for (String fieldName : fieldNames) {
-                try {
-                    String methodName = "set" + fieldName.substring(0, 1).toUpperCase() + fieldName.substring(1);
-                    Method setMethod = recordFindReqClass.getMethod(methodName, String.class);
-                    setMethod.invoke(recordFindReq, request.getRecordId());
-                    System.out.println("✅ Set field '" + fieldName + "' to: " + request.getRecordId());
-                    fieldSet = true;
-                    break;
-                } catch (NoSuchMethodException e) {
-                    System.out.println("Method " + fieldName + " not found, trying next...");
-                }
-            }
-            
-            if (!fieldSet) {
+            if (recordFindReq == null) {
                 throw new Exception("Could not find appropriate field setter for record ID in RecordFindReq");
             }
             
-            // Get the method signature for recordFind
-            Class<?> hostInfoClass = Class.forName("com.hfims.xcan.gateway.netty.client.dto.HostInfoDto");
-            
-            Method recordFindMethod = HfDeviceClient.class.getMethod("recordFind",
-                hostInfoClass, String.class, String.class, recordFindReqClass);
-            
-            System.out.println("✅ Found recordFind method in HfDeviceClient");
-            
             // Call the recordFind method
-            HfDeviceResp response = (HfDeviceResp) recordFindMethod.invoke(null, hostInfo, request.getDeviceKey(), request.getSecret(), recordFindReq);
+            HfDeviceResp response = deviceGateway.recordFind(hostInfo, request.getDeviceKey(), request.getSecret(), recordFindReq);
             
             System.out.println("RecordFind response - Code: " + response.getCode() + ", Message: " + response.getMsg());
             return response;
@@ -1,9 +1,13 @@
 package com.hfims.xcan.gateway.tcp.demo.web;
 
 import com.hfims.xcan.gateway.netty.client.dto.HostInfoDto;
+import com.hfims.xcan.gateway.netty.client.resp.HfDeviceResp;
 import com.hfims.xcan.gateway.netty.error.CgiErrorEnum;
 import com.hfims.xcan.gateway.netty.error.CgiErrorException;
 import com.hfims.xcan.gateway.netty.util.StringUtils;
+import com.hfims.xcan.gateway.tcp.demo.service.DeviceGateway;
+import com.hfims.xcan.gateway.tcp.demo.service.DeviceLivenessCache;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import javax.annotation.PostConstruct;
@@ -22,6 +26,12 @@ public abstract class BaseController {
     
     protected HostInfoDto hostInfo;  // Make it protected so subclasses can access it
     
+    @Autowired
+    protected DeviceLivenessCache deviceLivenessCache;
+    
+    @Autowired
+    protected DeviceGateway deviceGateway;
+    
     @PostConstruct
     private void initializeHostInfo() {
         String finalDeviceIp = getDeviceIpFromConfig();
@@ -37,6 +47,11 @@ public abstract class BaseController {
         return hostInfo;
     }
     
+    // Device connectivity check - skips the device round trip when it was confirmed healthy recently
+    protected HfDeviceResp checkDeviceLiveness(String deviceKey, String secret) {
+        return deviceLivenessCache.check(getHostInfo(), deviceKey, secret);
+    }
+    
     // Dynamic device IP configuration - prioritize environment variables, then properties
     private String getDeviceIpFromConfig() {
         // 1. Check environment variable
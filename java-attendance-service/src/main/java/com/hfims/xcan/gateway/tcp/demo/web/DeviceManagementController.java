@@ -1,5 +1,7 @@
 package com.hfims.xcan.gateway.tcp.demo.web;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hfims.xcan.gateway.netty.client.HfDeviceClient;
 import com.hfims.xcan.gateway.netty.client.resp.HfDeviceResp;
 import com.hfims.xcan.gateway.netty.error.CgiErrorException;
@@ -7,11 +9,31 @@ import com.hfims.xcan.gateway.tcp.demo.dto.ApiResponse;
 import com.hfims.xcan.gateway.netty.client.dto.HostInfoDto;
 import com.hfims.xcan.gateway.tcp.demo.service.RequestBuilderService;
 import com.hfims.xcan.gateway.tcp.demo.service.DeviceMethodInspector;
+import com.hfims.xcan.gateway.tcp.demo.service.DeviceLaneRegistry;
+import com.hfims.xcan.gateway.tcp.demo.service.DevicePhotoFetcher;
+import com.hfims.xcan.gateway.tcp.demo.service.DeviceRosterScanner;
+import com.hfims.xcan.gateway.tcp.demo.service.FacePresenceIndex;
+import com.hfims.xcan.gateway.tcp.demo.service.PhotoFetchProgress;
+import com.hfims.xcan.gateway.tcp.demo.service.RosterReconciler;
+import com.hfims.xcan.gateway.tcp.demo.service.RosterScanException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
 
 /**
  * Controller for XO5 device management operations
@@ -22,12 +44,38 @@ import java.util.*;
 @CrossOrigin(origins = "*", allowedHeaders = "*", methods = {RequestMethod.GET, RequestMethod.POST, RequestMethod.PUT, RequestMethod.DELETE, RequestMethod.OPTIONS})
 public class DeviceManagementController extends BaseController {
 
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    // Longest a reconcile request waits for its changes to be applied
+    private static final long RECONCILE_TIMEOUT = 1800000;
+
+    // Longest a streamed get-all-persons export may run; other async requests keep the container default
+    private static final long ROSTER_EXPORT_TIMEOUT = 1800000;
+
     @Autowired
     private RequestBuilderService requestBuilderService;
     
     @Autowired
     private DeviceMethodInspector deviceMethodInspector;
 
+    @Autowired
+    private DeviceRosterScanner deviceRosterScanner;
+
+    @Autowired
+    private DevicePhotoFetcher devicePhotoFetcher;
+
+    @Autowired
+    private FacePresenceIndex facePresenceIndex;
+
+    @Autowired
+    private RosterReconciler rosterReconciler;
+
+    @Autowired
+    private DeviceLaneRegistry deviceLaneRegistry;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     /**
      * Test connection to device gateway
      */
@@ -220,6 +268,7 @@ public class DeviceManagementController extends BaseController {
             response.put("totalMethods", methods.size());
             response.put("methods", methods);
             response.put("clientClass", "HfDeviceClient");
+            response.put("resolvedOperations", deviceGateway.getAvailability());
             response.put("discoveredAt", new Date());
             
             return ApiResponse.success("Available methods discovered successfully", response);
@@ -506,6 +555,7 @@ public class DeviceManagementController extends BaseController {
     /**
      * Get all registered persons from the device
      * Returns list of employees with their photos
+     * (see streamAllPersonsFromDevice for the NDJSON variant used for large rosters)
      */
     @PostMapping("/get-all-persons")
     public ApiResponse<Map<String, Object>> getAllPersonsFromDevice(@RequestBody Map<String, Object> request) {
@@ -516,6 +566,7 @@ public class DeviceManagementController extends BaseController {
             String secret = (String) request.get("secret");
             Boolean includePhotos = request.containsKey("includePhotos") ? 
                 (Boolean) request.get("includePhotos") : false;
+            boolean verifyPhotos = Boolean.TRUE.equals(request.get("verifyPhotos"));
             
             System.out.println("📸 Include Photos: " + includePhotos);
             
@@ -526,266 +577,47 @@ public class DeviceManagementController extends BaseController {
             HostInfoDto hostInfo = getHostInfo();
             
             try {
-                // Try PersonFindListReq method
-                System.out.println("✅ Building PersonFindList request...");
-                Object personFindListReq = requestBuilderService.buildPersonFindListReq();
-                
-                Class<?> hostInfoClass = Class.forName("com.hfims.xcan.gateway.netty.client.dto.HostInfoDto");
-                Method personFindListMethod = HfDeviceClient.class.getMethod("personFindList", 
-                    hostInfoClass, String.class, String.class, personFindListReq.getClass());
-                
-                System.out.println("✅ Calling personFindList on device...");
-                HfDeviceResp response = (HfDeviceResp) personFindListMethod.invoke(null, hostInfo, deviceKey, secret, personFindListReq);
-                
                 Map<String, Object> resultData = new HashMap<>();
                 resultData.put("deviceKey", deviceKey);
                 resultData.put("timestamp", new Date());
                 
-                if (response != null && "000".equals(response.getCode())) {
-                    System.out.println("✅ PersonFindList successful - Code: " + response.getCode());
+                // Walk the whole roster page by page (a single personFindList call stops at 1000)
+                System.out.println("✅ Scanning device roster with personFindList (page size " + deviceRosterScanner.getPageSize() + ")...");
+                List<Map<String, Object>> persons = new ArrayList<>();
+                try (Stream<Map<String, Object>> roster = deviceRosterScanner.stream(hostInfo, deviceKey, secret)) {
+                    logPhotoMode(includePhotos, verifyPhotos);
                     
-                    List<Map<String, Object>> persons = new ArrayList<>();
-                    Object responseData = response.getData();
-                    
-                    if (responseData != null) {
-                        System.out.println("Response data type: " + responseData.getClass().getName());
-                        
-                        List<Map<String, Object>> basicPersonList = new ArrayList<>();
-                        
-                        // Process response - could be List or Map
-                        if (responseData instanceof List) {
-                            @SuppressWarnings("unchecked")
-                            List<Object> dataList = (List<Object>) responseData;
-                            System.out.println("Found " + dataList.size() + " persons on device");
-                            
-                            for (Object item : dataList) {
-                                if (item instanceof Map) {
-                                    @SuppressWarnings("unchecked")
-                                    Map<String, Object> personData = (Map<String, Object>) item;
-                                    basicPersonList.add(personData);
-                                }
-                            }
-                        } else if (responseData instanceof Map) {
-                            @SuppressWarnings("unchecked")
-                            Map<String, Object> personData = (Map<String, Object>) responseData;
+                    try (Stream<Map<String, Object>> records = personRecords(hostInfo, deviceKey, secret, roster, includePhotos, verifyPhotos)) {
+                        Iterator<Map<String, Object>> results = records.iterator();
+                        while (results.hasNext()) {
+                            persons.add(results.next());
                             
-                            // Check if it contains a "list" or "data" field
-                            if (personData.containsKey("list")) {
-                                Object listData = personData.get("list");
-                                if (listData instanceof List) {
-                                    @SuppressWarnings("unchecked")
-                                    List<Object> dataList = (List<Object>) listData;
-                                    System.out.println("Found " + dataList.size() + " persons in list field");
-                                    
-                                    for (Object item : dataList) {
-                                        if (item instanceof Map) {
-                                            @SuppressWarnings("unchecked")
-                                            Map<String, Object> itemMap = (Map<String, Object>) item;
-                                            basicPersonList.add(itemMap);
-                                        }
-                                    }
-                                }
-                            } else {
-                                // Single person in response
-                                basicPersonList.add(personData);
+                            if (persons.size() % 50 == 0) {
+                                System.out.println("📊 Progress: " + persons.size() + " persons processed");
                             }
                         }
-                        
-                        // Now fetch face data for each person (if requested)
-                        if (includePhotos && basicPersonList.size() > 0) {
-                            System.out.println("\n🔍 Fetching face data for " + basicPersonList.size() + " persons...");
-                            System.out.println("⚠️  This may take several minutes for large lists...");
-                            
-                            int photoCount = 0;
-                            for (Map<String, Object> basicPerson : basicPersonList) {
-                                Map<String, Object> person = extractPersonData(basicPerson);
-                                
-                                // Get employee ID for face lookup
-                                Object snObj = basicPerson.get("sn");
-                                if (snObj != null) {
-                                    String employeeSn = String.valueOf(snObj);
-                                    
-                                    photoCount++;
-                                    if (photoCount % 50 == 0) {
-                                        System.out.println("📊 Progress: " + photoCount + "/" + basicPersonList.size() + " persons processed");
-                                    }
-                                    
-                                    // Try to get face data for this person
-                                    try {
-                                        Object faceFindReq = requestBuilderService.buildFaceFindReq(employeeSn);
-                                        
-                                        Method faceFindMethod = HfDeviceClient.class.getMethod("faceFind", 
-                                            hostInfoClass, String.class, String.class, faceFindReq.getClass());
-                                        
-                                        HfDeviceResp faceResponse = (HfDeviceResp) faceFindMethod.invoke(null, hostInfo, deviceKey, secret, faceFindReq);
-                                    
-                                        if (faceResponse != null && "000".equals(faceResponse.getCode())) {
-                                            Object faceData = faceResponse.getData();
-                                            
-                                            if (faceData != null) {
-                                                // Extract photo from face response
-                                                if (faceData instanceof Map) {
-                                                    @SuppressWarnings("unchecked")
-                                                    Map<String, Object> faceMap = (Map<String, Object>) faceData;
-                                                    
-                                                    String[] photoFields = {"imgBase64", "image", "img", "base64", "photo", "faceImg"};
-                                                    for (String field : photoFields) {
-                                                        Object photoData = faceMap.get(field);
-                                                        if (photoData != null && !String.valueOf(photoData).isEmpty()) {
-                                                            String photoStr = String.valueOf(photoData);
-                                                            if (photoStr.length() > 100) {
-                                                                String formattedPhoto = photoStr;
-                                                                if (!photoStr.startsWith("data:image")) {
-                                                                    formattedPhoto = "data:image/jpeg;base64," + photoStr;
-                                                                }
-                                                                person.put("photo", formattedPhoto);
-                                                                person.put("hasPhoto", true);
-                                                                break;
-                                                            }
-                                                        }
-                                                    }
-                                                } else if (faceData instanceof List) {
-                                                    @SuppressWarnings("unchecked")
-                                                    List<Object> faceList = (List<Object>) faceData;
-                                                    
-                                                    if (!faceList.isEmpty() && faceList.get(0) instanceof Map) {
-                                                        @SuppressWarnings("unchecked")
-                                                        Map<String, Object> faceMap = (Map<String, Object>) faceList.get(0);
-                                                        
-                                                        String[] photoFields = {"imgBase64", "image", "img", "base64", "photo", "faceImg"};
-                                                        for (String field : photoFields) {
-                                                            Object photoData = faceMap.get(field);
-                                                            if (photoData != null && !String.valueOf(photoData).isEmpty()) {
-                                                                String photoStr = String.valueOf(photoData);
-                                                                if (photoStr.length() > 100) {
-                                                                    String formattedPhoto = photoStr;
-                                                                    if (!photoStr.startsWith("data:image")) {
-                                                                        formattedPhoto = "data:image/jpeg;base64," + photoStr;
-                                                                    }
-                                                                    person.put("photo", formattedPhoto);
-                                                                    person.put("hasPhoto", true);
-                                                                    break;
-                                                                }
-                                                            }
-                                                        }
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    } catch (Exception faceEx) {
-                                        // Silent fail for individual photo fetch
-                                    }
-                                }
-                                
-                                persons.add(person);
-                            }
-                            System.out.println("✅ Completed fetching " + persons.stream().filter(p -> (Boolean) p.getOrDefault("hasPhoto", false)).count() + " photos");
-                        } else {
-                            // No photos requested - but check which persons have photos without fetching actual photo data
-                            System.out.println("\n📋 Checking photo availability without fetching photo data (optimized mode)");
-                            
-                            int checkCount = 0;
-                            for (Map<String, Object> basicPerson : basicPersonList) {
-                                Map<String, Object> person = extractPersonData(basicPerson);
-                                
-                                // Get employee ID for face lookup
-                                Object snObj = basicPerson.get("sn");
-                                if (snObj != null) {
-                                    String employeeSn = String.valueOf(snObj);
-                                    
-                                    checkCount++;
-                                    if (checkCount % 50 == 0) {
-                                        System.out.println("📊 Progress: " + checkCount + "/" + basicPersonList.size() + " persons checked");
-                                    }
-                                    
-                                    // Try to check if face exists (without retrieving actual photo)
-                                    try {
-                                        Object faceFindReq = requestBuilderService.buildFaceFindReq(employeeSn);
-                                        
-                                        Method faceFindMethod = HfDeviceClient.class.getMethod("faceFind", 
-                                            hostInfoClass, String.class, String.class, faceFindReq.getClass());
-                                        
-                                        HfDeviceResp faceResponse = (HfDeviceResp) faceFindMethod.invoke(null, hostInfo, deviceKey, secret, faceFindReq);
-                                    
-                                        if (faceResponse != null && "000".equals(faceResponse.getCode())) {
-                                            Object faceData = faceResponse.getData();
-                                            
-                                            if (faceData != null) {
-                                                // Check if photo exists without extracting it
-                                                boolean hasPhoto = false;
-                                                
-                                                if (faceData instanceof Map) {
-                                                    @SuppressWarnings("unchecked")
-                                                    Map<String, Object> faceMap = (Map<String, Object>) faceData;
-                                                    
-                                                    String[] photoFields = {"imgBase64", "image", "img", "base64", "photo", "faceImg"};
-                                                    for (String field : photoFields) {
-                                                        Object photoData = faceMap.get(field);
-                                                        if (photoData != null && !String.valueOf(photoData).isEmpty()) {
-                                                            String photoStr = String.valueOf(photoData);
-                                                            if (photoStr.length() > 100) {
-                                                                hasPhoto = true;
-                                                                break;
-                                                            }
-                                                        }
-                                                    }
-                                                } else if (faceData instanceof List) {
-                                                    @SuppressWarnings("unchecked")
-                                                    List<Object> faceList = (List<Object>) faceData;
-                                                    
-                                                    if (!faceList.isEmpty() && faceList.get(0) instanceof Map) {
-                                                        @SuppressWarnings("unchecked")
-                                                        Map<String, Object> faceMap = (Map<String, Object>) faceList.get(0);
-                                                        
-                                                        String[] photoFields = {"imgBase64", "image", "img", "base64", "photo", "faceImg"};
-                                                        for (String field : photoFields) {
-                                                            Object photoData = faceMap.get(field);
-                                                            if (photoData != null && !String.valueOf(photoData).isEmpty()) {
-                                                                String photoStr = String.valueOf(photoData);
-                                                                if (photoStr.length() > 100) {
-                                                                    hasPhoto = true;
-                                                                    break;
-                                                                }
-                                                            }
-                                                        }
-                                                    }
-                                                }
-                                                
-                                                person.put("hasPhoto", hasPhoto);
-                                            }
-                                        }
-                                    } catch (Exception faceEx) {
-                                        // Silent fail for individual photo check
-                                    }
-                                }
-                                
-                                persons.add(person);
-                            }
-                            System.out.println("✅ Completed checking " + persons.stream().filter(p -> (Boolean) p.getOrDefault("hasPhoto", false)).count() + " persons with photos");
-                        }
-                    } else {
-                        System.out.println("⚠️ Response data is null");
                     }
+                    System.out.println("✅ Completed " + persons.size() + " persons, " + persons.stream().filter(p -> (Boolean) p.getOrDefault("hasPhoto", false)).count() + " with photos");
+                    putPhotoCheck(resultData, deviceKey, includePhotos || verifyPhotos);
                     
-                    resultData.put("totalPersons", persons.size());
-                    resultData.put("persons", persons);
-                    resultData.put("status", "success");
-                    resultData.put("message", "Retrieved " + persons.size() + " persons from device");
-                    
-                    return ApiResponse.success("Persons retrieved successfully from device", resultData);
-                    
-                } else {
-                    String errorMsg = response != null ? response.getMsg() : "No response from device";
-                    System.err.println("❌ PersonFindList failed: " + errorMsg);
+                } catch (RosterScanException e) {
+                    System.err.println("❌ PersonFindList failed at index " + e.getIndex() + ": " + e.getMessage());
                     
                     resultData.put("status", "failed");
-                    resultData.put("error", errorMsg);
+                    resultData.put("error", e.getMessage());
                     resultData.put("totalPersons", 0);
                     resultData.put("persons", new ArrayList<>());
                     
-                    return ApiResponse.error("Failed to retrieve persons from device: " + errorMsg, resultData);
+                    return ApiResponse.error("Failed to retrieve persons from device: " + e.getMessage(), resultData);
                 }
                 
+                resultData.put("totalPersons", persons.size());
+                resultData.put("persons", persons);
+                resultData.put("status", "success");
+                resultData.put("message", "Retrieved " + persons.size() + " persons from device");
+                
+                return ApiResponse.success("Persons retrieved successfully from device", resultData);
+                
             } catch (ClassNotFoundException | NoSuchMethodException e) {
                 System.err.println("❌ PersonFindList method not available: " + e.getMessage());
                 
@@ -816,6 +648,318 @@ public class DeviceManagementController extends BaseController {
         }
     }
 
+    /**
+     * Streaming variant of get-all-persons, chosen with Accept: application/x-ndjson.
+     * Each person is written as one JSON line as soon as its photo lookup finishes, followed by
+     * a {"summary": ...} line carrying the usual response envelope, so heap use stays flat
+     * however large the roster and the first persons arrive while later pages are still being read.
+     */
+    @PostMapping(value = "/get-all-persons", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> streamAllPersonsFromDevice(@RequestBody Map<String, Object> request,
+                                                                            HttpServletRequest servletRequest) {
+        System.out.println("=== GET ALL PERSONS FROM DEVICE REQUEST (streaming NDJSON) ===");
+        
+        String deviceKey = (String) request.get("deviceKey");
+        String secret = (String) request.get("secret");
+        boolean includePhotos = Boolean.TRUE.equals(request.get("includePhotos"));
+        boolean verifyPhotos = Boolean.TRUE.equals(request.get("verifyPhotos"));
+        
+        System.out.println("📸 Include Photos: " + includePhotos);
+        
+        Stream<Map<String, Object>> roster;
+        HostInfoDto hostInfo;
+        try {
+            validateCommon(deviceKey, secret);
+            hostInfo = getHostInfo();
+            // The first page is read here so an unreachable device is reported before streaming starts
+            System.out.println("✅ Scanning device roster with personFindList (page size " + deviceRosterScanner.getPageSize() + ")...");
+            roster = deviceRosterScanner.stream(hostInfo, deviceKey, secret);
+        } catch (CgiErrorException e) {
+            System.err.println("CGI Error: " + e.getMessage());
+            return ndjsonSummary(ApiResponse.error("Device communication error: " + e.getMessage()));
+        } catch (RosterScanException e) {
+            System.err.println("❌ PersonFindList failed at index " + e.getIndex() + ": " + e.getMessage());
+            return ndjsonSummary(ApiResponse.error("Failed to retrieve persons from device: " + e.getMessage()));
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            System.err.println("❌ PersonFindList method not available: " + e.getMessage());
+            return ndjsonSummary(ApiResponse.error("Person list functionality not available in this SDK version"));
+        } catch (Exception e) {
+            System.err.println("❌ Error fetching persons from device: " + e.getMessage());
+            return ndjsonSummary(ApiResponse.error("Failed to fetch persons from device: " + e.getMessage()));
+        }
+        
+        logPhotoMode(includePhotos, verifyPhotos);
+        setAsyncTimeout(servletRequest, ROSTER_EXPORT_TIMEOUT);
+        StreamingResponseBody body = out -> {
+            JsonGenerator generator = ndjsonGenerator(out);
+            Map<String, Object> resultData = new LinkedHashMap<>();
+            resultData.put("deviceKey", deviceKey);
+            resultData.put("timestamp", new Date());
+            int count = 0;
+            ApiResponse<Map<String, Object>> summary;
+            try (Stream<Map<String, Object>> persons = roster;
+                 Stream<Map<String, Object>> records = personRecords(hostInfo, deviceKey, secret, persons, includePhotos, verifyPhotos)) {
+                Iterator<Map<String, Object>> results = records.iterator();
+                while (results.hasNext()) {
+                    writeNdjsonLine(generator, results.next());
+                    count++;
+                    
+                    if (count % 50 == 0) {
+                        System.out.println("📊 Progress: " + count + " persons streamed");
+                    }
+                }
+                resultData.put("totalPersons", count);
+                resultData.put("status", "success");
+                resultData.put("message", "Retrieved " + count + " persons from device");
+                summary = ApiResponse.success("Persons retrieved successfully from device", resultData);
+            } catch (RosterScanException e) {
+                // Persons already written stay valid; the summary says where the scan stopped
+                System.err.println("❌ PersonFindList failed at index " + e.getIndex() + ": " + e.getMessage());
+                resultData.put("totalPersons", count);
+                resultData.put("status", "failed");
+                resultData.put("error", e.getMessage());
+                summary = ApiResponse.error("Failed to retrieve persons from device: " + e.getMessage(), resultData);
+            }
+            putPhotoCheck(resultData, deviceKey, includePhotos || verifyPhotos);
+            System.out.println("✅ Streamed " + count + " persons");
+            writeNdjsonLine(generator, Collections.singletonMap("summary", summary));
+            generator.close();
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    /**
+     * Same as the Accept: application/x-ndjson variant, for clients that cannot set headers
+     */
+    @PostMapping(value = "/get-all-persons", params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamAllPersonsFromDeviceByParam(@RequestBody Map<String, Object> request,
+                                                                                   HttpServletRequest servletRequest) {
+        return streamAllPersonsFromDevice(request, servletRequest);
+    }
+
+    /**
+     * Give this request's StreamingResponseBody its own async timeout. The timeout is applied
+     * just before the body starts writing, when Spring hands the request to its async handling.
+     */
+    private static void setAsyncTimeout(HttpServletRequest servletRequest, long timeoutMs) {
+        WebAsyncUtils.getAsyncManager(servletRequest).registerCallableInterceptor("asyncTimeout", new CallableProcessingInterceptor() {
+            @Override
+            public <T> void beforeConcurrentHandling(NativeWebRequest webRequest, Callable<T> task) {
+                if (webRequest instanceof AsyncWebRequest) {
+                    ((AsyncWebRequest) webRequest).setTimeout(timeoutMs);
+                }
+            }
+        });
+    }
+
+    /**
+     * The get-all-persons records for a roster stream, in roster order. With includePhotos (or
+     * verifyPhotos) each person's face is looked up with faceFind; otherwise hasPhoto comes from
+     * the face presence index and the person's verifyStyle, without a device call per person.
+     * Closing the result stops any lookups still running.
+     */
+    private Stream<Map<String, Object>> personRecords(HostInfoDto hostInfo, String deviceKey, String secret,
+                                                      Stream<Map<String, Object>> roster, boolean includePhotos, boolean verifyPhotos) {
+        if (!includePhotos && !verifyPhotos) {
+            return roster.map(basicPerson -> withRecordedPhotoFlag(deviceKey, basicPerson, extractPersonData(basicPerson)));
+        }
+        Stream<DevicePhotoFetcher.Result<Map<String, Object>>> lookups = devicePhotoFetcher.fetch(hostInfo, deviceKey, secret,
+                roster.iterator(), basicPerson -> basicPerson.get("sn") != null ? String.valueOf(basicPerson.get("sn")) : null);
+        return lookups.map(result -> toPersonRecord(deviceKey, result, includePhotos));
+    }
+
+    /**
+     * The person with hasPhoto and, when asked for, the photo as a data URL. A lookup that timed
+     * out or failed falls back to the recorded presence.
+     */
+    private Map<String, Object> toPersonRecord(String deviceKey, DevicePhotoFetcher.Result<Map<String, Object>> result, boolean includePhotos) {
+        Map<String, Object> person = extractPersonData(result.getItem());
+        DevicePhotoFetcher.Outcome outcome = result.getOutcome();
+        if (outcome == DevicePhotoFetcher.Outcome.TIMEOUT || outcome == DevicePhotoFetcher.Outcome.FAILED) {
+            return withRecordedPhotoFlag(deviceKey, result.getItem(), person);
+        }
+        person.put("hasPhoto", result.hasPhoto());
+        person.put("hasPhotoSource", "faceFind");
+        if (result.hasPhoto() && includePhotos) {
+            String photo = result.getPhoto();
+            person.put("photo", photo.startsWith("data:image") ? photo : "data:image/jpeg;base64," + photo);
+        }
+        return person;
+    }
+
+    private Map<String, Object> withRecordedPhotoFlag(String deviceKey, Map<String, Object> basicPerson, Map<String, Object> person) {
+        String sn = (String) person.get("employeeId");
+        person.put("hasPhoto", facePresenceIndex.hasFace(deviceKey, sn, basicPerson.get("verifyStyle")));
+        person.put("hasPhotoSource", facePresenceIndex.sourceOf(deviceKey, sn) == FacePresenceIndex.Source.RECORDED ? "recorded" : "verifyStyle");
+        return person;
+    }
+
+    private void logPhotoMode(boolean includePhotos, boolean verifyPhotos) {
+        if (includePhotos) {
+            System.out.println("\n🔍 Fetching face data, up to " + devicePhotoFetcher.getMaxInFlight() + " lookups at a time...");
+        } else if (verifyPhotos) {
+            System.out.println("\n🔍 Verifying photo availability with faceFind, up to " + devicePhotoFetcher.getMaxInFlight() + " lookups at a time...");
+        } else {
+            // No photos requested - report presence from recorded enrollments instead of downloading every photo
+            System.out.println("\n📋 Checking photo availability from recorded face enrollments and verifyStyle (optimized mode, no faceFind)");
+        }
+    }
+
+    /**
+     * How hasPhoto was determined, with the photo lookup counters when faceFind was used
+     */
+    private void putPhotoCheck(Map<String, Object> resultData, String deviceKey, boolean lookedUp) {
+        resultData.put("photoCheck", lookedUp ? "faceFind" : "recorded");
+        PhotoFetchProgress progress = lookedUp ? devicePhotoFetcher.getProgress(deviceKey) : null;
+        if (progress != null) {
+            System.out.println("📸 Photo lookups: " + progress.getWithPhoto() + " found in " + progress.getElapsedMs() + "ms ("
+                    + progress.getTimedOut() + " timed out, " + progress.getFailed() + " failed)");
+            resultData.put("photoFetch", progress.toMap());
+        }
+    }
+
+    private JsonGenerator ndjsonGenerator(OutputStream out) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setRootValueSeparator(null); // lines are separated by writeNdjsonLine
+        return generator;
+    }
+
+    /**
+     * Write one value as a line and push it to the client straight away
+     */
+    private void writeNdjsonLine(JsonGenerator generator, Object value) throws IOException {
+        generator.writeObject(value);
+        generator.writeRaw('\n');
+        generator.flush();
+    }
+
+    private ResponseEntity<StreamingResponseBody> ndjsonSummary(ApiResponse<?> summary) {
+        StreamingResponseBody body = out -> {
+            JsonGenerator generator = ndjsonGenerator(out);
+            writeNdjsonLine(generator, Collections.singletonMap("summary", summary));
+            generator.close();
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    /**
+     * Progress of the latest get-all-persons photo lookup per device, or of one device with ?deviceKey=
+     */
+    @GetMapping("/photo-fetch/progress")
+    public ApiResponse<Map<String, Object>> getPhotoFetchProgress(@RequestParam(value = "deviceKey", required = false) String deviceKey) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("maxInFlight", devicePhotoFetcher.getMaxInFlight());
+        data.put("timeoutMs", devicePhotoFetcher.getTimeoutMs());
+        if (deviceKey != null) {
+            PhotoFetchProgress progress = devicePhotoFetcher.getProgress(deviceKey);
+            if (progress == null) {
+                return ApiResponse.error("No photo fetch has run for device " + deviceKey, data);
+            }
+            data.putAll(progress.toMap());
+            return ApiResponse.success("Photo fetch " + progress.getStatus(), data);
+        }
+        List<Map<String, Object>> devices = new ArrayList<>();
+        for (PhotoFetchProgress progress : devicePhotoFetcher.getAllProgress()) {
+            devices.add(progress.toMap());
+        }
+        data.put("devices", devices);
+        return ApiResponse.success("Photo fetch progress retrieved", data);
+    }
+
+    /**
+     * Reconcile a device's roster against the authoritative employee list for it.
+     * The list is taken from "employees" when posted, else fetched from the MERN backend.
+     * The device is scanned once and the adds, updates and removals that make it match run
+     * back-to-back on the device lane; with "dryRun": true only the plan is returned.
+     * Persons on the device but not in the list are only removed with "removeMissing": true,
+     * and never when the list is empty.
+     */
+    @PostMapping("/reconcile")
+    @SuppressWarnings("unchecked")
+    public DeferredResult<ApiResponse<Map<String, Object>>> reconcileRoster(@RequestBody Map<String, Object> request) {
+        DeferredResult<ApiResponse<Map<String, Object>>> deferred = new DeferredResult<>(RECONCILE_TIMEOUT,
+                ApiResponse.error("Reconcile timed out waiting for the device; changes may still be applying", "TIMEOUT"));
+        System.out.println("=== RECONCILE DEVICE ROSTER REQUEST ===");
+        
+        String deviceKey = (String) request.get("deviceKey");
+        String secret = (String) request.get("secret");
+        boolean dryRun = Boolean.TRUE.equals(request.get("dryRun"));
+        boolean removeMissing = Boolean.TRUE.equals(request.get("removeMissing"));
+        Object posted = request.get("employees");
+        
+        Map<String, Object> resultData = new LinkedHashMap<>();
+        resultData.put("deviceKey", deviceKey);
+        resultData.put("dryRun", dryRun);
+        resultData.put("removeMissing", removeMissing);
+        try {
+            validateCommon(deviceKey, secret);
+        } catch (CgiErrorException e) {
+            deferred.setResult(ApiResponse.validationError(e.getMessage()));
+            return deferred;
+        }
+        
+        RosterReconciler.Plan plan;
+        try {
+            List<RosterReconciler.Employee> employees;
+            if (posted instanceof List) {
+                employees = RosterReconciler.parse((List<Map<String, Object>>) posted);
+                resultData.put("source", "request");
+            } else {
+                employees = rosterReconciler.fetchFromMern(deviceKey);
+                resultData.put("source", "mern");
+            }
+            System.out.println("📋 Authoritative list: " + employees.size() + " employees (" + resultData.get("source") + ")");
+            if (removeMissing && employees.isEmpty()) {
+                deferred.setResult(ApiResponse.validationError("Refusing to remove persons: the employee list is empty"));
+                return deferred;
+            }
+            
+            HfDeviceResp testResponse = checkDeviceLiveness(deviceKey, secret);
+            if (testResponse == null || !"000".equals(testResponse.getCode())) {
+                deferred.setResult(ApiResponse.deviceError("Device connectivity failed: " + (testResponse != null ? testResponse.getMsg() : "null response")));
+                return deferred;
+            }
+            plan = rosterReconciler.plan(getHostInfo(), deviceKey, secret, employees, removeMissing);
+            resultData.put("plan", plan.toMap());
+        } catch (RosterScanException e) {
+            System.err.println("❌ Roster scan failed at index " + e.getIndex() + ": " + e.getMessage());
+            deviceLivenessCache.invalidate(deviceKey);
+            deferred.setResult(ApiResponse.error("Failed to read device roster: " + e.getMessage(), resultData));
+            return deferred;
+        } catch (Exception e) {
+            System.err.println("❌ Reconcile planning failed: " + e.getMessage());
+            deferred.setResult(ApiResponse.error("Reconcile failed: " + e.getMessage(), resultData));
+            return deferred;
+        }
+        
+        int changes = plan.getChanges().size();
+        if (dryRun || changes == 0) {
+            System.out.println("✅ Reconcile plan ready: " + changes + " change(s)" + (dryRun ? " (dry run, nothing applied)" : ""));
+            deferred.setResult(ApiResponse.success(dryRun ? "Reconcile plan (dry run)" : "Device roster already matches", resultData));
+            return deferred;
+        }
+        
+        // One lane task for the whole batch, so the changes run back-to-back between other device work
+        long startedAt = System.currentTimeMillis();
+        deviceLaneRegistry.submit(deviceKey, () -> rosterReconciler.apply(getHostInfo(), deviceKey, secret, plan), changes)
+                .whenComplete((results, error) -> {
+                    if (error != null) {
+                        deferred.setResult(ApiResponse.error("Reconcile aborted: " + error.getMessage(), resultData));
+                        return;
+                    }
+                    long failed = results.stream().filter(r -> !Boolean.TRUE.equals(r.get("success"))).count();
+                    resultData.put("applied", changes - failed);
+                    resultData.put("failed", failed);
+                    resultData.put("elapsedMs", System.currentTimeMillis() - startedAt);
+                    resultData.put("results", results);
+                    System.out.println("✅ Reconcile applied " + (changes - failed) + "/" + changes + " change(s) in " + resultData.get("elapsedMs") + "ms");
+                    deferred.setResult(failed == 0 ? ApiResponse.success("Device roster reconciled", resultData)
+                            : ApiResponse.partialError(failed + " of " + changes + " changes failed", resultData));
+                });
+        return deferred;
+    }
+
     /**
      * Extract person data from device response
      */
@@ -830,7 +974,7 @@ public class DeviceManagementController extends BaseController {
         Object nameObj = personData.get("name");
         person.put("name", nameObj != null ? String.valueOf(nameObj) : null);
         
-        // Initialize photo status as false (will be updated by faceFind)
+        // Initialize photo status as false (set from faceFind or the face presence index)
         person.put("hasPhoto", false);
         
         // Extract other available fields
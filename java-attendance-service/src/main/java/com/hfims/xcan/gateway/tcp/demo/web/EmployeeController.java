@@ -1,43 +1,52 @@
 package com.hfims.xcan.gateway.tcp.demo.web;
 
-import com.hfims.xcan.gateway.netty.client.HfDeviceClient;
 import com.hfims.xcan.gateway.netty.client.resp.HfDeviceResp;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hfims.xcan.gateway.tcp.demo.service.DeviceGateway;
+import com.hfims.xcan.gateway.tcp.demo.service.DeviceLaneRegistry;
+import com.hfims.xcan.gateway.tcp.demo.service.DeviceQueueFullException;
+import com.hfims.xcan.gateway.tcp.demo.service.DeviceRosterMirror;
+import com.hfims.xcan.gateway.tcp.demo.service.DeviceRosterScanner;
+import com.hfims.xcan.gateway.tcp.demo.service.EnrollmentJob;
+import com.hfims.xcan.gateway.tcp.demo.service.EnrollmentHashIndex;
+import com.hfims.xcan.gateway.tcp.demo.service.FacePresenceIndex;
+import com.hfims.xcan.gateway.tcp.demo.service.EnrollmentJobService;
+import com.hfims.xcan.gateway.tcp.demo.service.FaceDetectionResult;
+import com.hfims.xcan.gateway.tcp.demo.service.FaceImage;
+import com.hfims.xcan.gateway.tcp.demo.service.FaceImagePipeline;
+import com.hfims.xcan.gateway.tcp.demo.service.FaceQualityReport;
+import com.hfims.xcan.gateway.tcp.demo.service.FaceUploadReader;
+import com.hfims.xcan.gateway.tcp.demo.service.ImageQualityException;
 import com.hfims.xcan.gateway.tcp.demo.service.RequestBuilderService;
+import com.hfims.xcan.gateway.tcp.demo.service.RosterScanException;
 import com.hfims.xcan.gateway.tcp.demo.support.BaseResult;
 import com.hfims.xcan.gateway.tcp.demo.support.ResultWrapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
-import java.lang.reflect.Method;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import javax.annotation.PreDestroy;
-
-// OpenCV imports for face detection
-import org.opencv.core.*;
-import org.opencv.imgcodecs.Imgcodecs;
-import org.opencv.imgproc.Imgproc;
-import org.opencv.objdetect.CascadeClassifier;
-import org.opencv.objdetect.Objdetect;
-import javax.annotation.PostConstruct;
-import java.io.File;
-import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
-
-// OpenCV imports for face detection
-import org.opencv.core.*;
-import org.opencv.imgcodecs.Imgcodecs;
-import org.opencv.imgproc.Imgproc;
-import org.opencv.objdetect.CascadeClassifier;
-import org.opencv.objdetect.Objdetect;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.annotation.PostConstruct;
-import java.io.File;
-import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import javax.annotation.PreDestroy;
 
 @RestController
 @RequestMapping("/api/employee")
@@ -46,196 +55,46 @@ public class EmployeeController extends BaseController {
 
     @Autowired
     private RequestBuilderService requestBuilderService;
-    
-    // ==================== FACE DETECTION SETUP ====================
-    private CascadeClassifier faceDetector;
-    private static final String HAAR_CASCADE_FRONTALFACE = "haarcascade_frontalface_default.xml";
-    
-    @PostConstruct
-    public void initializeFaceDetection() {
-        try {
-            System.out.println("=== INITIALIZING FACE DETECTION ===");
-            
-            // Load OpenCV native library
-            nu.pattern.OpenCV.loadLocally();
-            System.out.println("✅ OpenCV library loaded successfully");
-            
-            // Load Haar Cascade classifier from resources
-            InputStream cascadeStream = getClass().getClassLoader().getResourceAsStream("haarcascades/" + HAAR_CASCADE_FRONTALFACE);
-            
-            if (cascadeStream == null) {
-                // Try alternative path
-                cascadeStream = getClass().getClassLoader().getResourceAsStream(HAAR_CASCADE_FRONTALFACE);
-            }
-            
-            if (cascadeStream != null) {
-                // Create temporary file for cascade classifier
-                File cascadeFile = File.createTempFile("haarcascade", ".xml");
-                cascadeFile.deleteOnExit();
-                Files.copy(cascadeStream, cascadeFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                
-                faceDetector = new CascadeClassifier(cascadeFile.getAbsolutePath());
-                
-                if (!faceDetector.empty()) {
-                    System.out.println("✅ Face detection classifier loaded successfully");
-                } else {
-                    System.err.println("⚠️ WARNING: Face detector is empty, face detection will be skipped");
-                    faceDetector = null;
-                }
-            } else {
-                System.err.println("⚠️ WARNING: Haar Cascade file not found, face detection will be skipped");
-                System.err.println("   Face validation will rely on device-side detection only");
-                faceDetector = null;
-            }
-            
-        } catch (Exception e) {
-            System.err.println("⚠️ WARNING: Face detection initialization failed: " + e.getMessage());
-            System.err.println("   Face validation will rely on device-side detection only");
-            faceDetector = null;
-        }
-    }
-    
-    /**
-     * Validates that the image contains at least one face
-     * This prevents non-face images from being sent to the device
-     */
-    private FaceDetectionResult detectFaceInImage(byte[] imageBytes) {
-        System.out.println("=== FACE DETECTION VALIDATION ===");
-        
-        // If face detector is not initialized, skip validation
-        if (faceDetector == null) {
-            System.out.println("⚠️ Face detector not available, skipping face detection");
-            return FaceDetectionResult.skipped("Face detector not initialized");
-        }
-        
-        try {
-            // Decode image from bytes
-            Mat image = Imgcodecs.imdecode(new MatOfByte(imageBytes), Imgcodecs.IMREAD_COLOR);
-            
-            if (image.empty()) {
-                System.err.println("❌ Failed to decode image for face detection");
-                return FaceDetectionResult.failed("Unable to decode image");
-            }
-            
-            System.out.println("Image loaded: " + image.width() + "x" + image.height());
-            
-            // Convert to grayscale for better face detection
-            Mat grayImage = new Mat();
-            Imgproc.cvtColor(image, grayImage, Imgproc.COLOR_BGR2GRAY);
-            
-            // Enhance contrast for better detection
-            Imgproc.equalizeHist(grayImage, grayImage);
-            
-            // Detect faces
-            MatOfRect faceDetections = new MatOfRect();
-            faceDetector.detectMultiScale(
-                grayImage,
-                faceDetections,
-                1.1,        // scaleFactor: 1.1 for better accuracy
-                3,          // minNeighbors: 3 for balance between false positives and sensitivity
-                Objdetect.CASCADE_SCALE_IMAGE,
-                new Size(30, 30),  // minimum face size
-                new Size()         // maximum face size (no limit)
-            );
-            
-            Rect[] faces = faceDetections.toArray();
-            int faceCount = faces.length;
-            
-            System.out.println("Face detection complete: " + faceCount + " face(s) detected");
-            
-            if (faceCount > 0) {
-                // Log face details
-                for (int i = 0; i < faceCount; i++) {
-                    Rect face = faces[i];
-                    System.out.println("  Face " + (i + 1) + ": x=" + face.x + ", y=" + face.y + ", width=" + face.width + ", height=" + face.height);
-                }
-                
-                // Calculate confidence based on face size relative to image
-                Rect largestFace = faces[0];
-                for (Rect face : faces) {
-                    if (face.width * face.height > largestFace.width * largestFace.height) {
-                        largestFace = face;
-                    }
-                }
-                
-                double faceArea = largestFace.width * largestFace.height;
-                double imageArea = image.width() * image.height();
-                double faceRatio = faceArea / imageArea;
-                
-                System.out.println("Largest face occupies " + String.format("%.1f", faceRatio * 100) + "% of image");
-                
-                // Check if face is too small (less than 5% of image)
-                if (faceRatio < 0.05) {
-                    System.out.println("⚠️ Face detected but very small, may affect recognition quality");
-                    return FaceDetectionResult.success(faceCount, "Face detected but small");
-                }
-                
-                System.out.println("✅ Face validation passed");
-                return FaceDetectionResult.success(faceCount, "Face detected successfully");
-                
-            } else {
-                System.err.println("❌ No face detected in image");
-                return FaceDetectionResult.failed("No face detected in the image. Please ensure:\n" +
-                    "  - Face is clearly visible and centered\n" +
-                    "  - Good lighting without shadows\n" +
-                    "  - Front-facing (not at an angle)\n" +
-                    "  - No glasses, hats, or face coverings\n" +
-                    "  - Face occupies at least 30% of the image");
-            }
-            
-        } catch (Exception e) {
-            System.err.println("❌ Face detection failed: " + e.getMessage());
-            e.printStackTrace();
-            return FaceDetectionResult.failed("Face detection error: " + e.getMessage());
-        }
-    }
-    
-    /**
-     * Result class for face detection operations
-     */
-    private static class FaceDetectionResult {
-        private final boolean success;
-        private final boolean skipped;
-        private final int faceCount;
-        private final String message;
-        
-        private FaceDetectionResult(boolean success, boolean skipped, int faceCount, String message) {
-            this.success = success;
-            this.skipped = skipped;
-            this.faceCount = faceCount;
-            this.message = message;
-        }
-        
-        public static FaceDetectionResult success(int faceCount, String message) {
-            return new FaceDetectionResult(true, false, faceCount, message);
-        }
-        
-        public static FaceDetectionResult failed(String message) {
-            return new FaceDetectionResult(false, false, 0, message);
-        }
-        
-        public static FaceDetectionResult skipped(String message) {
-            return new FaceDetectionResult(true, true, 0, message);
-        }
-        
-        public boolean isSuccess() { return success; }
-        public boolean isSkipped() { return skipped; }
-        public int getFaceCount() { return faceCount; }
-        public String getMessage() { return message; }
-    }
+
+    @Autowired
+    private EnrollmentJobService enrollmentJobService;
+
+    @Autowired
+    private DeviceLaneRegistry deviceLaneRegistry;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private FaceImagePipeline faceImagePipeline;
+
+    @Autowired
+    private EnrollmentHashIndex enrollmentHashIndex;
+
+    @Autowired
+    private FacePresenceIndex facePresenceIndex;
+
+    @Autowired
+    private FaceUploadReader faceUploadReader;
+
+    @Autowired
+    private DeviceRosterScanner deviceRosterScanner;
+
+    @Autowired
+    private DeviceRosterMirror deviceRosterMirror;
+
+    @Value("${device.person-delete.batch-size:100}")
+    private int personDeleteBatchSize;
+
+    // Images allowed to wait for the image prep pool; beyond it new enrollments get HTTP 429
+    @Value("${device.image-prep.max-queue:100}")
+    private int imagePrepMaxQueue;
     
     // ==================== XO5 DEVICE QUEUE PROTECTION ====================
-    // Single-threaded executor to ensure sequential processing to XO5 device
-    // This prevents device buffer overload when multiple admins enroll simultaneously
-    private final ExecutorService deviceExecutor = Executors.newSingleThreadExecutor(
-        new ThreadFactory() {
-            public Thread newThread(Runnable r) {
-                Thread t = new Thread(r, "XO5-Device-Queue");
-                t.setDaemon(true);
-                return t;
-            }
-        }
-    );
+    // Each device gets its own serial lane (see DeviceLaneRegistry) so commands to one
+    // XO5 stay sequential without making other facilities wait behind it.
+    // Enrollments are tracked as jobs (see EnrollmentJobService); request threads never
+    // block on the device - callers either get a job ID (?async=true) or a DeferredResult
     
     // Track queue statistics
     private final AtomicInteger queuedRequests = new AtomicInteger(0);
@@ -245,18 +104,50 @@ public class EmployeeController extends BaseController {
     // Maximum wait time for device operation (15 minutes for large operations)
     private static final long DEVICE_OPERATION_TIMEOUT = 900000;
     
-    @PreDestroy
-    public void shutdown() {
-        System.out.println("Shutting down XO5 device queue...");
-        deviceExecutor.shutdown();
+    // Extra time allowed per employee in a batch on top of DEVICE_OPERATION_TIMEOUT
+    private static final long BATCH_TIMEOUT_PER_EMPLOYEE = 60000;
+    
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    
+    // Retry hint for a request turned away because the image prep queue is full
+    private static final long IMAGE_PREP_RETRY_AFTER_SECONDS = 2;
+    
+    // CPU pool for image validation/normalisation, run before enrollments enter the device lanes.
+    // Its queue is bounded so a burst of uploads cannot hold an unbounded number of decoded images.
+    private final AtomicInteger imagePrepThreadCount = new AtomicInteger(0);
+    private ThreadPoolExecutor imagePrepExecutor;
+    
+    @PostConstruct
+    public void start() {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        imagePrepExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(Math.max(1, imagePrepMaxQueue)), r -> {
+                    Thread t = new Thread(r, "XO5-Image-Prep-" + imagePrepThreadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+    
+    /**
+     * Run an image prep step on the image prep pool
+     *
+     * @throws DeviceQueueFullException when the pool's queue is full (HTTP 429 with Retry-After)
+     */
+    private <T> CompletableFuture<T> prepareAsync(String deviceKey, java.util.function.Supplier<T> prep) {
         try {
-            if (!deviceExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
-                deviceExecutor.shutdownNow();
+            return CompletableFuture.supplyAsync(prep, imagePrepExecutor);
+        } catch (RejectedExecutionException e) {
+            if (imagePrepExecutor.isShutdown()) {
+                throw e;
             }
-        } catch (InterruptedException e) {
-            deviceExecutor.shutdownNow();
+            throw new DeviceQueueFullException(deviceKey, imagePrepExecutor.getQueue().size(), IMAGE_PREP_RETRY_AFTER_SECONDS);
         }
-        System.out.println("XO5 device queue shutdown complete");
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        imagePrepExecutor.shutdownNow();
+        System.out.println("XO5 enrollment statistics at shutdown");
         System.out.println("Total queued: " + queuedRequests.get());
         System.out.println("Total processed: " + processedRequests.get());
         System.out.println("Total failed: " + failedRequests.get());
@@ -268,52 +159,36 @@ public class EmployeeController extends BaseController {
      * It only handles device synchronization
      */
     @PostMapping("/upload-face")
-    public BaseResult uploadFaceImageToDevice(@RequestBody FaceUploadRequest request) {
+    public DeferredResult<ResponseEntity<BaseResult>> uploadFaceImageToDevice(@RequestBody FaceUploadRequest request,
+                                                                              @RequestParam(value = "async", defaultValue = "false") boolean async) {
         System.out.println("=== FACE UPLOAD REQUEST (Database-First) ===");
         System.out.println("Employee ID: " + request.getEmployeeId());
         System.out.println("Full Name: " + request.getFullName());
         System.out.println("Device Key: " + request.getDeviceKey());
         
-        try {
-            // Validate input
-            if (request.getEmployeeId() == null || request.getEmployeeId().trim().isEmpty()) {
-                return ResultWrapper.wrapFailure("1001", "Employee ID is required");
-            }
-            if (request.getFaceImage() == null || request.getFaceImage().trim().isEmpty()) {
-                return ResultWrapper.wrapFailure("1001", "Face image is required");
-            }
-            if (request.getDeviceKey() == null || request.getSecret() == null) {
-                return ResultWrapper.wrapFailure("1001", "Device credentials are required");
-            }
-            
-            // Convert to EmployeeRegistrationRequest for compatibility
-            EmployeeRegistrationRequest registrationRequest = new EmployeeRegistrationRequest();
-            registrationRequest.setEmployeeId(request.getEmployeeId());
-            registrationRequest.setFullName(request.getFullName());
-            registrationRequest.setFaceImage(request.getFaceImage());
-            registrationRequest.setDeviceKey(request.getDeviceKey());
-            registrationRequest.setSecret(request.getSecret());
-            registrationRequest.setVerificationStyle(request.getVerificationStyle());
-            registrationRequest.setForceUpdate(true); // Always allow updates in database-first mode
-            
-            // Submit to queue
-            int queuePosition = queuedRequests.incrementAndGet();
-            System.out.println("📊 Queue Position: " + queuePosition);
-            
-            Future<BaseResult> future = deviceExecutor.submit(() -> processEnrollmentToDevice(registrationRequest));
-            BaseResult result = future.get(DEVICE_OPERATION_TIMEOUT, TimeUnit.MILLISECONDS);
-            
-            processedRequests.incrementAndGet();
-            return result;
-            
-        } catch (TimeoutException e) {
-            failedRequests.incrementAndGet();
-            return ResultWrapper.wrapFailure("TIMEOUT", "Device operation timed out. Please retry.");
-        } catch (Exception e) {
-            failedRequests.incrementAndGet();
-            e.printStackTrace();
-            return ResultWrapper.wrapFailure("1000", "Face upload failed: " + e.getMessage());
+        // Validate input
+        if (request.getEmployeeId() == null || request.getEmployeeId().trim().isEmpty()) {
+            return completedResult(ResultWrapper.wrapFailure("1001", "Employee ID is required"));
         }
+        if (!StringUtils.hasText(request.getFaceImage())) {
+            return completedResult(ResultWrapper.wrapFailure("1001", "Face image is required"));
+        }
+        if (request.getDeviceKey() == null || request.getSecret() == null) {
+            return completedResult(ResultWrapper.wrapFailure("1001", "Device credentials are required"));
+        }
+        
+        // Convert to EmployeeRegistrationRequest for compatibility
+        EmployeeRegistrationRequest registrationRequest = new EmployeeRegistrationRequest();
+        registrationRequest.setEmployeeId(request.getEmployeeId());
+        registrationRequest.setFullName(request.getFullName());
+        registrationRequest.setFaceImage(request.getFaceImage());
+        registrationRequest.setDeviceKey(request.getDeviceKey());
+        registrationRequest.setSecret(request.getSecret());
+        registrationRequest.setVerificationStyle(request.getVerificationStyle());
+        registrationRequest.setForceUpdate(true); // Always allow updates in database-first mode
+        
+        return submitEnrollment("upload-face", registrationRequest, null, async,
+                "Device operation timed out. Please retry.", "Face upload failed: ");
     }
     
     /**
@@ -373,6 +248,16 @@ public class EmployeeController extends BaseController {
                 return ResultWrapper.wrapFailure("1001", "Device credentials are required");
             }
             
+            // Answer from the roster mirror when it has the person; a miss may only be staleness, so ask the device
+            DeviceRosterMirror.Person mirrored = findInRosterMirror(request.getEmployeeId(), request.getDeviceKey(), request.getSecret());
+            if (mirrored != null) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("employeeId", request.getEmployeeId());
+                data.put("exists", true);
+                data.put("deviceResponse", mirrored.toDeviceMap());
+                return ResultWrapper.wrapSuccess(data);
+            }
+            
             // Get person info from device
             HfDeviceResp response = getPersonInfo(request.getEmployeeId(), request.getDeviceKey(), request.getSecret());
             
@@ -439,197 +324,591 @@ public class EmployeeController extends BaseController {
 
     /**
      * Register Employee and Upload Face Image
+     * With ?async=true the enrollment is queued and 202 Accepted is returned with a job ID
+     * to poll at GET /api/jobs/{id}; otherwise the response is the enrollment result as before.
      */
     @PostMapping("/register")
-    public BaseResult registerEmployeeToDevice(@RequestBody EmployeeRegistrationRequest request) {
+    public DeferredResult<ResponseEntity<BaseResult>> registerEmployeeToDevice(@RequestBody EmployeeRegistrationRequest request,
+                                                                               @RequestParam(value = "async", defaultValue = "false") boolean async) {
         System.out.println("=== EMPLOYEE REGISTRATION REQUEST ===");
         System.out.println("Employee ID: " + request.getEmployeeId());
         System.out.println("Full Name: " + request.getFullName());
         System.out.println("Device Key: " + request.getDeviceKey());
+
+        return submitEnrollment("register", request, null, async,
+                "Device enrollment timed out. The device may be busy processing other requests. Please try again.",
+                "Employee registration failed: ");
+    }
+    
+    /**
+     * Register Employee with the face image as a binary multipart part ("faceImage") instead of
+     * base64 in JSON; the other fields are form fields. Same processing and responses as the JSON variant.
+     */
+    @PostMapping(value = "/register", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public DeferredResult<ResponseEntity<BaseResult>> registerEmployeeMultipart(@RequestParam(value = "employeeId", required = false) String employeeId,
+                                                                                @RequestParam(value = "fullName", required = false) String fullName,
+                                                                                @RequestParam(value = "deviceKey", required = false) String deviceKey,
+                                                                                @RequestParam(value = "secret", required = false) String secret,
+                                                                                @RequestParam(value = "verificationStyle", required = false) Integer verificationStyle,
+                                                                                @RequestParam(value = "forceUpdate", required = false) Boolean forceUpdate,
+                                                                                @RequestPart(value = "faceImage", required = false) MultipartFile faceImage,
+                                                                                @RequestParam(value = "async", defaultValue = "false") boolean async) {
+        System.out.println("=== EMPLOYEE REGISTRATION REQUEST (multipart) ===");
+        System.out.println("Employee ID: " + employeeId);
+        System.out.println("Full Name: " + fullName);
+        System.out.println("Device Key: " + deviceKey);
+        
+        EmployeeRegistrationRequest request = new EmployeeRegistrationRequest();
+        request.setEmployeeId(employeeId);
+        request.setFullName(fullName);
+        request.setDeviceKey(deviceKey);
+        request.setSecret(secret);
+        request.setVerificationStyle(verificationStyle);
+        request.setForceUpdate(forceUpdate);
+        return submitBinaryEnrollment("register", request, faceImage, async,
+                "Device enrollment timed out. The device may be busy processing other requests. Please try again.",
+                "Employee registration failed: ");
+    }
+    
+    /**
+     * Upload Face Image Only, with the image as a binary multipart part ("faceImage")
+     */
+    @PostMapping(value = "/upload-face", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public DeferredResult<ResponseEntity<BaseResult>> uploadFaceImageMultipart(@RequestParam(value = "employeeId", required = false) String employeeId,
+                                                                               @RequestParam(value = "fullName", required = false) String fullName,
+                                                                               @RequestParam(value = "deviceKey", required = false) String deviceKey,
+                                                                               @RequestParam(value = "secret", required = false) String secret,
+                                                                               @RequestParam(value = "verificationStyle", required = false) Integer verificationStyle,
+                                                                               @RequestPart(value = "faceImage", required = false) MultipartFile faceImage,
+                                                                               @RequestParam(value = "async", defaultValue = "false") boolean async) {
+        System.out.println("=== FACE UPLOAD REQUEST (multipart) ===");
+        System.out.println("Employee ID: " + employeeId);
+        System.out.println("Device Key: " + deviceKey);
+        
+        EmployeeRegistrationRequest request = new EmployeeRegistrationRequest();
+        request.setEmployeeId(employeeId);
+        request.setFullName(fullName);
+        request.setDeviceKey(deviceKey);
+        request.setSecret(secret);
+        request.setVerificationStyle(verificationStyle);
+        request.setForceUpdate(true); // Always allow updates in database-first mode
+        return submitBinaryEnrollment("upload-face", request, faceImage, async,
+                "Device operation timed out. Please retry.", "Face upload failed: ");
+    }
+    
+    /**
+     * Read a multipart image part and queue the enrollment. The part is read on the request
+     * thread because the container deletes its temporary file when the request returns.
+     */
+    private DeferredResult<ResponseEntity<BaseResult>> submitBinaryEnrollment(String type, EmployeeRegistrationRequest request,
+                                                                              MultipartFile imagePart, boolean async,
+                                                                              String timeoutMessage, String failurePrefix) {
+        BaseResult invalid = validateEnrollmentRequest(request, false);
+        if (invalid != null) {
+            return completedResult(invalid);
+        }
+        FaceImage uploadedImage;
+        try {
+            uploadedImage = faceUploadReader.read(imagePart);
+            System.out.println("✅ Binary face image received: " + uploadedImage.size() + " bytes (" + uploadedImage.getFormat() + ")");
+        } catch (IllegalArgumentException e) {
+            return completedResult(ResultWrapper.wrapFailure("1001", e.getMessage()));
+        } catch (IOException e) {
+            return completedResult(ResultWrapper.wrapFailure("1000", failurePrefix + "could not read face image: " + e.getMessage()));
+        }
+        return submitEnrollment(type, request, uploadedImage, async, timeoutMessage, failurePrefix);
+    }
+    
+    /**
+     * Queue an enrollment on the device's lane without blocking the request thread.
+     * The request is validated and its image decoded, normalised and face-checked on the
+     * image prep pool first, so a bad photo is rejected without ever taking a device slot.
+     * Async callers then get 202 with the job ID; synchronous callers get a DeferredResult
+     * that completes with the enrollment result (or TIMEOUT).
+     * A full device queue surfaces as DeviceQueueFullException (HTTP 429 with Retry-After).
+     */
+    private DeferredResult<ResponseEntity<BaseResult>> submitEnrollment(String type, EmployeeRegistrationRequest request,
+                                                                        FaceImage uploadedImage, boolean async,
+                                                                        String timeoutMessage, String failurePrefix) {
+        BaseResult invalid = validateEnrollmentRequest(request, uploadedImage == null);
+        if (invalid != null) {
+            return completedResult(invalid);
+        }
         
-        // Increment queue counter
+        // A full lane is refused before the image is decoded
+        deviceLaneRegistry.checkCapacity(request.getDeviceKey(), 1);
+        
+        DeferredResult<ResponseEntity<BaseResult>> deferred = async ? new DeferredResult<>()
+                : new DeferredResult<>(DEVICE_OPERATION_TIMEOUT, () -> ResponseEntity.ok(ResultWrapper.wrapFailure("TIMEOUT", timeoutMessage)));
+        
+        prepareAsync(request.getDeviceKey(), () -> uploadedImage != null
+                        ? processFaceImageWithEnhancedValidation(uploadedImage)
+                        : processFaceImageWithEnhancedValidation(request.getFaceImage()))
+                .whenComplete((faceImage, imageError) -> {
+                    if (imageError != null) {
+                        failedRequests.incrementAndGet();
+                        System.err.println("❌ Enrollment rejected before queuing: " + imageError.getMessage());
+                        deferred.setResult(ResponseEntity.ok(toEnrollmentFailure(imageError, failurePrefix)));
+                        return;
+                    }
+                    
+                    EnrollmentJob job;
+                    try {
+                        job = enrollmentJobService.submit(type, request.getEmployeeId(), request.getDeviceKey(),
+                                () -> processEnrollmentToDevice(request, faceImage),
+                                error -> toEnrollmentFailure(error, failurePrefix));
+                    } catch (DeviceQueueFullException e) {
+                        // Resolved by GlobalExceptionHandler into 429 + Retry-After
+                        deferred.setErrorResult(e);
+                        return;
+                    }
+                    
+                    trackEnrollmentJob(job, request);
+                    
+                    if (async) {
+                        Map<String, Object> accepted = new HashMap<>();
+                        accepted.put("jobId", job.getJobId());
+                        accepted.put("status", job.getStatus().name());
+                        accepted.put("statusUrl", "/api/jobs/" + job.getJobId());
+                        if (faceImage.getQuality() != null) {
+                            accepted.put("imageQuality", faceImage.getQuality().toMap());
+                        }
+                        System.out.println("📨 Enrollment queued as job " + job.getJobId());
+                        deferred.setResult(ResponseEntity.status(HttpStatus.ACCEPTED).body(ResultWrapper.wrapSuccess(accepted)));
+                        return;
+                    }
+                    
+                    System.out.println("⏳ Waiting for device operation to complete (timeout: " + DEVICE_OPERATION_TIMEOUT + "ms)...");
+                    deferred.onTimeout(() -> System.err.println("❌ Device operation timed out after " + DEVICE_OPERATION_TIMEOUT + "ms (job " + job.getJobId() + " still queued)"));
+                    job.getFuture().thenAccept(result -> deferred.setResult(ResponseEntity.ok(result)));
+                });
+        return deferred;
+    }
+    
+    /**
+     * Count a queued enrollment job in the queue statistics and record its outcome when it finishes
+     */
+    private void trackEnrollmentJob(EnrollmentJob job, EmployeeRegistrationRequest request) {
         int queuePosition = queuedRequests.incrementAndGet();
         System.out.println("📊 Queue Statistics - Position: " + queuePosition + ", Processed: " + processedRequests.get() + ", Failed: " + failedRequests.get());
-
-        try {
-            // Submit to single-threaded queue for sequential device access
-            Future<BaseResult> future = deviceExecutor.submit(() -> processEnrollmentToDevice(request));
-            
-            // Wait for result with timeout
-            System.out.println("⏳ Waiting for device operation to complete (timeout: " + DEVICE_OPERATION_TIMEOUT + "ms)...");
-            BaseResult result = future.get(DEVICE_OPERATION_TIMEOUT, TimeUnit.MILLISECONDS);
-            
-            processedRequests.incrementAndGet();
-            System.out.println("✅ Enrollment completed successfully");
-            return result;
-            
-        } catch (TimeoutException e) {
-            failedRequests.incrementAndGet();
-            System.err.println("❌ Device operation timed out after " + DEVICE_OPERATION_TIMEOUT + "ms");
-            return ResultWrapper.wrapFailure("TIMEOUT", "Device enrollment timed out. The device may be busy processing other requests. Please try again.");
-            
-        } catch (ExecutionException e) {
-            failedRequests.incrementAndGet();
-            Throwable cause = e.getCause();
-            System.err.println("❌ Device operation failed: " + cause.getMessage());
-            
-            if (cause instanceof RuntimeException) {
-                RuntimeException re = (RuntimeException) cause;
-                String errorMessage = re.getMessage();
-                
-                if (errorMessage != null && (errorMessage.startsWith("EMPLOYEE_ALREADY_ENROLLED") || errorMessage.startsWith("DUPLICATE_EMPLOYEE_DETECTED"))) {
-                    return ResultWrapper.wrapFailure("DUPLICATE_EMPLOYEE", errorMessage);
-                }
-                return ResultWrapper.wrapFailure("1000", "Employee registration failed: " + errorMessage);
+        
+        job.getFuture().thenAccept(result -> {
+            if (result != null && Boolean.TRUE.equals(result.getSuccess())) {
+                processedRequests.incrementAndGet();
+                deviceLivenessCache.markHealthy(getHostInfo(), request.getDeviceKey(), request.getSecret());
+                System.out.println("✅ Enrollment completed successfully (job " + job.getJobId() + ")");
+            } else {
+                failedRequests.incrementAndGet();
+                System.err.println("❌ Device operation failed (job " + job.getJobId() + "): " + (result != null ? result.getMsg() : "no result"));
             }
-            
-            return ResultWrapper.wrapFailure("1000", "Employee registration failed: " + cause.getMessage());
-            
-        } catch (InterruptedException e) {
-            failedRequests.incrementAndGet();
-            Thread.currentThread().interrupt();
-            System.err.println("❌ Device operation interrupted");
-            return ResultWrapper.wrapFailure("INTERRUPTED", "Device enrollment was interrupted. Please try again.");
-            
-        } catch (Exception e) {
-            failedRequests.incrementAndGet();
-            e.printStackTrace();
-            return ResultWrapper.wrapFailure("1000", "Unexpected error: " + e.getMessage());
+        });
+    }
+    
+    /**
+     * Map an exception thrown by an enrollment task to the failure result returned to callers
+     */
+    private BaseResult toEnrollmentFailure(Throwable error, String failurePrefix) {
+        Throwable cause = error;
+        while ((cause instanceof ExecutionException || cause instanceof CompletionException) && cause.getCause() != null) {
+            cause = cause.getCause();
         }
+        String errorMessage = cause.getMessage();
+        if (cause instanceof RuntimeException && errorMessage != null
+                && (errorMessage.startsWith("EMPLOYEE_ALREADY_ENROLLED") || errorMessage.startsWith("DUPLICATE_EMPLOYEE_DETECTED"))) {
+            return ResultWrapper.wrapFailure("DUPLICATE_EMPLOYEE", errorMessage);
+        }
+        if (cause instanceof ImageQualityException) {
+            // The report lets the client show what to fix and recapture
+            return ResultWrapper.wrapFailure("IMAGE_QUALITY", errorMessage, ((ImageQualityException) cause).getReport().toMap());
+        }
+        return ResultWrapper.wrapFailure("1000", failurePrefix + errorMessage);
+    }
+    
+    private static DeferredResult<ResponseEntity<BaseResult>> completedResult(BaseResult result) {
+        DeferredResult<ResponseEntity<BaseResult>> deferred = new DeferredResult<>();
+        deferred.setResult(ResponseEntity.ok(result));
+        return deferred;
     }
     
     /**
-     * Process enrollment to device - executed sequentially in queue
-     * This ensures only one enrollment happens at a time, preventing XO5 device buffer overload
+     * Register one employee on several devices (staff who clock in at more than one facility).
+     * The face image is validated and normalised once, then one enrollment job is queued on
+     * each device's lane so the devices work in parallel and the response arrives when the
+     * slowest one finishes. Devices come from "devices" (each with its own secret) and/or
+     * "deviceKeys" (sharing "secret"). The result holds one entry per device; with ?async=true
+     * 202 is returned with each device's job ID instead. A full device queue fails only that
+     * device's entry.
      */
-    private BaseResult processEnrollmentToDevice(EmployeeRegistrationRequest request) {
-        System.out.println("\n🔄 === PROCESSING ENROLLMENT FROM QUEUE ===");
+    @PostMapping("/register-multi")
+    public DeferredResult<ResponseEntity<BaseResult>> registerEmployeeOnDevices(@RequestBody MultiDeviceRegistrationRequest request,
+                                                                                @RequestParam(value = "async", defaultValue = "false") boolean async) {
+        Map<String, String> devices = new LinkedHashMap<>();
+        if (request.getDevices() != null) {
+            for (DeviceRequest device : request.getDevices()) {
+                if (device != null && StringUtils.hasText(device.getDeviceKey())) {
+                    devices.putIfAbsent(device.getDeviceKey().trim(), device.getSecret() != null ? device.getSecret() : request.getSecret());
+                }
+            }
+        }
+        if (request.getDeviceKeys() != null) {
+            for (String deviceKey : request.getDeviceKeys()) {
+                if (StringUtils.hasText(deviceKey)) {
+                    devices.putIfAbsent(deviceKey.trim(), request.getSecret());
+                }
+            }
+        }
+        
+        System.out.println("=== MULTI-DEVICE EMPLOYEE REGISTRATION REQUEST ===");
         System.out.println("Employee ID: " + request.getEmployeeId());
         System.out.println("Full Name: " + request.getFullName());
-        System.out.println("Thread: " + Thread.currentThread().getName());
+        System.out.println("Devices: " + devices.keySet());
         
-        try {
-            // 🔹 1. Validate input
-            if (request.getEmployeeId() == null || request.getEmployeeId().trim().isEmpty()) {
-                return ResultWrapper.wrapFailure("1001", "Employee ID is required");
-            }
-            if (request.getFullName() == null || request.getFullName().trim().isEmpty()) {
-                return ResultWrapper.wrapFailure("1001", "Employee full name is required");
-            }
-            if (request.getDeviceKey() == null || request.getSecret() == null) {
-                return ResultWrapper.wrapFailure("1001", "Device credentials are required");
-            }
-            if (request.getFaceImage() == null || request.getFaceImage().trim().isEmpty()) {
-                return ResultWrapper.wrapFailure("1001", "Face image is required for enrollment");
-            }
-
-            // 🔹 2. Test device connectivity
-            System.out.println("Testing device connectivity...");
-            HfDeviceResp testResponse = HfDeviceClient.test(getHostInfo(), request.getDeviceKey(), request.getSecret());
-            System.out.println("Device test response - Code: " + testResponse.getCode() + ", Message: " + testResponse.getMsg());
-
-            if (!"000".equals(testResponse.getCode())) {
-                return ResultWrapper.wrapFailure("1002", "Device connectivity failed: " + testResponse.getMsg());
-            }
-
-            // 🔹 3. Check if employee already exists on device
-            ValidationResult validationResult = validateEmployeeExists(request);
-            if (!validationResult.isValid()) {
-                return ResultWrapper.wrapFailure(validationResult.getErrorCode(), validationResult.getErrorMessage());
-            }
-
-        // 🔹 4. Process and validate face image Base64 data with enhanced checking
-        String faceImage = processFaceImageWithEnhancedValidation(request.getFaceImage());
-        System.out.println("Enhanced face image validation completed");
-        System.out.println("Final processed image data length: " + faceImage.length());            // 🔹 5. Build person creation request
-            Object personCreateReq = requestBuilderService.buildPersonCreateReq(
-                    request.getEmployeeId(),
-                    request.getFullName(),
-                    faceImage,
-                    request.getVerificationStyle()
-            );
-
-            // Optional debugging
-            requestBuilderService.inspectPersonCreateReqMethods();
-
-            // 🔹 6. Create or merge person on device (based on validation result)
-            HfDeviceResp createResponse = handlePersonCreationOrMerge(request, personCreateReq);
-            if (createResponse == null) {
-                return ResultWrapper.wrapFailure("1004", "Failed to create or update employee on device: null response");
-            }
-            if (!"000".equals(createResponse.getCode())) {
-                return ResultWrapper.wrapFailure("1004", "Failed to create or update employee on device: " + createResponse.getMsg());
-            }
-
-            System.out.println("✅ Employee record created/updated successfully on device");
-
-            // 🔹 7. Upload face image using faceMerge() with retry logic
-            HfDeviceResp faceResponse = null;
-            boolean faceMergeSucceeded = false;
-            String faceMergeMessage = "Face merge completed";
-            
+        if (devices.isEmpty()) {
+            return completedResult(ResultWrapper.wrapFailure("1001", "At least one device is required"));
+        }
+        List<EmployeeRegistrationRequest> enrollments = new ArrayList<>(devices.size());
+        for (Map.Entry<String, String> device : devices.entrySet()) {
+            EmployeeRegistrationRequest enrollment = request.forDevice(device.getKey(), device.getValue());
+            BaseResult invalid = validateEnrollmentRequest(enrollment, true);
+            if (invalid != null) {
+                return completedResult(ResultWrapper.wrapFailure(invalid.getCode(), invalid.getMsg() + " (device " + device.getKey() + ")"));
+            }
+            enrollments.add(enrollment);
+        }
+        
+        // Refused before the image is decoded when no device has room; otherwise a full device fails only its entry
+        DeviceQueueFullException noRoom = null;
+        for (EmployeeRegistrationRequest enrollment : enrollments) {
             try {
-                faceResponse = handleFaceMergeWithRetry(request, faceImage);
-                faceMergeSucceeded = true;
-            } catch (Exception e) {
-                if (e.getMessage() != null && e.getMessage().equals("FACE_MERGE_NULL_SUCCESS")) {
-                    System.out.println("✅ Face merge succeeded with null response (common with XO5 devices)");
-                    faceMergeSucceeded = true;
-                    faceMergeMessage = "Face merge successful (device returned null response)";
-                } else {
-                    // Face merge failed - cleanup the person record to avoid conflicts
-                    System.out.println("❌ Face merge failed, cleaning up person record from device...");
-                    try {
-                        HfDeviceResp deleteResponse = deletePersonFromDevice(request.getEmployeeId(), request.getDeviceKey(), request.getSecret());
-                        if ("000".equals(deleteResponse.getCode())) {
-                            System.out.println("✅ Person record cleaned up successfully after face merge failure");
+                deviceLaneRegistry.checkCapacity(enrollment.getDeviceKey(), 1);
+                noRoom = null;
+                break;
+            } catch (DeviceQueueFullException e) {
+                noRoom = e;
+            }
+        }
+        if (noRoom != null) {
+            throw noRoom;
+        }
+        
+        DeferredResult<ResponseEntity<BaseResult>> deferred = async ? new DeferredResult<>()
+                : new DeferredResult<>(DEVICE_OPERATION_TIMEOUT, () -> ResponseEntity.ok(ResultWrapper.wrapFailure("TIMEOUT",
+                        "Device enrollment timed out. One or more devices may be busy processing other requests. Please try again.")));
+        long startedAt = System.currentTimeMillis();
+        
+        prepareAsync(enrollments.get(0).getDeviceKey(), () -> processFaceImageWithEnhancedValidation(request.getFaceImage()))
+                .whenComplete((faceImage, imageError) -> {
+                    if (imageError != null) {
+                        failedRequests.incrementAndGet();
+                        System.err.println("❌ Multi-device enrollment rejected before queuing: " + imageError.getMessage());
+                        deferred.setResult(ResponseEntity.ok(toEnrollmentFailure(imageError, "Employee registration failed: ")));
+                        return;
+                    }
+                    // Encode once; every device's copy shares the bytes and the base64
+                    faceImage.toBase64();
+                    
+                    List<Map<String, Object>> entries = new ArrayList<>(enrollments.size());
+                    List<CompletableFuture<BaseResult>> results = new ArrayList<>(enrollments.size());
+                    for (EmployeeRegistrationRequest enrollment : enrollments) {
+                        Map<String, Object> entry = new LinkedHashMap<>();
+                        entry.put("deviceKey", enrollment.getDeviceKey());
+                        entries.add(entry);
+                        FaceImage deviceImage = faceImage.copy();
+                        try {
+                            EnrollmentJob job = enrollmentJobService.submit("register", enrollment.getEmployeeId(), enrollment.getDeviceKey(),
+                                    () -> processEnrollmentToDevice(enrollment, deviceImage),
+                                    error -> toEnrollmentFailure(error, "Employee registration failed: "));
+                            trackEnrollmentJob(job, enrollment);
+                            entry.put("jobId", job.getJobId());
+                            if (async) {
+                                entry.put("status", job.getStatus().name());
+                                entry.put("statusUrl", "/api/jobs/" + job.getJobId());
+                            }
+                            results.add(job.getFuture());
+                        } catch (DeviceQueueFullException e) {
+                            System.err.println("⛔ Device queue full, skipping " + enrollment.getDeviceKey() + ": " + e.getMessage());
+                            Map<String, Object> data = new HashMap<>();
+                            data.put("deviceKey", e.getDeviceKey());
+                            data.put("queueDepth", e.getQueueDepth());
+                            data.put("retryAfterSeconds", e.getRetryAfterSeconds());
+                            BaseResult rejected = ResultWrapper.wrapFailure("429", e.getMessage(), data);
+                            entry.put("result", rejected);
+                            results.add(CompletableFuture.completedFuture(rejected));
+                        }
+                    }
+                    System.out.println("📨 Enrollment of " + request.getEmployeeId() + " queued on " + enrollments.size() + " device lanes");
+                    
+                    if (async) {
+                        Map<String, Object> accepted = new HashMap<>();
+                        accepted.put("employeeId", request.getEmployeeId());
+                        accepted.put("devices", entries);
+                        if (faceImage.getQuality() != null) {
+                            accepted.put("imageQuality", faceImage.getQuality().toMap());
+                        }
+                        deferred.setResult(ResponseEntity.status(HttpStatus.ACCEPTED).body(ResultWrapper.wrapSuccess(accepted)));
+                        return;
+                    }
+                    
+                    CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).whenComplete((ignored, error) -> {
+                        int succeeded = 0;
+                        for (int i = 0; i < entries.size(); i++) {
+                            BaseResult result = results.get(i).getNow(null);
+                            entries.get(i).put("result", result);
+                            if (result != null && Boolean.TRUE.equals(result.getSuccess())) {
+                                succeeded++;
+                            }
+                        }
+                        int total = entries.size();
+                        Map<String, Object> summary = new LinkedHashMap<>();
+                        summary.put("employeeId", request.getEmployeeId());
+                        summary.put("total", total);
+                        summary.put("succeeded", succeeded);
+                        summary.put("failed", total - succeeded);
+                        summary.put("elapsedMs", System.currentTimeMillis() - startedAt);
+                        summary.put("devices", entries);
+                        System.out.println("✅ Multi-device enrollment finished: " + succeeded + "/" + total + " devices in " + summary.get("elapsedMs") + "ms");
+                        
+                        if (succeeded == total) {
+                            deferred.setResult(ResponseEntity.ok(ResultWrapper.wrapSuccess(summary)));
                         } else {
-                            System.out.println("⚠️ Failed to cleanup person record: " + deleteResponse.getMsg());
+                            deferred.setResult(ResponseEntity.ok(ResultWrapper.wrapFailure("PARTIAL_FAILURE",
+                                    (total - succeeded) + " of " + total + " devices failed to enroll " + request.getEmployeeId(), summary)));
+                        }
+                    });
+                });
+        return deferred;
+    }
+    
+    /**
+     * Register a batch of employees on one device.
+     * Face images are validated and normalised in parallel on a CPU pool, then the device lane
+     * enrolls them back-to-back in request order after a single connectivity check.
+     * Returns per-employee results; with Accept: application/x-ndjson (or ?stream=true) each
+     * result is streamed as one JSON line as soon as it is known, followed by a summary line.
+     */
+    @PostMapping("/register-batch")
+    public ResponseEntity<ResponseBodyEmitter> registerEmployeesBatch(@RequestBody BatchRegistrationRequest batch,
+                                                                      @RequestParam(value = "stream", defaultValue = "false") boolean stream,
+                                                                      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        List<EmployeeRegistrationRequest> employees = batch.getEmployees() != null ? batch.getEmployees() : new ArrayList<>();
+        boolean ndjson = stream || (accept != null && accept.contains(NDJSON.toString()));
+        
+        System.out.println("=== BATCH EMPLOYEE REGISTRATION REQUEST ===");
+        System.out.println("Device Key: " + batch.getDeviceKey());
+        System.out.println("Employees: " + employees.size() + (ndjson ? " (streaming NDJSON)" : ""));
+        
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(DEVICE_OPERATION_TIMEOUT + employees.size() * BATCH_TIMEOUT_PER_EMPLOYEE);
+        ResponseEntity<ResponseBodyEmitter> response = ResponseEntity.ok()
+                .contentType(ndjson ? NDJSON : MediaType.APPLICATION_JSON)
+                .body(emitter);
+        
+        if (batch.getDeviceKey() == null || batch.getSecret() == null) {
+            finishBatch(emitter, ndjson, ResultWrapper.wrapFailure("1001", "Device credentials are required"));
+            return response;
+        }
+        if (employees.isEmpty()) {
+            finishBatch(emitter, ndjson, ResultWrapper.wrapFailure("1001", "At least one employee is required"));
+            return response;
+        }
+        
+        // 🔹 1. Validate every entry
+        int total = employees.size();
+        List<BaseResult> rejected = new ArrayList<>(total);
+        List<CompletableFuture<FaceImage>> preparedImages = new ArrayList<>(total);
+        for (EmployeeRegistrationRequest employee : employees) {
+            employee.setDeviceKey(batch.getDeviceKey());
+            employee.setSecret(batch.getSecret());
+            if (employee.getForceUpdate() == null) {
+                employee.setForceUpdate(batch.getForceUpdate());
+            }
+            rejected.add(validateEnrollmentRequest(employee, true));
+            preparedImages.add(new CompletableFuture<>());
+        }
+        
+        // 🔹 2. Enroll back-to-back on the device lane as images become ready.
+        // The lane is claimed before any image work starts so a full queue is rejected cheaply.
+        long startedAt = System.currentTimeMillis();
+        List<Map<String, Object>> results = new ArrayList<>(total);
+        deviceLaneRegistry.submit(batch.getDeviceKey(), () -> {
+            System.out.println("\n🔄 === PROCESSING BATCH ENROLLMENT (" + total + " employees) ===");
+            HfDeviceResp testResponse = checkDeviceLiveness(batch.getDeviceKey(), batch.getSecret());
+            boolean connected = testResponse != null && "000".equals(testResponse.getCode());
+            if (!connected) {
+                System.err.println("❌ Device connectivity failed for batch: " + (testResponse != null ? testResponse.getMsg() : "null response"));
+            }
+            
+            for (int i = 0; i < total; i++) {
+                EmployeeRegistrationRequest employee = employees.get(i);
+                BaseResult result = rejected.get(i);
+                if (result == null && !connected) {
+                    result = ResultWrapper.wrapFailure("1002", "Device connectivity failed: " + (testResponse != null ? testResponse.getMsg() : "null response"));
+                }
+                FaceImage faceImage = null;
+                if (result == null) {
+                    try {
+                        faceImage = preparedImages.get(i).join();
+                        if (faceImage == null) {
+                            faceImage = processFaceImageWithEnhancedValidation(employee.getFaceImage());
                         }
-                    } catch (Exception cleanupError) {
-                        System.out.println("⚠️ Cleanup failed: " + cleanupError.getMessage());
+                    } catch (Exception e) {
+                        result = toEnrollmentFailure(e, "Employee registration failed: ");
                     }
-                    throw e; // Re-throw original exception
                 }
-            }
-            
-            // Check face merge results
-            if (faceResponse != null && !"000".equals(faceResponse.getCode())) {
-                // Check if this is a "face already exists" scenario
-                if (faceResponse.getMsg() != null && faceResponse.getMsg().toLowerCase().contains("already exists")) {
-                    System.out.println("⚠️ Face already exists but person was created/updated successfully");
-                    faceMergeSucceeded = true;
-                    faceMergeMessage = "Face already exists - " + faceResponse.getMsg();
-                } else {
-                    // Face merge failed - cleanup the person record to avoid conflicts
-                    System.out.println("❌ Face merge failed with code " + faceResponse.getCode() + ", cleaning up person record...");
+                if (result == null) {
                     try {
-                        HfDeviceResp deleteResponse = deletePersonFromDevice(request.getEmployeeId(), request.getDeviceKey(), request.getSecret());
-                        if ("000".equals(deleteResponse.getCode())) {
-                            System.out.println("✅ Person record cleaned up successfully after face merge failure");
-                        } else {
-                            System.out.println("⚠️ Failed to cleanup person record: " + deleteResponse.getMsg());
+                        result = enrollPreparedEmployee(employee, faceImage);
+                    } catch (Exception e) {
+                        result = toEnrollmentFailure(e, "Employee registration failed: ");
+                        if (!"DUPLICATE_EMPLOYEE".equals(result.getCode())) {
+                            deviceLivenessCache.invalidate(batch.getDeviceKey());
                         }
-                    } catch (Exception cleanupError) {
-                        System.out.println("⚠️ Cleanup failed: " + cleanupError.getMessage());
                     }
-                    return ResultWrapper.wrapFailure("1006", "Face enrollment failed: " + faceResponse.getMsg() + " (person record cleaned up, you can retry)");
                 }
+                
+                if (Boolean.TRUE.equals(result.getSuccess())) {
+                    processedRequests.incrementAndGet();
+                } else {
+                    failedRequests.incrementAndGet();
+                }
+                System.out.println("📊 Batch progress " + (i + 1) + "/" + total + " - " + employee.getEmployeeId() + ": " + result.getCode());
+                
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("index", i);
+                item.put("employeeId", employee.getEmployeeId());
+                item.put("result", result);
+                results.add(item);
+                if (ndjson) {
+                    sendNdjsonLine(emitter, item);
+                }
+            }
+            return null;
+        }, total).whenComplete((ignored, error) -> {
+            if (error != null) {
+                error.printStackTrace();
+            }
+            int succeeded = 0;
+            for (Map<String, Object> item : results) {
+                if (Boolean.TRUE.equals(((BaseResult) item.get("result")).getSuccess())) {
+                    succeeded++;
+                }
+            }
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("total", total);
+            summary.put("processed", results.size());
+            summary.put("succeeded", succeeded);
+            summary.put("failed", results.size() - succeeded);
+            summary.put("elapsedMs", System.currentTimeMillis() - startedAt);
+            if (!ndjson) {
+                summary.put("results", results);
+            }
+            System.out.println("✅ Batch enrollment finished: " + succeeded + "/" + total + " succeeded in " + summary.get("elapsedMs") + "ms");
+            
+            if (error != null) {
+                finishBatch(emitter, ndjson, ResultWrapper.wrapFailure("1000", "Batch enrollment aborted: " + error.getMessage(), summary));
+            } else if (succeeded == total) {
+                finishBatch(emitter, ndjson, ResultWrapper.wrapSuccess(summary));
+            } else {
+                finishBatch(emitter, ndjson, ResultWrapper.wrapFailure("PARTIAL_FAILURE",
+                        (total - succeeded) + " of " + total + " employees failed to enroll", summary));
+            }
+        });
+        queuedRequests.addAndGet(total);
+        
+        // 🔹 3. Validate/normalise images in parallel; the lane picks each one up in order
+        for (int i = 0; i < total; i++) {
+            if (rejected.get(i) != null) {
+                continue;
+            }
+            EmployeeRegistrationRequest employee = employees.get(i);
+            CompletableFuture<FaceImage> prepared = preparedImages.get(i);
+            try {
+                imagePrepExecutor.execute(() -> {
+                    try {
+                        prepared.complete(processFaceImageWithEnhancedValidation(employee.getFaceImage()));
+                    } catch (Throwable e) {
+                        prepared.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Prep pool saturated: the batch was already admitted, so the lane prepares this image itself
+                prepared.complete(null);
+            }
+        }
+        return response;
+    }
+    
+    /**
+     * Write the final batch result (the summary line in NDJSON mode) and close the response
+     */
+    private void finishBatch(ResponseBodyEmitter emitter, boolean ndjson, BaseResult result) {
+        try {
+            if (ndjson) {
+                Map<String, Object> line = new LinkedHashMap<>();
+                line.put("summary", result);
+                sendNdjsonLine(emitter, line);
+            } else {
+                emitter.send(result, MediaType.APPLICATION_JSON);
+            }
+            emitter.complete();
+        } catch (Exception e) {
+            emitter.completeWithError(e);
+        }
+    }
+    
+    private void sendNdjsonLine(ResponseBodyEmitter emitter, Object line) {
+        try {
+            emitter.send(objectMapper.writeValueAsString(line) + "\n", NDJSON);
+        } catch (Exception e) {
+            // Client went away - keep enrolling, results are still counted and logged
+            System.err.println("⚠️ Failed to stream batch progress: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Enrollment queue status: per-device queue depth, bound, measured service time and counters
+     */
+    @GetMapping("/queue-status")
+    public BaseResult getQueueStatus() {
+        Map<String, Object> status = new HashMap<>(deviceLaneRegistry.getStatistics());
+        status.put("totalQueued", queuedRequests.get());
+        status.put("totalProcessed", processedRequests.get());
+        status.put("totalFailed", failedRequests.get());
+        status.put("rosterMirror", deviceRosterMirror.getStatistics());
+        return ResultWrapper.wrapSuccess(status);
+    }
+    
+    /**
+     * Process enrollment to device - executed sequentially in the device's lane
+     * This ensures only one enrollment per device happens at a time, preventing XO5 device buffer overload.
+     * The face image has already been validated and normalised before the job was queued.
+     */
+    private BaseResult processEnrollmentToDevice(EmployeeRegistrationRequest request, FaceImage faceImage) {
+        System.out.println("\n🔄 === PROCESSING ENROLLMENT FROM QUEUE ===");
+        System.out.println("Employee ID: " + request.getEmployeeId());
+        System.out.println("Full Name: " + request.getFullName());
+        System.out.println("Thread: " + Thread.currentThread().getName());
+        
+        try {
+            // 🔹 1. Validate input (the image itself was checked before queuing)
+            BaseResult invalid = validateEnrollmentRequest(request, false);
+            if (invalid != null) {
+                return invalid;
             }
 
-            System.out.println("✅ Face image process completed");
+            // 🔹 2. Test device connectivity
+            System.out.println("Testing device connectivity...");
+            HfDeviceResp testResponse = checkDeviceLiveness(request.getDeviceKey(), request.getSecret());
+            System.out.println("Device test response - Code: " + testResponse.getCode() + ", Message: " + testResponse.getMsg());
 
-            // 🔹 8. Return success result
-            Map<String, Object> responseData = new HashMap<>();
-            responseData.put("employeeId", request.getEmployeeId());
-            responseData.put("fullName", request.getFullName());
-            responseData.put("deviceConnected", true);
-            responseData.put("enrollmentStatus", "success");
-            responseData.put("deviceResponse", faceMergeMessage);
-            responseData.put("status", "Employee successfully enrolled on device with face recognition");
-            responseData.put("faceMergeSuccess", faceMergeSucceeded);
+            if (!"000".equals(testResponse.getCode())) {
+                return ResultWrapper.wrapFailure("1002", "Device connectivity failed: " + testResponse.getMsg());
+            }
 
-            return ResultWrapper.wrapSuccess(responseData);
+            // 🔹 3. Face image was validated and normalised before queuing
+            System.out.println("Prepared face image: " + faceImage.getFormat() + ", " + faceImage.size() + " bytes");
+
+            // 🔹 4-8. Existing-record check, person create/merge and face upload
+            return enrollPreparedEmployee(request, faceImage);
 
         } catch (RuntimeException e) {
             e.printStackTrace();
@@ -640,23 +919,168 @@ public class EmployeeController extends BaseController {
                 throw e; // Re-throw to be caught by caller
             }
             
+            deviceLivenessCache.invalidate(request.getDeviceKey());
             throw new RuntimeException("Employee registration failed: " + errorMessage, e);
         } catch (Exception e) {
             e.printStackTrace();
+            deviceLivenessCache.invalidate(request.getDeviceKey());
             throw new RuntimeException("Employee registration failed: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Basic field validation shared by single and batch enrollment.
+     * Returns the failure result, or null when the request is complete.
+     */
+    private BaseResult validateEnrollmentRequest(EmployeeRegistrationRequest request, boolean imageRequired) {
+        if (request.getEmployeeId() == null || request.getEmployeeId().trim().isEmpty()) {
+            return ResultWrapper.wrapFailure("1001", "Employee ID is required");
+        }
+        if (request.getFullName() == null || request.getFullName().trim().isEmpty()) {
+            return ResultWrapper.wrapFailure("1001", "Employee full name is required");
+        }
+        if (request.getDeviceKey() == null || request.getSecret() == null) {
+            return ResultWrapper.wrapFailure("1001", "Device credentials are required");
+        }
+        if (imageRequired && !StringUtils.hasText(request.getFaceImage())) {
+            return ResultWrapper.wrapFailure("1001", "Face image is required for enrollment");
+        }
+        return null;
+    }
+
+    /**
+     * Device part of an enrollment, for an already validated request and processed face image.
+     * Must run on the device's lane; the caller is responsible for the connectivity check.
+     */
+    private BaseResult enrollPreparedEmployee(EmployeeRegistrationRequest request, FaceImage faceImage) throws Exception {
+        // 🔹 3b. Skip the device writes when this exact name and image were already enrolled
+        String contentHash = enrollmentHashIndex.contentHash(request.getFullName(), request.getVerificationStyle(), faceImage.getBytes());
+        if (enrollmentHashIndex.matches(request.getDeviceKey(), request.getEmployeeId(), contentHash)
+                && personExistsOnDevice(request)) {
+            System.out.println("✅ Employee " + request.getEmployeeId() + " already in sync (same name and face image), skipping device writes");
+            facePresenceIndex.record(request.getDeviceKey(), request.getEmployeeId(), true);
+            Map<String, Object> responseData = new HashMap<>();
+            responseData.put("employeeId", request.getEmployeeId());
+            responseData.put("fullName", request.getFullName());
+            responseData.put("deviceConnected", true);
+            responseData.put("enrollmentStatus", "already_in_sync");
+            responseData.put("alreadyInSync", true);
+            responseData.put("status", "Employee already in sync on device");
+            responseData.put("faceMergeSuccess", true);
+            if (faceImage.getQuality() != null) {
+                responseData.put("imageQuality", faceImage.getQuality().toMap());
+            }
+            return ResultWrapper.wrapSuccess(responseData);
+        }
+        // The device record is about to change, so the old hash no longer describes it
+        enrollmentHashIndex.remove(request.getDeviceKey(), request.getEmployeeId());
+
+        // 🔹 4. Check if employee already exists on device
+        ValidationResult validationResult = validateEmployeeExists(request);
+        if (!validationResult.isValid()) {
+            return ResultWrapper.wrapFailure(validationResult.getErrorCode(), validationResult.getErrorMessage());
+        }
+
+        // 🔹 5. Build person creation request
+        Object personCreateReq = requestBuilderService.buildPersonCreateReq(
+                request.getEmployeeId(),
+                request.getFullName(),
+                faceImage.toBase64(),
+                request.getVerificationStyle()
+        );
+
+        // 🔹 6. Create or merge person on device (based on validation result)
+        HfDeviceResp createResponse = handlePersonCreationOrMerge(request, personCreateReq);
+        if (createResponse == null) {
+            return ResultWrapper.wrapFailure("1004", "Failed to create or update employee on device: null response");
+        }
+        if (!"000".equals(createResponse.getCode())) {
+            return ResultWrapper.wrapFailure("1004", "Failed to create or update employee on device: " + createResponse.getMsg());
+        }
+
+        System.out.println("✅ Employee record created/updated successfully on device");
+        deviceRosterMirror.personSaved(request.getDeviceKey(), request.getEmployeeId(), request.getFullName(),
+                RequestBuilderService.effectiveVerifyStyle(request.getVerificationStyle(), faceImage.toBase64()));
+
+        // 🔹 7. Upload face image using faceMerge() with retry logic
+        HfDeviceResp faceResponse = null;
+        boolean faceMergeSucceeded = false;
+        String faceMergeMessage = "Face merge completed";
+        
+        try {
+            faceResponse = handleFaceMergeWithRetry(request, faceImage);
+            faceMergeSucceeded = true;
+        } catch (Exception e) {
+            if (e.getMessage() != null && e.getMessage().equals("FACE_MERGE_NULL_SUCCESS")) {
+                System.out.println("✅ Face merge succeeded with null response (common with XO5 devices)");
+                faceMergeSucceeded = true;
+                faceMergeMessage = "Face merge successful (device returned null response)";
+            } else {
+                // Face merge failed - cleanup the person record to avoid conflicts
+                System.out.println("❌ Face merge failed, cleaning up person record from device...");
+                try {
+                    HfDeviceResp deleteResponse = deletePersonFromDevice(request.getEmployeeId(), request.getDeviceKey(), request.getSecret());
+                    if ("000".equals(deleteResponse.getCode())) {
+                        System.out.println("✅ Person record cleaned up successfully after face merge failure");
+                    } else {
+                        System.out.println("⚠️ Failed to cleanup person record: " + deleteResponse.getMsg());
+                    }
+                } catch (Exception cleanupError) {
+                    System.out.println("⚠️ Cleanup failed: " + cleanupError.getMessage());
+                }
+                throw e; // Re-throw original exception
+            }
+        }
+        
+        // Check face merge results
+        if (faceResponse != null && !"000".equals(faceResponse.getCode())) {
+            // Check if this is a "face already exists" scenario
+            if (faceResponse.getMsg() != null && faceResponse.getMsg().toLowerCase().contains("already exists")) {
+                System.out.println("⚠️ Face already exists but person was created/updated successfully");
+                faceMergeSucceeded = true;
+                faceMergeMessage = "Face already exists - " + faceResponse.getMsg();
+            } else {
+                // Face merge failed - cleanup the person record to avoid conflicts
+                System.out.println("❌ Face merge failed with code " + faceResponse.getCode() + ", cleaning up person record...");
+                try {
+                    HfDeviceResp deleteResponse = deletePersonFromDevice(request.getEmployeeId(), request.getDeviceKey(), request.getSecret());
+                    if ("000".equals(deleteResponse.getCode())) {
+                        System.out.println("✅ Person record cleaned up successfully after face merge failure");
+                    } else {
+                        System.out.println("⚠️ Failed to cleanup person record: " + deleteResponse.getMsg());
+                    }
+                } catch (Exception cleanupError) {
+                    System.out.println("⚠️ Cleanup failed: " + cleanupError.getMessage());
+                }
+                return ResultWrapper.wrapFailure("1006", "Face enrollment failed: " + faceResponse.getMsg() + " (person record cleaned up, you can retry)");
+            }
+        }
+
+        System.out.println("✅ Face image process completed");
+        enrollmentHashIndex.put(request.getDeviceKey(), request.getEmployeeId(), contentHash);
+        facePresenceIndex.record(request.getDeviceKey(), request.getEmployeeId(), true);
+
+        // 🔹 8. Return success result
+        Map<String, Object> responseData = new HashMap<>();
+        responseData.put("employeeId", request.getEmployeeId());
+        responseData.put("fullName", request.getFullName());
+        responseData.put("deviceConnected", true);
+        responseData.put("enrollmentStatus", "success");
+        responseData.put("deviceResponse", faceMergeMessage);
+        responseData.put("status", "Employee successfully enrolled on device with face recognition");
+        responseData.put("faceMergeSuccess", faceMergeSucceeded);
+        if (faceImage.getQuality() != null) {
+            responseData.put("imageQuality", faceImage.getQuality().toMap());
+        }
+
+        return ResultWrapper.wrapSuccess(responseData);
+    }
+
     /**
      * Handles creating or merging a person record on the device.
      */
     private HfDeviceResp handlePersonCreationOrMerge(EmployeeRegistrationRequest request, Object personCreateReq) throws Exception {
-        Class<?> hostInfoClass = Class.forName("com.hfims.xcan.gateway.netty.client.dto.HostInfoDto");
-        Class<?> personCreateReqClass = Class.forName("com.hfims.xcan.gateway.netty.client.req.PersonCreateReq");
-
-        java.lang.reflect.Method personCreateMethod = HfDeviceClient.class.getMethod("personCreate",
-                hostInfoClass, String.class, String.class, personCreateReqClass);
-        HfDeviceResp createResponse = (HfDeviceResp) personCreateMethod.invoke(null,
+        HfDeviceResp createResponse = deviceGateway.personCreate(
                 getHostInfo(), request.getDeviceKey(), request.getSecret(), personCreateReq);
 
         // Check for null response
@@ -686,9 +1110,7 @@ public class EmployeeController extends BaseController {
                 }
                 
                 System.out.println("✅ Force update requested - proceeding with person merge for existing employee...");
-                java.lang.reflect.Method personMergeMethod = HfDeviceClient.class.getMethod("personMerge",
-                        hostInfoClass, String.class, String.class, personCreateReqClass);
-                createResponse = (HfDeviceResp) personMergeMethod.invoke(null,
+                createResponse = deviceGateway.personMerge(
                         getHostInfo(), request.getDeviceKey(), request.getSecret(), personCreateReq);
                 
                 // Check for null response from merge
@@ -706,89 +1128,20 @@ public class EmployeeController extends BaseController {
     /**
      * Handles uploading the employee's face to the device.
      */
-    private HfDeviceResp handleFaceMerge(EmployeeRegistrationRequest request, String faceImage) throws Exception {
+    private HfDeviceResp handleFaceMerge(EmployeeRegistrationRequest request, FaceImage faceImage) throws Exception {
         System.out.println("=== STARTING FACE MERGE ===");
         System.out.println("PersonSn: " + request.getEmployeeId());
-        System.out.println("Face image length: " + (faceImage != null ? faceImage.length() : "null"));
-
-        // Debug: List available methods for FaceMergeReq
-        Class<?> faceMergeReqClass = Class.forName("com.hfims.xcan.gateway.netty.client.req.FaceMergeReq");
-        System.out.println("=== FaceMergeReq Available Methods ===");
-        Method[] faceMergeMethods = faceMergeReqClass.getDeclaredMethods();
-        for (Method method : faceMergeMethods) {
-            if (method.getName().startsWith("set")) {
-                System.out.println("Method: " + method.getName() + " | Parameter: " + 
-                    (method.getParameterCount() > 0 ? method.getParameterTypes()[0].getSimpleName() : "none"));
-            }
-        }
+        System.out.println("Face image size: " + faceImage.size() + " bytes");
 
-        Object faceMergeReq = faceMergeReqClass.getDeclaredConstructor().newInstance();
-
-        // Set PersonSn - try different method names
-        boolean personSnSet = false;
-        try {
-            faceMergeReqClass.getMethod("setPersonSn", String.class).invoke(faceMergeReq, request.getEmployeeId());
-            personSnSet = true;
-            System.out.println("✅ PersonSn set successfully using setPersonSn");
-        } catch (NoSuchMethodException e) {
-            try {
-                faceMergeReqClass.getMethod("setSn", String.class).invoke(faceMergeReq, request.getEmployeeId());
-                personSnSet = true;
-                System.out.println("✅ PersonSn set successfully using setSn");
-            } catch (NoSuchMethodException e2) {
-                try {
-                    faceMergeReqClass.getMethod("setId", String.class).invoke(faceMergeReq, request.getEmployeeId());
-                    personSnSet = true;
-                    System.out.println("✅ PersonSn set successfully using setId");
-                } catch (NoSuchMethodException e3) {
-                    System.out.println("❌ Failed to set PersonSn - no matching method found");
-                }
-            }
-        }
-
-        // Set face image - try different method names
-        boolean faceImageSet = false;
-        try {
-            faceMergeReqClass.getMethod("setImgBase64", String.class).invoke(faceMergeReq, faceImage);
-            faceImageSet = true;
-            System.out.println("✅ Face image set successfully using setImgBase64");
-        } catch (NoSuchMethodException e) {
-            try {
-                faceMergeReqClass.getMethod("setFaceImage", String.class).invoke(faceMergeReq, faceImage);
-                faceImageSet = true;
-                System.out.println("✅ Face image set successfully using setFaceImage");
-            } catch (NoSuchMethodException e2) {
-                try {
-                    faceMergeReqClass.getMethod("setImage", String.class).invoke(faceMergeReq, faceImage);
-                    faceImageSet = true;
-                    System.out.println("✅ Face image set successfully using setImage");
-                } catch (NoSuchMethodException e3) {
-                    System.out.println("❌ Failed to set face image - no matching method found");
-                }
-            }
+        if (!deviceGateway.isAvailable(DeviceGateway.Operation.FACE_MERGE)) {
+            throw new UnsupportedOperationException("faceMerge is not available in this SDK version");
         }
 
-        // Set easy parameter for photo quality detection (0=strict, 1=loose)
-        // According to XO5 SDK documentation: 0 = Strict detection, 1 = Loose detection
+        // Quality detection (easy): 0 = strict, 1 = loose per XO5 SDK documentation.
         // Using 1 (loose) for better success rate with face recognition
-        boolean easySet = false;
-        try {
-            faceMergeReqClass.getMethod("setEasy", Integer.class).invoke(faceMergeReq, 1);
-            easySet = true;
-            System.out.println("✅ Quality detection set to LOOSE (easy=1) for better face recognition success");
-        } catch (NoSuchMethodException e) {
-            System.out.println("⚠️ Could not set 'easy' parameter - using default strict detection");
-        }
-
-        if (!personSnSet || !faceImageSet) {
-            throw new RuntimeException("Failed to configure FaceMergeReq - PersonSn: " + personSnSet + ", FaceImage: " + faceImageSet);
-        }
+        Object faceMergeReq = requestBuilderService.buildFaceMergeReq(request.getEmployeeId(), faceImage.toBase64(), 1);
 
         // Call faceMerge with enhanced error handling and retry logic
-        java.lang.reflect.Method faceMergeMethod = HfDeviceClient.class.getMethod("faceMerge",
-                Class.forName("com.hfims.xcan.gateway.netty.client.dto.HostInfoDto"),
-                String.class, String.class, faceMergeReqClass);
-
         System.out.println("Calling faceMerge with hostInfo: " + hostInfo);
         
         HfDeviceResp faceResp = null;
@@ -798,8 +1151,15 @@ public class EmployeeController extends BaseController {
             System.out.println("🔄 Face merge attempt " + attempt + "/" + maxRetries);
             
             try {
-                faceResp = (HfDeviceResp) faceMergeMethod.invoke(null,
+                faceResp = deviceGateway.faceMerge(
                         hostInfo, request.getDeviceKey(), request.getSecret(), faceMergeReq);
+                
+                // First device verdict on this image, credited to the detection engine that screened it
+                // (a null response is treated as success further down). The image remembers that its
+                // first call was accounted for, so retries here and in handleFaceMergeWithRetry never count
+                faceImagePipeline.recordDeviceOutcome(faceImage, faceResp == null || "000".equals(faceResp.getCode())
+                        || "101010".equals(faceResp.getCode())
+                        || (faceResp.getMsg() != null && faceResp.getMsg().toLowerCase().contains("already exists")));
                         
                 // Check if we got a successful response
                 if (faceResp != null && "000".equals(faceResp.getCode())) {
@@ -814,11 +1174,9 @@ public class EmployeeController extends BaseController {
                     System.out.println("❌ Error 101008 detected on attempt " + attempt + ", trying to optimize image...");
                     
                     // Try to optimize the image for better XO5 compatibility
-                    String optimizedImage = optimizeImageForXO5(faceImage, attempt);
-                    if (!optimizedImage.equals(faceImage)) {
+                    if (optimizeImageForXO5(faceImage, attempt)) {
                         // Update the request with optimized image
-                        faceMergeReqClass.getMethod("setImgBase64", String.class).invoke(faceMergeReq, optimizedImage);
-                        faceImage = optimizedImage; // Update for next iteration
+                        requestBuilderService.setFaceMergeImage(faceMergeReq, faceImage.toBase64());
                         System.out.println("🔧 Image optimized for attempt " + (attempt + 1));
                         continue;
                     }
@@ -832,6 +1190,8 @@ public class EmployeeController extends BaseController {
                 
             } catch (Exception e) {
                 System.err.println("❌ Face merge attempt " + attempt + " failed with exception: " + e.getMessage());
+                // A first call that throws gives no verdict; a later success must not be credited as one
+                faceImagePipeline.skipDeviceOutcome(faceImage);
                 if (attempt == maxRetries) {
                     throw e;
                 }
@@ -854,9 +1214,9 @@ public class EmployeeController extends BaseController {
             // Analyze common error codes with detailed guidance
             if ("101007".equals(responseCode) || "1500".equals(responseCode)) {
                 System.out.println("🔍 Diagnosing image format issue...");
-                System.out.println("   - Image length: " + faceImage.length());
-                System.out.println("   - First 50 chars: " + (faceImage.length() > 50 ? faceImage.substring(0, 50) + "..." : faceImage));
-                System.out.println("   - Last 10 chars: " + (faceImage.length() > 10 ? faceImage.substring(faceImage.length() - 10) : faceImage));
+                String imageBase64 = faceImage.toBase64();
+                System.out.println("   - Image: " + faceImage.getFormat() + ", " + faceImage.size() + " bytes (Base64 length " + imageBase64.length() + ")");
+                System.out.println("   - First 50 chars: " + (imageBase64.length() > 50 ? imageBase64.substring(0, 50) + "..." : imageBase64));
                 
                 // Special handling for error 101008 (embedded in 1500)
                 if (responseMsg != null && responseMsg.contains("101008")) {
@@ -916,7 +1276,7 @@ public class EmployeeController extends BaseController {
     /**
      * Handles face merge with retry logic for better success rates
      */
-    private HfDeviceResp handleFaceMergeWithRetry(EmployeeRegistrationRequest request, String faceImage) throws Exception {
+    private HfDeviceResp handleFaceMergeWithRetry(EmployeeRegistrationRequest request, FaceImage faceImage) throws Exception {
         int maxRetries = 5; // Increased from 3 to 5 retries
         int retryDelayMs = 2000; // Increased from 1000ms to 2000ms (2 seconds)
         
@@ -1003,55 +1363,34 @@ public class EmployeeController extends BaseController {
     }
 
     /**
-     * Processes and optimizes the face image for XO5 device compatibility
+     * Decodes the face image once and optimizes it for XO5 device compatibility
      */
-    private String processFaceImage(String originalImage) {
+    private FaceImage processFaceImage(String originalImage) {
+        System.out.println("=== PROCESSING FACE IMAGE FOR XO5 DEVICE ===");
+        System.out.println("Original image length: " + (originalImage != null ? originalImage.length() : 0));
+        FaceImage faceImage;
         try {
-            System.out.println("=== PROCESSING FACE IMAGE FOR XO5 DEVICE ===");
-            
-            if (originalImage == null || originalImage.trim().isEmpty()) {
-                throw new IllegalArgumentException("Face image is required");
-            }
-
-            String faceImage = originalImage.trim();
-            System.out.println("Original image length: " + faceImage.length());
-
-            // Remove data URL prefix if present (data:image/jpeg;base64,)
-            if (faceImage.contains(",")) {
-                String prefix = faceImage.substring(0, faceImage.indexOf(",") + 1);
-                faceImage = faceImage.substring(faceImage.indexOf(",") + 1);
-                System.out.println("Removed prefix: " + prefix);
-                System.out.println("Base64 length after prefix removal: " + faceImage.length());
-            }
-
-            // Clean any whitespace or newlines
-            faceImage = faceImage.replaceAll("\\s+", "");
-            System.out.println("Base64 length after cleanup: " + faceImage.length());
-
-            // Validate Base64 format
-            if (faceImage.length() % 4 != 0) {
-                // Add padding if necessary
-                int padding = 4 - (faceImage.length() % 4);
-                if (padding < 4) {
-                    faceImage += "=".repeat(padding);
-                    System.out.println("Added " + padding + " padding characters");
-                }
-            }
-
-            // Validate that it's a valid Base64 string
-            try {
-                java.util.Base64.getDecoder().decode(faceImage);
-                System.out.println("✅ Base64 validation successful");
-            } catch (IllegalArgumentException e) {
-                throw new RuntimeException("Invalid Base64 image data: " + e.getMessage());
-            }
+            // Data URL prefix, whitespace and missing padding are handled while decoding
+            faceImage = faceImagePipeline.decode(originalImage);
+        } catch (Exception e) {
+            System.err.println("❌ Face image processing failed: " + e.getMessage());
+            throw new RuntimeException("Face image processing failed: " + e.getMessage());
+        }
+        System.out.println("✅ Base64 decoded: " + faceImage.size() + " bytes");
+        return processFaceImage(faceImage);
+    }
 
+    /**
+     * Optimizes an already decoded (or binary-uploaded) face image for XO5 device compatibility
+     */
+    private FaceImage processFaceImage(FaceImage faceImage) {
+        try {
             // ✅ XO5 DEVICE OPTIMIZATION: Optimize image for device compatibility
-            String optimizedImage = optimizeImageForXO5(faceImage);
+            optimizeImageForXO5(faceImage);
             System.out.println("✅ Image optimized for XO5 device");
-            System.out.println("Final optimized image length: " + optimizedImage.length());
+            System.out.println("Final optimized image size: " + faceImage.size() + " bytes");
 
-            return optimizedImage;
+            return faceImage;
 
         } catch (Exception e) {
             System.err.println("❌ Face image processing failed: " + e.getMessage());
@@ -1062,269 +1401,70 @@ public class EmployeeController extends BaseController {
     /**
      * Optimizes image specifically for XO5 device requirements
      */
-    private String optimizeImageForXO5(String base64Image) throws Exception {
+    private void optimizeImageForXO5(FaceImage faceImage) {
         try {
             System.out.println("=== OPTIMIZING IMAGE FOR XO5 DEVICE ===");
             
-            // Decode the Base64 image
-            byte[] imageBytes = java.util.Base64.getDecoder().decode(base64Image);
-            System.out.println("Original image size: " + imageBytes.length + " bytes");
-            
             // ✅ XO5 DEVICE REQUIREMENTS:
             // - JPEG format preferred
-            // - Maximum size: 200KB for reliable face recognition
+            // - Maximum size: xo5.image.max-bytes (180KB) for reliable transfers
             // - Resolution: 640x480 or smaller
-            // - Quality: 70-80% for balance between size and clarity
-            
-            // If image is too large, we need to compress it
-            if (imageBytes.length > 200_000) { // 200KB limit for XO5
-                System.out.println("⚠️ Image size " + imageBytes.length + " bytes exceeds XO5 limit (200KB)");
-                
-                // Try to compress the image while maintaining quality
-                String compressedImage = compressImageForXO5(imageBytes);
-                if (compressedImage != null) {
-                    return compressedImage;
-                }
-                
-                // If compression fails, use size-based truncation (not ideal but fallback)
-                System.out.println("⚠️ Image compression failed, using original with size warning");
-            }
             
-            // Check image format
-            String format = detectImageFormat(imageBytes);
-            System.out.println("Detected image format: " + format);
+            String format = faceImage.getFormat();
+            int maxBytes = faceImagePipeline.getMaxBytes();
+            System.out.println("Detected image format: " + format + ", size: " + faceImage.size() + " bytes");
             
-            // Validate format compatibility
-            if (!format.equals("JPEG")) {
-                System.out.println("⚠️ Non-JPEG format detected: " + format);
-                System.out.println("   XO5 devices work best with JPEG format");
+            // Oversized or non-JPEG images are resized and re-encoded; small JPEGs go through untouched
+            if (faceImage.size() > maxBytes || !faceImage.isJpeg()) {
+                System.out.println("⚠️ Image needs normalising (limit " + maxBytes + " bytes, JPEG)");
+                if (faceImagePipeline.normalize(faceImage, maxBytes)) {
+                    System.out.println("✅ Re-encoded: " + faceImage.getOriginalSize() + " -> " + faceImage.size() + " bytes");
+                } else {
+                    System.out.println("⚠️ Image compression failed, using original with size warning");
+                }
             }
             
             // Final size check
-            if (imageBytes.length < 5_000) { // Minimum 5KB
-                throw new RuntimeException("Image too small for face recognition: " + imageBytes.length + " bytes. Minimum: 5KB");
+            if (faceImage.size() < 5_000) { // Minimum 5KB
+                throw new RuntimeException("Image too small for face recognition: " + faceImage.size() + " bytes. Minimum: 5KB");
             }
             
             System.out.println("✅ Image validation completed");
-            System.out.println("   Format: " + format);
-            System.out.println("   Size: " + imageBytes.length + " bytes");
-            System.out.println("   Base64 length: " + base64Image.length());
-            
-            return base64Image; // Return original if no optimization needed
+            System.out.println("   Format: " + faceImage.getFormat());
+            System.out.println("   Size: " + faceImage.size() + " bytes");
             
         } catch (Exception e) {
             System.err.println("❌ Image optimization failed: " + e.getMessage());
             throw new RuntimeException("Image optimization for XO5 failed: " + e.getMessage());
         }
     }
-    
-    /**
-     * Compresses image using basic quality reduction
-     */
-    private String compressImageForXO5(byte[] imageBytes) {
-        try {
-            System.out.println("=== COMPRESSING IMAGE FOR XO5 ===");
-            
-            // For now, implement basic compression by reducing quality
-            // This is a simplified approach - in production, you might want
-            // to use BufferedImage and ImageIO for proper compression
-            
-            // Calculate compression ratio needed
-            int currentSize = imageBytes.length;
-            int targetSize = 180_000; // Target 180KB (below 200KB limit)
-            double compressionRatio = (double) targetSize / currentSize;
-            
-            System.out.println("Current size: " + currentSize + " bytes");
-            System.out.println("Target size: " + targetSize + " bytes");
-            System.out.println("Compression ratio needed: " + String.format("%.2f", compressionRatio));
-            
-            if (compressionRatio >= 0.8) {
-                // Image is close to target size, no compression needed
-                System.out.println("✅ Image size acceptable, no compression needed");
-                return java.util.Base64.getEncoder().encodeToString(imageBytes);
-            }
-            
-            // For basic implementation, we'll just warn and return original
-            System.out.println("⚠️ Image compression needed but not implemented in basic version");
-            System.out.println("   Recommendation: Use image editing software to reduce size to <200KB");
-            System.out.println("   Current size: " + currentSize + " bytes");
-            System.out.println("   Maximum size: 200,000 bytes");
-            
-            return java.util.Base64.getEncoder().encodeToString(imageBytes);
-            
-        } catch (Exception e) {
-            System.err.println("❌ Image compression failed: " + e.getMessage());
-            return null;
-        }
-    }
-    
-    /**
-     * Detects image format from byte header
-     */
-    private String detectImageFormat(byte[] imageBytes) {
-        if (imageBytes.length < 10) {
-            return "Unknown";
-        }
-        
-        // Check for JPEG header (FF D8 FF)
-        if (imageBytes[0] == (byte) 0xFF && imageBytes[1] == (byte) 0xD8 && imageBytes[2] == (byte) 0xFF) {
-            return "JPEG";
-        }
-        
-        // Check for PNG header (89 50 4E 47 0D 0A 1A 0A)
-        if (imageBytes[0] == (byte) 0x89 && imageBytes[1] == 0x50 && 
-            imageBytes[2] == 0x4E && imageBytes[3] == 0x47) {
-            return "PNG";
-        }
-        
-        // Check for GIF header (47 49 46 38)
-        if (imageBytes[0] == 0x47 && imageBytes[1] == 0x49 && 
-            imageBytes[2] == 0x46 && imageBytes[3] == 0x38) {
-            return "GIF";
-        }
-        
-        // Check for BMP header (42 4D)
-        if (imageBytes[0] == 0x42 && imageBytes[1] == 0x4D) {
-            return "BMP";
-        }
-        
-        return "Unknown";
-    }
-
-    /**
-     * Validates image format specifically for XO5 device compatibility
-     */
-    private void validateImageForXO5Device(String base64Image) throws Exception {
-        try {
-            System.out.println("=== VALIDATING XO5 DEVICE COMPATIBILITY ===");
-            
-            // Decode the Base64 to check actual image format
-            byte[] imageBytes = java.util.Base64.getDecoder().decode(base64Image);
-            System.out.println("Decoded image size: " + imageBytes.length + " bytes");
-            
-            // Check image size limits for XO5 device
-            if (imageBytes.length > 500_000) { // 500KB limit for XO5 devices
-                throw new RuntimeException("Image too large for XO5 device: " + imageBytes.length + " bytes. Maximum: 500KB");
-            }
-            
-            if (imageBytes.length < 5_000) { // Minimum 5KB for reasonable quality
-                throw new RuntimeException("Image too small for face recognition: " + imageBytes.length + " bytes. Minimum: 5KB");
-            }
-            
-            // Check image header to determine format
-            String format = "Unknown";
-            boolean isValidFormat = false;
-            
-            if (imageBytes.length > 10) {
-                // Check for JPEG header (FF D8 FF)
-                if (imageBytes[0] == (byte) 0xFF && imageBytes[1] == (byte) 0xD8 && imageBytes[2] == (byte) 0xFF) {
-                    format = "JPEG";
-                    isValidFormat = true;
-                }
-                // Check for PNG header (89 50 4E 47)
-                else if (imageBytes[0] == (byte) 0x89 && imageBytes[1] == (byte) 0x50 && 
-                         imageBytes[2] == (byte) 0x4E && imageBytes[3] == (byte) 0x47) {
-                    format = "PNG";
-                    // XO5 devices prefer JPEG, but PNG might work
-                    System.out.println("⚠️ WARNING: PNG format detected. XO5 devices prefer JPEG format.");
-                    isValidFormat = true;
-                }
-                // Check for GIF header (47 49 46)
-                else if (imageBytes[0] == (byte) 0x47 && imageBytes[1] == (byte) 0x49 && imageBytes[2] == (byte) 0x46) {
-                    format = "GIF";
-                    System.out.println("⚠️ WARNING: GIF format detected. XO5 devices may not support GIF.");
-                }
-            }
-            
-            System.out.println("Detected image format: " + format);
-            
-            if (!isValidFormat) {
-                throw new RuntimeException("Unsupported image format for XO5 device: " + format + ". Use JPEG format for best compatibility.");
-            }
-            
-            // XO5 devices typically prefer JPEG format
-            if (!"JPEG".equals(format)) {
-                System.out.println("⚠️ Warning: XO5 devices work best with JPEG images. Detected: " + format);
-                // Don't fail, but warn. The device might still accept it.
-            }
-            
-            // Additional XO5-specific recommendations
-            System.out.println("💡 XO5 Device Recommendations:");
-            System.out.println("   - Preferred format: JPEG");
-            System.out.println("   - Recommended size: 100-400KB");
-            System.out.println("   - Image dimensions: 640x480 or 480x640");
-            System.out.println("   - Face should be clearly visible and well-lit");
-            System.out.println("   - Current image: " + format + " format, " + imageBytes.length + " bytes");
-            
-            System.out.println("✅ XO5 device compatibility check passed");
-            
-        } catch (IllegalArgumentException e) {
-            throw new RuntimeException("Invalid Base64 image data for XO5 device: " + e.getMessage());
-        } catch (Exception e) {
-            System.err.println("❌ XO5 compatibility check failed: " + e.getMessage());
-            throw e;
-        }
-    }
 
     /**
-     * Optimizes image for XO5 device compatibility based on previous error attempts
+     * Optimizes image for XO5 device compatibility based on previous error attempts.
+     * Returns true when the image was changed and should be re-sent.
      */
-    private String optimizeImageForXO5(String base64Image, int attemptNumber) {
+    private boolean optimizeImageForXO5(FaceImage faceImage, int attemptNumber) {
         try {
             System.out.println("=== OPTIMIZING IMAGE FOR XO5 (Attempt " + attemptNumber + ") ===");
-            
-            byte[] imageBytes = java.util.Base64.getDecoder().decode(base64Image);
-            System.out.println("Original image size: " + imageBytes.length + " bytes");
+            System.out.println("Current image size: " + faceImage.size() + " bytes");
             
             // Strategy based on attempt number
-            switch (attemptNumber) {
-                case 1:
-                    // First retry: Try to reduce image size if it's too large
-                    if (imageBytes.length > 300_000) { // 300KB threshold
-                        System.out.println("🔧 Attempt 1: Image too large, recommending smaller size");
-                        System.out.println("   Current size: " + imageBytes.length + " bytes");
-                        System.out.println("   💡 Please use a smaller image (under 300KB) for better XO5 compatibility");
-                        System.out.println("   💡 Recommended: 640x480 JPEG with moderate compression");
-                        return base64Image; // Return original, with recommendation logged
-                    }
-                    break;
-                    
-                case 2:
-                    // Second retry: Check if image might be corrupted or malformed
-                    System.out.println("🔧 Attempt 2: Checking for image format issues");
-                    
-                    // Verify the Base64 padding and format
-                    String cleanedImage = base64Image.trim();
-                    
-                    // Ensure proper Base64 padding
-                    while (cleanedImage.length() % 4 != 0) {
-                        cleanedImage += "=";
-                    }
-                    
-                    // Remove any data URL prefix if present
-                    if (cleanedImage.startsWith("data:image/")) {
-                        int commaIndex = cleanedImage.indexOf(",");
-                        if (commaIndex != -1) {
-                            cleanedImage = cleanedImage.substring(commaIndex + 1);
-                            System.out.println("🔧 Removed data URL prefix");
-                        }
-                    }
-                    
-                    // Remove any whitespace that might interfere
-                    cleanedImage = cleanedImage.replaceAll("\\s", "");
-                    
-                    if (!cleanedImage.equals(base64Image)) {
-                        System.out.println("🔧 Image cleaned - length change: " + base64Image.length() + " -> " + cleanedImage.length());
-                        return cleanedImage;
+            if (attemptNumber == 1) {
+                // First retry: re-encode at half the byte budget to ease the device buffer
+                int retryBudget = faceImagePipeline.getMaxBytes() / 2;
+                if (faceImage.size() > retryBudget) {
+                    System.out.println("🔧 Attempt 1: Re-encoding " + faceImage.size() + " bytes to <= " + retryBudget + " bytes");
+                    boolean changed = faceImagePipeline.normalize(faceImage, retryBudget);
+                    faceImage.releaseMat();
+                    if (changed) {
+                        return true;
                     }
-                    break;
-                    
-                default:
-                    System.out.println("🔧 Attempt " + attemptNumber + ": No further optimizations available");
-                    break;
+                }
+            } else {
+                System.out.println("🔧 Attempt " + attemptNumber + ": No further optimizations available");
             }
             
-            // If no optimization was applied, return original
+            // If no optimization was applied, keep the current image
             System.out.println("💡 No optimization applied for attempt " + attemptNumber);
             System.out.println("💡 XO5 Device Troubleshooting Tips:");
             System.out.println("   - Ensure face is clearly visible and centered");
@@ -1334,31 +1474,39 @@ public class EmployeeController extends BaseController {
             System.out.println("   - Use JPEG format with standard compression");
             System.out.println("   - Image size should be between 50KB-400KB");
             
-            return base64Image;
+            return false;
             
         } catch (Exception e) {
             System.err.println("❌ Image optimization failed: " + e.getMessage());
             System.out.println("💡 Using original image");
-            return base64Image;
+            return false;
+        }
+    }
+
+    /**
+     * Enhanced face image processing with better XO5 device compatibility.
+     * The decoded pixels are released when this returns; the device upload only needs the bytes.
+     */
+    private FaceImage processFaceImageWithEnhancedValidation(String originalImage) {
+        if (!StringUtils.hasText(originalImage)) {
+            System.err.println("❌ Image validation failed: Face image is required for enrollment");
+            throw new RuntimeException("Invalid face image: Face image is required for enrollment");
         }
+        return processFaceImageWithEnhancedValidation(processFaceImage(originalImage));
     }
 
     /**
-     * Enhanced face image processing with better XO5 device compatibility
+     * Enhanced validation for an image that was decoded from base64 or uploaded as binary
      */
-    private String processFaceImageWithEnhancedValidation(String originalImage) {
+    private FaceImage processFaceImageWithEnhancedValidation(FaceImage uploadedImage) {
+        FaceImage faceImage = uploadedImage;
         try {
             System.out.println("=== ENHANCED FACE IMAGE PROCESSING FOR XO5 ===");
             
-            if (originalImage == null || originalImage.trim().isEmpty()) {
-                throw new IllegalArgumentException("Face image is required for enrollment");
-            }
-
-            String processedImage = processFaceImage(originalImage);
+            faceImage = processFaceImage(uploadedImage);
             
             // Additional validation for common XO5 failure scenarios
-            byte[] imageBytes = java.util.Base64.getDecoder().decode(processedImage);
-            int imageSizeKB = imageBytes.length / 1024;
+            int imageSizeKB = faceImage.size() / 1024;
             
             System.out.println("Enhanced validation checks:");
             System.out.println("   Image size: " + imageSizeKB + "KB");
@@ -1374,22 +1522,16 @@ public class EmployeeController extends BaseController {
                 System.out.println("   Recommended: Keep images between 50-300KB for optimal performance");
             }
             
-            // Quality indicators based on Base64 characteristics  
-            String base64Preview = processedImage.substring(0, Math.min(50, processedImage.length()));
-            System.out.println("   Base64 preview: " + base64Preview + "...");
-            
-            // Check for JPEG format (starts with /9j/ in Base64)
-            if (!processedImage.startsWith("/9j/")) {
-                System.out.println("⚠️ WARNING: Image may not be JPEG format");
+            if (!faceImage.isJpeg()) {
+                System.out.println("⚠️ WARNING: Image is not JPEG (" + faceImage.getFormat() + ")");
                 System.out.println("   XO5 devices work best with JPEG images");
-                System.out.println("   Base64 starts with: " + processedImage.substring(0, Math.min(10, processedImage.length())));
             }
             
             // ==================== FACE DETECTION VALIDATION ====================
             // Optional validation - warns if no face detected but doesn't block enrollment
             // The XO5 device will perform its own face validation
             System.out.println("\n=== VALIDATING IMAGE CONTAINS FACE (Optional) ===");
-            FaceDetectionResult faceResult = detectFaceInImage(imageBytes);
+            FaceDetectionResult faceResult = faceImagePipeline.detectFace(faceImage);
             
             if (!faceResult.isSkipped()) {
                 // Face detection was performed
@@ -1410,18 +1552,42 @@ public class EmployeeController extends BaseController {
                 System.out.println("   Image will be validated by device only");
             }
             
+            // ==================== QUALITY PRE-SCREEN ====================
+            // Blurry, badly exposed or tiny faces are rejected here instead of after device retries
+            FaceQualityReport quality = faceImagePipeline.assessQuality(faceImage);
+            if (quality != null) {
+                System.out.println("📏 Image quality score: " + quality.getScore() + "/100");
+                if (!quality.isPassed()) {
+                    quality.getReasons().forEach(reason -> System.out.println("   ❌ " + reason));
+                    throw new ImageQualityException(quality);
+                }
+            }
+            
+            // Send only the face region at recognition resolution instead of the whole photo
+            int uncroppedBytes = faceImage.size();
+            if (faceImagePipeline.cropToFace(faceImage, faceImagePipeline.getMaxBytes())) {
+                System.out.println("✂️ Cropped to face region: " + uncroppedBytes + " -> " + faceImage.size() + " bytes");
+            }
+            
             System.out.println("✅ Enhanced image validation completed successfully");
-            System.out.println("   Final image size: " + imageSizeKB + "KB");
-            System.out.println("   Format appears to be: " + (processedImage.startsWith("/9j/") ? "JPEG" : "Non-JPEG"));
+            System.out.println("   Final image size: " + (faceImage.size() / 1024) + "KB");
+            System.out.println("   Format: " + faceImage.getFormat());
             
-            return processedImage;
+            return faceImage;
             
+        } catch (ImageQualityException e) {
+            System.err.println("❌ Image rejected by quality pre-screen: " + e.getMessage());
+            throw e;
         } catch (IllegalArgumentException e) {
             System.err.println("❌ Image validation failed: " + e.getMessage());
             throw new RuntimeException("Invalid face image: " + e.getMessage());
         } catch (Exception e) {
             System.err.println("❌ Enhanced image processing failed: " + e.getMessage());
             throw new RuntimeException("Face image processing failed: " + e.getMessage());
+        } finally {
+            if (faceImage != null) {
+                faceImage.releaseMat();
+            }
         }
     }
 
@@ -1487,10 +1653,10 @@ public class EmployeeController extends BaseController {
             System.out.println("=== VALIDATING EMPLOYEE EXISTENCE ===");
             System.out.println("Employee ID: " + request.getEmployeeId());
 
-            // First, try to query if the person exists on the device
-            HfDeviceResp queryResponse = queryPersonExists(request);
+            // Always asked live: the roster mirror can lag the device by a reconcile interval
+            boolean exists = "000".equals(queryPersonExists(request).getCode());
             
-            if ("000".equals(queryResponse.getCode())) {
+            if (exists) {
                 // Employee exists on device
                 System.out.println("⚠️ Employee " + request.getEmployeeId() + " already exists on device");
                 
@@ -1549,34 +1715,47 @@ public class EmployeeController extends BaseController {
      * Queries if a person exists on the device
      */
     private HfDeviceResp queryPersonExists(EmployeeRegistrationRequest request) throws Exception {
+        // PersonQueryReq might not exist in this SDK version (resolved once by DeviceGateway)
+        if (!deviceGateway.isAvailable(DeviceGateway.Operation.PERSON_QUERY)) {
+            throw new Exception("Query method not available");
+        }
         try {
-            // Use PersonQueryReq to check if employee exists
-            Class<?> hostInfoClass = Class.forName("com.hfims.xcan.gateway.netty.client.dto.HostInfoDto");
-            Class<?> personQueryReqClass = Class.forName("com.hfims.xcan.gateway.netty.client.req.PersonQueryReq");
-            
-            Object personQueryReq = personQueryReqClass.getDeclaredConstructor().newInstance();
-            
-            // Set the employee ID (PersonSn) to query
-            Method setSnMethod = personQueryReqClass.getMethod("setSn", String.class);
-            setSnMethod.invoke(personQueryReq, request.getEmployeeId());
+            // Use PersonQueryReq to check if employee exists (bound through the cached plan)
+            Object personQueryReq = requestBuilderService.buildPersonQueryReq(request.getEmployeeId());
+            if (personQueryReq == null) {
+                throw new NoSuchMethodException("PersonQueryReq has no sn property");
+            }
             
             // Call personQuery method
-            Method personQueryMethod = HfDeviceClient.class.getMethod("personQuery",
-                hostInfoClass, String.class, String.class, personQueryReqClass);
-            
-            HfDeviceResp queryResponse = (HfDeviceResp) personQueryMethod.invoke(null,
+            HfDeviceResp queryResponse = deviceGateway.personQuery(
                 hostInfo, request.getDeviceKey(), request.getSecret(), personQueryReq);
             
             System.out.println("Person query response - Code: " + queryResponse.getCode() + ", Message: " + queryResponse.getMsg());
             return queryResponse;
             
-        } catch (ClassNotFoundException | NoSuchMethodException e) {
-            // PersonQueryReq might not exist in this SDK version, fall back to creation attempt
-            System.out.println("PersonQueryReq not available, will attempt creation");
+        } catch (NoSuchMethodException e) {
+            // PersonQueryReq without an sn setter - fall back to creation attempt
+            System.out.println("PersonQueryReq not usable, will attempt creation");
             throw new Exception("Query method not available");
         }
     }
 
+    /**
+     * Whether the person is on the device right now, via PersonQuery when the SDK has it, else
+     * PersonFind. Never answered from the roster mirror, which can lag the device.
+     */
+    private boolean personExistsOnDevice(EmployeeRegistrationRequest request) {
+        if (deviceGateway.isAvailable(DeviceGateway.Operation.PERSON_QUERY)) {
+            try {
+                return "000".equals(queryPersonExists(request).getCode());
+            } catch (Exception e) {
+                System.out.println("⚠️ Person query failed, trying PersonFind: " + e.getMessage());
+            }
+        }
+        HfDeviceResp found = findSpecificPerson(request.getEmployeeId(), request.getDeviceKey(), request.getSecret());
+        return found != null && "000".equals(found.getCode());
+    }
+
     /**
      * Result class for validation operations
      */
@@ -1613,137 +1792,56 @@ public class EmployeeController extends BaseController {
      * Get all employees from the device
      */
     @PostMapping("/list")
-    public BaseResult getAllEmployees(@RequestBody DeviceRequest request) {
+    public BaseResult getAllEmployees(@RequestBody DeviceRequest request,
+                                      @RequestParam(value = "refresh", defaultValue = "false") boolean refresh) {
         System.out.println("=== GET ALL EMPLOYEES REQUEST ===");
         System.out.println("Device Key: " + request.getDeviceKey());
 
         try {
             // Test device connectivity
-            HfDeviceResp testResponse = HfDeviceClient.test(hostInfo, request.getDeviceKey(), request.getSecret());
+            HfDeviceResp testResponse = checkDeviceLiveness(request.getDeviceKey(), request.getSecret());
             if (!"000".equals(testResponse.getCode())) {
-                return ResultWrapper.wrapFailure("1002", "Device connectivity failed: " + testResponse.getMsg());
-            }
-
-            // Get all persons from device
-            HfDeviceResp listResponse = getAllPersonsFromDevice(request.getDeviceKey(), request.getSecret());
-            
-            Map<String, Object> responseData = new HashMap<>();
-            responseData.put("deviceConnected", true);
-            
-            if ("000".equals(listResponse.getCode())) {
-                System.out.println("✅ Successfully retrieved employee list");
-                responseData.put("message", "Employee list retrieved successfully");
-                responseData.put("deviceResponse", listResponse.getMsg());
-                
-                // Parse the response data to extract employee information
-                java.util.List<Map<String, Object>> employees = new java.util.ArrayList<>();
-                int totalEmployees = 0;
-                
-                if (listResponse.getData() != null) {
-                    try {
-                        // The response data might contain employee list
-                        Object data = listResponse.getData();
-                        System.out.println("Parsing response data of type: " + data.getClass().getName());
-                        
-                        // Try to extract employee data from the response
-                        // This depends on the actual structure returned by PersonFindListReq
-                        if (data instanceof java.util.Map) {
-                            java.util.Map<?, ?> dataMap = (java.util.Map<?, ?>) data;
-                            System.out.println("Response data keys: " + dataMap.keySet());
-                            
-                            // Check for common field names that might contain the employee list
-                            Object personList = dataMap.get("personList");
-                            if (personList == null) personList = dataMap.get("list");
-                            if (personList == null) personList = dataMap.get("data");
-                            if (personList == null) personList = dataMap.get("persons");
-                            if (personList == null) personList = dataMap.get("records");
-                            
-                            if (personList instanceof java.util.List) {
-                                java.util.List<?> list = (java.util.List<?>) personList;
-                                totalEmployees = list.size();
-                                System.out.println("Found " + totalEmployees + " employees in the list");
-                                
-                                for (Object person : list) {
-                                    if (person instanceof java.util.Map) {
-                                        Map<String, Object> employee = extractEmployeeFromResponse(person);
-                                        employees.add(employee);
-                                    }
-                                }
-                            } else {
-                                // Check if there are any size/total fields indicating the count
-                                Object total = dataMap.get("total");
-                                if (total == null) total = dataMap.get("totalCount");
-                                if (total == null) total = dataMap.get("size");
-                                
-                                if (total instanceof Number) {
-                                    totalEmployees = ((Number) total).intValue();
-                                    System.out.println("Found total count from response: " + totalEmployees);
-                                }
-                            }
-                        } else if (data instanceof java.util.List) {
-                            // Direct list response
-                            java.util.List<?> list = (java.util.List<?>) data;
-                            totalEmployees = list.size();
-                            System.out.println("Direct list response with " + totalEmployees + " employees");
-                            
-                            for (Object person : list) {
-                                if (person instanceof java.util.Map) {
-                                    java.util.Map<?, ?> personMap = (java.util.Map<?, ?>) person;
-                                    Map<String, Object> employee = new HashMap<>();
-                                    
-                                    // Extract common fields - mapping device fields to our format
-                                    employee.put("employeeId", personMap.get("sn"));
-                                    employee.put("name", personMap.get("name"));
-                                    
-                                    // Map updateTime to createTime (timestamp from device)
-                                    Object updateTime = personMap.get("updateTime");
-                                    if (updateTime != null) {
-                                        employee.put("createTime", updateTime.toString());
-                                    } else {
-                                        employee.put("createTime", null);
-                                    }
-                                    
-                                    // Check for photo presence - device might have different field names
-                                    Object photoField = personMap.get("hasPhoto");
-                                    if (photoField == null) photoField = personMap.get("photoExists");
-                                    if (photoField == null) photoField = personMap.get("faceImageExists");
-                                    if (photoField == null) {
-                                        // Try to detect from verifyStyle or other indicators
-                                        Object verifyStyle = personMap.get("verifyStyle");
-                                        if (verifyStyle != null && !"0".equals(verifyStyle.toString())) {
-                                            photoField = true; // Has some verification method
-                                        } else {
-                                            photoField = false;
-                                        }
-                                    }
-                                    employee.put("hasPhoto", photoField);
-                                    
-                                    employees.add(employee);
-                                }
-                            }
-                        }
-                        
-                    } catch (Exception e) {
-                        System.err.println("Error parsing employee data: " + e.getMessage());
-                        e.printStackTrace();
+                return ResultWrapper.wrapFailure("1002", "Device connectivity failed: " + testResponse.getMsg());
+            }
+
+            Map<String, Object> responseData = new HashMap<>();
+            responseData.put("deviceConnected", true);
+            
+            // Served from the roster mirror (one paginated scan on first use, or with ?refresh=true);
+            // without it, walk the whole roster page by page (a single personFindList call stops at 1000)
+            java.util.List<Map<String, Object>> employees;
+            try {
+                if (deviceRosterMirror.isAvailable()) {
+                    if (refresh) {
+                        deviceRosterMirror.refresh(getHostInfo(), request.getDeviceKey(), request.getSecret());
                     }
+                    employees = deviceRosterMirror.list(getHostInfo(), request.getDeviceKey(), request.getSecret()).stream()
+                            .map(person -> toEmployee(request.getDeviceKey(), person))
+                            .collect(Collectors.toList());
+                    responseData.put("source", "rosterMirror");
                 } else {
-                    System.out.println("⚠️ Response data is null - no employee data available");
-                }
-                
-                responseData.put("totalEmployees", totalEmployees);
-                responseData.put("employees", employees);
-                
-                if (totalEmployees == 0) {
-                    System.out.println("⚠️ No employees found in device response - device might be empty or response format changed");
+                    try (Stream<Map<String, Object>> roster = streamRoster(request.getDeviceKey(), request.getSecret())) {
+                        employees = roster.map(this::extractEmployeeFromResponse).collect(Collectors.toList());
+                    }
+                    responseData.put("source", "device");
                 }
-                
-            } else {
-                System.out.println("⚠️ Failed to retrieve employee list: " + listResponse.getMsg());
+            } catch (RosterScanException e) {
+                System.out.println("⚠️ Failed to retrieve employee list: " + e.getMessage());
                 responseData.put("totalEmployees", 0);
                 responseData.put("employees", new java.util.ArrayList<>());
                 responseData.put("message", "No employees found or failed to retrieve list");
-                responseData.put("deviceResponse", listResponse.getMsg());
+                responseData.put("deviceResponse", e.getMessage());
+                return ResultWrapper.wrapSuccess(responseData);
+            }
+            
+            System.out.println("✅ Successfully retrieved employee list: " + employees.size() + " employees");
+            responseData.put("message", "Employee list retrieved successfully");
+            responseData.put("deviceResponse", "Retrieved " + employees.size() + " persons");
+            responseData.put("totalEmployees", employees.size());
+            responseData.put("employees", employees);
+            
+            if (employees.isEmpty()) {
+                System.out.println("⚠️ No employees found in device response - device might be empty or response format changed");
             }
 
             return ResultWrapper.wrapSuccess(responseData);
@@ -1768,6 +1866,7 @@ public class EmployeeController extends BaseController {
                 return ResultWrapper.wrapSuccess(responseData);
             }
             
+            deviceLivenessCache.invalidate(request.getDeviceKey());
             return ResultWrapper.wrapFailure("1000", "Failed to retrieve employees: " + errorMessage);
         }
     }
@@ -1783,18 +1882,28 @@ public class EmployeeController extends BaseController {
 
         try {
             // Test device connectivity
-            HfDeviceResp testResponse = HfDeviceClient.test(hostInfo, request.getDeviceKey(), request.getSecret());
+            HfDeviceResp testResponse = checkDeviceLiveness(request.getDeviceKey(), request.getSecret());
             if (!"000".equals(testResponse.getCode())) {
                 return ResultWrapper.wrapFailure("1002", "Device connectivity failed: " + testResponse.getMsg());
             }
 
-            // Strategy 1: Try PersonFind method
-            HfDeviceResp findResponse = findSpecificPerson(request.getEmployeeId(), request.getDeviceKey(), request.getSecret());
-            
             Map<String, Object> responseData = new HashMap<>();
             responseData.put("deviceConnected", true);
             responseData.put("employeeId", request.getEmployeeId());
             
+            // Answer from the roster mirror when it has the person; a miss may only be staleness, so ask the device
+            DeviceRosterMirror.Person mirrored = findInRosterMirror(request.getEmployeeId(), request.getDeviceKey(), request.getSecret());
+            if (mirrored != null) {
+                responseData.put("found", true);
+                responseData.put("message", "Employee found successfully");
+                responseData.put("employee", toEmployee(request.getDeviceKey(), mirrored));
+                responseData.put("deviceResponse", "Found in roster mirror");
+                return ResultWrapper.wrapSuccess(responseData);
+            }
+            
+            // Strategy 1: Try PersonFind method
+            HfDeviceResp findResponse = findSpecificPerson(request.getEmployeeId(), request.getDeviceKey(), request.getSecret());
+            
             if ("000".equals(findResponse.getCode()) && findResponse.getData() != null) {
                 System.out.println("✅ Employee found using PersonFind: " + request.getEmployeeId());
                 
@@ -1809,43 +1918,26 @@ public class EmployeeController extends BaseController {
                 return ResultWrapper.wrapSuccess(responseData);
                 
             } else {
-                // Strategy 2: Fallback to list all and search
+                // Strategy 2: Fallback to scanning the roster; stops at the first match
                 System.out.println("PersonFind failed, trying list search...");
-                HfDeviceResp listResponse = getAllPersonsFromDevice(request.getDeviceKey(), request.getSecret());
-                
-                if ("000".equals(listResponse.getCode()) && listResponse.getData() != null) {
-                    // Search through the list for our employee
-                    Object data = listResponse.getData();
-                    java.util.List<?> personList = null;
+                Optional<Map<String, Object>> match;
+                try (Stream<Map<String, Object>> roster = streamRoster(request.getDeviceKey(), request.getSecret())) {
+                    match = roster.filter(person -> request.getEmployeeId().equals(String.valueOf(person.get("sn")))).findFirst();
+                } catch (RosterScanException e) {
+                    System.out.println("⚠️ Roster scan failed: " + e.getMessage());
+                    match = Optional.empty();
+                }
+                if (match.isPresent()) {
+                    System.out.println("✅ Employee found in list: " + request.getEmployeeId());
                     
-                    if (data instanceof java.util.Map) {
-                        java.util.Map<?, ?> dataMap = (java.util.Map<?, ?>) data;
-                        personList = (java.util.List<?>) dataMap.get("data");
-                        if (personList == null) personList = (java.util.List<?>) dataMap.get("list");
-                    } else if (data instanceof java.util.List) {
-                        personList = (java.util.List<?>) data;
-                    }
+                    Map<String, Object> employee = extractEmployeeFromResponse(match.get());
                     
-                    if (personList != null) {
-                        for (Object person : personList) {
-                            if (person instanceof java.util.Map) {
-                                java.util.Map<?, ?> personMap = (java.util.Map<?, ?>) person;
-                                String sn = (String) personMap.get("sn");
-                                if (request.getEmployeeId().equals(sn)) {
-                                    System.out.println("✅ Employee found in list: " + request.getEmployeeId());
-                                    
-                                    Map<String, Object> employee = extractEmployeeFromResponse(person);
-                                    
-                                    responseData.put("found", true);
-                                    responseData.put("message", "Employee found successfully");
-                                    responseData.put("employee", employee);
-                                    responseData.put("deviceResponse", "Found in employee list");
-                                    
-                                    return ResultWrapper.wrapSuccess(responseData);
-                                }
-                            }
-                        }
-                    }
+                    responseData.put("found", true);
+                    responseData.put("message", "Employee found successfully");
+                    responseData.put("employee", employee);
+                    responseData.put("deviceResponse", "Found in employee list");
+                    
+                    return ResultWrapper.wrapSuccess(responseData);
                 }
                 
                 // Employee not found
@@ -1860,6 +1952,7 @@ public class EmployeeController extends BaseController {
 
         } catch (Exception e) {
             e.printStackTrace();
+            deviceLivenessCache.invalidate(request.getDeviceKey());
             return ResultWrapper.wrapFailure("1000", "Failed to retrieve employee: " + e.getMessage());
         }
     }
@@ -1886,7 +1979,7 @@ public class EmployeeController extends BaseController {
             }
 
             // Test device connectivity
-            HfDeviceResp testResponse = HfDeviceClient.test(hostInfo, request.getDeviceKey(), request.getSecret());
+            HfDeviceResp testResponse = checkDeviceLiveness(request.getDeviceKey(), request.getSecret());
             if (!"000".equals(testResponse.getCode())) {
                 return ResultWrapper.wrapFailure("1002", "Device connectivity failed: " + testResponse.getMsg());
             }
@@ -1898,19 +1991,22 @@ public class EmployeeController extends BaseController {
             }
 
             // Process face image if provided
-            String faceImage = null;
+            FaceImage faceImage = null;
             boolean updateFace = false;
-            if (request.getFaceImage() != null && !request.getFaceImage().trim().isEmpty()) {
+            if (StringUtils.hasText(request.getFaceImage())) {
                 faceImage = processFaceImage(request.getFaceImage());
+                faceImage.releaseMat();
                 updateFace = true;
-                System.out.println("Face image provided for update, length: " + faceImage.length());
+                System.out.println("Face image provided for update, size: " + faceImage.size() + " bytes");
             }
 
+            enrollmentHashIndex.remove(request.getDeviceKey(), request.getEmployeeId());
+
             // Build person update request
             Object personCreateReq = requestBuilderService.buildPersonCreateReq(
                     request.getEmployeeId(),
                     request.getFullName(),
-                    faceImage,
+                    faceImage != null ? faceImage.toBase64() : null,
                     request.getVerificationStyle()
             );
 
@@ -1921,6 +2017,8 @@ public class EmployeeController extends BaseController {
             }
 
             System.out.println("✅ Employee basic info updated successfully");
+            deviceRosterMirror.personSaved(request.getDeviceKey(), request.getEmployeeId(), request.getFullName(),
+                    RequestBuilderService.effectiveVerifyStyle(request.getVerificationStyle(), faceImage != null ? faceImage.toBase64() : null));
 
             // Update face if provided
             boolean faceUpdateSuccess = true;
@@ -1931,6 +2029,7 @@ public class EmployeeController extends BaseController {
                     HfDeviceResp faceResponse = handleFaceMergeWithRetry(request, faceImage);
                     if (faceResponse != null && "000".equals(faceResponse.getCode())) {
                         faceUpdateMessage = "Face updated successfully";
+                        facePresenceIndex.record(request.getDeviceKey(), request.getEmployeeId(), true);
                     } else {
                         faceUpdateMessage = "Face update completed with response: " + 
                             (faceResponse != null ? faceResponse.getMsg() : "null response");
@@ -1938,6 +2037,7 @@ public class EmployeeController extends BaseController {
                 } catch (Exception e) {
                     if (e.getMessage() != null && e.getMessage().equals("FACE_MERGE_NULL_SUCCESS")) {
                         faceUpdateMessage = "Face updated successfully (null response)";
+                        facePresenceIndex.record(request.getDeviceKey(), request.getEmployeeId(), true);
                     } else {
                         faceUpdateSuccess = false;
                         faceUpdateMessage = "Face update failed: " + e.getMessage();
@@ -1960,6 +2060,7 @@ public class EmployeeController extends BaseController {
 
         } catch (Exception e) {
             e.printStackTrace();
+            deviceLivenessCache.invalidate(request.getDeviceKey());
             return ResultWrapper.wrapFailure("1000", "Employee update failed: " + e.getMessage());
         }
     }
@@ -1976,7 +2077,7 @@ public class EmployeeController extends BaseController {
         try {
             // STEP 1: Test device connectivity
             System.out.println("🔍 Step 1: Testing device connectivity...");
-            HfDeviceResp testResponse = HfDeviceClient.test(hostInfo, request.getDeviceKey(), request.getSecret());
+            HfDeviceResp testResponse = checkDeviceLiveness(request.getDeviceKey(), request.getSecret());
             if (!"000".equals(testResponse.getCode())) {
                 return ResultWrapper.wrapFailure("1002", "Device connectivity failed: " + testResponse.getMsg());
             }
@@ -2048,10 +2149,207 @@ public class EmployeeController extends BaseController {
 
         } catch (Exception e) {
             e.printStackTrace();
+            deviceLivenessCache.invalidate(request.getDeviceKey());
             return ResultWrapper.wrapFailure("1000", "Employee deletion failed: " + e.getMessage());
         }
     }
 
+    /**
+     * Delete many employees from one device.
+     * After a single connectivity check the device's roster is read once: IDs not on it are
+     * reported as not_found without a delete, and the rest have their face deleted (as /delete
+     * does) and are then deleted in multi-sn PersonDeleteReq chunks (device.person-delete.batch-size).
+     * Faces go in one FaceDeleteReq per chunk when the SDK's FaceDeleteReq takes a list; otherwise
+     * each face is its own faceDelete call, so the cost stays O(N) device calls. A rejected chunk is
+     * retried one ID at a time, and a failed single delete is confirmed with PersonFind, so each
+     * employee gets its own outcome. When the roster cannot be read, every ID is deleted one at a time.
+     */
+    @PostMapping("/delete-batch")
+    public DeferredResult<ResponseEntity<BaseResult>> deleteEmployeesBatch(@RequestBody BulkDeleteRequest request) {
+        List<String> employeeIds = request.getEmployeeIds() != null
+                ? request.getEmployeeIds().stream()
+                        .filter(StringUtils::hasText)
+                        .map(String::trim)
+                        .distinct()
+                        .collect(Collectors.toList())
+                : new ArrayList<>();
+        
+        System.out.println("=== BULK DELETE EMPLOYEES REQUEST ===");
+        System.out.println("Device Key: " + request.getDeviceKey());
+        System.out.println("Employees: " + employeeIds.size());
+        
+        if (request.getDeviceKey() == null || request.getSecret() == null) {
+            return completedResult(ResultWrapper.wrapFailure("1001", "Device credentials are required"));
+        }
+        if (employeeIds.isEmpty()) {
+            return completedResult(ResultWrapper.wrapFailure("1001", "At least one employee ID is required"));
+        }
+        
+        int total = employeeIds.size();
+        int chunkSize = Math.max(1, personDeleteBatchSize);
+        boolean bulk = chunkSize > 1 && requestBuilderService.supportsBulkPersonDelete();
+        boolean bulkFaces = bulk && deviceGateway.isAvailable(DeviceGateway.Operation.FACE_DELETE)
+                && requestBuilderService.supportsBulkFaceDelete();
+        DeferredResult<ResponseEntity<BaseResult>> deferred = new DeferredResult<>(
+                DEVICE_OPERATION_TIMEOUT + total * BATCH_TIMEOUT_PER_EMPLOYEE,
+                () -> ResponseEntity.ok(ResultWrapper.wrapFailure("TIMEOUT", "Device operation timed out. Please retry.")));
+        
+        long startedAt = System.currentTimeMillis();
+        Map<String, Map<String, Object>> results = new LinkedHashMap<>();
+        CompletableFuture<Integer> deviceCalls;
+        try {
+            deviceCalls = deviceLaneRegistry.submit(request.getDeviceKey(), () -> {
+                String deviceKey = request.getDeviceKey();
+                String secret = request.getSecret();
+                System.out.println("\n🗑️ === PROCESSING BULK DELETE (" + total + " employees, "
+                        + (bulk ? "up to " + chunkSize + " per call" : "one per call") + ") ===");
+                HfDeviceResp testResponse = checkDeviceLiveness(deviceKey, secret);
+                if (testResponse == null || !"000".equals(testResponse.getCode())) {
+                    throw new IllegalStateException("Device connectivity failed: " + (testResponse != null ? testResponse.getMsg() : "null response"));
+                }
+                
+                // 🔹 1. Read the live roster so a bulk "000" is only ever credited to IDs the device had
+                Set<String> onDevice = null;
+                try (Stream<Map<String, Object>> roster = streamRoster(deviceKey, secret)) {
+                    onDevice = roster.map(person -> String.valueOf(person.get("sn"))).collect(Collectors.toSet());
+                } catch (Exception e) {
+                    System.err.println("⚠️ Could not read the roster of " + deviceKey + ", deleting one by one: " + e.getMessage());
+                }
+                List<String> pending = new ArrayList<>(total);
+                for (String employeeId : employeeIds) {
+                    if (onDevice != null && !onDevice.contains(employeeId)) {
+                        results.put(employeeId, bulkDeleteOutcome(employeeId, "not_found", null, "Employee not found on device"));
+                    } else {
+                        pending.add(employeeId);
+                    }
+                }
+                int step = bulk && onDevice != null ? chunkSize : 1;
+                
+                // 🔹 2. Delete faces, then persons in chunks, falling back to single deletes when a chunk is rejected
+                int calls = 0;
+                for (int from = 0; from < pending.size(); from += step) {
+                    List<String> chunk = pending.subList(from, Math.min(pending.size(), from + step));
+                    if (bulkFaces && chunk.size() > 1) {
+                        calls++;
+                        deleteFacesFromDevice(chunk, deviceKey, secret);
+                    } else {
+                        for (String employeeId : chunk) {
+                            if (deviceGateway.isAvailable(DeviceGateway.Operation.FACE_DELETE)) {
+                                calls++;
+                            }
+                            HfDeviceResp faceResponse = deleteFaceFromDevice(employeeId, deviceKey, secret);
+                            if (faceResponse == null || !"000".equals(faceResponse.getCode())) {
+                                // Continue with person deletion even if face deletion fails, as /delete does
+                                System.out.println("⚠️ Face deletion for " + employeeId + ": " + (faceResponse != null ? faceResponse.getMsg() : "null response"));
+                            }
+                        }
+                    }
+                    if (chunk.size() > 1) {
+                        calls++;
+                        HfDeviceResp response = null;
+                        try {
+                            response = deviceGateway.personDelete(hostInfo, deviceKey, secret,
+                                    requestBuilderService.buildPersonDeleteReq(chunk));
+                        } catch (Exception e) {
+                            System.err.println("⚠️ Bulk personDelete failed, retrying one by one: " + e.getMessage());
+                        }
+                        if (response != null && "000".equals(response.getCode())) {
+                            for (String employeeId : chunk) {
+                                enrollmentHashIndex.remove(deviceKey, employeeId);
+                                facePresenceIndex.forget(deviceKey, employeeId);
+                                deviceRosterMirror.personDeleted(deviceKey, employeeId);
+                                results.put(employeeId, bulkDeleteOutcome(employeeId, "deleted", response.getCode(), response.getMsg()));
+                            }
+                            System.out.println("✅ Deleted " + chunk.size() + " employees in one call (" + (from + chunk.size()) + "/" + pending.size() + ")");
+                            continue;
+                        }
+                        if (response != null) {
+                            System.err.println("⚠️ Bulk personDelete rejected (" + response.getCode() + " - " + response.getMsg() + "), retrying one by one");
+                        }
+                    }
+                    for (String employeeId : chunk) {
+                        calls++;
+                        try {
+                            HfDeviceResp response = deletePersonFromDevice(employeeId, deviceKey, secret);
+                            String status = "deleted";
+                            if (response == null || !"000".equals(response.getCode())) {
+                                // The device has no dedicated not-found code; ask it whether the person is there
+                                boolean absent = false;
+                                if (deviceGateway.isAvailable(DeviceGateway.Operation.PERSON_FIND)) {
+                                    calls++;
+                                    HfDeviceResp found = findSpecificPerson(employeeId, deviceKey, secret);
+                                    absent = found != null && !"000".equals(found.getCode());
+                                }
+                                status = absent ? "not_found" : "failed";
+                                if (absent) {
+                                    deviceRosterMirror.personDeleted(deviceKey, employeeId);
+                                }
+                            }
+                            results.put(employeeId, bulkDeleteOutcome(employeeId, status,
+                                    response != null ? response.getCode() : null, response != null ? response.getMsg() : "null response"));
+                        } catch (Exception e) {
+                            results.put(employeeId, bulkDeleteOutcome(employeeId, "failed", "1000", e.getMessage()));
+                        }
+                    }
+                }
+                return calls;
+            }, total);
+        } catch (DeviceQueueFullException e) {
+            // Resolved by GlobalExceptionHandler into 429 + Retry-After
+            deferred.setErrorResult(e);
+            return deferred;
+        }
+        
+        deviceCalls.whenComplete((calls, error) -> {
+            Map<String, Integer> counts = new LinkedHashMap<>();
+            counts.put("deleted", 0);
+            counts.put("not_found", 0);
+            counts.put("failed", 0);
+            List<Map<String, Object>> outcomes = new ArrayList<>(total);
+            for (String employeeId : employeeIds) {
+                Map<String, Object> outcome = results.get(employeeId);
+                if (outcome == null) {
+                    outcome = bulkDeleteOutcome(employeeId, "failed", null, error != null ? error.getMessage() : "Not processed");
+                }
+                counts.merge((String) outcome.get("status"), 1, Integer::sum);
+                outcomes.add(outcome);
+            }
+            
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("total", total);
+            summary.putAll(counts);
+            summary.put("deviceCalls", calls != null ? calls : 0);
+            summary.put("elapsedMs", System.currentTimeMillis() - startedAt);
+            summary.put("results", outcomes);
+            System.out.println("✅ Bulk delete finished: " + counts + " in " + summary.get("deviceCalls") + " device calls, " + summary.get("elapsedMs") + "ms");
+            
+            if (error != null) {
+                deviceLivenessCache.invalidate(request.getDeviceKey());
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                boolean offline = cause instanceof IllegalStateException;
+                deferred.setResult(ResponseEntity.ok(ResultWrapper.wrapFailure(offline ? "1002" : "1000",
+                        offline ? cause.getMessage() : "Bulk delete aborted: " + cause.getMessage(), summary)));
+            } else if (counts.get("failed") == 0) {
+                deferred.setResult(ResponseEntity.ok(ResultWrapper.wrapSuccess(summary)));
+            } else {
+                deferred.setResult(ResponseEntity.ok(ResultWrapper.wrapFailure("PARTIAL_FAILURE",
+                        counts.get("failed") + " of " + total + " employees could not be deleted", summary)));
+            }
+        });
+        return deferred;
+    }
+    
+    private static Map<String, Object> bulkDeleteOutcome(String employeeId, String status, String code, String message) {
+        Map<String, Object> outcome = new LinkedHashMap<>();
+        outcome.put("employeeId", employeeId);
+        outcome.put("status", status);
+        if (code != null) {
+            outcome.put("code", code);
+        }
+        outcome.put("message", message);
+        return outcome;
+    }
+
     // ==================== HELPER METHODS ====================
 
     /**
@@ -2062,67 +2360,21 @@ public class EmployeeController extends BaseController {
             System.out.println("=== VALIDATING EMPLOYEE EXISTS ON DEVICE ===");
             System.out.println("Employee ID to validate: " + employeeId);
             
-            // Get all persons from device
-            HfDeviceResp personsResponse = getAllPersonsFromDevice(deviceKey, secret);
-            
-            if (personsResponse == null || !"000".equals(personsResponse.getCode())) {
-                System.out.println("⚠️ Could not retrieve person list from device");
-                System.out.println("Response code: " + (personsResponse != null ? personsResponse.getCode() : "null"));
-                System.out.println("Response message: " + (personsResponse != null ? personsResponse.getMsg() : "null"));
-                
-                // If we can't get the list, we cannot validate - this is a failure
-                throw new Exception("Cannot retrieve employee list from device for validation: " + 
-                    (personsResponse != null ? personsResponse.getMsg() : "null response"));
-            }
-            
-            // Check if the response data contains our employee
-            Object responseData = personsResponse.getData();
-            if (responseData == null) {
-                System.out.println("ℹ️ Device returned empty person list - employee does not exist");
-                return false;
-            }
-            
-            // Parse the response data to find our employee
-            if (responseData instanceof java.util.List) {
-                @SuppressWarnings("unchecked")
-                java.util.List<Object> personList = (java.util.List<Object>) responseData;
-                
-                System.out.println("📋 Found " + personList.size() + " persons on device");
-                
-                for (Object person : personList) {
-                    Map<String, Object> employeeData = extractEmployeeFromResponse(person);
-                    String deviceEmployeeId = (String) employeeData.get("employeeId");
-                    String deviceEmployeeName = (String) employeeData.get("name");
-                    
-                    System.out.println("  Checking device employee: ID=" + deviceEmployeeId + ", Name=" + deviceEmployeeName);
-                    
-                    // Match by employee ID (sn field)
-                    if (employeeId.equals(deviceEmployeeId)) {
-                        System.out.println("✅ Employee found on device: " + employeeId);
-                        return true;
+            // A roster mirror hit is enough (the delete itself is the final word); on a miss, which may
+            // only be staleness, scan the device's roster page by page, stopping at the first match
+            try {
+                boolean exists = findInRosterMirror(employeeId, deviceKey, secret) != null;
+                if (!exists) {
+                    try (Stream<Map<String, Object>> roster = streamRoster(deviceKey, secret)) {
+                        exists = roster.anyMatch(person -> employeeId.equals(String.valueOf(person.get("sn"))));
                     }
                 }
-                
-                System.out.println("❌ Employee not found on device: " + employeeId);
-                return false;
-                
-            } else if (responseData instanceof java.util.Map) {
-                // Single person response
-                @SuppressWarnings("unchecked")
-                Map<String, Object> personData = (Map<String, Object>) responseData;
-                
-                Map<String, Object> employeeData = extractEmployeeFromResponse(personData);
-                String deviceEmployeeId = (String) employeeData.get("employeeId");
-                
-                System.out.println("📋 Single person response - ID: " + deviceEmployeeId);
-                
-                boolean exists = employeeId.equals(deviceEmployeeId);
-                System.out.println(exists ? "✅ Employee found on device" : "❌ Employee not found on device");
+                System.out.println(exists ? "✅ Employee found on device: " + employeeId : "❌ Employee not found on device: " + employeeId);
                 return exists;
-                
-            } else {
-                System.out.println("⚠️ Unexpected response data format: " + responseData.getClass().getName());
-                throw new Exception("Unexpected device response format for person validation");
+            } catch (RosterScanException e) {
+                // If we can't get the list, we cannot validate - this is a failure
+                System.out.println("⚠️ Could not retrieve person list from device: " + e.getCode() + " " + e.getMessage());
+                throw new Exception("Cannot retrieve employee list from device for validation: " + e.getMessage());
             }
             
         } catch (Exception e) {
@@ -2132,99 +2384,88 @@ public class EmployeeController extends BaseController {
     }
 
     /**
-     * Get all persons from device
+     * The person from the roster mirror (reading the device's roster on first use), or null when
+     * the device does not have it or the mirror cannot serve the device
+     */
+    private DeviceRosterMirror.Person findInRosterMirror(String employeeId, String deviceKey, String secret) {
+        if (!deviceRosterMirror.isAvailable()) {
+            return null;
+        }
+        try {
+            return deviceRosterMirror.find(getHostInfo(), deviceKey, secret, employeeId);
+        } catch (Exception e) {
+            System.out.println("⚠️ Roster mirror could not read device " + deviceKey + ", asking the device directly: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * A roster mirror person in the /list and /get employee shape
+     */
+    private Map<String, Object> toEmployee(String deviceKey, DeviceRosterMirror.Person person) {
+        Map<String, Object> employee = extractEmployeeFromResponse(person.toDeviceMap());
+        employee.put("hasPhoto", deviceRosterMirror.hasFace(deviceKey, person));
+        return employee;
+    }
+
+    /**
+     * Every person on the device as the SDK's raw map, read page by page with personFindList.
+     * SDKs without personFindList fall back to the single personFind/list call.
+     *
+     * @throws RosterScanException when the device does not return the roster
+     */
+    private Stream<Map<String, Object>> streamRoster(String deviceKey, String secret) throws Exception {
+        if (deviceRosterScanner.isAvailable()) {
+            return deviceRosterScanner.stream(hostInfo, deviceKey, secret);
+        }
+        HfDeviceResp response = getAllPersonsFromDevice(deviceKey, secret);
+        if (response == null || !"000".equals(response.getCode())) {
+            throw new RosterScanException(response != null ? response.getCode() : "3504",
+                    response != null ? response.getMsg() : "No response from device", 0);
+        }
+        return DeviceRosterScanner.parsePersons(response.getData()).stream();
+    }
+
+    /**
+     * Get all persons from device.
+     * Uses the listing operation DeviceGateway resolved at startup (personFindList, else personFind);
+     * when the SDK has neither, a connectivity test decides which error to report.
      */
     private HfDeviceResp getAllPersonsFromDevice(String deviceKey, String secret) throws Exception {
+        DeviceGateway.Operation listOperation = deviceGateway.getPersonListOperation();
         try {
-            System.out.println("=== TRYING PersonFindListReq METHOD ===");
-            
-            // Strategy 1: Try PersonFindListReq (the correct method available in SDK)
-            try {
-                System.out.println("✅ Creating PersonFindListReq object...");
+            if (listOperation == DeviceGateway.Operation.PERSON_FIND_LIST) {
+                System.out.println("=== LISTING PERSONS VIA personFindList ===");
                 Object personFindListReq = requestBuilderService.buildPersonFindListReq();
-                
-                Class<?> hostInfoClass = Class.forName("com.hfims.xcan.gateway.netty.client.dto.HostInfoDto");
-                
-                Method personFindListMethod = HfDeviceClient.class.getMethod("personFindList", 
-                    hostInfoClass, String.class, String.class, personFindListReq.getClass());
-                
-                System.out.println("✅ Calling personFindList method...");
-                HfDeviceResp response = (HfDeviceResp) personFindListMethod.invoke(null, hostInfo, deviceKey, secret, personFindListReq);
+                HfDeviceResp response = deviceGateway.personFindList(hostInfo, deviceKey, secret, personFindListReq);
                 
                 if (response != null) {
                     System.out.println("✅ PersonFindListReq response - Code: " + response.getCode() + ", Message: " + response.getMsg());
-                    System.out.println("✅ PersonFindListReq response - Data: " + response.getData());
-                    
-                    // Log the response structure for debugging
-                    if (response.getData() != null) {
-                        System.out.println("✅ Response data type: " + response.getData().getClass().getName());
-                        System.out.println("✅ Response data toString: " + response.getData().toString());
-                    } else {
+                    if (response.getData() == null) {
                         System.out.println("⚠️ Response data is null - this might explain the empty list");
                     }
-                    
                     return response;
-                } else {
-                    System.out.println("⚠️ PersonFindListReq returned null response");
                 }
+                System.out.println("⚠️ PersonFindListReq returned null response");
                 
-            } catch (ClassNotFoundException | NoSuchMethodException e) {
-                System.out.println("❌ PersonFindListReq method not available: " + e.getMessage());
-            } catch (Exception e) {
-                System.out.println("❌ Error calling PersonFindListReq: " + e.getMessage());
-                e.printStackTrace();
-            }
-            
-            // Strategy 2: Try PersonFind method using direct SDK call
-            try {
-                System.out.println("✅ Trying PersonFind method as fallback...");
-                
-                // Build PersonFindReq object manually 
-                Class<?> personFindReqClass = Class.forName("com.hfims.xcan.gateway.netty.client.req.PersonFindReq");
-                Object personFindReq = personFindReqClass.getDeclaredConstructor().newInstance();
-                
-                Class<?> hostInfoClass = Class.forName("com.hfims.xcan.gateway.netty.client.dto.HostInfoDto");
-                
-                Method personFindMethod = HfDeviceClient.class.getMethod("personFind", 
-                    hostInfoClass, String.class, String.class, personFindReq.getClass());
-                
-                System.out.println("✅ Calling personFind method...");
-                HfDeviceResp response = (HfDeviceResp) personFindMethod.invoke(null, hostInfo, deviceKey, secret, personFindReq);
+            } else if (listOperation == DeviceGateway.Operation.PERSON_FIND) {
+                System.out.println("=== LISTING PERSONS VIA personFind ===");
+                Object personFindReq = deviceGateway.newRequest(DeviceGateway.Operation.PERSON_FIND);
+                HfDeviceResp response = deviceGateway.personFind(hostInfo, deviceKey, secret, personFindReq);
                 
                 if (response != null) {
                     System.out.println("✅ PersonFind response - Code: " + response.getCode() + ", Message: " + response.getMsg());
                     return response;
-                } else {
-                    System.out.println("⚠️ PersonFind returned null response");
                 }
-                
-            } catch (ClassNotFoundException | NoSuchMethodException e) {
-                System.out.println("❌ PersonFind method not available: " + e.getMessage());
-            } catch (Exception e) {
-                System.out.println("❌ Error calling PersonFind: " + e.getMessage());
+                System.out.println("⚠️ PersonFind returned null response");
             }
             
-            // Strategy 3: Use test method and provide helpful error message
-            try {
-                // Simple test to verify device connection
-                Class<?> hostInfoClass = Class.forName("com.hfims.xcan.gateway.netty.client.dto.HostInfoDto");
-                Method testMethod = HfDeviceClient.class.getMethod("test", 
-                    hostInfoClass, String.class, String.class);
-                
-                HfDeviceResp testResponse = (HfDeviceResp) testMethod.invoke(null, hostInfo, deviceKey, secret);
-                
-                if (testResponse != null && "000".equals(testResponse.getCode())) {
-                    throw new Exception("Person list functionality not available in this SDK version. Device is connected but cannot retrieve employee list.");
-                } else {
-                    throw new Exception("Device connection failed. Cannot retrieve employee list.");
-                }
-                
-            } catch (NoSuchMethodException e) {
-                throw new Exception("SDK methods not available for person listing. Please check SDK version.");
-            } catch (Exception e) {
-                System.out.println("Failed to get all persons: " + e.getMessage());
-                throw e;
+            // No usable listing operation (or it returned nothing): report whether the device is reachable
+            HfDeviceResp testResponse = deviceGateway.test(hostInfo, deviceKey, secret);
+            if (testResponse != null && "000".equals(testResponse.getCode())) {
+                throw new Exception("Person list functionality not available in this SDK version. Device is connected but cannot retrieve employee list.");
             }
+            throw new Exception("Device connection failed. Cannot retrieve employee list.");
             
         } catch (Exception e) {
             System.err.println("Failed to get all persons: " + e.getMessage());
@@ -2295,7 +2536,7 @@ public class EmployeeController extends BaseController {
             
             // Map verifyStyle to hasPhoto
             // verifyStyle values: 1=face, 2=finger, 3=face+finger, etc.
-            boolean hasPhoto = verifyStyle != null && (verifyStyle == 1 || verifyStyle == 3 || verifyStyle >= 5);
+            boolean hasPhoto = FacePresenceIndex.impliedByVerifyStyle(verifyStyle);
             employee.put("hasPhoto", hasPhoto);
             employee.put("verifyStyle", verifyStyle);
             
@@ -2327,30 +2568,17 @@ public class EmployeeController extends BaseController {
             System.out.println("=== ATTEMPTING PERSON FIND ===");
             System.out.println("Employee ID: " + employeeId);
             
-            // Build PersonFindReq using reflection with correct package path
-            Class<?> personFindReqClass = Class.forName("com.hfims.xcan.gateway.netty.client.req.PersonFindReq");
-            Object personFindReq = personFindReqClass.getDeclaredConstructor().newInstance();
-            
-            System.out.println("✅ PersonFindReq object created successfully");
-            
-            // Try different field names for setting the employee ID
-            boolean fieldSet = false;
-            String[] fieldNames = {"sn", "personSn", "id", "employeeId"};
-            
-            for (String fieldName : fieldNames) {
-                try {
-                    String methodName = "set" + fieldName.substring(0, 1).toUpperCase() + fieldName.substring(1);
-                    Method setMethod = personFindReqClass.getMethod(methodName, String.class);
-                    setMethod.invoke(personFindReq, employeeId);
-                    System.out.println("✅ Set field '" + fieldName + "' to: " + employeeId);
-                    fieldSet = true;
-                    break;
-                } catch (NoSuchMethodException e) {
-                    System.out.println("Method " + fieldName + " not found, trying next...");
-                }
+            if (!deviceGateway.isAvailable(DeviceGateway.Operation.PERSON_FIND)) {
+                HfDeviceResp notFoundResponse = new HfDeviceResp();
+                notFoundResponse.setCode("404");
+                notFoundResponse.setMsg("PersonFind method not available in SDK");
+                return notFoundResponse;
             }
             
-            if (!fieldSet) {
+            // Employee ID bound through the cached plan (sn, personSn, id or employeeId)
+            Object personFindReq = requestBuilderService.buildPersonFindReq(employeeId);
+            
+            if (personFindReq == null) {
                 System.out.println("⚠️ Could not find appropriate field setter for employee ID in PersonFindReq");
                 HfDeviceResp notFoundResponse = new HfDeviceResp();
                 notFoundResponse.setCode("404");
@@ -2358,34 +2586,12 @@ public class EmployeeController extends BaseController {
                 return notFoundResponse;
             }
             
-            // Get the method signature for personFind
-            Class<?> hostInfoClass = Class.forName("com.hfims.xcan.gateway.netty.client.dto.HostInfoDto");
-            
-            Method personFindMethod = HfDeviceClient.class.getMethod("personFind",
-                hostInfoClass, String.class, String.class, personFindReqClass);
-            
-            System.out.println("✅ Found personFind method in HfDeviceClient");
-            
             // Call the personFind method
-            HfDeviceResp response = (HfDeviceResp) personFindMethod.invoke(null, hostInfo, deviceKey, secret, personFindReq);
+            HfDeviceResp response = deviceGateway.personFind(hostInfo, deviceKey, secret, personFindReq);
             
             System.out.println("PersonFind response - Code: " + response.getCode() + ", Message: " + response.getMsg());
             return response;
                 
-        } catch (ClassNotFoundException e) {
-            System.out.println("PersonFindReq class not found: " + e.getMessage());
-            HfDeviceResp notFoundResponse = new HfDeviceResp();
-            notFoundResponse.setCode("404");
-            notFoundResponse.setMsg("PersonFind class not available in SDK");
-            return notFoundResponse;
-            
-        } catch (NoSuchMethodException e) {
-            System.out.println("personFind method not found: " + e.getMessage());
-            HfDeviceResp notFoundResponse = new HfDeviceResp();
-            notFoundResponse.setCode("404");
-            notFoundResponse.setMsg("PersonFind method not available in SDK");
-            return notFoundResponse;
-            
         } catch (Exception e) {
             System.out.println("Failed to find person using PersonFind: " + e.getMessage());
             e.printStackTrace();
@@ -2401,13 +2607,7 @@ public class EmployeeController extends BaseController {
      * Perform person merge operation
      */
     private HfDeviceResp performPersonMerge(EmployeeRegistrationRequest request, Object personCreateReq) throws Exception {
-        Class<?> hostInfoClass = Class.forName("com.hfims.xcan.gateway.netty.client.dto.HostInfoDto");
-        Class<?> personCreateReqClass = Class.forName("com.hfims.xcan.gateway.netty.client.req.PersonCreateReq");
-
-        Method personMergeMethod = HfDeviceClient.class.getMethod("personMerge",
-                hostInfoClass, String.class, String.class, personCreateReqClass);
-        
-        HfDeviceResp mergeResponse = (HfDeviceResp) personMergeMethod.invoke(null,
+        HfDeviceResp mergeResponse = deviceGateway.personMerge(
                 hostInfo, request.getDeviceKey(), request.getSecret(), personCreateReq);
 
         if (mergeResponse == null) {
@@ -2432,24 +2632,16 @@ public class EmployeeController extends BaseController {
             
             System.out.println("✅ PersonDeleteReq object created successfully using RequestBuilderService");
             
-            // Get the method signature for personDelete
-            Class<?> hostInfoClass = Class.forName("com.hfims.xcan.gateway.netty.client.dto.HostInfoDto");
-            Class<?> personDeleteReqClass = Class.forName("com.hfims.xcan.gateway.netty.client.req.PersonDeleteReq");
-            
-            Method personDeleteMethod = HfDeviceClient.class.getMethod("personDelete",
-                hostInfoClass, String.class, String.class, personDeleteReqClass);
-            
-            System.out.println("✅ Found personDelete method in HfDeviceClient");
-            
             // Call the personDelete method
-            HfDeviceResp response = (HfDeviceResp) personDeleteMethod.invoke(null, hostInfo, deviceKey, secret, personDeleteReq);
-            
+            enrollmentHashIndex.remove(deviceKey, employeeId);
+            HfDeviceResp response = deviceGateway.personDelete(hostInfo, deviceKey, secret, personDeleteReq);
+            if (response != null && "000".equals(response.getCode())) {
+                facePresenceIndex.forget(deviceKey, employeeId);
+                deviceRosterMirror.personDeleted(deviceKey, employeeId);
+            }
             return response;
-        } catch (ClassNotFoundException e) {
-            System.err.println("❌ PersonDeleteReq class not found in SDK");
-            throw new RuntimeException("SDK PersonDeleteReq class not available");
-        } catch (NoSuchMethodException e) {
-            System.err.println("❌ personDelete method not found in HfDeviceClient");
+        } catch (UnsupportedOperationException e) {
+            System.err.println("❌ personDelete not available in SDK");
             throw new RuntimeException("SDK personDelete method not available");
         } catch (Exception e) {
             System.err.println("❌ Error during person deletion: " + e.getMessage());
@@ -2468,65 +2660,34 @@ public class EmployeeController extends BaseController {
             System.out.println("Employee ID: " + employeeId);
             System.out.println("Device Key: " + deviceKey);
             
-            // List all available methods in HfDeviceClient to debug
-            System.out.println("=== Available HfDeviceClient methods ===");
-            Method[] allMethods = HfDeviceClient.class.getMethods();
-            for (Method m : allMethods) {
-                if (m.getName().toLowerCase().contains("face") || m.getName().toLowerCase().contains("delete")) {
-                    System.out.println("Method: " + m.getName() + " | Params: " + m.getParameterCount());
-                }
+            if (!deviceGateway.isAvailable(DeviceGateway.Operation.FACE_DELETE)) {
+                System.err.println("⚠️ faceDelete not available in this SDK version");
+                System.err.println("   Face data will be removed when person record is deleted");
+                return createMockSuccessResponse();
             }
             
-            // Build FaceDeleteReq
-            Class<?> faceDeleteReqClass = Class.forName("com.hfims.xcan.gateway.netty.client.req.FaceDeleteReq");
-            Object faceDeleteReq = faceDeleteReqClass.getDeclaredConstructor().newInstance();
-            
-            // Set personSn (the employee ID that was used during registration)
-            try {
-                Method setPersonSnMethod = faceDeleteReqClass.getMethod("setPersonSn", String.class);
-                setPersonSnMethod.invoke(faceDeleteReq, employeeId);
-                System.out.println("✅ PersonSn set to: " + employeeId);
-            } catch (NoSuchMethodException e) {
-                System.err.println("❌ setPersonSn method not found in FaceDeleteReq");
-                // Try alternative method names
-                try {
-                    Method setIdMethod = faceDeleteReqClass.getMethod("setId", String.class);
-                    setIdMethod.invoke(faceDeleteReq, employeeId);
-                    System.out.println("✅ Used setId instead");
-                } catch (NoSuchMethodException e2) {
-                    throw new RuntimeException("Cannot set employee ID in FaceDeleteReq - no suitable setter found");
-                }
+            // Build FaceDeleteReq with personSn (the employee ID used during registration), or id
+            Object faceDeleteReq = requestBuilderService.buildFaceDeleteReq(employeeId);
+            if (faceDeleteReq == null) {
+                throw new RuntimeException("Cannot set employee ID in FaceDeleteReq - no suitable setter found");
             }
             
             System.out.println("✅ FaceDeleteReq object created successfully");
             
-            // Get the method signature for faceDelete
-            Class<?> hostInfoClass = Class.forName("com.hfims.xcan.gateway.netty.client.dto.HostInfoDto");
-            
-            Method faceDeleteMethod = HfDeviceClient.class.getMethod("faceDelete",
-                hostInfoClass, String.class, String.class, faceDeleteReqClass);
-            
-            System.out.println("✅ Found faceDelete method in HfDeviceClient");
-            
             // Call the faceDelete method
-            HfDeviceResp response = (HfDeviceResp) faceDeleteMethod.invoke(null, hostInfo, deviceKey, secret, faceDeleteReq);
+            enrollmentHashIndex.remove(deviceKey, employeeId);
+            HfDeviceResp response = deviceGateway.faceDelete(hostInfo, deviceKey, secret, faceDeleteReq);
             
             if (response != null) {
                 System.out.println("✅ Face delete response - Code: " + response.getCode() + ", Message: " + response.getMsg());
+                if ("000".equals(response.getCode())) {
+                    facePresenceIndex.record(deviceKey, employeeId, false);
+                }
             } else {
                 System.err.println("⚠️ Face delete returned null response");
             }
             
             return response;
-        } catch (ClassNotFoundException e) {
-            System.err.println("⚠️ FaceDeleteReq class not found in SDK");
-            System.err.println("   Face data will be removed when person record is deleted");
-            return createMockSuccessResponse();
-        } catch (NoSuchMethodException e) {
-            System.err.println("⚠️ faceDelete method not found in HfDeviceClient");
-            System.err.println("   Available methods checked - face deletion not supported by this SDK version");
-            System.err.println("   Face data will be removed when person record is deleted");
-            return createMockSuccessResponse();
         } catch (Exception e) {
             System.err.println("❌ Error during face deletion: " + e.getMessage());
             e.printStackTrace();
@@ -2535,6 +2696,25 @@ public class EmployeeController extends BaseController {
         }
     }
     
+    /**
+     * Delete several employees' faces in one FaceDeleteReq (see supportsBulkFaceDelete). Like
+     * deleteFaceFromDevice it never throws: person deletion goes ahead whatever the outcome.
+     */
+    private void deleteFacesFromDevice(List<String> employeeIds, String deviceKey, String secret) {
+        try {
+            employeeIds.forEach(employeeId -> enrollmentHashIndex.remove(deviceKey, employeeId));
+            HfDeviceResp response = deviceGateway.faceDelete(hostInfo, deviceKey, secret,
+                    requestBuilderService.buildFaceDeleteReq(employeeIds));
+            if (response != null && "000".equals(response.getCode())) {
+                employeeIds.forEach(employeeId -> facePresenceIndex.record(deviceKey, employeeId, false));
+            } else {
+                System.out.println("⚠️ Face deletion for " + employeeIds.size() + " employees: " + (response != null ? response.getMsg() : "null response"));
+            }
+        } catch (Exception e) {
+            System.err.println("❌ Error during bulk face deletion: " + e.getMessage());
+        }
+    }
+
     /**
      * Create a mock success response when SDK doesn't support face deletion
      */
@@ -2710,3 +2890,96 @@ class GetPersonRequest {
     public String getSecret() { return secret; }
     public void setSecret(String secret) { this.secret = secret; }
 }
+
+/**
+ * Request class for batch enrollment on a single device
+ */
+class BatchRegistrationRequest {
+    private String deviceKey;
+    private String secret;
+    private Boolean forceUpdate;
+    private List<EmployeeController.EmployeeRegistrationRequest> employees;
+
+    public String getDeviceKey() { return deviceKey; }
+    public void setDeviceKey(String deviceKey) { this.deviceKey = deviceKey; }
+    
+    public String getSecret() { return secret; }
+    public void setSecret(String secret) { this.secret = secret; }
+    
+    public Boolean getForceUpdate() { return forceUpdate; }
+    public void setForceUpdate(Boolean forceUpdate) { this.forceUpdate = forceUpdate; }
+    
+    public List<EmployeeController.EmployeeRegistrationRequest> getEmployees() { return employees; }
+    public void setEmployees(List<EmployeeController.EmployeeRegistrationRequest> employees) { this.employees = employees; }
+}
+
+/**
+ * Request class for enrolling one employee on several devices
+ */
+class MultiDeviceRegistrationRequest {
+    private String employeeId;
+    private String fullName;
+    private String faceImage;
+    private Integer verificationStyle;
+    private Boolean forceUpdate;
+    private String secret;
+    private List<String> deviceKeys;
+    private List<DeviceRequest> devices;
+
+    /**
+     * The single-device request enrolled on one device's lane
+     */
+    EmployeeController.EmployeeRegistrationRequest forDevice(String deviceKey, String deviceSecret) {
+        EmployeeController.EmployeeRegistrationRequest request = new EmployeeController.EmployeeRegistrationRequest();
+        request.setEmployeeId(employeeId);
+        request.setFullName(fullName);
+        request.setFaceImage(faceImage);
+        request.setVerificationStyle(verificationStyle);
+        request.setForceUpdate(forceUpdate);
+        request.setDeviceKey(deviceKey);
+        request.setSecret(deviceSecret);
+        return request;
+    }
+
+    public String getEmployeeId() { return employeeId; }
+    public void setEmployeeId(String employeeId) { this.employeeId = employeeId; }
+    
+    public String getFullName() { return fullName; }
+    public void setFullName(String fullName) { this.fullName = fullName; }
+    
+    public String getFaceImage() { return faceImage; }
+    public void setFaceImage(String faceImage) { this.faceImage = faceImage; }
+    
+    public Integer getVerificationStyle() { return verificationStyle; }
+    public void setVerificationStyle(Integer verificationStyle) { this.verificationStyle = verificationStyle; }
+    
+    public Boolean getForceUpdate() { return forceUpdate; }
+    public void setForceUpdate(Boolean forceUpdate) { this.forceUpdate = forceUpdate; }
+    
+    public String getSecret() { return secret; }
+    public void setSecret(String secret) { this.secret = secret; }
+    
+    public List<String> getDeviceKeys() { return deviceKeys; }
+    public void setDeviceKeys(List<String> deviceKeys) { this.deviceKeys = deviceKeys; }
+    
+    public List<DeviceRequest> getDevices() { return devices; }
+    public void setDevices(List<DeviceRequest> devices) { this.devices = devices; }
+}
+
+/**
+ * Request class for deleting many employees from a single device
+ */
+class BulkDeleteRequest {
+    private String deviceKey;
+    private String secret;
+    private List<String> employeeIds;
+
+    public String getDeviceKey() { return deviceKey; }
+    public void setDeviceKey(String deviceKey) { this.deviceKey = deviceKey; }
+    
+    public String getSecret() { return secret; }
+    public void setSecret(String secret) { this.secret = secret; }
+    
+    public List<String> getEmployeeIds() { return employeeIds; }
+    public void setEmployeeIds(List<String> employeeIds) { this.employeeIds = employeeIds; }
+}
@@ -0,0 +1,59 @@
+package com.hfims.xcan.gateway.tcp.demo.web;
+
+import com.hfims.xcan.gateway.tcp.demo.service.FaceDetectionBenchmark;
+import com.hfims.xcan.gateway.tcp.demo.service.FaceImagePipeline;
+import com.hfims.xcan.gateway.tcp.demo.support.BaseResult;
+import com.hfims.xcan.gateway.tcp.demo.support.ResultWrapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * Diagnostics for the gateway-side face detection used before enrollment
+ */
+@RestController
+@RequestMapping("/api/face-detection")
+@CrossOrigin(origins = "*", allowedHeaders = "*", methods = {RequestMethod.GET, RequestMethod.POST, RequestMethod.OPTIONS})
+public class FaceDetectionController {
+
+    @Autowired
+    private FaceDetectionBenchmark faceDetectionBenchmark;
+
+    @Autowired
+    private FaceImagePipeline faceImagePipeline;
+
+    /**
+     * Per-engine detection latency and hit rate, plus how often the device accepted the
+     * face on the first faceMerge attempt after each engine screened it
+     */
+    @GetMapping("/stats")
+    public BaseResult statistics() {
+        return ResultWrapper.wrapSuccess(faceImagePipeline.getStatistics());
+    }
+
+    /**
+     * Time every Haar profile and available engine on the posted sample images and report
+     * how well they agree with full-resolution Haar detection
+     */
+    @PostMapping("/benchmark")
+    public BaseResult benchmark(@RequestBody BenchmarkRequest request) {
+        if (request.getImages() == null || request.getImages().isEmpty()) {
+            return ResultWrapper.wrapFailure("1001", "At least one Base64 image is required");
+        }
+        System.out.println("=== FACE DETECTION BENCHMARK: " + request.getImages().size() + " image(s) ===");
+        return ResultWrapper.wrapSuccess(faceDetectionBenchmark.run(request.getImages(),
+                request.getIterations() != null ? request.getIterations() : 3));
+    }
+
+    public static class BenchmarkRequest {
+        private List<String> images;
+        private Integer iterations;
+
+        public List<String> getImages() { return images; }
+        public void setImages(List<String> images) { this.images = images; }
+
+        public Integer getIterations() { return iterations; }
+        public void setIterations(Integer iterations) { this.iterations = iterations; }
+    }
+}
@@ -0,0 +1,32 @@
+package com.hfims.xcan.gateway.tcp.demo.web;
+
+import com.hfims.xcan.gateway.tcp.demo.service.EnrollmentJob;
+import com.hfims.xcan.gateway.tcp.demo.service.EnrollmentJobService;
+import com.hfims.xcan.gateway.tcp.demo.support.BaseResult;
+import com.hfims.xcan.gateway.tcp.demo.support.ResultWrapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Status of asynchronous device jobs (enrollments submitted with ?async=true)
+ */
+@RestController
+@RequestMapping("/api/jobs")
+@CrossOrigin(origins = "*", allowedHeaders = "*", methods = {RequestMethod.GET, RequestMethod.OPTIONS})
+public class JobController {
+
+    @Autowired
+    private EnrollmentJobService enrollmentJobService;
+
+    @GetMapping("/{id}")
+    public ResponseEntity<BaseResult> getJob(@PathVariable("id") String id) {
+        EnrollmentJob job = enrollmentJobService.getJob(id);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(ResultWrapper.wrapFailure("404", "Job not found or expired: " + id));
+        }
+        return ResponseEntity.ok(ResultWrapper.wrapSuccess(job.toMap()));
+    }
+}
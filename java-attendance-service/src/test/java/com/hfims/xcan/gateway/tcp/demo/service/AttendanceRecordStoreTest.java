@@ -0,0 +1,125 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AttendanceRecordStoreTest {
+
+    private static final String DEVICE = "device-1";
+    private static final long NOW = System.currentTimeMillis();
+
+    @TempDir
+    Path stateDir;
+
+    private final List<AttendanceRecordStore> stores = new ArrayList<>();
+
+    private AttendanceRecordStore newStore() {
+        AttendanceRecordStore store = new AttendanceRecordStore();
+        ReflectionTestUtils.setField(store, "stateDir", stateDir.toString());
+        ReflectionTestUtils.setField(store, "flushDelayMs", 60000L);
+        ReflectionTestUtils.setField(store, "retentionDays", 35);
+        stores.add(store);
+        return store;
+    }
+
+    @AfterEach
+    void tearDown() {
+        stores.forEach(AttendanceRecordStore::shutdown);
+    }
+
+    private static Map<String, Object> record(String id, String sn, long createTime) {
+        Map<String, Object> record = new HashMap<>();
+        record.put("id", id);
+        record.put("sn", sn);
+        record.put("createTime", createTime);
+        return record;
+    }
+
+    private static List<String> ids(List<Map<String, Object>> records) {
+        return records.stream().map(r -> String.valueOf(r.get("id"))).collect(Collectors.toList());
+    }
+
+    @Test
+    void skipsRecordsAlreadyHeld() {
+        AttendanceRecordStore store = newStore();
+        assertThat(store.add(DEVICE, Arrays.asList(record("1", "A", NOW - 2000), record("2", "B", NOW - 1000)))).isEqualTo(2);
+        assertThat(store.add(DEVICE, Arrays.asList(record("2", "B", NOW - 1000), record("3", "A", NOW)))).isEqualTo(1);
+
+        assertThat(ids(store.query(DEVICE, null, null, null))).containsExactly("1", "2", "3");
+    }
+
+    @Test
+    void cursorFollowsTheNewestRecordAndNeverMovesBack() {
+        AttendanceRecordStore store = newStore();
+        assertThat(store.getCursorTime(DEVICE)).isNull();
+
+        store.add(DEVICE, Arrays.asList(record("1", "A", NOW - 2000), record("2", "B", NOW)));
+        store.add(DEVICE, Arrays.asList(record("3", "A", NOW - 5000)));
+
+        assertThat(store.getCursorTime(DEVICE)).isEqualTo(NOW);
+        assertThat(store.getStatus(DEVICE)).containsEntry("cursorRecordId", "2").containsEntry("storedRecords", 3);
+        // A late record is still kept in time order
+        assertThat(ids(store.query(DEVICE, null, null, null))).containsExactly("3", "1", "2");
+    }
+
+    @Test
+    void dropsRecordsOlderThanTheRetention() {
+        AttendanceRecordStore store = newStore();
+        store.add(DEVICE, Arrays.asList(
+                record("old", "A", NOW - TimeUnit.DAYS.toMillis(40)),
+                record("new", "A", NOW - TimeUnit.DAYS.toMillis(1))));
+
+        assertThat(ids(store.query(DEVICE, null, null, null))).containsExactly("new");
+        assertThat(store.getCursorTime(DEVICE)).isEqualTo(NOW - TimeUnit.DAYS.toMillis(1));
+    }
+
+    @Test
+    void queriesByEmployeeAndTimeWindowInSecondsOrMillis() {
+        AttendanceRecordStore store = newStore();
+        long seconds = NOW / 1000;
+        store.add(DEVICE, Arrays.asList(
+                record("1", "A", seconds - 120),
+                record("2", "B", seconds - 60),
+                record("3", "A", seconds)));
+
+        assertThat(ids(store.query(DEVICE, "A", null, null))).containsExactly("1", "3");
+        assertThat(ids(store.query(DEVICE, null, (seconds - 90) * 1000, seconds * 1000))).containsExactly("2", "3");
+        assertThat(ids(store.query(DEVICE, "A", (seconds - 90) * 1000, null))).containsExactly("3");
+    }
+
+    @Test
+    void recordsCursorAndReadOffsetSurviveARestart() {
+        AttendanceRecordStore store = newStore();
+        store.add(DEVICE, Arrays.asList(record("1", "A", NOW - 1000), record("2", "B", NOW)));
+        store.setReadOffset(DEVICE, 2);
+        store.shutdown();
+
+        AttendanceRecordStore restarted = newStore();
+        assertThat(restarted.getCursorTime(DEVICE)).isEqualTo(NOW);
+        assertThat(restarted.getReadOffset(DEVICE)).isEqualTo(2);
+        assertThat(restarted.add(DEVICE, Arrays.asList(record("2", "B", NOW)))).isZero();
+        assertThat(ids(restarted.query(DEVICE, null, null, null))).containsExactly("1", "2");
+    }
+
+    @Test
+    void devicesHonouringStartTimeHaveNoReadOffset() {
+        AttendanceRecordStore store = newStore();
+        store.add(DEVICE, Arrays.asList(record("1", "A", NOW)));
+
+        assertThat(store.getReadOffset(DEVICE)).isNull();
+        assertThat(store.getReadOffset("device-2")).isNull();
+    }
+}
@@ -0,0 +1,100 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+
+class DeviceLaneTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private DeviceLane lane;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (lane != null) {
+            lane.shutdownNow();
+        }
+    }
+
+    // A task that holds the lane until the test ends
+    private CompletableFuture<Object> blocking(int units) {
+        return lane.submit(() -> {
+            release.await();
+            return null;
+        }, units);
+    }
+
+    @Test
+    void admitsEnrollmentsUpToTheBound() {
+        lane = new DeviceLane("device-1", 10, 1000);
+        blocking(6);
+        blocking(4);
+
+        assertThat(lane.getPendingUnits()).isEqualTo(10);
+        assertThatThrownBy(() -> blocking(1)).isInstanceOf(DeviceQueueFullException.class);
+        assertThat(lane.getPendingUnits()).isEqualTo(10);
+        assertThat(lane.getRejectedRequests()).isEqualTo(1);
+    }
+
+    @Test
+    void countsABatchByItsEnrollmentsNotAsOneTask() {
+        lane = new DeviceLane("device-1", 10, 1000);
+        blocking(1);
+
+        assertThatThrownBy(() -> blocking(10)).isInstanceOf(DeviceQueueFullException.class);
+        assertThat(lane.getPendingUnits()).isEqualTo(1);
+    }
+
+    @Test
+    void admitsAnOversizedBatchOnlyWhenNothingElseIsPending() {
+        lane = new DeviceLane("device-1", 5, 1000);
+        blocking(20);
+
+        assertThat(lane.getPendingUnits()).isEqualTo(20);
+        assertThatThrownBy(() -> blocking(1)).isInstanceOf(DeviceQueueFullException.class);
+    }
+
+    @Test
+    void releasesUnitsWhenATaskFinishes() throws Exception {
+        lane = new DeviceLane("device-1", 2, 1000);
+        assertThat(lane.submit(() -> "done", 2).get(5, TimeUnit.SECONDS)).isEqualTo("done");
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (lane.getPendingUnits() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(lane.getPendingUnits()).isZero();
+        blocking(2);
+    }
+
+    @Test
+    void retryAfterCoversThePendingEnrollments() {
+        lane = new DeviceLane("device-1", 3, 2000);
+        assertThat(lane.estimateRetryAfterSeconds()).isEqualTo(2);
+        blocking(3);
+
+        DeviceQueueFullException e = catchThrowableOfType(() -> blocking(1), DeviceQueueFullException.class);
+        assertThat(e.getDeviceKey()).isEqualTo("device-1");
+        assertThat(e.getQueueDepth()).isEqualTo(3);
+        assertThat(e.getRetryAfterSeconds()).isEqualTo(6);
+    }
+
+    @Test
+    void checkCapacityRejectsWithoutReserving() {
+        lane = new DeviceLane("device-1", 2, 1000);
+        lane.checkCapacity(2);
+        assertThat(lane.getPendingUnits()).isZero();
+
+        blocking(2);
+        assertThatThrownBy(() -> lane.checkCapacity(1)).isInstanceOf(DeviceQueueFullException.class);
+        assertThat(lane.getPendingUnits()).isEqualTo(2);
+    }
+}
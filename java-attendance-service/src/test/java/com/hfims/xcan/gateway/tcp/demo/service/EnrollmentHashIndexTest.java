@@ -0,0 +1,67 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EnrollmentHashIndexTest {
+
+    private static final byte[] IMAGE = {1, 2, 3, 4};
+
+    @TempDir
+    Path stateDir;
+
+    private EnrollmentHashIndex newIndex() {
+        EnrollmentHashIndex index = new EnrollmentHashIndex();
+        ReflectionTestUtils.setField(index, "stateDir", stateDir.toString());
+        ReflectionTestUtils.setField(index, "flushDelayMs", 60000L);
+        index.load();
+        return index;
+    }
+
+    @Test
+    void hashCoversNameVerifyStyleAndImage() {
+        EnrollmentHashIndex index = newIndex();
+        String hash = index.contentHash("Ann", 1, IMAGE);
+
+        assertThat(index.contentHash("Ann", 1, IMAGE.clone())).isEqualTo(hash);
+        assertThat(index.contentHash("Anne", 1, IMAGE)).isNotEqualTo(hash);
+        assertThat(index.contentHash("Ann", 2, IMAGE)).isNotEqualTo(hash);
+        assertThat(index.contentHash("Ann", 1, new byte[] {1, 2, 3, 5})).isNotEqualTo(hash);
+    }
+
+    @Test
+    void survivesARestart() {
+        EnrollmentHashIndex index = newIndex();
+        String ann = index.contentHash("Ann", 1, IMAGE);
+        String bob = index.contentHash("Bob", 1, IMAGE);
+        index.put("device-1", "A", ann);
+        index.put("device-1", "B", bob);
+        index.put("device-2", "A", ann);
+        index.remove("device-1", "B");
+        // Shutdown writes the pending change even though the flush delay has not passed
+        index.shutdown();
+
+        EnrollmentHashIndex restarted = newIndex();
+        assertThat(restarted.size()).isEqualTo(2);
+        assertThat(restarted.matches("device-1", "A", ann)).isTrue();
+        assertThat(restarted.matches("device-2", "A", ann)).isTrue();
+        assertThat(restarted.matches("device-1", "B", bob)).isFalse();
+        restarted.shutdown();
+    }
+
+    @Test
+    void startsEmptyFromADamagedFile() throws Exception {
+        Files.write(stateDir.resolve(EnrollmentHashIndex.FILE_NAME), "{not json".getBytes(StandardCharsets.UTF_8));
+
+        EnrollmentHashIndex index = newIndex();
+        assertThat(index.size()).isZero();
+        index.shutdown();
+    }
+}
@@ -0,0 +1,136 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class FaceQualityScorerTest {
+
+    private static final int SIZE = 320;
+
+    private final FaceQualityScorer scorer = new FaceQualityScorer();
+    private final List<Mat> images = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        assumeTrue(OpenCvLoader.load(), "OpenCV native library not available");
+        ReflectionTestUtils.setField(scorer, "minSharpness", 40.0);
+        ReflectionTestUtils.setField(scorer, "minBrightness", 50.0);
+        ReflectionTestUtils.setField(scorer, "maxBrightness", 210.0);
+        ReflectionTestUtils.setField(scorer, "maxClippedFraction", 0.35);
+        ReflectionTestUtils.setField(scorer, "minFaceRatio", 0.04);
+    }
+
+    @AfterEach
+    void tearDown() {
+        images.forEach(Mat::release);
+    }
+
+    private Mat uniform(int level) {
+        Mat image = new Mat(SIZE, SIZE, CvType.CV_8UC3, new Scalar(level, level, level));
+        images.add(image);
+        return image;
+    }
+
+    // Sharp edges at mid-grey levels: in focus and well exposed
+    private Mat checkerboard() {
+        Mat image = uniform(80);
+        for (int y = 0; y < SIZE; y += 16) {
+            for (int x = (y / 16) % 2 * 16; x < SIZE; x += 32) {
+                Mat square = image.submat(new Rect(x, y, 16, 16));
+                square.setTo(new Scalar(180, 180, 180));
+                square.release();
+            }
+        }
+        return image;
+    }
+
+    @Test
+    void passesASharpWellExposedImage() {
+        FaceQualityReport report = scorer.score(checkerboard(), null);
+
+        assertThat(report.getReasons()).isEmpty();
+        assertThat(report.isPassed()).isTrue();
+        assertThat(report.getScore()).isGreaterThanOrEqualTo(50);
+    }
+
+    @Test
+    void rejectsADarkImageForItsLightingNotAsBlurry() {
+        FaceQualityReport report = scorer.score(uniform(0), null);
+
+        assertThat(report.isPassed()).isFalse();
+        assertThat(report.getReasons()).hasSize(1);
+        assertThat(report.getReasons().get(0)).contains("too dark");
+    }
+
+    @Test
+    void rejectsAnOverexposedImage() {
+        FaceQualityReport report = scorer.score(uniform(255), null);
+
+        assertThat(report.isPassed()).isFalse();
+        assertThat(report.getReasons()).anyMatch(reason -> reason.contains("overexposed"));
+    }
+
+    @Test
+    void rejectsAFeaturelessImageAsBlurry() {
+        FaceQualityReport report = scorer.score(uniform(128), null);
+
+        assertThat(report.isPassed()).isFalse();
+        assertThat(report.getReasons()).hasSize(1);
+        assertThat(report.getReasons().get(0)).contains("blurry");
+    }
+
+    @Test
+    void judgesExposureOnTheFaceWhenOneWasDetected() {
+        Mat image = checkerboard();
+        Rect face = new Rect(80, 80, 160, 160);
+        Mat region = image.submat(face);
+        region.setTo(new Scalar(5, 5, 5));
+        region.release();
+
+        assertThat(scorer.score(image, null).getReasons()).noneMatch(reason -> reason.contains("too dark"));
+        FaceQualityReport report = scorer.score(image, FaceDetectionResult.success(1, "ok", face, 0.25));
+        assertThat(report.getReasons()).anyMatch(reason -> reason.contains("too dark"));
+    }
+
+    @Test
+    void rejectsAFaceThatIsTooSmall() {
+        FaceDetectionResult detection = FaceDetectionResult.success(1, "ok", new Rect(0, 0, 160, 160), 0.01);
+
+        FaceQualityReport report = scorer.score(checkerboard(), detection);
+
+        assertThat(report.getReasons()).hasSize(1);
+        assertThat(report.getReasons().get(0)).contains("too small");
+    }
+
+    @Test
+    void clipsAFaceThatReachesPastTheImage() {
+        FaceDetectionResult detection = FaceDetectionResult.success(1, "ok", new Rect(200, 200, 160, 160), 0.25);
+
+        FaceQualityReport report = scorer.score(checkerboard(), detection);
+
+        assertThat(report.isPassed()).isTrue();
+        assertThat(FaceQualityScorer.inside(new Rect(200, 200, 160, 160), SIZE, SIZE)).isEqualTo(new Rect(200, 200, 120, 120));
+    }
+
+    @Test
+    void usesTheWholeImageWhenTheFaceIsOutsideIt() {
+        FaceDetectionResult detection = FaceDetectionResult.success(1, "ok", new Rect(400, 400, 50, 50), 0.25);
+
+        FaceQualityReport report = scorer.score(checkerboard(), detection);
+
+        assertThat(report.isPassed()).isTrue();
+        assertThat(FaceQualityScorer.inside(new Rect(400, 400, 50, 50), SIZE, SIZE)).isNull();
+    }
+}
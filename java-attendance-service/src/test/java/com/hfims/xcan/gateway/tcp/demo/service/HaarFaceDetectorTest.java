@@ -0,0 +1,31 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Rect;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HaarFaceDetectorTest {
+
+    @Test
+    void facesOnTheEdgeOfAnOddSizedImageStayInside() {
+        // 1001x999 detected at 640x639; the bottom edge maps back to row 999.4
+        int width = 1001;
+        int height = 999;
+        double scale = 640.0 / width;
+
+        Rect face = HaarFaceDetector.toSource(new Rect(400, 400, 240, 239), scale, width, height);
+
+        assertThat(face.x).isEqualTo(626);
+        assertThat(face.y).isEqualTo(626);
+        assertThat(face.x + face.width).isEqualTo(width);
+        assertThat(face.y + face.height).isEqualTo(height);
+    }
+
+    @Test
+    void mapsAnInnerFaceByTheScale() {
+        Rect face = HaarFaceDetector.toSource(new Rect(100, 50, 64, 64), 0.5, 1280, 960);
+
+        assertThat(face).isEqualTo(new Rect(200, 100, 128, 128));
+    }
+}
@@ -0,0 +1,107 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class RosterReconcilerTest {
+
+    private static final String DEVICE = "device-1";
+
+    private final DeviceRosterMirror mirror = mock(DeviceRosterMirror.class);
+    private final FacePresenceIndex facePresenceIndex = mock(FacePresenceIndex.class);
+    private final RosterReconciler reconciler = new RosterReconciler();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ReflectionTestUtils.setField(reconciler, "deviceRosterMirror", mirror);
+        ReflectionTestUtils.setField(reconciler, "facePresenceIndex", facePresenceIndex);
+        when(mirror.isAvailable()).thenReturn(true);
+        when(mirror.list(any(), eq(DEVICE), any())).thenReturn(Arrays.asList(
+                person("A", "Ann", 1),
+                person("B", "Bob", 1),
+                person("C", "Cy", 1)));
+    }
+
+    private static DeviceRosterMirror.Person person(String sn, String name, Integer verifyStyle) {
+        return new DeviceRosterMirror.Person(sn, name, verifyStyle, null, null, null, null);
+    }
+
+    private static List<String> describe(RosterReconciler.Plan plan) {
+        return plan.getChanges().stream()
+                .map(change -> change.getAction() + " " + change.getSn())
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void plansRemovalsThenUpdatesThenAdds() throws Exception {
+        List<RosterReconciler.Employee> listed = Arrays.asList(
+                new RosterReconciler.Employee("A", "Ann", 1, null),
+                new RosterReconciler.Employee("B", "Bobby", 1, null),
+                new RosterReconciler.Employee("D", "Dee", 1, null));
+
+        RosterReconciler.Plan plan = reconciler.plan(null, DEVICE, "secret", listed, true);
+
+        assertThat(describe(plan)).containsExactly("REMOVE C", "UPDATE B", "ADD D");
+        assertThat(plan.toMap()).containsEntry("unchanged", 1).containsEntry("onDevice", 3).containsEntry("listed", 3);
+    }
+
+    @Test
+    void keepsUnlistedPersonsUnlessRemovalIsAskedFor() throws Exception {
+        List<RosterReconciler.Employee> listed = Collections.singletonList(new RosterReconciler.Employee("A", "Ann", 1, null));
+
+        RosterReconciler.Plan plan = reconciler.plan(null, DEVICE, "secret", listed, false);
+
+        assertThat(plan.getChanges()).isEmpty();
+        assertThat(plan.count(RosterReconciler.Action.REMOVE)).isZero();
+    }
+
+    @Test
+    void refusesRemovalsWithAnEmptyList() throws Exception {
+        assertThatThrownBy(() -> reconciler.plan(null, DEVICE, "secret", Collections.emptyList(), true))
+                .isInstanceOf(IllegalArgumentException.class);
+        verify(mirror, never()).refresh(any(), any(), any());
+        verifyNoInteractions(facePresenceIndex);
+    }
+
+    @Test
+    void fieldsTheListLeavesOutKeepTheDeviceValues() throws Exception {
+        List<RosterReconciler.Employee> listed = Arrays.asList(
+                new RosterReconciler.Employee("A", null, null, null),
+                new RosterReconciler.Employee("B", null, 2, null));
+
+        RosterReconciler.Plan plan = reconciler.plan(null, DEVICE, "secret", listed, false);
+
+        assertThat(describe(plan)).containsExactly("UPDATE B");
+        assertThat(plan.getChanges().get(0).toMap()).containsEntry("name", "Bob").containsEntry("verifyStyle", 2);
+    }
+
+    @Test
+    void listsEmployeesWhoseFaceIsMissing() throws Exception {
+        when(facePresenceIndex.hasFace(DEVICE, "A", 1)).thenReturn(true);
+        List<RosterReconciler.Employee> listed = Arrays.asList(
+                new RosterReconciler.Employee("A", "Ann", 1, true),
+                new RosterReconciler.Employee("B", "Bob", 1, true),
+                new RosterReconciler.Employee("D", "Dee", 1, true),
+                new RosterReconciler.Employee("C", "Cy", 1, false));
+
+        RosterReconciler.Plan plan = reconciler.plan(null, DEVICE, "secret", listed, false);
+
+        assertThat(plan.toMap().get("needsFace")).isEqualTo(Arrays.asList("B", "D"));
+    }
+}
@@ -0,0 +1,60 @@
+package com.hfims.xcan.gateway.tcp.demo.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StateFileTest {
+
+    private static final TypeReference<Map<String, Integer>> TYPE = new TypeReference<Map<String, Integer>>() { };
+
+    @TempDir
+    Path stateDir;
+
+    @Test
+    void readsNothingBeforeTheFirstWrite() {
+        StateFile<Map<String, Integer>> file = new StateFile<>(stateDir.toString(), "state.json", TYPE, 60000, "test-writer",
+                Collections::emptyMap);
+        assertThat(file.read()).isNull();
+        file.close();
+    }
+
+    @Test
+    void batchesChangesIntoOneWrite() throws Exception {
+        AtomicInteger snapshots = new AtomicInteger();
+        StateFile<Map<String, Integer>> file = new StateFile<>(stateDir.toString(), "state.json", TYPE, 200, "test-writer",
+                () -> Collections.singletonMap("count", snapshots.incrementAndGet()));
+        file.changed();
+        file.changed();
+        file.changed();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (file.read() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertThat(file.read()).containsEntry("count", 1);
+        assertThat(snapshots.get()).isEqualTo(1);
+        assertThat(stateDir.resolve("state.json.tmp")).doesNotExist();
+        file.close();
+    }
+
+    @Test
+    void closeWritesAPendingChange() {
+        StateFile<Map<String, Integer>> file = new StateFile<>(stateDir.toString(), "state.json", TYPE, 60000, "test-writer",
+                () -> Collections.singletonMap("count", 7));
+        file.changed();
+        file.close();
+
+        StateFile<Map<String, Integer>> reopened = new StateFile<>(stateDir.toString(), "state.json", TYPE, 60000, "test-writer",
+                Collections::emptyMap);
+        assertThat(reopened.read()).containsEntry("count", 7);
+        reopened.close();
+    }
+}